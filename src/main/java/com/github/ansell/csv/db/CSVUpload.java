@@ -265,6 +265,9 @@ public final class CSVUpload {
                 if (types.get(i).equalsIgnoreCase("INTEGER")) {
                     stmt.setInt(i + 1, Integer.parseInt(l.get(i)));
                     continue;
+                } else if (types.get(i).equalsIgnoreCase("BIGINT")) {
+                    stmt.setLong(i + 1, Long.parseLong(l.get(i)));
+                    continue;
                 } else if (types.get(i).equalsIgnoreCase("DOUBLE")
                         || types.get(i).equalsIgnoreCase("DECIMAL")) {
                     stmt.setDouble(i + 1, Double.parseDouble(l.get(i)));
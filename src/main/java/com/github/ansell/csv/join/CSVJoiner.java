@@ -37,6 +37,9 @@ import java.nio.file.Path;
 import java.util.List;
 
 import com.github.ansell.csv.util.CSVUtil;
+import com.github.ansell.csv.util.JoinStrategy;
+import com.github.ansell.csv.util.JoinType;
+import com.github.ansell.csv.util.ProgressReporter;
 import com.github.ansell.csv.util.ValueMapping;
 
 import joptsimple.OptionException;
@@ -81,6 +84,25 @@ public final class CSVJoiner {
         final OptionSpec<Boolean> leftOuterJoin = parser.accepts("left-outer-join")
                 .withRequiredArg().ofType(Boolean.class).defaultsTo(Boolean.TRUE)
                 .describedAs("True to use left outer join and false to use a full outer join");
+        final OptionSpec<Boolean> innerJoin = parser.accepts("inner-join").withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(Boolean.FALSE).describedAs(
+                        "True to only output input lines that were joined to a line in the other input, overriding left-outer-join");
+        final OptionSpec<String> joinStrategy = parser.accepts("join-strategy").withRequiredArg()
+                .ofType(String.class).defaultsTo("hash").describedAs(
+                        "The join strategy, either hash to hold the smaller input in memory, sort-merge to sort both inputs on disk for inputs that do not fit in memory, or grace-hash to split both inputs on disk into partitions that fit in memory and join them in parallel. Only hash keeps the order of the input lines.");
+        final OptionSpec<File> spillDir = parser.accepts("spill-dir").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "The directory to write temporary files to while joining, or the default temporary directory if not specified.");
+        final OptionSpec<Long> maxMemory = parser.accepts("max-memory").withRequiredArg()
+                .ofType(Long.class).describedAs(
+                        "The maximum number of megabytes of memory to use for lines held in memory while joining, or the maximum heap size if not specified.");
+        final OptionSpec<Integer> progressInterval = parser.accepts("progress-interval")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(ProgressReporter.DEFAULT_INTERVAL_SECONDS).describedAs(
+                        "The number of seconds between progress reports to stderr or the metrics-output file, or 0 to disable progress reports.");
+        final OptionSpec<File> metricsOutput = parser.accepts("metrics-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A JSON file to write progress metrics to, instead of writing progress reports to stderr.");
 
         OptionSet options = null;
 
@@ -115,6 +137,37 @@ public final class CSVJoiner {
                     "Could not find mappng CSV file: " + mappingPath.toString());
         }
 
+        final JoinStrategy joinStrategyValue = JoinStrategy.fromString(joinStrategy.value(options));
+        final JoinType joinType;
+        if (innerJoin.value(options)) {
+            joinType = JoinType.INNER;
+        } else if (leftOuterJoin.value(options)) {
+            joinType = JoinType.LEFT_OUTER;
+        } else {
+            joinType = JoinType.FULL_OUTER;
+        }
+
+        final Path spillDirectory;
+        if (options.has(spillDir)) {
+            spillDirectory = spillDir.value(options).toPath();
+            if (!Files.isDirectory(spillDirectory)) {
+                throw new FileNotFoundException(
+                        "Could not find spill directory: " + spillDirectory.toString());
+            }
+        } else {
+            spillDirectory = null;
+        }
+        final long maxMemoryBytes;
+        if (options.has(maxMemory)) {
+            if (maxMemory.value(options) < 1) {
+                throw new IllegalArgumentException(
+                        "Max memory must be at least 1 megabyte: " + maxMemory.value(options));
+            }
+            maxMemoryBytes = maxMemory.value(options) * 1024 * 1024;
+        } else {
+            maxMemoryBytes = Runtime.getRuntime().maxMemory();
+        }
+
         final Writer writer;
         if (options.has(output)) {
             writer = Files.newBufferedWriter(output.value(options).toPath(),
@@ -124,12 +177,15 @@ public final class CSVJoiner {
         }
 
         try (final BufferedReader readerMapping = Files.newBufferedReader(mappingPath);
-                final BufferedReader readerInput = Files.newBufferedReader(inputPath);
-                final BufferedReader readerOtherInput = Files.newBufferedReader(otherInputPath);) {
+                final ProgressReporter progress = ProgressReporter.start(Files.size(inputPath),
+                        progressInterval.value(options), options.has(metricsOutput)
+                                ? metricsOutput.value(options).toPath()
+                                : null);) {
             final List<ValueMapping> map = ValueMapping.extractMappings(readerMapping);
-            CSVUtil.runJoiner(readerInput, readerOtherInput, map, writer,
-                    inputPrefix.value(options), otherPrefix.value(options),
-                    leftOuterJoin.value(options));
+            CSVUtil.runJoiner(inputPath, otherInputPath, map, writer,
+                    inputPrefix.value(options), otherPrefix.value(options), joinType,
+                    joinStrategyValue, spillDirectory, maxMemoryBytes, progress);
+            ValueMapping.getCacheStatistics(map).forEach(System.err::println);
         } finally {
             writer.close();
         }
@@ -48,6 +48,8 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import javax.script.ScriptException;
 
@@ -58,7 +60,11 @@ import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.github.ansell.csv.stream.CSVStream;
 import com.github.ansell.csv.sum.CSVSummariser;
+import com.github.ansell.csv.util.CSVChunker;
+import com.github.ansell.csv.util.ConcurrentLineMapper;
 import com.github.ansell.csv.util.LineFilteredException;
+import com.github.ansell.csv.util.MappingPlan;
+import com.github.ansell.csv.util.ProgressReporter;
 import com.github.ansell.csv.util.ValueMapping;
 import com.github.ansell.csv.util.ValueMappingContext;
 import com.github.ansell.jdefaultdict.JDefaultDict;
@@ -115,6 +121,16 @@ public final class CSVMapper {
         final OptionSpec<String> escapeCharacterOption = parser.accepts("escape-char")
                 .withRequiredArg().ofType(String.class).defaultsTo("").describedAs(
                         "RFC4180 Section 2 does not define escape characters, but some implementations use a different character to the quote character, so support for those can be enabled using this option");
+        final OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1).describedAs(
+                        "The number of threads to apply the mappings with. Mappings that use previousLine, previousMappedLine, primaryKeys, valueCounts, filteredLineNumber or mapLineConsumer are always applied on a single thread. Each thread has its own Javascript and Groovy engines, so a global variable set by a Javascript or Groovy script is only visible to the lines mapped on the same thread. Lua global variables are removed after each line.");
+        final OptionSpec<Integer> progressInterval = parser.accepts("progress-interval")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(ProgressReporter.DEFAULT_INTERVAL_SECONDS).describedAs(
+                        "The number of seconds between progress reports to stderr or the metrics-output file, or 0 to disable progress reports.");
+        final OptionSpec<File> metricsOutput = parser.accepts("metrics-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A JSON file to write progress metrics to, instead of writing progress reports to stderr.");
 
         OptionSet options = null;
 
@@ -147,6 +163,7 @@ public final class CSVMapper {
 
         final int headerLineCountInt = headerLineCount.value(options);
 
+
         // Defaults to null, with any strings in the file overriding that
         final AtomicReference<List<String>> overrideHeadersList = new AtomicReference<>();
         if (options.has(overrideHeadersFile)) {
@@ -194,8 +211,7 @@ public final class CSVMapper {
         // scratch
         writeOptions[0] = writeHeaders ? StandardOpenOption.CREATE_NEW : StandardOpenOption.APPEND;
 
-        try (final BufferedReader readerMapping = Files.newBufferedReader(mappingPath);
-                final BufferedReader readerInput = Files.newBufferedReader(inputPath);) {
+        try (final BufferedReader readerMapping = Files.newBufferedReader(mappingPath);) {
             final List<ValueMapping> map = ValueMapping.extractMappings(readerMapping);
             final List<String> outputHeaders = ValueMapping.getOutputFieldsFromList(map);
 
@@ -231,8 +247,16 @@ public final class CSVMapper {
                             new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
                 }
 
-                runMapper(readerInput, map, writer, writeHeaders, outputHeaders, overrideHeaders,
-                        headerLineCountInt, inputMapper, inputSchema);
+                try (final ProgressReporter progress = ProgressReporter.start(
+                        Files.size(inputPath), progressInterval.value(options),
+                        options.has(metricsOutput) ? metricsOutput.value(options).toPath()
+                                : null);) {
+                    runMapper(inputPath, map, writer, writeHeaders, outputHeaders,
+                            overrideHeaders, headerLineCountInt, inputMapper, inputSchema,
+                            progress, threads.value(options));
+                }
+                ValueMapping.getCacheStatistics(map).forEach(System.err::println);
+                ValueMapping.getFilterStatistics(map).forEach(System.err::println);
             } finally {
                 if (writer != null) {
                     writer.close();
@@ -245,6 +269,164 @@ public final class CSVMapper {
             boolean writeHeaders, List<String> outputHeaders, List<String> overrideHeaders,
             int headerLineCount, CsvMapper inputMapper, CsvSchema inputSchema)
             throws ScriptException, IOException {
+        runMapper((h, c) -> CSVStream.parse(input, h, c, l -> {
+        }, overrideHeaders, Collections.emptyList(), headerLineCount, inputMapper, inputSchema),
+                map, output, writeHeaders, outputHeaders, ProgressReporter.none());
+    }
+
+    /**
+     * Map the CSV file at the given {@link Path}.
+     *
+     * @param input
+     *            The input CSV file.
+     * @param map
+     *            The mappings to apply to each line.
+     * @param output
+     *            The {@link Writer} for the mapped CSV file.
+     * @param writeHeaders
+     *            True to write the output headers, and false otherwise.
+     * @param outputHeaders
+     *            The headers for the mapped CSV file.
+     * @param overrideHeaders
+     *            Headers to use instead of those in the input file, or null to
+     *            use the headers from the file.
+     * @param headerLineCount
+     *            The number of header lines in the input file.
+     * @param inputMapper
+     *            The {@link CsvMapper} to use to parse the input file.
+     * @param inputSchema
+     *            The {@link CsvSchema} for the input file.
+     * @throws ScriptException
+     *             If there is an error in a mapping script.
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runMapper(Path input, List<ValueMapping> map, Writer output,
+            boolean writeHeaders, List<String> outputHeaders,
+            List<String> overrideHeaders, int headerLineCount, CsvMapper inputMapper,
+            CsvSchema inputSchema) throws ScriptException, IOException {
+        runMapper(input, map, output, writeHeaders, outputHeaders, overrideHeaders,
+                headerLineCount, inputMapper, inputSchema, ProgressReporter.none());
+    }
+
+    /**
+     * Map the CSV file at the given {@link Path}, counting the rows and bytes
+     * that are mapped using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The input CSV file.
+     * @param map
+     *            The mappings to apply to each line.
+     * @param output
+     *            The {@link Writer} for the mapped CSV file.
+     * @param writeHeaders
+     *            True to write the output headers, and false otherwise.
+     * @param outputHeaders
+     *            The headers for the mapped CSV file.
+     * @param overrideHeaders
+     *            Headers to use instead of those in the input file, or null to
+     *            use the headers from the file.
+     * @param headerLineCount
+     *            The number of header lines in the input file.
+     * @param inputMapper
+     *            The {@link CsvMapper} to use to parse the input file.
+     * @param inputSchema
+     *            The {@link CsvSchema} for the input file.
+     * @param progress
+     *            The {@link ProgressReporter} to count rows and bytes with.
+     * @throws ScriptException
+     *             If there is an error in a mapping script.
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runMapper(Path input, List<ValueMapping> map, Writer output,
+            boolean writeHeaders, List<String> outputHeaders,
+            List<String> overrideHeaders, int headerLineCount, CsvMapper inputMapper,
+            CsvSchema inputSchema, ProgressReporter progress) throws ScriptException, IOException {
+        runMapper(input, map, output, writeHeaders, outputHeaders, overrideHeaders,
+                headerLineCount, inputMapper, inputSchema, progress, 1);
+    }
+
+    /**
+     * Map the CSV file at the given {@link Path}, applying the mappings using
+     * the given number of threads.
+     * <br>
+     * If more than one thread is requested, and
+     * {@link ValueMapping#canMapConcurrently(List)} is true for the mappings,
+     * lines are parsed on the calling thread, mapped by a pool of worker
+     * threads, and written in their original order by a separate writer
+     * thread. Otherwise each line is parsed, mapped and written in turn on
+     * the calling thread.
+     *
+     * @param input
+     *            The input CSV file.
+     * @param map
+     *            The mappings to apply to each line.
+     * @param output
+     *            The {@link Writer} for the mapped CSV file.
+     * @param writeHeaders
+     *            True to write the output headers, and false otherwise.
+     * @param outputHeaders
+     *            The headers for the mapped CSV file.
+     * @param overrideHeaders
+     *            Headers to use instead of those in the input file, or null to
+     *            use the headers from the file.
+     * @param headerLineCount
+     *            The number of header lines in the input file.
+     * @param inputMapper
+     *            The {@link CsvMapper} to use to parse the input file.
+     * @param inputSchema
+     *            The {@link CsvSchema} for the input file.
+     * @param progress
+     *            The {@link ProgressReporter} to count rows and bytes with.
+     * @param threads
+     *            The number of threads to apply the mappings with.
+     * @throws ScriptException
+     *             If there is an error in a mapping script.
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runMapper(Path input, List<ValueMapping> map, Writer output,
+            boolean writeHeaders, List<String> outputHeaders,
+            List<String> overrideHeaders, int headerLineCount, CsvMapper inputMapper,
+            CsvSchema inputSchema, ProgressReporter progress, int threads)
+            throws ScriptException, IOException {
+        final InputParser parser = (h, c) -> {
+            try (final Reader inputReader = CSVChunker.newChunkReader(input, 0,
+                    Files.size(input), progress);) {
+                CSVStream.parse(inputReader, h, c, l -> {
+                }, overrideHeaders, Collections.emptyList(), headerLineCount, inputMapper,
+                        inputSchema);
+            }
+        };
+        if (threads > 1 && ValueMapping.canMapConcurrently(map)) {
+            runMapperConcurrently(parser, map, output, writeHeaders, outputHeaders, progress,
+                    threads);
+        } else {
+            runMapper(parser, map, output, writeHeaders, outputHeaders, progress);
+        }
+    }
+
+    private static void runMapperConcurrently(InputParser parser, List<ValueMapping> map,
+            Writer output, boolean writeHeaders, List<String> outputHeaders,
+            ProgressReporter progress, int threads) throws IOException {
+        final Map<String, String> defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final CsvSchema schema = CSVStream.buildSchema(outputHeaders, writeHeaders);
+
+        try (final SequenceWriter csvWriter = CSVStream.newCSVWriter(output, schema);
+                final ConcurrentLineMapper mapper = new ConcurrentLineMapper(map, outputHeaders,
+                        defaultValues, threads, Unchecked.consumer(m -> csvWriter.write(m)));) {
+            parser.parse(h -> mapper.setInputHeaders(new ArrayList<>(h)), (h, l) -> {
+                progress.increment();
+                mapper.submit(l, Optional.empty());
+                return null;
+            });
+        }
+    }
+
+    private static void runMapper(InputParser parser, List<ValueMapping> map, Writer output,
+            boolean writeHeaders, List<String> outputHeaders, ProgressReporter progress)
+            throws ScriptException, IOException {
 
         final Map<String, String> defaultValues = ValueMapping.getDefaultValuesFromList(map);
         final CsvSchema schema = CSVStream.buildSchema(outputHeaders, writeHeaders);
@@ -260,7 +442,6 @@ public final class CSVMapper {
                     k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
             final AtomicInteger lineNumber = new AtomicInteger(0);
             final AtomicInteger filteredLineNumber = new AtomicInteger(0);
-            final long startTime = System.currentTimeMillis();
             final BiConsumer<List<String>, List<String>> mapLineConsumer = Unchecked
                     .biConsumer((l, m) -> {
                         previousLine.clear();
@@ -269,20 +450,22 @@ public final class CSVMapper {
                         previousMappedLine.addAll(m);
                         csvWriter.write(m);
                     });
-            CSVStream.parse(input, h -> inputHeaders.addAll(h), (h, l) -> {
+            // A single context is reset for each line, as the lines are
+            // mapped in order on this thread
+            final AtomicReference<ValueMappingContext> context = new AtomicReference<>();
+            parser.parse(h -> {
+                inputHeaders.addAll(h);
+                context.set(new ValueMappingContext(inputHeaders, null, previousLine,
+                        previousMappedLine, map, primaryKeys, valueCounts, 0, 0, mapLineConsumer,
+                        outputHeaders, defaultValues, Optional.empty(),
+                        MappingPlan.compile(map, inputHeaders, outputHeaders, defaultValues)));
+            }, (h, l) -> {
                 final int nextLineNumber = lineNumber.incrementAndGet();
-                if (nextLineNumber % 1000 == 0) {
-                    final double secondsSinceStart = (System.currentTimeMillis() - startTime)
-                            / 1000.0d;
-                    System.out.printf("%d\tSeconds since start: %f\tRecords per second: %f%n",
-                            nextLineNumber, secondsSinceStart, nextLineNumber / secondsSinceStart);
-                }
+                progress.increment();
                 final int nextFilteredLineNumber = filteredLineNumber.incrementAndGet();
                 try {
-                    final List<String> mapLine = ValueMapping.mapLine(new ValueMappingContext(
-                            inputHeaders, l, previousLine, previousMappedLine, map, primaryKeys,
-                            valueCounts, nextLineNumber, nextFilteredLineNumber, mapLineConsumer,
-                            outputHeaders, defaultValues, Optional.empty()));
+                    final List<String> mapLine = ValueMapping.mapLine(context.get().reset(l,
+                            nextLineNumber, nextFilteredLineNumber, Optional.empty()));
                     mapLineConsumer.accept(l, mapLine);
                 } catch (final LineFilteredException e) {
                     // Swallow line filtered exception and return null below to
@@ -296,9 +479,19 @@ public final class CSVMapper {
                     }
                 }
                 return null;
-            }, l -> {
-            }, overrideHeaders, Collections.emptyList(), headerLineCount, inputMapper, inputSchema);
+            });
         }
     }
 
+    /**
+     * Parses the input for {@link CSVMapper#runMapper}, so that both
+     * {@link Reader} and {@link Path} inputs share the same mapping code.
+     */
+    @FunctionalInterface
+    private interface InputParser {
+        void parse(Consumer<List<String>> headersCallback,
+                BiFunction<List<String>, List<String>, List<String>> lineChecker)
+                throws IOException;
+    }
+
 }
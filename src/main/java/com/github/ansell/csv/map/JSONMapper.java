@@ -30,6 +30,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
@@ -58,7 +59,10 @@ import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.github.ansell.csv.stream.CSVStream;
 import com.github.ansell.csv.stream.JSONStream;
+import com.github.ansell.csv.util.ConcurrentLineMapper;
 import com.github.ansell.csv.util.LineFilteredException;
+import com.github.ansell.csv.util.MappingPlan;
+import com.github.ansell.csv.util.ProgressReporter;
 import com.github.ansell.csv.util.ValueMapping;
 import com.github.ansell.csv.util.ValueMappingContext;
 import com.github.ansell.jdefaultdict.JDefaultDict;
@@ -99,6 +103,16 @@ public final class JSONMapper {
         final OptionSpec<Boolean> appendToExistingOption = parser.accepts("append-to-existing")
                 .withRequiredArg().ofType(Boolean.class).describedAs("Append to an existing file")
                 .defaultsTo(false);
+        final OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1).describedAs(
+                        "The number of threads to apply the mappings with. Mappings that use previousLine, previousMappedLine, primaryKeys, valueCounts, filteredLineNumber or mapLineConsumer are always applied on a single thread. Each thread has its own Javascript, Groovy and Lua engines, so a global variable set by a script is only visible to the lines mapped on the same thread.");
+        final OptionSpec<Integer> progressInterval = parser.accepts("progress-interval")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(ProgressReporter.DEFAULT_INTERVAL_SECONDS).describedAs(
+                        "The number of seconds between progress reports to stderr or the metrics-output file, or 0 to disable progress reports.");
+        final OptionSpec<File> metricsOutput = parser.accepts("metrics-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A JSON file to write progress metrics to, instead of writing progress reports to stderr.");
 
         OptionSet options = null;
 
@@ -143,8 +157,12 @@ public final class JSONMapper {
         // scratch
         writeOptions[0] = writeHeaders ? StandardOpenOption.CREATE_NEW : StandardOpenOption.APPEND;
 
-        try (final BufferedReader readerMapping = Files.newBufferedReader(mappingPath);
-                final BufferedReader readerInput = Files.newBufferedReader(inputPath);) {
+        try (final ProgressReporter progress = ProgressReporter.start(Files.size(inputPath),
+                progressInterval.value(options),
+                options.has(metricsOutput) ? metricsOutput.value(options).toPath() : null);
+                final BufferedReader readerMapping = Files.newBufferedReader(mappingPath);
+                final BufferedReader readerInput = new BufferedReader(new InputStreamReader(
+                        progress.track(Files.newInputStream(inputPath)), StandardCharsets.UTF_8));) {
             final List<ValueMapping> map = ValueMapping.extractMappings(readerMapping);
             final List<String> outputHeaders = ValueMapping.getOutputFieldsFromList(map);
 
@@ -176,7 +194,10 @@ public final class JSONMapper {
                             new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
                 }
 
-                runMapper(readerInput, map, writer, basePath, jsonMapper, writeHeaders);
+                runMapper(readerInput, map, writer, basePath, jsonMapper, writeHeaders, progress,
+                        threads.value(options));
+                ValueMapping.getCacheStatistics(map).forEach(System.err::println);
+                ValueMapping.getFilterStatistics(map).forEach(System.err::println);
             } finally {
                 if (writer != null) {
                     writer.close();
@@ -188,6 +209,75 @@ public final class JSONMapper {
     public static void runMapper(Reader input, List<ValueMapping> map, Writer output,
             JsonPointer basePath, ObjectMapper jsonMapper, boolean writeHeaders)
             throws ScriptException, IOException {
+        runMapper(input, map, output, basePath, jsonMapper, writeHeaders,
+                ProgressReporter.none());
+    }
+
+    /**
+     * Map the JSON document from the given {@link Reader} to CSV, counting the
+     * rows that are mapped using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The input JSON document.
+     * @param map
+     *            The mappings to apply to each object.
+     * @param output
+     *            The {@link Writer} for the mapped CSV file.
+     * @param basePath
+     *            The base path in the JSON document to locate the array of
+     *            objects to be mapped.
+     * @param jsonMapper
+     *            The {@link ObjectMapper} to use to parse the input.
+     * @param writeHeaders
+     *            True to write the output headers, and false otherwise.
+     * @param progress
+     *            The {@link ProgressReporter} to count rows with.
+     * @throws ScriptException
+     *             If there is an error in a mapping script.
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runMapper(Reader input, List<ValueMapping> map, Writer output,
+            JsonPointer basePath, ObjectMapper jsonMapper, boolean writeHeaders,
+            ProgressReporter progress) throws ScriptException, IOException {
+        runMapper(input, map, output, basePath, jsonMapper, writeHeaders, progress, 1);
+    }
+
+    /**
+     * Map the JSON document from the given {@link Reader} to CSV, applying the
+     * mappings using the given number of threads.
+     * <br>
+     * If more than one thread is requested, and
+     * {@link ValueMapping#canMapConcurrently(List)} is true for the mappings,
+     * objects are parsed on the calling thread, mapped by a pool of worker
+     * threads, and written in their original order by a separate writer
+     * thread.
+     *
+     * @param input
+     *            The input JSON document.
+     * @param map
+     *            The mappings to apply to each object.
+     * @param output
+     *            The {@link Writer} for the mapped CSV file.
+     * @param basePath
+     *            The base path in the JSON document to locate the array of
+     *            objects to be mapped.
+     * @param jsonMapper
+     *            The {@link ObjectMapper} to use to parse the input.
+     * @param writeHeaders
+     *            True to write the output headers, and false otherwise.
+     * @param progress
+     *            The {@link ProgressReporter} to count rows with.
+     * @param threads
+     *            The number of threads to apply the mappings with.
+     * @throws ScriptException
+     *             If there is an error in a mapping script.
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runMapper(Reader input, List<ValueMapping> map, Writer output,
+            JsonPointer basePath, ObjectMapper jsonMapper, boolean writeHeaders,
+            ProgressReporter progress, int threads) throws ScriptException, IOException {
 
         final List<String> inputHeaders = ValueMapping.getInputFieldsFromList(map);
         final List<String> outputHeaders = ValueMapping.getOutputFieldsFromList(map);
@@ -199,6 +289,27 @@ public final class JSONMapper {
                                 : Optional.of(JsonPointer.compile(nextMapping.getInputField()))));
         final CsvSchema schema = CSVStream.buildSchema(outputHeaders, writeHeaders);
         final Writer writer = output;
+        // The input headers for JSON documents are the input fields from the
+        // mappings, so the plan can be compiled before parsing
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+
+        if (threads > 1 && ValueMapping.canMapConcurrently(map)) {
+            try (final SequenceWriter csvWriter = CSVStream.newCSVWriter(writer, schema);
+                    final ConcurrentLineMapper mapper = new ConcurrentLineMapper(map,
+                            outputHeaders, defaultValues, threads,
+                            Unchecked.consumer(m -> csvWriter.write(m)));) {
+                mapper.setInputHeaders(inputHeaders);
+                JSONStream.parse(input, h -> {
+                }, (node, headers, line) -> {
+                    progress.increment();
+                    mapper.submit(line, Optional.of(node));
+                    return null;
+                }, l -> {
+                }, basePath, fieldRelativePaths, defaultValues, jsonMapper, outputHeaders);
+            }
+            return;
+        }
 
         try (final SequenceWriter csvWriter = CSVStream.newCSVWriter(writer, schema);) {
             final List<String> previousLine = new ArrayList<>();
@@ -209,7 +320,6 @@ public final class JSONMapper {
                     k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
             final AtomicInteger lineNumber = new AtomicInteger(0);
             final AtomicInteger filteredLineNumber = new AtomicInteger(0);
-            final long startTime = System.currentTimeMillis();
             final BiConsumer<List<String>, List<String>> mapLineConsumer = Unchecked
                     .biConsumer((l, m) -> {
                         previousLine.clear();
@@ -218,21 +328,19 @@ public final class JSONMapper {
                         previousMappedLine.addAll(m);
                         csvWriter.write(m);
                     });
+            // A single context is reset for each object, as the objects are
+            // mapped in order on this thread
+            final ValueMappingContext context = new ValueMappingContext(inputHeaders, null,
+                    previousLine, previousMappedLine, map, primaryKeys, valueCounts, 0, 0,
+                    mapLineConsumer, outputHeaders, defaultValues, Optional.empty(), plan);
             JSONStream.parse(input, h -> {
             }, (node, headers, line) -> {
                 final int nextLineNumber = lineNumber.incrementAndGet();
-                if (nextLineNumber % 1000 == 0) {
-                    final double secondsSinceStart = (System.currentTimeMillis() - startTime)
-                            / 1000.0d;
-                    System.out.printf("%d\tSeconds since start: %f\tRecords per second: %f%n",
-                            nextLineNumber, secondsSinceStart, nextLineNumber / secondsSinceStart);
-                }
+                progress.increment();
                 final int nextFilteredLineNumber = filteredLineNumber.incrementAndGet();
                 try {
-                    final List<String> mapLine = ValueMapping.mapLine(new ValueMappingContext(
-                            inputHeaders, line, previousLine, previousMappedLine, map, primaryKeys,
-                            valueCounts, nextLineNumber, nextFilteredLineNumber, mapLineConsumer,
-                            outputHeaders, defaultValues, Optional.of(node)));
+                    final List<String> mapLine = ValueMapping.mapLine(context.reset(line,
+                            nextLineNumber, nextFilteredLineNumber, Optional.of(node)));
                     mapLineConsumer.accept(line, mapLine);
                 } catch (final LineFilteredException e) {
                     // Swallow line filtered exception and return null below to
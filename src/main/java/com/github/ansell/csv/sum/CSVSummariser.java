@@ -37,15 +37,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 
 import org.apache.commons.io.output.NullWriter;
 
@@ -54,8 +58,9 @@ import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.github.ansell.csv.stream.CSVStream;
 import com.github.ansell.csv.stream.CSVStreamException;
+import com.github.ansell.csv.util.CSVChunker;
+import com.github.ansell.csv.util.ProgressReporter;
 import com.github.ansell.csv.util.ValueMapping;
-import com.github.ansell.jdefaultdict.JDefaultDict;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -76,6 +81,18 @@ public final class CSVSummariser {
      */
     public static final int DEFAULT_SAMPLE_COUNT = 20;
 
+    /**
+     * The default number of rows to include in the sample output file.
+     */
+    public static final int DEFAULT_SAMPLE_ROW_COUNT = 100;
+
+    /**
+     * The columns added to the summary when numeric statistics are enabled.
+     * The quantiles are estimates.
+     */
+    private static final List<String> NUMERIC_STATISTICS_COLUMNS = Collections.unmodifiableList(
+            Arrays.asList("min", "max", "mean", "variance", "sum", "p50", "p95", "p99"));
+
     /**
      * We are a streaming summariser, and do not store the raw original lines.
      * Only unique, non-empty, values are stored in the valueCounts map for
@@ -94,8 +111,12 @@ public final class CSVSummariser {
         final OptionParser parser = new OptionParser();
 
         final OptionSpec<Void> help = parser.accepts("help").forHelp();
-        final OptionSpec<File> input = parser.accepts("input").withRequiredArg().ofType(File.class)
-                .required().describedAs("The input CSV file to be summarised.");
+        final OptionSpec<File> stateInput = parser.accepts("state-input").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A summary state file, created using state-output, to merge into the summary. May be repeated.");
+        final OptionSpec<File> input = parser.accepts("input").requiredUnless("state-input")
+                .withRequiredArg().ofType(File.class)
+                .describedAs("The input CSV file to be summarised.");
         final OptionSpec<File> overrideHeadersFile = parser.accepts("override-headers-file")
                 .withRequiredArg().ofType(File.class).describedAs(
                         "A file whose first line contains the headers to use, to override those found in the file.");
@@ -128,6 +149,38 @@ public final class CSVSummariser {
         final OptionSpec<String> escapeCharacterOption = parser.accepts("escape-char")
                 .withRequiredArg().ofType(String.class).defaultsTo("").describedAs(
                         "RFC4180 Section 2 does not define escape characters, but some implementations use a different character to the quote character, so support for those can be enabled using this option");
+        final OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1).describedAs(
+                        "The number of threads to use. If more than 1, the input file is split into record-aligned chunks that are summarised in parallel.");
+        final OptionSpec<File> stateOutput = parser.accepts("state-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A file to store the summary state in, so that it can be merged with other summaries later using state-input.");
+        final OptionSpec<String> cardinalityMode = parser.accepts("cardinality-mode")
+                .withRequiredArg().ofType(String.class).defaultsTo("exact").describedAs(
+                        "Either exact, to store every unique value for each field, or approximate, to estimate the number of unique values for each field using a fixed amount of memory. Approximate mode only keeps the number of sample values given by samples.");
+        final OptionSpec<Integer> cardinalityPrecision = parser.accepts("cardinality-precision")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(HyperLogLog.DEFAULT_PRECISION).describedAs(
+                        "The precision, from 4 to 18, used for approximate cardinality. Each field uses 2^precision bytes, with a standard error of 1.04/sqrt(2^precision).");
+        final OptionSpec<String> sampleMode = parser.accepts("sample-mode").withRequiredArg()
+                .ofType(String.class).defaultsTo("first").describedAs(
+                        "Either first, to show the first sample values in sorted order, or top, to show the most frequent sample values. In approximate cardinality mode, top uses a fixed number of counters for each field, so the counts may be slightly over the true counts.");
+        final OptionSpec<Boolean> numericStatistics = parser.accepts("numeric-statistics")
+                .withRequiredArg().ofType(Boolean.class).defaultsTo(Boolean.FALSE).describedAs(
+                        "Set to true to add the min, max, mean, variance, sum, and approximate p50, p95 and p99 quantiles for numeric fields to the summary.");
+        final OptionSpec<File> sampleOutput = parser.accepts("sample-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A CSV file to write a uniform random sample of whole rows from the input to.");
+        final OptionSpec<Integer> sampleRows = parser.accepts("sample-rows").withRequiredArg()
+                .ofType(Integer.class).defaultsTo(DEFAULT_SAMPLE_ROW_COUNT)
+                .describedAs("The number of rows to include in the sample-output file.");
+        final OptionSpec<Integer> progressInterval = parser.accepts("progress-interval")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(ProgressReporter.DEFAULT_INTERVAL_SECONDS).describedAs(
+                        "The number of seconds between progress reports to stderr or the metrics-output file, or 0 to disable progress reports.");
+        final OptionSpec<File> metricsOutput = parser.accepts("metrics-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A JSON file to write progress metrics to, instead of writing progress reports to stderr.");
 
         OptionSet options = null;
 
@@ -144,12 +197,22 @@ public final class CSVSummariser {
             return;
         }
 
-        final Path inputPath = input.value(options).toPath();
-        if (!Files.exists(inputPath)) {
+        final Path inputPath = options.has(input) ? input.value(options).toPath() : null;
+        if (options.has(input) && !Files.exists(inputPath)) {
             throw new FileNotFoundException(
                     "Could not find input CSV file: " + inputPath.toString());
         }
 
+        final List<Path> stateInputPaths = new ArrayList<>();
+        for (final File nextStateInput : stateInput.values(options)) {
+            final Path nextStateInputPath = nextStateInput.toPath();
+            if (!Files.exists(nextStateInputPath)) {
+                throw new FileNotFoundException(
+                        "Could not find summary state file: " + nextStateInputPath.toString());
+            }
+            stateInputPaths.add(nextStateInputPath);
+        }
+
         final Path outputMappingPath = options.has(outputMappingTemplate)
                 ? outputMappingTemplate.value(options).toPath()
                 : null;
@@ -169,6 +232,23 @@ public final class CSVSummariser {
         final int samplesToShowInt = samplesToShow.value(options);
         final int headerLineCountInt = headerLineCount.value(options);
         final boolean debugBoolean = debug.value(options);
+        final int threadsInt = threads.value(options);
+        final SummaryState.CardinalityMode cardinalityModeValue;
+        try {
+            cardinalityModeValue = SummaryState.CardinalityMode
+                    .valueOf(cardinalityMode.value(options).toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unknown cardinality mode: " + cardinalityMode.value(options), e);
+        }
+        final SummaryState.SampleMode sampleModeValue;
+        try {
+            sampleModeValue = SummaryState.SampleMode
+                    .valueOf(sampleMode.value(options).toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unknown sample mode: " + sampleMode.value(options), e);
+        }
 
         // Defaults to null, with any strings in the file overriding that
         final AtomicReference<List<String>> overrideHeadersList = new AtomicReference<>();
@@ -210,13 +290,42 @@ public final class CSVSummariser {
             inputSchema = customSchema;
         }
 
-        try (final BufferedReader newBufferedReader = Files.newBufferedReader(inputPath);
-                final Writer mappingWriter = options.has(outputMappingTemplate)
-                        ? Files.newBufferedWriter(outputMappingPath)
-                        : NullWriter.NULL_WRITER) {
-            runSummarise(newBufferedReader, inputMapper, inputSchema, writer, mappingWriter,
-                    samplesToShowInt, showSampleCountsBoolean, debugBoolean,
-                    overrideHeadersList.get(), Collections.emptyList(), headerLineCountInt);
+        // Approximate mode needs a bound on the samples that are kept
+        final SummaryState state = new SummaryState(cardinalityModeValue,
+                cardinalityPrecision.value(options), sampleModeValue,
+                samplesToShowInt < 0 ? DEFAULT_SAMPLE_COUNT : samplesToShowInt,
+                numericStatistics.value(options),
+                options.has(sampleOutput) ? sampleRows.value(options) : 0);
+        for (final Path nextStateInputPath : stateInputPaths) {
+            state.merge(SummaryState.read(nextStateInputPath));
+        }
+        if (inputPath != null) {
+            try (final ProgressReporter progress = ProgressReporter.start(Files.size(inputPath),
+                    progressInterval.value(options), options.has(metricsOutput)
+                            ? metricsOutput.value(options).toPath()
+                            : null);) {
+                summarise(inputPath, inputMapper, inputSchema, debugBoolean,
+                        overrideHeadersList.get(), Collections.emptyList(), headerLineCountInt,
+                        threadsInt, state, progress);
+            }
+        }
+
+        if (options.has(stateOutput)) {
+            state.write(stateOutput.value(options).toPath());
+        }
+
+        try (final Writer mappingWriter = options.has(outputMappingTemplate)
+                ? Files.newBufferedWriter(outputMappingPath)
+                : NullWriter.NULL_WRITER) {
+            writeForSummarise(samplesToShowInt, state, showSampleCountsBoolean, writer,
+                    mappingWriter);
+        }
+
+        if (options.has(sampleOutput)) {
+            try (final Writer sampleWriter = Files
+                    .newBufferedWriter(sampleOutput.value(options).toPath());) {
+                writeRowSample(state, sampleWriter);
+            }
         }
     }
 
@@ -340,59 +449,267 @@ public final class CSVSummariser {
             final int maxSampleCount, final boolean showSampleCounts, final boolean debug,
             final List<String> overrideHeaders, final List<String> defaultValues,
             final int headerLineCount) throws IOException {
-        final JDefaultDict<String, AtomicInteger> emptyCounts = new JDefaultDict<>(
-                k -> new AtomicInteger());
-        final JDefaultDict<String, AtomicInteger> nonEmptyCounts = new JDefaultDict<>(
-                k -> new AtomicInteger());
-        // Default to true, and set to false if a non-integer is detected. The
-        // special case of no values being found is handled in the write method
-        // and false is used
-        final JDefaultDict<String, AtomicBoolean> possibleIntegerFields = new JDefaultDict<>(
-                k -> new AtomicBoolean(true));
-        // Default to true, and set to false if a non-double is detected. The
-        // special case of no values being found is handled in the write method
-        // and false is used
-        final JDefaultDict<String, AtomicBoolean> possibleDoubleFields = new JDefaultDict<>(
-                k -> new AtomicBoolean(true));
-        final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts = new JDefaultDict<String, JDefaultDict<String, AtomicInteger>>(
-                k -> new JDefaultDict<>(l -> new AtomicInteger()));
-        final AtomicInteger rowCount = new AtomicInteger();
-
-        final List<String> headers = parseForSummarise(input, inputMapper, inputSchema, emptyCounts,
-                nonEmptyCounts, possibleIntegerFields, possibleDoubleFields, valueCounts, rowCount,
+        final SummaryState state = parseForSummarise(input, inputMapper, inputSchema,
                 overrideHeaders, headerLineCount, defaultValues);
 
-        writeForSummarise(maxSampleCount, emptyCounts, nonEmptyCounts, possibleIntegerFields,
-                possibleDoubleFields, valueCounts, headers, rowCount, showSampleCounts, output,
-                mappingOutput);
+        writeForSummarise(maxSampleCount, state, showSampleCounts, output, mappingOutput);
+    }
+
+    /**
+     * Summarise the CSV file at the given {@link Path} and emit the summary CSV
+     * file to the output {@link Writer}, using the given number of threads.
+     * <br>
+     * If more than one thread is requested, the data records in the file are
+     * split into record-aligned chunks, each chunk is summarised separately,
+     * and the partial summaries are merged before writing. The output is the
+     * same as for a single threaded summary of the same file.
+     *
+     * @param input
+     *            The input CSV file, as a {@link Path}.
+     * @param inputMapper
+     *            The CsvMapper to use to parse the file into memory
+     * @param inputSchema
+     *            The CsvSchema to use to help the mapper parse the file into
+     *            memory
+     * @param output
+     *            The output CSV file as a {@link Writer}.
+     * @param mappingOutput
+     *            The output mapping template file as a {@link Writer}.
+     * @param maxSampleCount
+     *            The maximum number of sample values in the summary for each
+     *            field. Set to -1 to include all unique values for each field.
+     * @param showSampleCounts
+     *            Show counts next to sample values
+     * @param debug
+     *            Set to true to add debug statements.
+     * @param overrideHeaders
+     *            A list of headers to override those in the file or null to use
+     *            the headers from the file. If this is null and headerLineCount
+     *            is set to 0, an IllegalArgumentException ill be thrown.
+     * @param defaultValues
+     *            A list of default values to substitute during the summarise
+     *            process if there is no value given for the matching field in
+     *            the CSV file. The length of this list must either be 0 or the
+     *            same as the number of fields.
+     * @param headerLineCount
+     *            The number of header lines to expect
+     * @param threads
+     *            The number of threads to use to summarise the file
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runSummarise(final Path input, final CsvMapper inputMapper,
+            final CsvSchema inputSchema, final Writer output, final Writer mappingOutput,
+            final int maxSampleCount, final boolean showSampleCounts, final boolean debug,
+            final List<String> overrideHeaders, final List<String> defaultValues,
+            final int headerLineCount, final int threads) throws IOException {
+        final SummaryState state = summarise(input, inputMapper, inputSchema, debug,
+                overrideHeaders, defaultValues, headerLineCount, threads);
+
+        writeForSummarise(maxSampleCount, state, showSampleCounts, output, mappingOutput);
+    }
+
+    /**
+     * Summarise the CSV file at the given {@link Path}, using the given number
+     * of threads, and return the {@link SummaryState} so that it can be merged
+     * with other summaries before it is written out.
+     *
+     * @param input
+     *            The input CSV file, as a {@link Path}.
+     * @param inputMapper
+     *            The CsvMapper to use to parse the file into memory
+     * @param inputSchema
+     *            The CsvSchema to use to help the mapper parse the file into
+     *            memory
+     * @param debug
+     *            Set to true to add debug statements.
+     * @param overrideHeaders
+     *            A list of headers to override those in the file or null to use
+     *            the headers from the file. If this is null and headerLineCount
+     *            is set to 0, an IllegalArgumentException ill be thrown.
+     * @param defaultValues
+     *            A list of default values to substitute during the summarise
+     *            process if there is no value given for the matching field in
+     *            the CSV file. The length of this list must either be 0 or the
+     *            same as the number of fields.
+     * @param headerLineCount
+     *            The number of header lines to expect
+     * @param threads
+     *            The number of threads to use to summarise the file
+     * @return The summary of the file.
+     * @throws IOException
+     *             If there is an error reading.
+     */
+    public static SummaryState summarise(final Path input, final CsvMapper inputMapper,
+            final CsvSchema inputSchema, final boolean debug, final List<String> overrideHeaders,
+            final List<String> defaultValues, final int headerLineCount, final int threads)
+            throws IOException {
+        return summarise(input, inputMapper, inputSchema, debug, overrideHeaders, defaultValues,
+                headerLineCount, threads, new SummaryState());
+    }
+
+    /**
+     * Summarise the CSV file at the given {@link Path} into the given
+     * {@link SummaryState}, using the given number of threads. When more than
+     * one thread is used, each chunk is summarised into an empty state created
+     * using {@link SummaryState#newEmptyState()}, so the chunks use the same
+     * settings as the given state.
+     *
+     * @param input
+     *            The input CSV file, as a {@link Path}.
+     * @param inputMapper
+     *            The CsvMapper to use to parse the file into memory
+     * @param inputSchema
+     *            The CsvSchema to use to help the mapper parse the file into
+     *            memory
+     * @param debug
+     *            Set to true to add debug statements.
+     * @param overrideHeaders
+     *            A list of headers to override those in the file or null to use
+     *            the headers from the file. If this is null and headerLineCount
+     *            is set to 0, an IllegalArgumentException ill be thrown.
+     * @param defaultValues
+     *            A list of default values to substitute during the summarise
+     *            process if there is no value given for the matching field in
+     *            the CSV file. The length of this list must either be 0 or the
+     *            same as the number of fields.
+     * @param headerLineCount
+     *            The number of header lines to expect
+     * @param threads
+     *            The number of threads to use to summarise the file
+     * @param state
+     *            The {@link SummaryState} to add the summary of the file to.
+     * @return The given state, after the file has been added to it.
+     * @throws IOException
+     *             If there is an error reading.
+     */
+    public static SummaryState summarise(final Path input, final CsvMapper inputMapper,
+            final CsvSchema inputSchema, final boolean debug, final List<String> overrideHeaders,
+            final List<String> defaultValues, final int headerLineCount, final int threads,
+            final SummaryState state) throws IOException {
+        return summarise(input, inputMapper, inputSchema, debug, overrideHeaders, defaultValues,
+                headerLineCount, threads, state, ProgressReporter.none());
+    }
+
+    /**
+     * Summarise the CSV file at the given {@link Path} into the given
+     * {@link SummaryState}, using the given number of threads, and counting
+     * the rows and bytes that are parsed using the given
+     * {@link ProgressReporter}.
+     *
+     * @param input
+     *            The input CSV file, as a {@link Path}.
+     * @param inputMapper
+     *            The CsvMapper to use to parse the file into memory
+     * @param inputSchema
+     *            The CsvSchema to use to help the mapper parse the file into
+     *            memory
+     * @param debug
+     *            Set to true to add debug statements.
+     * @param overrideHeaders
+     *            A list of headers to override those in the file or null to use
+     *            the headers from the file. If this is null and headerLineCount
+     *            is set to 0, an IllegalArgumentException ill be thrown.
+     * @param defaultValues
+     *            A list of default values to substitute during the summarise
+     *            process if there is no value given for the matching field in
+     *            the CSV file. The length of this list must either be 0 or the
+     *            same as the number of fields.
+     * @param headerLineCount
+     *            The number of header lines to expect
+     * @param threads
+     *            The number of threads to use to summarise the file
+     * @param state
+     *            The {@link SummaryState} to add the summary of the file to.
+     * @param progress
+     *            The {@link ProgressReporter} to count rows and bytes with.
+     * @return The given state, after the file has been added to it.
+     * @throws IOException
+     *             If there is an error reading.
+     */
+    public static SummaryState summarise(final Path input, final CsvMapper inputMapper,
+            final CsvSchema inputSchema, final boolean debug, final List<String> overrideHeaders,
+            final List<String> defaultValues, final int headerLineCount, final int threads,
+            final SummaryState state, final ProgressReporter progress) throws IOException {
+        if (threads <= 1) {
+            try (final Reader inputReader = CSVChunker.newChunkReader(input, 0,
+                    Files.size(input), progress);) {
+                CSVStream.parse(inputReader, h -> state.addFields(h),
+                        getSummaryFunction(state, progress), NULL_CONSUMER, overrideHeaders,
+                        defaultValues, headerLineCount, inputMapper, inputSchema);
+            }
+            return state;
+        }
+
+        final long[] boundaries = CSVChunker.findRecordBoundaries(input, threads,
+                headerLineCount, inputMapper, inputSchema);
+        if (debug) {
+            System.out.println("Summarising " + (boundaries.length - 1) + " chunks using "
+                    + threads + " threads: " + Arrays.toString(boundaries));
+        }
+
+        final List<String> headers = new ArrayList<>();
+        if (overrideHeaders != null) {
+            headers.addAll(overrideHeaders);
+        } else {
+            try (final Reader headerReader = CSVChunker.newChunkReader(input, 0, boundaries[0],
+                    progress);) {
+                CSVStream.parse(headerReader, h -> headers.addAll(h), (h, l) -> l,
+                        NULL_CONSUMER, overrideHeaders, defaultValues, headerLineCount,
+                        inputMapper, inputSchema);
+            }
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<SummaryState>> partials = new ArrayList<>(boundaries.length);
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                final long chunkStart = boundaries[i];
+                final long chunkEnd = boundaries[i + 1];
+                partials.add(executor.submit(() -> {
+                    final SummaryState partial = state.newEmptyState();
+                    // The headers were parsed above, so they are substituted
+                    // here without skipping any lines
+                    try (final Reader chunkReader = CSVChunker.newChunkReader(input, chunkStart,
+                            chunkEnd, progress);) {
+                        CSVStream.parse(chunkReader, h -> partial.addFields(h),
+                                getSummaryFunction(partial, progress), NULL_CONSUMER, headers,
+                                defaultValues, 0, inputMapper, inputSchema);
+                    }
+                    return partial;
+                }));
+            }
+
+            // Merge in chunk order
+            state.addFields(headers);
+            for (final Future<SummaryState> nextPartial : partials) {
+                state.merge(nextPartial.get());
+            }
+            return state;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while summarising: " + input, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to summarise: " + input, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     /**
      * Writes summary values and a stub mapping file based on the given
-     * {@link JDefaultDict}s.
+     * {@link SummaryState}.
      *
      * @param maxSampleCount
      *            The maximum number of samples to write out
-     * @param emptyCounts
-     *            A {@link JDefaultDict} containing the empty counts for each
+     * @param state
+     *            The {@link SummaryState} containing the statistics for each
      *            field
-     * @param nonEmptyCounts
-     *            A {@link JDefaultDict} containing the non-empty counts for
-     *            each field
-     * @param possibleIntegerFields
-     *            A {@link JDefaultDict} containing true if the field is
-     *            possibly integer and false otherwise
-     * @param possibleDoubleFields
-     *            A {@link JDefaultDict} containing true if the field is
-     *            possibly double and false otherwise
-     * @param valueCounts
-     *            A {@link JDefaultDict} containing values for each field and
-     *            attached counts
-     * @param headers
-     *            The headers that were either given or substituted
-     * @param rowCount
-     *            The total row count from the input file, used to determine if
-     *            the number of unique values matches the total number of rows
      * @param showSampleCounts
      *            True to attach sample counts to the sample output, and false
      *            to omit it
@@ -403,18 +720,12 @@ public final class CSVSummariser {
      * @throws IOException
      *             If there is an error writing
      */
-    static void writeForSummarise(final int maxSampleCount,
-            final JDefaultDict<String, AtomicInteger> emptyCounts,
-            final JDefaultDict<String, AtomicInteger> nonEmptyCounts,
-            final JDefaultDict<String, AtomicBoolean> possibleIntegerFields,
-            final JDefaultDict<String, AtomicBoolean> possibleDoubleFields,
-            final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts,
-            final List<String> headers, final AtomicInteger rowCount,
+    public static void writeForSummarise(final int maxSampleCount, final SummaryState state,
             final boolean showSampleCounts, final Writer output, final Writer mappingOutput)
             throws IOException {
         // This schema defines the fields and order for the columns in the
         // summary CSV file
-        final CsvSchema summarySchema = getSummaryCsvSchema();
+        final CsvSchema summarySchema = getSummaryCsvSchema(state.isNumericStatisticsEnabled());
         final CsvSchema mappingSchema = getMappingCsvSchema();
 
         // Shared StringBuilder across fields for efficiency
@@ -439,51 +750,66 @@ public final class CSVSummariser {
                 final SequenceWriter mappingWriter = CSVStream.newCSVWriter(mappingOutput,
                         mappingSchema);) {
             // Need to do this to get the header line written out in this case
-            if (rowCount.get() == 0) {
+            if (state.getRowCount() == 0) {
                 csvWriter.write(Arrays.asList());
                 mappingWriter.write(Arrays.asList());
             }
-            headers.forEach(nextHeader -> {
+            state.getFieldNames().forEach(nextHeader -> {
                 try {
-                    final int emptyCount = emptyCounts.get(nextHeader).get();
-                    final int nonEmptyCount = nonEmptyCounts.get(nextHeader).get();
-                    final JDefaultDict<String, AtomicInteger> nextValueCount = valueCounts
-                            .get(nextHeader);
-                    final int valueCount = nextValueCount.keySet().size();
-                    final boolean possiblePrimaryKey = valueCount == nonEmptyCount
-                            && valueCount == rowCount.get();
-
-                    boolean possiblyInteger = false;
-                    boolean possiblyDouble = false;
+                    final FieldSummary nextField = state.getField(nextHeader);
+                    final long emptyCount = nextField.getEmptyCount();
+                    final long nonEmptyCount = nextField.getNonEmptyCount();
+                    final long valueCount = nextField.getUniqueValueCount();
+                    final boolean possiblePrimaryKey = nextField.isPossiblePrimaryKey();
+
                     // Only expose our numeric type guess if non-empty values
                     // found
-                    // This is important, as it should default to true unless
-                    // evidence to the contrary is found, with the total number
-                    // of observations,
-                    // when equal to 0, being used to identify the false
-                    // positive cases
-                    if (nonEmptyCount > 0) {
-                        possiblyInteger = possibleIntegerFields.get(nextHeader).get();
-                        possiblyDouble = possibleDoubleFields.get(nextHeader).get();
-                    }
+                    final boolean possiblyInteger = nextField.isPossiblyInteger();
+                    final boolean possiblyLong = nextField.isPossiblyLong();
+                    final boolean possiblyBigDecimal = nextField.isPossiblyBigDecimal();
+                    final boolean possiblyDouble = nextField.isPossiblyDouble();
 
-                    final Stream<String> stream = nextValueCount.keySet().stream();
-                    if (maxSampleCount > 0) {
-                        stream.limit(maxSampleCount).sorted().forEach(
-                                s -> sampleHandler.accept(s, nextValueCount.get(s).toString()));
-                        if (valueCount > maxSampleCount) {
+                    if (maxSampleCount != 0
+                            && state.getSampleMode() == SummaryState.SampleMode.TOP) {
+                        nextField.getTopValues(maxSampleCount).forEach(s -> sampleHandler
+                                .accept(s, Long.toString(nextField.getValueCount(s))));
+                        if ((maxSampleCount > 0 && nextField.getValues().size() > maxSampleCount)
+                                || nextField.isValuesTruncated()) {
+                            sharedSampleValueBuilder.append(", ...");
+                        }
+                    } else if (maxSampleCount > 0) {
+                        // Choose the first values in sorted order, so the
+                        // samples do not depend on the hash order of the
+                        // values, which varies with the order they were added
+                        getFirstSortedValues(nextField.getValues(), maxSampleCount)
+                                .forEach(s -> sampleHandler.accept(s,
+                                        Long.toString(nextField.getValueCount(s))));
+                        if (nextField.getValues().size() > maxSampleCount
+                                || nextField.isValuesTruncated()) {
                             sharedSampleValueBuilder.append(", ...");
                         }
                     } else if (maxSampleCount < 0) {
-                        stream.sorted().forEach(
-                                s -> sampleHandler.accept(s, nextValueCount.get(s).toString()));
+                        nextField.getValues().stream().sorted().forEach(s -> sampleHandler
+                                .accept(s, Long.toString(nextField.getValueCount(s))));
+                        if (nextField.isValuesTruncated()) {
+                            sharedSampleValueBuilder.append(", ...");
+                        }
                     }
 
-                    csvWriter.write(Arrays.asList(nextHeader, emptyCount, nonEmptyCount, valueCount,
-                            possiblePrimaryKey, possiblyInteger, possiblyDouble,
-                            sharedSampleValueBuilder));
+                    final List<Object> nextRow = new ArrayList<>(Arrays.asList(nextHeader,
+                            emptyCount, nonEmptyCount, valueCount, possiblePrimaryKey,
+                            possiblyInteger, possiblyDouble, sharedSampleValueBuilder,
+                            possiblyLong, possiblyBigDecimal));
+                    if (state.isNumericStatisticsEnabled()) {
+                        // Statistics are only shown if every value was numeric
+                        final NumericStatistics statistics = possiblyDouble
+                                ? nextField.getNumericStatistics()
+                                : null;
+                        addNumericStatistics(statistics, nextRow);
+                    }
+                    csvWriter.write(nextRow);
                     final String mappingFieldType = possiblyInteger ? "INTEGER"
-                            : possiblyDouble ? "DECIMAL" : "TEXT";
+                            : possiblyLong ? "BIGINT" : possiblyDouble ? "DECIMAL" : "TEXT";
                     mappingWriter.write(Arrays.asList(nextHeader, nextHeader, "",
                             ValueMapping.ValueMappingLanguage.DBSCHEMA.name(), mappingFieldType));
                 } catch (final Exception e) {
@@ -498,7 +824,100 @@ public final class CSVSummariser {
     }
 
     /**
-     * Parse the given inputs to in-memory maps to allow for summarisation.
+     * Writes the sample of rows from the given {@link SummaryState} as a CSV
+     * file, using the fields from the summary as the headers.
+     *
+     * @param state
+     *            The {@link SummaryState} containing the sample of rows
+     * @param output
+     *            The {@link Writer} to contain the sample of rows
+     * @throws IOException
+     *             If there is an error writing
+     */
+    public static void writeRowSample(final SummaryState state, final Writer output)
+            throws IOException {
+        final List<List<String>> rows = state.getRowSample();
+        try (final SequenceWriter csvWriter = CSVStream.newCSVWriter(output,
+                state.getFieldNames());) {
+            // Need to do this to get the header line written out in this case
+            if (rows.isEmpty()) {
+                csvWriter.write(Arrays.asList());
+            }
+            for (final List<String> nextRow : rows) {
+                csvWriter.write(nextRow);
+            }
+        }
+    }
+
+    /**
+     * Add the numeric statistics columns, in the order used by
+     * {@link #getSummaryCsvSchema(boolean)}, to the given row.
+     *
+     * @param statistics
+     *            The statistics for the field, or null to add empty values
+     * @param row
+     *            The row to add the statistics to
+     */
+    private static void addNumericStatistics(final NumericStatistics statistics,
+            final List<Object> row) {
+        if (statistics == null || statistics.getCount() == 0) {
+            for (int i = 0; i < NUMERIC_STATISTICS_COLUMNS.size(); i++) {
+                row.add("");
+            }
+            return;
+        }
+        row.add(formatStatistic(statistics.getMinimum()));
+        row.add(formatStatistic(statistics.getMaximum()));
+        row.add(formatStatistic(statistics.getMean()));
+        row.add(formatStatistic(statistics.getVariance()));
+        row.add(formatStatistic(statistics.getSum()));
+        for (final double nextQuantile : statistics.getQuantiles(0.5, 0.95, 0.99)) {
+            row.add(formatStatistic(nextQuantile));
+        }
+    }
+
+    /**
+     * Whole numbers are formatted without a decimal point, so that statistics
+     * for integer fields look like the values in the field.
+     */
+    private static String formatStatistic(final double value) {
+        if (Double.isNaN(value)) {
+            return "";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Select the given number of values from the start of the natural sort
+     * order of the values, without sorting all of the values.
+     *
+     * @param values
+     *            The values to select from
+     * @param limit
+     *            The maximum number of values to return
+     * @return A sorted list containing at most limit values
+     */
+    static List<String> getFirstSortedValues(final Collection<String> values, final int limit) {
+        // Max-heap containing the smallest values seen so far
+        final PriorityQueue<String> smallest = new PriorityQueue<>(limit + 1,
+                Collections.reverseOrder());
+        for (final String nextValue : values) {
+            if (smallest.size() < limit) {
+                smallest.add(nextValue);
+            } else if (nextValue.compareTo(smallest.peek()) < 0) {
+                smallest.poll();
+                smallest.add(nextValue);
+            }
+        }
+        final List<String> result = new ArrayList<>(smallest);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Parse the given inputs into a {@link SummaryState}.
      *
      * @param input
      *            The {@link Reader} containing the inputs to be summarised.
@@ -507,24 +926,6 @@ public final class CSVSummariser {
      * @param inputSchema
      *            The CsvSchema to use to help the mapper parse the file into
      *            memory
-     * @param emptyCounts
-     *            A {@link JDefaultDict} to be populated with empty counts for
-     *            each field
-     * @param nonEmptyCounts
-     *            A {@link JDefaultDict} to be populated with non-empty counts
-     *            for each field
-     * @param possibleIntegerFields
-     *            A {@link JDefaultDict} to be populated with false if a
-     *            non-integer value is detected in a field
-     * @param possibleDoubleFields
-     *            A {@link JDefaultDict} to be populated with false if a
-     *            non-double value is detected in a field
-     * @param valueCounts
-     *            A {@link JDefaultDict} to be populated with false if a
-     *            non-integer value is detected in a field
-     * @param rowCount
-     *            An {@link AtomicInteger} used to track the total number of
-     *            rows processed.
      * @param overrideHeaders
      *            Headers to use to override those in the file, or null to rely
      *            on the headers from the file
@@ -538,94 +939,23 @@ public final class CSVSummariser {
      *            empty/missing, and a non-null, non-empty value appears in this
      *            list, it will be substituted in when calculating the
      *            statistics.
-     * @return The list of headers that were either overridden or found in the
-     *         file
+     * @return The summary of the input, containing the headers that were either
+     *         overridden or found in the file
      * @throws IOException
      *             If there is an error reading from the file
      * @throws CSVStreamException
      *             If there is a problem processing the CSV content
      */
-    static List<String> parseForSummarise(final Reader input, final CsvMapper inputMapper,
-            final CsvSchema inputSchema, final JDefaultDict<String, AtomicInteger> emptyCounts,
-            final JDefaultDict<String, AtomicInteger> nonEmptyCounts,
-            final JDefaultDict<String, AtomicBoolean> possibleIntegerFields,
-            final JDefaultDict<String, AtomicBoolean> possibleDoubleFields,
-            final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts,
-            final AtomicInteger rowCount, final List<String> overrideHeaders,
-            final int headerLineCount, List<String> defaultValues)
+    static SummaryState parseForSummarise(final Reader input, final CsvMapper inputMapper,
+            final CsvSchema inputSchema, final List<String> overrideHeaders,
+            final int headerLineCount, final List<String> defaultValues)
             throws IOException, CSVStreamException {
-        final long startTime = System.currentTimeMillis();
-        final BiFunction<List<String>, List<String>, List<String>> summariseFunction = getSummaryFunctionWithStartTime(
-                emptyCounts, nonEmptyCounts, possibleIntegerFields, possibleDoubleFields,
-                valueCounts, rowCount, startTime);
-        return parseForSummarise(input, inputMapper, inputSchema, overrideHeaders, headerLineCount,
-                defaultValues, summariseFunction);
-    }
-
-    /**
-     * Returns a function that can be used as a summary function, using the
-     * given start time for timing analysis.
-     *
-     * @param emptyCounts
-     *            A {@link JDefaultDict} used to store counts of non-empty
-     *            fields, based on {@link String#trim()} and
-     *            {@link String#isEmpty()}.
-     * @param nonEmptyCounts
-     *            A {@link JDefaultDict} used to store counts of non-empty
-     *            fields, based on {@link String#trim()} and
-     *            {@link String#isEmpty()}.
-     * @param possibleIntegerFields
-     *            A {@link JDefaultDict} used to store possible integer fields
-     * @param possibleDoubleFields
-     *            A {@link JDefaultDict} used to store possible double fields
-     * @param valueCounts
-     *            A {@link JDefaultDict} used to store value counts
-     * @param rowCount
-     *            The row count variable
-     * @param startTime
-     *            The start time reference, obtained using
-     *            {@link System#currentTimeMillis()}, for the timing analysis.
-     * @return A function which can be passed to
-     *         {@link #parseForSummarise(Reader, CsvMapper, CsvSchema, List, int, List, BiFunction)}
-     */
-    public static BiFunction<List<String>, List<String>, List<String>> getSummaryFunctionWithStartTime(
-            final JDefaultDict<String, AtomicInteger> emptyCounts,
-            final JDefaultDict<String, AtomicInteger> nonEmptyCounts,
-            final JDefaultDict<String, AtomicBoolean> possibleIntegerFields,
-            final JDefaultDict<String, AtomicBoolean> possibleDoubleFields,
-            final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts,
-            final AtomicInteger rowCount, final long startTime) {
-        return (h, l) -> {
-            final int nextLineNumber = rowCount.incrementAndGet();
-            if (nextLineNumber % 10000 == 0) {
-                final double secondsSinceStart = (System.currentTimeMillis() - startTime) / 1000.0d;
-                System.out.printf("%d\tSeconds since start: %f\tRecords per second: %f%n",
-                        nextLineNumber, secondsSinceStart, nextLineNumber / secondsSinceStart);
-            }
-            for (int i = 0; i < h.size(); i++) {
-                if (l.get(i).trim().isEmpty()) {
-                    emptyCounts.get(h.get(i)).incrementAndGet();
-                } else {
-                    nonEmptyCounts.get(h.get(i)).incrementAndGet();
-                    valueCounts.get(h.get(i)).get(l.get(i)).incrementAndGet();
-                    try {
-                        Integer.parseInt(l.get(i));
-                    } catch (final NumberFormatException nfe) {
-                        possibleIntegerFields.get(h.get(i)).set(false);
-                    }
-                    try {
-                        Double.parseDouble(l.get(i));
-                    } catch (final NumberFormatException nfe) {
-                        possibleDoubleFields.get(h.get(i)).set(false);
-                    }
-                }
-            }
-            return l;
-        };
+        return parseForSummarise(input, inputMapper, inputSchema, overrideHeaders,
+                headerLineCount, defaultValues, new SummaryState());
     }
 
     /**
-     * Parse the given inputs to in-memory maps to allow for summarisation.
+     * Parse the given inputs into the given {@link SummaryState}.
      *
      * @param input
      *            The {@link Reader} containing the inputs to be summarised.
@@ -643,31 +973,44 @@ public final class CSVSummariser {
      * @param defaultValues
      *            A list that is either empty, signifying there are no default
      *            values known, or exactly the same length as each row in the
-     *            CSV file being parsed. If the values for a field are
-     *            empty/missing, and a non-null, non-empty value appears in this
-     *            list, it will be substituted in when calculating the
-     *            statistics.
-     * @param summariseFunction
-     *            The function which will perform the summarisation
-     * @return The list of headers that were either overridden or found in the
-     *         file
+     *            CSV file being parsed.
+     * @param state
+     *            The {@link SummaryState} to add the statistics to.
+     * @return The given state, after the input has been added to it
      * @throws IOException
      *             If there is an error reading from the file
      * @throws CSVStreamException
      *             If there is a problem processing the CSV content
      */
-    private static List<String> parseForSummarise(final Reader input, final CsvMapper inputMapper,
+    static SummaryState parseForSummarise(final Reader input, final CsvMapper inputMapper,
             final CsvSchema inputSchema, final List<String> overrideHeaders,
-            final int headerLineCount, List<String> defaultValues,
-            BiFunction<List<String>, List<String>, List<String>> summariseFunction)
-            throws IOException, CSVStreamException {
-        // This will be populated with whatever is recognised as the headers
-        // when the
-        // input is parsed, so we can return it from this function
-        final List<String> headers = new ArrayList<>();
-        CSVStream.parse(input, h -> headers.addAll(h), summariseFunction, NULL_CONSUMER,
+            final int headerLineCount, final List<String> defaultValues,
+            final SummaryState state) throws IOException, CSVStreamException {
+        CSVStream.parse(input, h -> state.addFields(h),
+                getSummaryFunction(state, ProgressReporter.none()), NULL_CONSUMER,
                 overrideHeaders, defaultValues, headerLineCount, inputMapper, inputSchema);
-        return headers;
+        return state;
+    }
+
+    /**
+     * Returns a function that can be used as a summary function, counting
+     * each row using the given {@link ProgressReporter}.
+     *
+     * @param state
+     *            The {@link SummaryState} used to store the statistics for
+     *            each field
+     * @param progress
+     *            The {@link ProgressReporter} to count rows with.
+     * @return A function which can be passed to
+     *         {@link CSVStream#parse(Reader, java.util.function.Consumer, BiFunction, java.util.function.Consumer, List, List, int, CsvMapper, CsvSchema)}
+     */
+    public static BiFunction<List<String>, List<String>, List<String>> getSummaryFunction(
+            final SummaryState state, final ProgressReporter progress) {
+        return (h, l) -> {
+            state.addRow(h, l);
+            progress.increment();
+            return l;
+        };
     }
 
     /**
@@ -675,15 +1018,34 @@ public final class CSVSummariser {
      *         results file
      */
     public static CsvSchema getSummaryCsvSchema() {
-        final CsvSchema summarySchema = CsvSchema.builder().addColumn("fieldName")
+        return getSummaryCsvSchema(false);
+    }
+
+    /**
+     * @param numericStatistics
+     *            True to include the numeric statistics columns
+     * @return A {@link CsvSchema} representing the fields in the summary
+     *         results
+     */
+    public static CsvSchema getSummaryCsvSchema(final boolean numericStatistics) {
+        final CsvSchema.Builder summarySchema = CsvSchema.builder().addColumn("fieldName")
                 .addColumn("emptyCount", CsvSchema.ColumnType.NUMBER)
                 .addColumn("nonEmptyCount", CsvSchema.ColumnType.NUMBER)
                 .addColumn("uniqueValueCount", CsvSchema.ColumnType.NUMBER)
                 .addColumn("possiblePrimaryKey", CsvSchema.ColumnType.BOOLEAN)
                 .addColumn("possiblyInteger", CsvSchema.ColumnType.BOOLEAN)
                 .addColumn("possiblyFloatingPoint", CsvSchema.ColumnType.BOOLEAN)
-                .addColumn("sampleValues").setUseHeader(true).build();
-        return summarySchema;
+                .addColumn("sampleValues")
+                // Columns added since are after sampleValues, so the earlier
+                // columns keep their positions
+                .addColumn("possiblyLong", CsvSchema.ColumnType.BOOLEAN)
+                .addColumn("possiblyBigDecimal", CsvSchema.ColumnType.BOOLEAN);
+        if (numericStatistics) {
+            for (final String nextColumn : NUMERIC_STATISTICS_COLUMNS) {
+                summarySchema.addColumn(nextColumn);
+            }
+        }
+        return summarySchema.setUseHeader(true).build();
     }
 
     /**
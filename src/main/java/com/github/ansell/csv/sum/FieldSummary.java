@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A view of the summary statistics for a single field in a
+ * {@link SummaryState}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class FieldSummary {
+
+    private final SummaryState state;
+    private final int column;
+
+    FieldSummary(final SummaryState state, final int column) {
+        this.state = state;
+        this.column = column;
+    }
+
+    /**
+     * @return The name of the field.
+     */
+    public String getFieldName() {
+        return state.getFieldName(column);
+    }
+
+    /**
+     * @return The number of empty values for the field, based on
+     *         {@link String#trim()} and {@link String#isEmpty()}.
+     */
+    public long getEmptyCount() {
+        return state.getEmptyCount(column);
+    }
+
+    /**
+     * @return The number of non-empty values for the field.
+     */
+    public long getNonEmptyCount() {
+        return state.getNonEmptyCount(column);
+    }
+
+    /**
+     * @return The number of unique non-empty values for the field, which is an
+     *         estimate if the summary uses
+     *         {@link SummaryState.CardinalityMode#APPROXIMATE} mode.
+     */
+    public long getUniqueValueCount() {
+        return state.getUniqueValueCount(column);
+    }
+
+    /**
+     * @return True if the field had a non-empty and unique value in every row.
+     *         If the summary uses
+     *         {@link SummaryState.CardinalityMode#APPROXIMATE} mode, the number
+     *         of unique values only needs to be within the expected error of
+     *         the estimate.
+     */
+    public boolean isPossiblePrimaryKey() {
+        return state.isPossiblePrimaryKey(column);
+    }
+
+    /**
+     * @return True if non-empty values were found for the field and all of
+     *         them could be parsed as integers.
+     */
+    public boolean isPossiblyInteger() {
+        return state.isPossibly(column, NumericScanner.INTEGER);
+    }
+
+    /**
+     * @return True if non-empty values were found for the field and all of
+     *         them could be parsed as longs.
+     */
+    public boolean isPossiblyLong() {
+        return state.isPossibly(column, NumericScanner.LONG);
+    }
+
+    /**
+     * @return True if non-empty values were found for the field and all of
+     *         them could be parsed as {@link java.math.BigDecimal}s.
+     */
+    public boolean isPossiblyBigDecimal() {
+        return state.isPossibly(column, NumericScanner.BIG_DECIMAL);
+    }
+
+    /**
+     * @return True if non-empty values were found for the field and all of
+     *         them could be parsed as doubles.
+     */
+    public boolean isPossiblyDouble() {
+        return state.isPossibly(column, NumericScanner.DOUBLE);
+    }
+
+    /**
+     * @return The statistics for the numeric values in the field, or null if
+     *         numeric statistics were not enabled for the summary. The
+     *         statistics only include all of the values in the field if
+     *         {@link #isPossiblyDouble()} is true.
+     */
+    public NumericStatistics getNumericStatistics() {
+        return state.getNumericStatistics(column);
+    }
+
+    /**
+     * @return The unique non-empty values for the field. If the summary uses
+     *         {@link SummaryState.CardinalityMode#APPROXIMATE} mode, only the
+     *         smallest values in sorted order are available.
+     */
+    public Set<String> getValues() {
+        return state.getValues(column);
+    }
+
+    /**
+     * @param limit
+     *            The maximum number of values to return, or -1 to return all of
+     *            the available values.
+     * @return The most frequent non-empty values for the field, in descending
+     *         order of their counts, with ties in ascending order of the
+     *         values. If the summary uses
+     *         {@link SummaryState.CardinalityMode#APPROXIMATE} mode, the counts
+     *         may be over the true counts by a bounded amount.
+     */
+    public List<String> getTopValues(final int limit) {
+        return state.getTopValues(column, limit);
+    }
+
+    /**
+     * @return True if some of the unique non-empty values for the field were
+     *         not kept, and hence are missing from {@link #getValues()}.
+     */
+    public boolean isValuesTruncated() {
+        return state.isValuesTruncated(column);
+    }
+
+    /**
+     * @param value
+     *            A value for the field.
+     * @return The number of times the value was found in the field, or 0 if
+     *         the value was not found or was not kept.
+     */
+    public long getValueCount(final String value) {
+        return state.getValueCount(column, value);
+    }
+}
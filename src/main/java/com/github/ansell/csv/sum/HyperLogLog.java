@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values that
+ * were added to it using a fixed amount of memory.
+ * <br>
+ * A sketch with precision p uses 2^p bytes, and has a relative standard error
+ * of approximately 1.04 / sqrt(2^p). Sketches with the same precision can be
+ * merged, and the result is the same as if all of the values had been added
+ * to a single sketch.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class HyperLogLog {
+
+    /**
+     * The minimum supported precision.
+     */
+    public static final int MIN_PRECISION = 4;
+
+    /**
+     * The maximum supported precision.
+     */
+    public static final int MAX_PRECISION = 18;
+
+    /**
+     * The default precision, using 4KB per sketch, with a standard error of
+     * approximately 1.6%.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param precision
+     *            The precision of the sketch, between {@link #MIN_PRECISION}
+     *            and {@link #MAX_PRECISION}.
+     */
+    public HyperLogLog(final int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between "
+                    + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * @return The precision of this sketch.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return The relative standard error of the estimates from this sketch.
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value
+     *            The value to add.
+     */
+    public void add(final String value) {
+        final long hash = hash(value);
+        final int index = (int) (hash >>> (64 - precision));
+        // The guard bit limits the rank if all of the remaining bits are zero
+        final long remaining = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Merge the other sketch into this sketch.
+     *
+     * @param other
+     *            A sketch with the same precision as this sketch.
+     * @return This sketch, after the other sketch has been merged into it.
+     */
+    public HyperLogLog merge(final HyperLogLog other) {
+        if (precision != other.precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches with different precisions: "
+                    + precision + " " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return An estimate of the number of distinct values added to this
+     *         sketch.
+     */
+    public long estimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (final byte nextRegister : registers) {
+            sum += Math.scalb(1.0, -nextRegister);
+            if (nextRegister == 0) {
+                zeros++;
+            }
+        }
+        final double alpha;
+        if (m == 16) {
+            alpha = 0.673;
+        } else if (m == 32) {
+            alpha = 0.697;
+        } else if (m == 64) {
+            alpha = 0.709;
+        } else {
+            alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        double result = alpha * m * m / sum;
+        // Linear counting is more accurate for small cardinalities. As 64 bit
+        // hashes are used, there is no correction needed for large ones
+        if (result <= 2.5 * m && zeros > 0) {
+            result = m * Math.log((double) m / zeros);
+        }
+        return Math.round(result);
+    }
+
+    void write(final DataOutput out) throws IOException {
+        out.write(registers);
+    }
+
+    void readRegisters(final DataInput in) throws IOException {
+        in.readFully(registers);
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the UTF-16 characters, followed by the MurmurHash3
+     * finaliser to distribute the bits that are used for the register index.
+     */
+    static long hash(final String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -30,9 +30,11 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -40,8 +42,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.apache.commons.io.output.NullWriter;
@@ -53,7 +53,7 @@ import com.github.ansell.csv.stream.CSVStream;
 import com.github.ansell.csv.stream.CSVStreamException;
 import com.github.ansell.csv.stream.JSONStream;
 import com.github.ansell.csv.stream.TriFunction;
-import com.github.ansell.jdefaultdict.JDefaultDict;
+import com.github.ansell.csv.util.ProgressReporter;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -136,6 +136,13 @@ public final class JSONSummariser {
         final OptionSpec<Boolean> debug = parser.accepts("debug").withRequiredArg()
                 .ofType(Boolean.class).defaultsTo(Boolean.FALSE)
                 .describedAs("Set to true to debug.");
+        final OptionSpec<Integer> progressInterval = parser.accepts("progress-interval")
+                .withRequiredArg().ofType(Integer.class)
+                .defaultsTo(ProgressReporter.DEFAULT_INTERVAL_SECONDS).describedAs(
+                        "The number of seconds between progress reports to stderr or the metrics-output file, or 0 to disable progress reports.");
+        final OptionSpec<File> metricsOutput = parser.accepts("metrics-output").withRequiredArg()
+                .ofType(File.class).describedAs(
+                        "A JSON file to write progress metrics to, instead of writing progress reports to stderr.");
 
         OptionSet options = null;
 
@@ -200,12 +207,17 @@ public final class JSONSummariser {
 
         final ObjectMapper inputMapper = new ObjectMapper();
 
-        try (final BufferedReader newBufferedReader = Files.newBufferedReader(inputPath);
+        try (final ProgressReporter progress = ProgressReporter.start(Files.size(inputPath),
+                progressInterval.value(options),
+                options.has(metricsOutput) ? metricsOutput.value(options).toPath() : null);
+                final BufferedReader newBufferedReader = new BufferedReader(new InputStreamReader(
+                        progress.track(Files.newInputStream(inputPath)), StandardCharsets.UTF_8));
                 final Writer mappingWriter = options.has(outputMappingTemplate)
                         ? Files.newBufferedWriter(outputMappingPath)
                         : NullWriter.NULL_WRITER) {
             runSummarise(newBufferedReader, inputMapper, writer, mappingWriter, samplesToShowInt,
-                    showSampleCounts.value(options), debugBoolean, defaultsMap, basePath, pathsMap);
+                    showSampleCounts.value(options), debugBoolean, defaultsMap, basePath, pathsMap,
+                    progress);
         }
     }
 
@@ -287,58 +299,66 @@ public final class JSONSummariser {
             final boolean showSampleCounts, final boolean debug,
             final Map<String, String> defaultValues, JsonPointer basePath,
             Map<String, Optional<JsonPointer>> fieldRelativePaths) throws IOException {
-        final JDefaultDict<String, AtomicInteger> emptyCounts = new JDefaultDict<>(
-                k -> new AtomicInteger());
-        final JDefaultDict<String, AtomicInteger> nonEmptyCounts = new JDefaultDict<>(
-                k -> new AtomicInteger());
-        // Default to true, and set to false if a non-integer is detected. The
-        // special case of no values being found is handled in the write method
-        // and false is used
-        final JDefaultDict<String, AtomicBoolean> possibleIntegerFields = new JDefaultDict<>(
-                k -> new AtomicBoolean(true));
-        // Default to true, and set to false if a non-double is detected. The
-        // special case of no values being found is handled in the write method
-        // and false is used
-        final JDefaultDict<String, AtomicBoolean> possibleDoubleFields = new JDefaultDict<>(
-                k -> new AtomicBoolean(true));
-        final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts = new JDefaultDict<String, JDefaultDict<String, AtomicInteger>>(
-                k -> new JDefaultDict<>(l -> new AtomicInteger()));
-        final AtomicInteger rowCount = new AtomicInteger();
-
-        final List<String> headers = parseForSummarise(input, inputMapper, emptyCounts,
-                nonEmptyCounts, possibleIntegerFields, possibleDoubleFields, valueCounts, rowCount,
-                defaultValues, basePath, fieldRelativePaths);
-
-        CSVSummariser.writeForSummarise(maxSampleCount, emptyCounts, nonEmptyCounts,
-                possibleIntegerFields, possibleDoubleFields, valueCounts, headers, rowCount,
-                showSampleCounts, output, mappingOutput);
+        runSummarise(input, inputMapper, output, mappingOutput, maxSampleCount, showSampleCounts,
+                debug, defaultValues, basePath, fieldRelativePaths, ProgressReporter.none());
     }
 
     /**
-     * Parse the given inputs to in-memory maps to allow for summarisation.
+     * Summarise the JSON file from the input {@link Reader} and emit the
+     * summary CSV file to the output {@link Writer}, counting the rows that
+     * are summarised using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The input JSON file, as a {@link Reader}.
+     * @param inputMapper
+     *            The ObjectMapper to use to parse the file into memory
+     * @param output
+     *            The output CSV file as a {@link Writer}.
+     * @param mappingOutput
+     *            The output mapping template file as a {@link Writer}.
+     * @param maxSampleCount
+     *            The maximum number of sample values in the summary for each
+     *            field. Set to -1 to include all unique values for each field.
+     * @param showSampleCounts
+     *            Show counts next to sample values
+     * @param debug
+     *            Set to true to add debug statements.
+     * @param defaultValues
+     *            A Map of default values to substitute during the summarise
+     *            process if there is no value given for the matching field in
+     *            the CSV file. The length of this list must either be 0 or the
+     *            same as the number of fields.
+     * @param basePath
+     *            The path to go to before checking the field paths. Set to "/"
+     *            to start at the top of the document.
+     * @param fieldRelativePaths
+     *            The relative paths underneath the basePath to select field
+     *            values from.
+     * @param progress
+     *            The {@link ProgressReporter} to count rows with.
+     * @throws IOException
+     *             If there is an error reading or writing.
+     */
+    public static void runSummarise(final Reader input, final ObjectMapper inputMapper,
+            final Writer output, final Writer mappingOutput, final int maxSampleCount,
+            final boolean showSampleCounts, final boolean debug,
+            final Map<String, String> defaultValues, JsonPointer basePath,
+            Map<String, Optional<JsonPointer>> fieldRelativePaths,
+            final ProgressReporter progress) throws IOException {
+        final SummaryState state = parseForSummarise(input, inputMapper, defaultValues, basePath,
+                fieldRelativePaths, progress);
+
+        CSVSummariser.writeForSummarise(maxSampleCount, state, showSampleCounts, output,
+                mappingOutput);
+    }
+
+    /**
+     * Parse the given inputs into a {@link SummaryState}.
      *
      * @param input
      *            The {@link Reader} containing the inputs to be summarised.
      * @param inputMapper
      *            The {@link ObjectMapper} to use to parse the file into memory
-     * @param emptyCounts
-     *            A {@link JDefaultDict} to be populated with empty counts for
-     *            each field
-     * @param nonEmptyCounts
-     *            A {@link JDefaultDict} to be populated with non-empty counts
-     *            for each field
-     * @param possibleIntegerFields
-     *            A {@link JDefaultDict} to be populated with false if a
-     *            non-integer value is detected in a field
-     * @param possibleDoubleFields
-     *            A {@link JDefaultDict} to be populated with false if a
-     *            non-double value is detected in a field
-     * @param valueCounts
-     *            A {@link JDefaultDict} to be populated with false if a
-     *            non-integer value is detected in a field
-     * @param rowCount
-     *            An {@link AtomicInteger} used to track the total number of
-     *            rows processed.
      * @param defaultValues
      *            A Map that is either empty, signifying there are no default
      *            values known, or exactly the same length as each row in the
@@ -357,88 +377,44 @@ public final class JSONSummariser {
      * @param fieldRelativePaths
      *            The relative paths underneath the basePath to select field
      *            values from.
-     * @return The list of headers that were either overridden or found in the
-     *         file
+     * @param progress
+     *            The {@link ProgressReporter} to count rows with.
+     * @return The summary of the input, containing the headers that were found
      * @throws IOException
      *             If there is an error reading from the file
      * @throws CSVStreamException
      *             If there is a problem processing the JSON content
      */
-    private static List<String> parseForSummarise(final Reader input,
-            final ObjectMapper inputMapper, final JDefaultDict<String, AtomicInteger> emptyCounts,
-            final JDefaultDict<String, AtomicInteger> nonEmptyCounts,
-            final JDefaultDict<String, AtomicBoolean> possibleIntegerFields,
-            final JDefaultDict<String, AtomicBoolean> possibleDoubleFields,
-            final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts,
-            final AtomicInteger rowCount, Map<String, String> defaultValues, JsonPointer basePath,
-            Map<String, Optional<JsonPointer>> fieldRelativePaths)
+    private static SummaryState parseForSummarise(final Reader input,
+            final ObjectMapper inputMapper, Map<String, String> defaultValues, JsonPointer basePath,
+            Map<String, Optional<JsonPointer>> fieldRelativePaths, final ProgressReporter progress)
             throws IOException, CSVStreamException {
-        final long startTime = System.currentTimeMillis();
+        final SummaryState state = new SummaryState();
         final TriFunction<JsonNode, List<String>, List<String>, List<String>> summariseFunction = JSONSummariser
-                .getSummaryFunctionWithStartTime(emptyCounts, nonEmptyCounts, possibleIntegerFields,
-                        possibleDoubleFields, valueCounts, rowCount, startTime);
-        return parseForSummarise(input, inputMapper, defaultValues, summariseFunction, basePath,
-                fieldRelativePaths);
+                .getSummaryFunction(state, progress);
+        final List<String> headers = parseForSummarise(input, inputMapper, defaultValues,
+                summariseFunction, basePath, fieldRelativePaths);
+        state.addFields(headers);
+        return state;
     }
 
     /**
-     * Returns a function that can be used as a summary function, using the
-     * given start time for timing analysis.
+     * Returns a function that can be used as a summary function, counting
+     * each row using the given {@link ProgressReporter}.
      *
-     * @param emptyCounts
-     *            A {@link JDefaultDict} used to store counts of non-empty
-     *            fields, based on {@link String#trim()} and
-     *            {@link String#isEmpty()}.
-     * @param nonEmptyCounts
-     *            A {@link JDefaultDict} used to store counts of non-empty
-     *            fields, based on {@link String#trim()} and
-     *            {@link String#isEmpty()}.
-     * @param possibleIntegerFields
-     *            A {@link JDefaultDict} used to store possible integer fields
-     * @param possibleDoubleFields
-     *            A {@link JDefaultDict} used to store possible double fields
-     * @param valueCounts
-     *            A {@link JDefaultDict} used to store value counts
-     * @param rowCount
-     *            The row count variable
-     * @param startTime
-     *            The start time reference, obtained using
-     *            {@link System#currentTimeMillis()}, for the timing analysis.
+     * @param state
+     *            The {@link SummaryState} used to store the statistics for
+     *            each field
+     * @param progress
+     *            The {@link ProgressReporter} to count rows with.
      * @return A function which can be passed to
-     *         {@link #parseForSummarise(Reader, ObjectMapper, JDefaultDict, JDefaultDict, JDefaultDict, JDefaultDict, JDefaultDict, AtomicInteger, Map, JsonPointer, Map)}
+     *         {@link #parseForSummarise(Reader, ObjectMapper, Map, TriFunction, JsonPointer, Map)}
      */
-    public static TriFunction<JsonNode, List<String>, List<String>, List<String>> getSummaryFunctionWithStartTime(
-            final JDefaultDict<String, AtomicInteger> emptyCounts,
-            final JDefaultDict<String, AtomicInteger> nonEmptyCounts,
-            final JDefaultDict<String, AtomicBoolean> possibleIntegerFields,
-            final JDefaultDict<String, AtomicBoolean> possibleDoubleFields,
-            final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts,
-            final AtomicInteger rowCount, final long startTime) {
+    public static TriFunction<JsonNode, List<String>, List<String>, List<String>> getSummaryFunction(
+            final SummaryState state, final ProgressReporter progress) {
         return (node, header, line) -> {
-            final int nextLineNumber = rowCount.incrementAndGet();
-            if (nextLineNumber % 10000 == 0) {
-                final double secondsSinceStart = (System.currentTimeMillis() - startTime) / 1000.0d;
-                System.out.printf("%d\tSeconds since start: %f\tRecords per second: %f%n",
-                        nextLineNumber, secondsSinceStart, nextLineNumber / secondsSinceStart);
-            }
-            for (int i = 0; i < header.size(); i++) {
-                if (line.get(i).trim().isEmpty()) {
-                    emptyCounts.get(header.get(i)).incrementAndGet();
-                } else {
-                    nonEmptyCounts.get(header.get(i)).incrementAndGet();
-                    valueCounts.get(header.get(i)).get(line.get(i)).incrementAndGet();
-                    try {
-                        Integer.parseInt(line.get(i));
-                    } catch (final NumberFormatException nfe) {
-                        possibleIntegerFields.get(header.get(i)).set(false);
-                    }
-                    try {
-                        Double.parseDouble(line.get(i));
-                    } catch (final NumberFormatException nfe) {
-                        possibleDoubleFields.get(header.get(i)).set(false);
-                    }
-                }
-            }
+            state.addRow(header, line);
+            progress.increment();
             return line;
         };
     }
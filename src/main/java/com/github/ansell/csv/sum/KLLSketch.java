@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A KLL quantile sketch, which estimates the quantiles of the values that were
+ * added to it using a bounded amount of memory.
+ * <br>
+ * Values are added to the lowest level. When a level fills up it is sorted,
+ * and every second value is promoted to the next level, where each value
+ * represents twice as many of the original values. The capacity of each level
+ * decreases geometrically from the top level down, so the total number of
+ * values stored is approximately 3k. The rank error of the estimates is
+ * approximately 1.7/k. Sketches with the same k can be merged.
+ * <br>
+ * The offset used when promoting values alternates for each level instead of
+ * being random, so that the results are repeatable.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class KLLSketch {
+
+    /**
+     * The default value of k, which stores approximately 600 values with a rank
+     * error of approximately 1%.
+     */
+    public static final int DEFAULT_K = 200;
+
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private double[][] levels = new double[0][];
+    private int[] levelSizes = new int[0];
+    private int levelCount = 0;
+    private long compactionOffsets = 0;
+    private int size = 0;
+    private int maxSize = 0;
+    private long count = 0;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param k
+     *            The accuracy parameter, which must be at least 8.
+     */
+    public KLLSketch(final int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("KLL k must be at least 8: " + k);
+        }
+        this.k = k;
+        grow();
+    }
+
+    /**
+     * @return The accuracy parameter for this sketch.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return The number of values that were added to this sketch.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value
+     *            The value to add.
+     */
+    public void add(final double value) {
+        append(0, value);
+        count++;
+        size++;
+        if (size >= maxSize) {
+            compress();
+        }
+    }
+
+    /**
+     * Merge the other sketch into this sketch.
+     *
+     * @param other
+     *            A sketch with the same k as this sketch.
+     * @return This sketch, after the other sketch has been merged into it.
+     */
+    public KLLSketch merge(final KLLSketch other) {
+        if (k != other.k) {
+            throw new IllegalArgumentException(
+                    "Cannot merge KLL sketches with different k: " + k + " " + other.k);
+        }
+        while (levelCount < other.levelCount) {
+            grow();
+        }
+        for (int level = 0; level < other.levelCount; level++) {
+            for (int i = 0; i < other.levelSizes[level]; i++) {
+                append(level, other.levels[level][i]);
+            }
+        }
+        count += other.count;
+        size += other.size;
+        while (size >= maxSize) {
+            compress();
+        }
+        return this;
+    }
+
+    /**
+     * @param fraction
+     *            The fraction, between 0 and 1 inclusive.
+     * @return An estimate of the value with the given fraction of the values
+     *         at or below it, or {@link Double#NaN} if the sketch is empty.
+     */
+    public double getQuantile(final double fraction) {
+        return getQuantiles(fraction)[0];
+    }
+
+    /**
+     * @param fractions
+     *            The fractions, each between 0 and 1 inclusive.
+     * @return Estimates of the values with each of the given fractions of the
+     *         values at or below them, or {@link Double#NaN} if the sketch is
+     *         empty.
+     */
+    public double[] getQuantiles(final double... fractions) {
+        final double[] result = new double[fractions.length];
+        if (count == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+        // Sort all of the stored values, keeping the weight of each
+        final double[] values = new double[size];
+        final long[] weights = new long[size];
+        final Integer[] order = new Integer[size];
+        int next = 0;
+        for (int level = 0; level < levelCount; level++) {
+            for (int i = 0; i < levelSizes[level]; i++) {
+                values[next] = levels[level][i];
+                weights[next] = 1L << level;
+                order[next] = next;
+                next++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        for (int f = 0; f < fractions.length; f++) {
+            if (fractions[f] < 0 || fractions[f] > 1) {
+                throw new IllegalArgumentException(
+                        "Quantile fraction must be between 0 and 1: " + fractions[f]);
+            }
+            final double target = fractions[f] * count;
+            long cumulative = 0;
+            result[f] = values[order[order.length - 1]];
+            for (final Integer nextIndex : order) {
+                cumulative += weights[nextIndex];
+                if (cumulative >= target) {
+                    result[f] = values[nextIndex];
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int getCapacity(final int level) {
+        return (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, levelCount - level - 1)) + 1;
+    }
+
+    private void grow() {
+        levelCount++;
+        if (levels.length < levelCount) {
+            levels = Arrays.copyOf(levels, levelCount);
+            levelSizes = Arrays.copyOf(levelSizes, levelCount);
+            levels[levelCount - 1] = new double[0];
+        }
+        maxSize = 0;
+        for (int level = 0; level < levelCount; level++) {
+            maxSize += getCapacity(level);
+        }
+    }
+
+    private void append(final int level, final double value) {
+        if (levelSizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(8, levelSizes[level] * 2));
+        }
+        levels[level][levelSizes[level]++] = value;
+    }
+
+    private void compress() {
+        for (int level = 0; level < levelCount; level++) {
+            if (levelSizes[level] >= getCapacity(level)) {
+                if (level + 1 >= levelCount) {
+                    grow();
+                }
+                compact(level);
+                if (size < maxSize) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Promote every second value from the given level to the next level. If
+     * there are an odd number of values, the smallest value stays on the
+     * level.
+     */
+    private void compact(final int level) {
+        final double[] values = levels[level];
+        final int levelSize = levelSizes[level];
+        Arrays.sort(values, 0, levelSize);
+        final int kept = levelSize % 2;
+        final int offset = (int) ((compactionOffsets >>> level) & 1);
+        compactionOffsets ^= 1L << level;
+        for (int i = kept + offset; i < levelSize; i += 2) {
+            append(level + 1, values[i]);
+        }
+        levelSizes[level] = kept;
+        size -= (levelSize - kept) / 2;
+    }
+
+    void write(final DataOutput out) throws IOException {
+        SummaryState.writeVarLong(out, count);
+        out.writeLong(compactionOffsets);
+        SummaryState.writeVarLong(out, levelCount);
+        for (int level = 0; level < levelCount; level++) {
+            SummaryState.writeVarLong(out, levelSizes[level]);
+            for (int i = 0; i < levelSizes[level]; i++) {
+                out.writeDouble(levels[level][i]);
+            }
+        }
+    }
+
+    void readLevels(final DataInput in) throws IOException {
+        count = SummaryState.readVarLong(in);
+        compactionOffsets = in.readLong();
+        final long nextLevelCount = SummaryState.readVarLong(in);
+        if (nextLevelCount < 1 || nextLevelCount > 64) {
+            throw new IOException("Invalid number of levels in KLL sketch: " + nextLevelCount);
+        }
+        while (levelCount < nextLevelCount) {
+            grow();
+        }
+        for (int level = 0; level < levelCount; level++) {
+            final long levelSize = SummaryState.readVarLong(in);
+            for (long i = 0; i < levelSize; i++) {
+                append(level, in.readDouble());
+            }
+            size += levelSize;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.math.BigDecimal;
+
+/**
+ * Classifies the numeric types that a value could be parsed as, in a single
+ * pass over the characters and without relying on
+ * {@link NumberFormatException}s for values that are not numeric.
+ * <br>
+ * The classification for each type matches the result of the corresponding
+ * parse method, so a flag is set if and only if the parse method would
+ * succeed:
+ * <ul>
+ * <li>{@link #INTEGER}: {@link Integer#parseInt(String)}</li>
+ * <li>{@link #LONG}: {@link Long#parseLong(String)}</li>
+ * <li>{@link #BIG_DECIMAL}: {@link BigDecimal#BigDecimal(String)}</li>
+ * <li>{@link #DOUBLE}: {@link Double#parseDouble(String)}</li>
+ * </ul>
+ * Decimal values, including those in scientific notation, have the
+ * {@link #BIG_DECIMAL} and {@link #DOUBLE} flags without the {@link #INTEGER}
+ * or {@link #LONG} flags, and values that are not numeric have no flags set.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class NumericScanner {
+
+    /**
+     * The value can be parsed using {@link Integer#parseInt(String)}.
+     */
+    static final int INTEGER = 1;
+
+    /**
+     * The value can be parsed using {@link Long#parseLong(String)}.
+     */
+    static final int LONG = 2;
+
+    /**
+     * The value can be parsed using {@link BigDecimal#BigDecimal(String)}.
+     */
+    static final int BIG_DECIMAL = 4;
+
+    /**
+     * The value can be parsed using {@link Double#parseDouble(String)}.
+     */
+    static final int DOUBLE = 8;
+
+    /**
+     * All of the numeric type flags.
+     */
+    static final int ALL = INTEGER | LONG | BIG_DECIMAL | DOUBLE;
+
+    /**
+     * The maximum number of digits in an exponent that can not overflow the
+     * scale of a {@link BigDecimal}.
+     */
+    private static final int MAX_SAFE_EXPONENT_DIGITS = 9;
+
+    /**
+     * Private constructor for static only class
+     */
+    private NumericScanner() {
+    }
+
+    /**
+     * Classify the given value.
+     *
+     * @param value
+     *            The value to classify.
+     * @return A combination of the {@link #INTEGER}, {@link #LONG},
+     *         {@link #BIG_DECIMAL} and {@link #DOUBLE} flags, or 0 if the value
+     *         is not numeric.
+     */
+    static int scan(final String value) {
+        final int length = value.length();
+        // Double.parseDouble trims the value before parsing, but the other
+        // parse methods do not allow any surrounding whitespace
+        int start = 0;
+        while (start < length && value.charAt(start) <= ' ') {
+            start++;
+        }
+        int end = length;
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return 0;
+        }
+        final boolean trimmed = start > 0 || end < length;
+
+        int position = start;
+        boolean negative = false;
+        final char first = value.charAt(position);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            position++;
+            if (position == end) {
+                return 0;
+            }
+        }
+
+        final char afterSign = value.charAt(position);
+        if (afterSign == 'N' || afterSign == 'I') {
+            // NaN and Infinity, with an optional sign for Infinity and,
+            // surprisingly, also for NaN
+            return value.startsWith("NaN", position) && position + 3 == end
+                    || value.startsWith("Infinity", position) && position + 8 == end ? DOUBLE
+                            : 0;
+        }
+        if (afterSign == '0' && position + 1 < end
+                && (value.charAt(position + 1) == 'x' || value.charAt(position + 1) == 'X')) {
+            // Hexadecimal floating point values are rare enough to delegate
+            return fallbackDouble(value);
+        }
+
+        // Accumulate the integer part as a negative number, as for
+        // Long.parseLong, to detect overflow without a larger type
+        long accumulated = 0;
+        boolean longOverflow = false;
+        int integerDigits = 0;
+        while (position < end) {
+            final char next = value.charAt(position);
+            if (next >= '0' && next <= '9') {
+                final int digit = next - '0';
+                if (!longOverflow) {
+                    if (accumulated < Long.MIN_VALUE / 10
+                            || accumulated * 10 < Long.MIN_VALUE + digit) {
+                        longOverflow = true;
+                    } else {
+                        accumulated = accumulated * 10 - digit;
+                    }
+                }
+                integerDigits++;
+                position++;
+            } else {
+                break;
+            }
+        }
+
+        if (position == end) {
+            // Only digits after the optional sign
+            int result = BIG_DECIMAL | DOUBLE;
+            if (!trimmed) {
+                if (!longOverflow && (negative || accumulated != Long.MIN_VALUE)) {
+                    result |= LONG;
+                    if (negative ? accumulated >= Integer.MIN_VALUE
+                            : accumulated >= -Integer.MAX_VALUE) {
+                        result |= INTEGER;
+                    }
+                }
+            } else {
+                result = DOUBLE;
+            }
+            return result;
+        }
+
+        int fractionDigits = 0;
+        if (value.charAt(position) == '.') {
+            position++;
+            while (position < end && isAsciiDigit(value.charAt(position))) {
+                fractionDigits++;
+                position++;
+            }
+        }
+        if (integerDigits + fractionDigits == 0) {
+            return checkNonAscii(value, start, end);
+        }
+
+        boolean bigDecimalExponentSafe = true;
+        if (position < end && (value.charAt(position) == 'e' || value.charAt(position) == 'E')) {
+            position++;
+            if (position < end
+                    && (value.charAt(position) == '-' || value.charAt(position) == '+')) {
+                position++;
+            }
+            final int exponentStart = position;
+            while (position < end && isAsciiDigit(value.charAt(position))) {
+                position++;
+            }
+            if (position == exponentStart) {
+                return checkNonAscii(value, start, end);
+            }
+            int exponentSignificantStart = exponentStart;
+            while (exponentSignificantStart < position
+                    && value.charAt(exponentSignificantStart) == '0') {
+                exponentSignificantStart++;
+            }
+            bigDecimalExponentSafe = position
+                    - exponentSignificantStart <= MAX_SAFE_EXPONENT_DIGITS;
+        }
+
+        if (position == end) {
+            if (trimmed) {
+                return DOUBLE;
+            }
+            if (!bigDecimalExponentSafe) {
+                return DOUBLE | fallbackBigDecimal(value);
+            }
+            return BIG_DECIMAL | DOUBLE;
+        }
+
+        // Double.parseDouble allows a single type suffix
+        final char suffix = value.charAt(position);
+        if (position + 1 == end
+                && (suffix == 'f' || suffix == 'F' || suffix == 'd' || suffix == 'D')) {
+            return DOUBLE;
+        }
+        return checkNonAscii(value, start, end);
+    }
+
+    private static boolean isAsciiDigit(final char next) {
+        return next >= '0' && next <= '9';
+    }
+
+    /**
+     * The integer and decimal parse methods accept any Unicode digits, so
+     * values containing non-ASCII characters are delegated to them.
+     */
+    private static int checkNonAscii(final String value, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) > 127) {
+                return fallbackInteger(value) | fallbackBigDecimal(value);
+            }
+        }
+        return 0;
+    }
+
+    private static int fallbackInteger(final String value) {
+        int result = 0;
+        try {
+            Integer.parseInt(value);
+            result |= INTEGER;
+        } catch (final NumberFormatException e) {
+        }
+        try {
+            Long.parseLong(value);
+            result |= LONG;
+        } catch (final NumberFormatException e) {
+        }
+        return result;
+    }
+
+    private static int fallbackBigDecimal(final String value) {
+        try {
+            new BigDecimal(value);
+            return BIG_DECIMAL;
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int fallbackDouble(final String value) {
+        try {
+            Double.parseDouble(value);
+            return DOUBLE;
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Streaming statistics for the numeric values in a field, which can be merged
+ * with the statistics for other parts of the same field.
+ * <br>
+ * The mean and variance are calculated using Welford's algorithm, and merged
+ * using the parallel form from Chan et al, to avoid the loss of precision from
+ * subtracting large sums of squares. Quantiles are estimated using a
+ * {@link KLLSketch}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class NumericStatistics {
+
+    private long count = 0;
+    private double minimum = Double.POSITIVE_INFINITY;
+    private double maximum = Double.NEGATIVE_INFINITY;
+    private double mean = 0;
+    private double sumOfSquaredDifferences = 0;
+    private double sum = 0;
+    private final KLLSketch quantiles = new KLLSketch(KLLSketch.DEFAULT_K);
+
+    void add(final double value) {
+        count++;
+        sum += value;
+        minimum = Math.min(minimum, value);
+        maximum = Math.max(maximum, value);
+        final double delta = value - mean;
+        mean += delta / count;
+        sumOfSquaredDifferences += delta * (value - mean);
+        quantiles.add(value);
+    }
+
+    NumericStatistics merge(final NumericStatistics other) {
+        if (other.count == 0) {
+            return this;
+        }
+        final long mergedCount = count + other.count;
+        final double delta = other.mean - mean;
+        mean += delta * other.count / mergedCount;
+        sumOfSquaredDifferences += other.sumOfSquaredDifferences
+                + delta * delta * ((double) count * other.count / mergedCount);
+        count = mergedCount;
+        sum += other.sum;
+        minimum = Math.min(minimum, other.minimum);
+        maximum = Math.max(maximum, other.maximum);
+        quantiles.merge(other.quantiles);
+        return this;
+    }
+
+    /**
+     * @return The number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The smallest value, or {@link Double#NaN} if there are no values.
+     */
+    public double getMinimum() {
+        return count == 0 ? Double.NaN : minimum;
+    }
+
+    /**
+     * @return The largest value, or {@link Double#NaN} if there are no values.
+     */
+    public double getMaximum() {
+        return count == 0 ? Double.NaN : maximum;
+    }
+
+    /**
+     * @return The mean of the values, or {@link Double#NaN} if there are no
+     *         values.
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return The sample variance of the values, or {@link Double#NaN} if there
+     *         are less than 2 values.
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : sumOfSquaredDifferences / (count - 1);
+    }
+
+    /**
+     * @return The sum of the values.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @param fraction
+     *            The fraction, between 0 and 1 inclusive.
+     * @return An estimate of the value with the given fraction of the values
+     *         at or below it, or {@link Double#NaN} if there are no values.
+     */
+    public double getQuantile(final double fraction) {
+        return quantiles.getQuantile(fraction);
+    }
+
+    /**
+     * @param fractions
+     *            The fractions, each between 0 and 1 inclusive.
+     * @return Estimates of the values with each of the given fractions of the
+     *         values at or below them.
+     */
+    public double[] getQuantiles(final double... fractions) {
+        return quantiles.getQuantiles(fractions);
+    }
+
+    void write(final DataOutput out) throws IOException {
+        SummaryState.writeVarLong(out, count);
+        out.writeDouble(minimum);
+        out.writeDouble(maximum);
+        out.writeDouble(mean);
+        out.writeDouble(sumOfSquaredDifferences);
+        out.writeDouble(sum);
+        quantiles.write(out);
+    }
+
+    void read(final DataInput in) throws IOException {
+        count = SummaryState.readVarLong(in);
+        minimum = in.readDouble();
+        maximum = in.readDouble();
+        mean = in.readDouble();
+        sumOfSquaredDifferences = in.readDouble();
+        sum = in.readDouble();
+        quantiles.readLevels(in);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * A fixed size uniform random sample of rows, chosen in a single pass using
+ * Algorithm L from Li, "Reservoir-Sampling Algorithms of Time Complexity
+ * O(n(1+log(N/n)))".
+ * <br>
+ * Each row in the sample has a random key, and the sample contains the rows
+ * with the smallest keys. Once the sample is full, the number of rows to skip
+ * before the next row with a key smaller than the largest key in the sample is
+ * drawn directly, so most rows are not looked at. As the keys are kept,
+ * samples from different parts of an input can be merged by keeping the rows
+ * with the smallest keys.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class RowReservoir {
+
+    private final int capacity;
+    private final SplittableRandom random = new SplittableRandom();
+    private final double[] keys;
+    private final String[][] rows;
+    private int size = 0;
+    private int largestKeyIndex = -1;
+    private long rowsToSkip = 0;
+
+    /**
+     * Create an empty sample.
+     *
+     * @param capacity
+     *            The number of rows to keep.
+     */
+    public RowReservoir(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Row sample size must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.keys = new double[capacity];
+        this.rows = new String[capacity][];
+    }
+
+    /**
+     * @return The number of rows kept by this sample.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Check whether the next row is to be added to the sample. This must be
+     * called once for each row, and if it returns true, the row must then be
+     * given to {@link #add(String[])}.
+     *
+     * @return True if the next row is to be added to the sample, and false if
+     *         it is skipped.
+     */
+    public boolean isNextSampled() {
+        if (size < capacity) {
+            return true;
+        } else if (rowsToSkip > 0) {
+            rowsToSkip--;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add a row that was accepted by {@link #isNextSampled()}.
+     *
+     * @param row
+     *            The row to add, which must not be modified afterwards.
+     */
+    public void add(final String[] row) {
+        if (size < capacity) {
+            keys[size] = random.nextDouble();
+            rows[size] = row;
+            size++;
+            if (size == capacity) {
+                findLargestKey();
+            }
+        } else {
+            // The key of an accepted row is uniform below the largest key
+            keys[largestKeyIndex] = random.nextDouble() * keys[largestKeyIndex];
+            rows[largestKeyIndex] = row;
+            findLargestKey();
+        }
+    }
+
+    /**
+     * Merge the other sample into this sample, keeping the rows with the
+     * smallest keys from both.
+     *
+     * @param other
+     *            The sample to merge into this sample.
+     * @return This sample, after the other sample has been merged into it.
+     */
+    public RowReservoir merge(final RowReservoir other) {
+        final List<Integer> order = new ArrayList<>(size + other.size);
+        for (int i = 0; i < size + other.size; i++) {
+            order.add(i);
+        }
+        final double[] mergedKeys = Arrays.copyOf(keys, size + other.size);
+        final String[][] mergedRows = Arrays.copyOf(rows, size + other.size);
+        System.arraycopy(other.keys, 0, mergedKeys, size, other.size);
+        System.arraycopy(other.rows, 0, mergedRows, size, other.size);
+        order.sort(Comparator.comparingDouble(i -> mergedKeys[i]));
+        size = Math.min(capacity, order.size());
+        for (int i = 0; i < size; i++) {
+            keys[i] = mergedKeys[order.get(i)];
+            rows[i] = mergedRows[order.get(i)];
+        }
+        largestKeyIndex = -1;
+        rowsToSkip = 0;
+        if (size == capacity) {
+            findLargestKey();
+        }
+        return this;
+    }
+
+    /**
+     * @param columnMap
+     *            The new index for each of the values in the rows.
+     * @return A copy of this sample, with the values in each row moved to the
+     *         new indexes.
+     */
+    RowReservoir withColumns(final int[] columnMap) {
+        final int width = Arrays.stream(columnMap).max().orElse(-1) + 1;
+        final RowReservoir result = new RowReservoir(capacity);
+        for (int i = 0; i < size; i++) {
+            final String[] nextRow = new String[width];
+            for (int j = 0; j < rows[i].length; j++) {
+                nextRow[columnMap[j]] = rows[i][j];
+            }
+            result.keys[i] = keys[i];
+            result.rows[i] = nextRow;
+        }
+        result.size = size;
+        return result;
+    }
+
+    /**
+     * @return The rows in the sample, in no particular order.
+     */
+    public List<String[]> getRows() {
+        return Collections.unmodifiableList(Arrays.asList(rows).subList(0, size));
+    }
+
+    /**
+     * Find the largest key, and then choose the number of rows to skip before
+     * the next row that has a smaller key. Each row has a key smaller than the
+     * largest key w with probability w, so the number of rows to skip is
+     * geometrically distributed.
+     */
+    private void findLargestKey() {
+        largestKeyIndex = 0;
+        for (int i = 1; i < size; i++) {
+            if (keys[i] > keys[largestKeyIndex]) {
+                largestKeyIndex = i;
+            }
+        }
+        final double largestKey = keys[largestKeyIndex];
+        // 1 - nextDouble() is in (0, 1], so the logarithm is finite
+        final double skip = Math.floor(Math.log(1 - random.nextDouble()) / Math.log1p(-largestKey));
+        rowsToSkip = skip >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) skip;
+    }
+
+    void write(final DataOutput out) throws IOException {
+        SummaryState.writeVarLong(out, size);
+        for (int i = 0; i < size; i++) {
+            out.writeDouble(keys[i]);
+            SummaryState.writeVarLong(out, rows[i].length);
+            for (final String nextValue : rows[i]) {
+                SummaryState.writeString(out, nextValue == null ? "" : nextValue);
+            }
+        }
+    }
+
+    void readRows(final DataInput in) throws IOException {
+        final long nextSize = SummaryState.readVarLong(in);
+        if (nextSize > capacity) {
+            throw new IOException("Row sample is larger than its capacity: " + nextSize);
+        }
+        size = (int) nextSize;
+        for (int i = 0; i < size; i++) {
+            keys[i] = in.readDouble();
+            final String[] nextRow = new String[(int) SummaryState.readVarLong(in)];
+            for (int j = 0; j < nextRow.length; j++) {
+                nextRow[j] = SummaryState.readString(in);
+            }
+            rows[i] = nextRow;
+        }
+        if (size == capacity) {
+            findLargestKey();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A Space-Saving sketch, which finds the most frequent values that were added
+ * to it using a fixed number of counters.
+ * <br>
+ * Each counter stores an upper bound for the number of times its value was
+ * added, along with the maximum amount that the count may be over. With c
+ * counters, the error for any value is at most n/c after n values were added,
+ * so every value that was added more than n/c times is guaranteed to have a
+ * counter. Sketches can be merged, with the same guarantee for the combined
+ * values.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class SpaceSaving {
+
+    /**
+     * Orders counters by ascending count, and then by descending value, so
+     * that the first counter is the one that is replaced next, and ties are
+     * broken consistently.
+     */
+    private static final Comparator<Counter> EVICTION_ORDER = Comparator
+            .comparingLong((Counter c) -> c.count)
+            .thenComparing(c -> c.value, Comparator.reverseOrder());
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> evictionOrder = new TreeSet<>(EVICTION_ORDER);
+    private boolean truncated = false;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param capacity
+     *            The maximum number of counters to keep.
+     */
+    public SpaceSaving(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                    "Space-Saving capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The maximum number of counters kept by this sketch.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value
+     *            The value to add.
+     */
+    public void add(final String value) {
+        add(value, 1, 0);
+    }
+
+    private void add(final String value, final long count, final long error) {
+        final Counter existing = counters.get(value);
+        if (existing != null) {
+            evictionOrder.remove(existing);
+            existing.count += count;
+            existing.error += error;
+            evictionOrder.add(existing);
+        } else if (counters.size() < capacity) {
+            put(new Counter(value, count, error));
+        } else {
+            truncated = true;
+            if (capacity > 0) {
+                // Replace the smallest counter, which is then an upper bound
+                // for the number of times the new value was not counted
+                final Counter smallest = evictionOrder.pollFirst();
+                counters.remove(smallest.value);
+                put(new Counter(value, smallest.count + count, smallest.count + error));
+            }
+        }
+    }
+
+    private void put(final Counter counter) {
+        counters.put(counter.value, counter);
+        evictionOrder.add(counter);
+    }
+
+    /**
+     * Merge the other sketch into this sketch. Values that only have a
+     * counter in one of the sketches are assumed to have been added to the
+     * other sketch as many times as its smallest counter, if it is full, which
+     * keeps the counts as upper bounds.
+     *
+     * @param other
+     *            The sketch to merge into this sketch.
+     * @return This sketch, after the other sketch has been merged into it.
+     */
+    public SpaceSaving merge(final SpaceSaving other) {
+        final long thisMinimum = getMinimumCount();
+        final long otherMinimum = other.getMinimumCount();
+        final List<Counter> merged = new ArrayList<>(counters.size() + other.counters.size());
+        for (final Counter nextCounter : counters.values()) {
+            final Counter otherCounter = other.counters.get(nextCounter.value);
+            if (otherCounter != null) {
+                merged.add(new Counter(nextCounter.value, nextCounter.count + otherCounter.count,
+                        nextCounter.error + otherCounter.error));
+            } else {
+                merged.add(new Counter(nextCounter.value, nextCounter.count + otherMinimum,
+                        nextCounter.error + otherMinimum));
+            }
+        }
+        for (final Counter otherCounter : other.counters.values()) {
+            if (!counters.containsKey(otherCounter.value)) {
+                merged.add(new Counter(otherCounter.value, otherCounter.count + thisMinimum,
+                        otherCounter.error + thisMinimum));
+            }
+        }
+        truncated |= other.truncated;
+        counters.clear();
+        evictionOrder.clear();
+        merged.forEach(this::put);
+        while (counters.size() > capacity) {
+            counters.remove(evictionOrder.pollFirst().value);
+            truncated = true;
+        }
+        return this;
+    }
+
+    /**
+     * @return The smallest count if all of the counters are in use, as values
+     *         without a counter may have been added up to that many times, or
+     *         0 otherwise.
+     */
+    private long getMinimumCount() {
+        if (counters.size() < capacity || counters.isEmpty()) {
+            return 0;
+        }
+        return evictionOrder.first().count;
+    }
+
+    /**
+     * @param limit
+     *            The maximum number of values to return, or -1 to return all of
+     *            the values with counters.
+     * @return The values with the largest counts, in descending order of their
+     *         counts, with ties in ascending order of the values.
+     */
+    public List<String> getTopValues(final int limit) {
+        final int size = limit < 0 ? counters.size() : Math.min(limit, counters.size());
+        final List<String> result = new ArrayList<>(size);
+        final Iterator<Counter> iterator = evictionOrder.descendingIterator();
+        while (result.size() < size) {
+            result.add(iterator.next().value);
+        }
+        return result;
+    }
+
+    /**
+     * @return The values that have counters.
+     */
+    public Set<String> getValues() {
+        return Collections.unmodifiableSet(counters.keySet());
+    }
+
+    /**
+     * @param value
+     *            A value.
+     * @return An upper bound for the number of times the value was added, or 0
+     *         if the value does not have a counter.
+     */
+    public long getCount(final String value) {
+        final Counter counter = counters.get(value);
+        return counter == null ? 0 : counter.count;
+    }
+
+    /**
+     * @param value
+     *            A value.
+     * @return The maximum amount that {@link #getCount(String)} may be over the
+     *         true number of times the value was added.
+     */
+    public long getError(final String value) {
+        final Counter counter = counters.get(value);
+        return counter == null ? 0 : counter.error;
+    }
+
+    /**
+     * @return True if some values were added to this sketch without being
+     *         kept, so their counts are not available.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    void write(final DataOutput out) throws IOException {
+        out.writeBoolean(truncated);
+        SummaryState.writeVarLong(out, counters.size());
+        for (final Counter nextCounter : evictionOrder) {
+            SummaryState.writeString(out, nextCounter.value);
+            SummaryState.writeVarLong(out, nextCounter.count);
+            SummaryState.writeVarLong(out, nextCounter.error);
+        }
+    }
+
+    void readCounters(final DataInput in) throws IOException {
+        truncated = in.readBoolean();
+        final long size = SummaryState.readVarLong(in);
+        for (long i = 0; i < size; i++) {
+            final String nextValue = SummaryState.readString(in);
+            add(nextValue, SummaryState.readVarLong(in), SummaryState.readVarLong(in));
+        }
+    }
+
+    private static final class Counter {
+        private final String value;
+        private long count;
+        private long error;
+
+        Counter(final String value, final long count, final long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,860 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * The summary statistics for all of the fields in one or more inputs.
+ * <br>
+ * Summary states are merged using {@link #merge(SummaryState)}, which is
+ * associative, so partial summaries from chunks of a file, or from different
+ * files, can be combined in any grouping without re-reading the original
+ * data. Summary states can be stored between runs using
+ * {@link #write(Path)} and {@link #read(Path)}.
+ * <br>
+ * The statistics are stored in arrays indexed by column, and the headers for
+ * each row are only resolved to column indexes when they change, so that
+ * summarising a cell does not require a lookup by field name.
+ * <br>
+ * In {@link CardinalityMode#EXACT} mode every distinct value is stored with
+ * its count. In {@link CardinalityMode#APPROXIMATE} mode the number of
+ * distinct values is estimated using a {@link HyperLogLog} sketch for each
+ * field, and only a bounded number of sample values are kept, so the memory
+ * used for each field is fixed. The sample values are either the smallest
+ * values in sorted order, or the most frequent values, depending on the
+ * {@link SampleMode}.
+ * <br>
+ * Instances are not thread-safe. Each thread must summarise into its own
+ * instance, and the instances can then be merged.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class SummaryState {
+
+    /**
+     * The ways that the number of distinct values in each field can be
+     * counted.
+     */
+    public enum CardinalityMode {
+        /**
+         * Store every distinct value, to count them exactly.
+         */
+        EXACT,
+
+        /**
+         * Estimate the number of distinct values using a fixed amount of
+         * memory.
+         */
+        APPROXIMATE
+    }
+
+    /**
+     * The ways that sample values can be chosen for each field.
+     */
+    public enum SampleMode {
+        /**
+         * The first values in sorted order.
+         */
+        FIRST,
+
+        /**
+         * The most frequent values, in descending order of frequency.
+         */
+        TOP
+    }
+
+    /**
+     * The bytes "CSVS", used to identify serialised summary states.
+     */
+    private static final int MAGIC = 0x43535653;
+
+    private static final int VERSION = 6;
+
+    /**
+     * The number of standard errors that an estimated distinct value count
+     * can be from the row count for the field to still be reported as a
+     * possible primary key.
+     */
+    private static final double PRIMARY_KEY_STANDARD_ERRORS = 3.0;
+
+    /**
+     * The number of counters to use for each sample value that is requested in
+     * {@link SampleMode#TOP} mode. More counters than samples are needed so
+     * that the counts for the samples are accurate.
+     */
+    private static final int TOP_VALUES_COUNTERS_PER_SAMPLE = 10;
+
+    private final CardinalityMode cardinalityMode;
+    private final int precision;
+    private final SampleMode sampleMode;
+    private final boolean numericStatisticsEnabled;
+    private final int rowSampleSize;
+    private final int maxSampleCount;
+
+    private final List<String> fieldNames = new ArrayList<>();
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+    private long[] emptyCounts = new long[16];
+    private long[] nonEmptyCounts = new long[16];
+    // Fields are possibly any numeric type until a value is found that is
+    // not, so these start as NumericScanner.ALL and are narrowed by each
+    // value. The special case of no values being found is handled in the
+    // getters
+    private int[] numericTypes = new int[16];
+    // Only used in EXACT mode
+    private final List<Map<String, long[]>> valueCounts = new ArrayList<>();
+    // Only used in APPROXIMATE mode
+    private final List<HyperLogLog> sketches = new ArrayList<>();
+    // Only used in APPROXIMATE mode with FIRST samples
+    private final List<TreeMap<String, long[]>> samples = new ArrayList<>();
+    // Only used in APPROXIMATE mode with TOP samples
+    private final List<SpaceSaving> topValues = new ArrayList<>();
+    private final BitSet samplesTruncated = new BitSet();
+    // Only used if numeric statistics are enabled
+    private final List<NumericStatistics> numericStatistics = new ArrayList<>();
+    // Null unless a row sample was requested. The rows are stored using the
+    // column indexes from this summary
+    private final RowReservoir rowSample;
+    private long rowCount;
+
+    /**
+     * The last header list given to {@link #addRow(List, List)}, and the column
+     * indexes that it resolved to.
+     */
+    private List<String> lastHeader;
+    private int[] lastColumnIndexes;
+
+    /**
+     * Create an empty summary that counts distinct values exactly.
+     */
+    public SummaryState() {
+        this(CardinalityMode.EXACT, HyperLogLog.DEFAULT_PRECISION, SampleMode.FIRST, 0);
+    }
+
+    /**
+     * Create an empty summary, which keeps the first values in sorted order as
+     * samples in {@link CardinalityMode#APPROXIMATE} mode.
+     *
+     * @param cardinalityMode
+     *            The way to count the distinct values in each field.
+     * @param precision
+     *            The precision of the {@link HyperLogLog} sketches used in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     * @param maxSampleCount
+     *            The number of sample values to keep for each field in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     */
+    public SummaryState(final CardinalityMode cardinalityMode, final int precision,
+            final int maxSampleCount) {
+        this(cardinalityMode, precision, SampleMode.FIRST, maxSampleCount);
+    }
+
+    /**
+     * Create an empty summary.
+     *
+     * @param cardinalityMode
+     *            The way to count the distinct values in each field.
+     * @param precision
+     *            The precision of the {@link HyperLogLog} sketches used in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     * @param sampleMode
+     *            The way to choose sample values for each field.
+     * @param maxSampleCount
+     *            The number of sample values to keep for each field in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     */
+    public SummaryState(final CardinalityMode cardinalityMode, final int precision,
+            final SampleMode sampleMode, final int maxSampleCount) {
+        this(cardinalityMode, precision, sampleMode, maxSampleCount, false);
+    }
+
+    /**
+     * Create an empty summary.
+     *
+     * @param cardinalityMode
+     *            The way to count the distinct values in each field.
+     * @param precision
+     *            The precision of the {@link HyperLogLog} sketches used in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     * @param sampleMode
+     *            The way to choose sample values for each field.
+     * @param maxSampleCount
+     *            The number of sample values to keep for each field in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     * @param numericStatisticsEnabled
+     *            True to calculate {@link NumericStatistics} for the fields
+     *            that are possibly numeric.
+     */
+    public SummaryState(final CardinalityMode cardinalityMode, final int precision,
+            final SampleMode sampleMode, final int maxSampleCount,
+            final boolean numericStatisticsEnabled) {
+        this(cardinalityMode, precision, sampleMode, maxSampleCount, numericStatisticsEnabled, 0);
+    }
+
+    /**
+     * Create an empty summary.
+     *
+     * @param cardinalityMode
+     *            The way to count the distinct values in each field.
+     * @param precision
+     *            The precision of the {@link HyperLogLog} sketches used in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     * @param sampleMode
+     *            The way to choose sample values for each field.
+     * @param maxSampleCount
+     *            The number of sample values to keep for each field in
+     *            {@link CardinalityMode#APPROXIMATE} mode.
+     * @param numericStatisticsEnabled
+     *            True to calculate {@link NumericStatistics} for the fields
+     *            that are possibly numeric.
+     * @param rowSampleSize
+     *            The number of whole rows to keep as a uniform random sample,
+     *            or 0 to not keep a sample of rows.
+     */
+    public SummaryState(final CardinalityMode cardinalityMode, final int precision,
+            final SampleMode sampleMode, final int maxSampleCount,
+            final boolean numericStatisticsEnabled, final int rowSampleSize) {
+        if (cardinalityMode == CardinalityMode.APPROXIMATE) {
+            // Validate the precision before any fields are added
+            new HyperLogLog(precision);
+            if (maxSampleCount < 0) {
+                throw new IllegalArgumentException(
+                        "The number of samples must be bounded in approximate mode: "
+                                + maxSampleCount);
+            }
+        }
+        this.cardinalityMode = cardinalityMode;
+        this.precision = precision;
+        this.sampleMode = sampleMode;
+        this.maxSampleCount = maxSampleCount;
+        this.numericStatisticsEnabled = numericStatisticsEnabled;
+        this.rowSampleSize = rowSampleSize;
+        this.rowSample = rowSampleSize > 0 ? new RowReservoir(rowSampleSize) : null;
+    }
+
+    /**
+     * @return A new empty summary, with the same settings as this summary, that
+     *         can be merged into this summary.
+     */
+    public SummaryState newEmptyState() {
+        return new SummaryState(cardinalityMode, precision, sampleMode, maxSampleCount,
+                numericStatisticsEnabled, rowSampleSize);
+    }
+
+    /**
+     * @return The way that distinct values are counted in this summary.
+     */
+    public CardinalityMode getCardinalityMode() {
+        return cardinalityMode;
+    }
+
+    /**
+     * @return The way that sample values are chosen in this summary.
+     */
+    public SampleMode getSampleMode() {
+        return sampleMode;
+    }
+
+    /**
+     * @return True if {@link NumericStatistics} are calculated in this summary.
+     */
+    public boolean isNumericStatisticsEnabled() {
+        return numericStatisticsEnabled;
+    }
+
+    /**
+     * Add the given fields to the summary if they are not already present, so
+     * that they are reported even if no rows are found.
+     *
+     * @param fieldNames
+     *            The names of the fields, in the order they are to be reported.
+     */
+    public void addFields(final List<String> fieldNames) {
+        for (final String nextFieldName : fieldNames) {
+            getColumnIndex(nextFieldName);
+        }
+    }
+
+    /**
+     * Add a single row to the summary.
+     *
+     * @param header
+     *            The field names for the row.
+     * @param line
+     *            The values in the row, in the same order as the header.
+     */
+    public void addRow(final List<String> header, final List<String> line) {
+        final int[] columnIndexes = getColumnIndexes(header);
+        rowCount++;
+        for (int i = 0; i < columnIndexes.length; i++) {
+            addValue(columnIndexes[i], line.get(i));
+        }
+        // Most rows are skipped without being copied once the sample is full
+        if (rowSample != null && rowSample.isNextSampled()) {
+            final String[] sampledRow = new String[fieldNames.size()];
+            for (int i = 0; i < columnIndexes.length; i++) {
+                sampledRow[columnIndexes[i]] = line.get(i);
+            }
+            rowSample.add(sampledRow);
+        }
+    }
+
+    private void addValue(final int column, final String value) {
+        if (isEmptyAfterTrim(value)) {
+            emptyCounts[column]++;
+            return;
+        }
+        nonEmptyCounts[column]++;
+        if (cardinalityMode == CardinalityMode.EXACT) {
+            addCount(valueCounts.get(column), value, 1);
+        } else {
+            sketches.get(column).add(value);
+            if (sampleMode == SampleMode.TOP) {
+                topValues.get(column).add(value);
+            } else {
+                addSample(column, value, 1);
+            }
+        }
+        // Once a field is known not to be numeric there is nothing more to
+        // check
+        if (numericTypes[column] != 0) {
+            numericTypes[column] &= NumericScanner.scan(value);
+            // The scanner accepts exactly the values that parseDouble accepts
+            if (numericStatisticsEnabled && (numericTypes[column] & NumericScanner.DOUBLE) != 0) {
+                numericStatistics.get(column).add(Double.parseDouble(value));
+            }
+        }
+    }
+
+    private static void addCount(final Map<String, long[]> counts, final String value,
+            final long count) {
+        final long[] existing = counts.get(value);
+        if (existing == null) {
+            counts.put(value, new long[] { count });
+        } else {
+            existing[0] += count;
+        }
+    }
+
+    /**
+     * Keep the smallest values in sorted order as samples. The largest sample
+     * only decreases as values are added, so a value that is not kept when it
+     * is first found is never kept, and the counts for the values that are
+     * kept are exact.
+     */
+    private void addSample(final int column, final String value, final long count) {
+        final TreeMap<String, long[]> nextSamples = samples.get(column);
+        final long[] existing = nextSamples.get(value);
+        if (existing != null) {
+            existing[0] += count;
+        } else if (nextSamples.size() < maxSampleCount) {
+            nextSamples.put(value, new long[] { count });
+        } else {
+            samplesTruncated.set(column);
+            if (maxSampleCount > 0 && value.compareTo(nextSamples.lastKey()) < 0) {
+                nextSamples.pollLastEntry();
+                nextSamples.put(value, new long[] { count });
+            }
+        }
+    }
+
+    /**
+     * Equivalent to {@code value.trim().isEmpty()}, without creating a trimmed
+     * copy of the value.
+     */
+    private static boolean isEmptyAfterTrim(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] getColumnIndexes(final List<String> header) {
+        // The same header list is normally given for every row in a file
+        if (header != lastHeader || header.size() != lastColumnIndexes.length) {
+            final int[] columnIndexes = new int[header.size()];
+            for (int i = 0; i < columnIndexes.length; i++) {
+                columnIndexes[i] = getColumnIndex(header.get(i));
+            }
+            lastHeader = header;
+            lastColumnIndexes = columnIndexes;
+        }
+        return lastColumnIndexes;
+    }
+
+    private int getColumnIndex(final String fieldName) {
+        final Integer existing = fieldIndexes.get(fieldName);
+        if (existing != null) {
+            return existing;
+        }
+        final int result = fieldNames.size();
+        fieldNames.add(fieldName);
+        fieldIndexes.put(fieldName, result);
+        if (cardinalityMode == CardinalityMode.EXACT) {
+            valueCounts.add(new HashMap<>());
+        } else {
+            sketches.add(new HyperLogLog(precision));
+            if (sampleMode == SampleMode.TOP) {
+                topValues.add(new SpaceSaving(maxSampleCount * TOP_VALUES_COUNTERS_PER_SAMPLE));
+            } else {
+                samples.add(new TreeMap<>());
+            }
+        }
+        if (result == emptyCounts.length) {
+            emptyCounts = Arrays.copyOf(emptyCounts, result * 2);
+            nonEmptyCounts = Arrays.copyOf(nonEmptyCounts, result * 2);
+            numericTypes = Arrays.copyOf(numericTypes, result * 2);
+        }
+        numericTypes[result] = NumericScanner.ALL;
+        if (numericStatisticsEnabled) {
+            numericStatistics.add(new NumericStatistics());
+        }
+        return result;
+    }
+
+    /**
+     * Merge the statistics from the other summary into this summary. Fields
+     * which are only in the other summary are added after the fields in this
+     * summary.
+     *
+     * @param other
+     *            The summary from another input.
+     * @return This summary, after the other summary has been merged into it.
+     * @throws IllegalArgumentException
+     *             If the other summary uses a different cardinality mode,
+     *             precision, or sample mode, or does not match whether numeric
+     *             statistics or a sample of rows are enabled.
+     */
+    public SummaryState merge(final SummaryState other) {
+        if (numericStatisticsEnabled != other.numericStatisticsEnabled) {
+            throw new IllegalArgumentException(
+                    "Cannot merge summaries where only one has numeric statistics");
+        }
+        if ((rowSample == null) != (other.rowSample == null)) {
+            throw new IllegalArgumentException(
+                    "Cannot merge summaries where only one has a sample of rows");
+        }
+        if (cardinalityMode != other.cardinalityMode || (cardinalityMode == CardinalityMode.APPROXIMATE
+                && (precision != other.precision || sampleMode != other.sampleMode))) {
+            throw new IllegalArgumentException(
+                    "Cannot merge summaries with different cardinality settings: "
+                            + cardinalityMode + "/" + precision + "/" + sampleMode + " "
+                            + other.cardinalityMode + "/" + other.precision + "/"
+                            + other.sampleMode);
+        }
+        rowCount += other.rowCount;
+        final int[] columnMap = new int[other.fieldNames.size()];
+        for (int otherColumn = 0; otherColumn < other.fieldNames.size(); otherColumn++) {
+            final int column = getColumnIndex(other.fieldNames.get(otherColumn));
+            columnMap[otherColumn] = column;
+            emptyCounts[column] += other.emptyCounts[otherColumn];
+            nonEmptyCounts[column] += other.nonEmptyCounts[otherColumn];
+            numericTypes[column] &= other.numericTypes[otherColumn];
+            if (numericStatisticsEnabled) {
+                numericStatistics.get(column).merge(other.numericStatistics.get(otherColumn));
+            }
+            if (cardinalityMode == CardinalityMode.EXACT) {
+                final Map<String, long[]> nextValueCounts = valueCounts.get(column);
+                other.valueCounts.get(otherColumn)
+                        .forEach((k, v) -> addCount(nextValueCounts, k, v[0]));
+            } else {
+                sketches.get(column).merge(other.sketches.get(otherColumn));
+                if (sampleMode == SampleMode.TOP) {
+                    topValues.get(column).merge(other.topValues.get(otherColumn));
+                } else {
+                    if (other.samplesTruncated.get(otherColumn)) {
+                        samplesTruncated.set(column);
+                    }
+                    other.samples.get(otherColumn)
+                            .forEach((k, v) -> addSample(column, k, v[0]));
+                }
+            }
+        }
+        if (rowSample != null) {
+            rowSample.merge(other.rowSample.withColumns(columnMap));
+        }
+        return this;
+    }
+
+    /**
+     * @return The total number of rows that were summarised.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The names of the fields in the summary, in the order they were
+     *         first found.
+     */
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(fieldNames);
+    }
+
+    /**
+     * @return The uniform random sample of rows, with the values for each row
+     *         in the same order as {@link #getFieldNames()}, and empty values
+     *         for fields that were not in the row. The list is empty if a
+     *         sample of rows was not requested.
+     */
+    public List<List<String>> getRowSample() {
+        if (rowSample == null) {
+            return Collections.emptyList();
+        }
+        final List<List<String>> result = new ArrayList<>(rowSample.getCapacity());
+        for (final String[] nextRow : rowSample.getRows()) {
+            final List<String> nextResult = new ArrayList<>(fieldNames.size());
+            for (int column = 0; column < fieldNames.size(); column++) {
+                final String nextValue = column < nextRow.length ? nextRow[column] : null;
+                nextResult.add(nextValue == null ? "" : nextValue);
+            }
+            result.add(nextResult);
+        }
+        return result;
+    }
+
+    /**
+     * @param fieldName
+     *            The name of a field.
+     * @return A view of the summary for the field.
+     * @throws IllegalArgumentException
+     *             If the field is not in the summary.
+     */
+    public FieldSummary getField(final String fieldName) {
+        final Integer column = fieldIndexes.get(fieldName);
+        if (column == null) {
+            throw new IllegalArgumentException("Field was not found in summary: " + fieldName);
+        }
+        return new FieldSummary(this, column);
+    }
+
+    String getFieldName(final int column) {
+        return fieldNames.get(column);
+    }
+
+    long getEmptyCount(final int column) {
+        return emptyCounts[column];
+    }
+
+    long getNonEmptyCount(final int column) {
+        return nonEmptyCounts[column];
+    }
+
+    boolean isPossibly(final int column, final int numericType) {
+        return nonEmptyCounts[column] > 0 && (numericTypes[column] & numericType) != 0;
+    }
+
+    NumericStatistics getNumericStatistics(final int column) {
+        return numericStatisticsEnabled ? numericStatistics.get(column) : null;
+    }
+
+    long getUniqueValueCount(final int column) {
+        if (cardinalityMode == CardinalityMode.EXACT) {
+            return valueCounts.get(column).size();
+        }
+        return sketches.get(column).estimate();
+    }
+
+    boolean isPossiblePrimaryKey(final int column) {
+        final long uniqueValueCount = getUniqueValueCount(column);
+        if (cardinalityMode == CardinalityMode.EXACT) {
+            return uniqueValueCount == nonEmptyCounts[column] && uniqueValueCount == rowCount;
+        }
+        final double tolerance = PRIMARY_KEY_STANDARD_ERRORS
+                * sketches.get(column).getStandardError() * rowCount;
+        return nonEmptyCounts[column] == rowCount
+                && Math.abs(uniqueValueCount - rowCount) <= tolerance;
+    }
+
+    Set<String> getValues(final int column) {
+        if (cardinalityMode == CardinalityMode.EXACT) {
+            return Collections.unmodifiableSet(valueCounts.get(column).keySet());
+        } else if (sampleMode == SampleMode.TOP) {
+            return topValues.get(column).getValues();
+        }
+        return Collections.unmodifiableSet(samples.get(column).keySet());
+    }
+
+    List<String> getTopValues(final int column, final int limit) {
+        if (cardinalityMode == CardinalityMode.APPROXIMATE && sampleMode == SampleMode.TOP) {
+            return topValues.get(column).getTopValues(limit);
+        }
+        final Map<String, long[]> counts = cardinalityMode == CardinalityMode.EXACT
+                ? valueCounts.get(column)
+                : samples.get(column);
+        // Descending count, then ascending value, to match SpaceSaving
+        final Comparator<Map.Entry<String, long[]>> topOrder = Comparator
+                .comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0]).reversed()
+                .thenComparing(Map.Entry::getKey);
+        if (limit < 0 || limit >= counts.size()) {
+            final List<Map.Entry<String, long[]>> sorted = new ArrayList<>(counts.entrySet());
+            sorted.sort(topOrder);
+            return sorted.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+        }
+        // Bounded heap with the worst of the best values seen so far at the
+        // head
+        final PriorityQueue<Map.Entry<String, long[]>> best = new PriorityQueue<>(limit + 1,
+                topOrder.reversed());
+        for (final Map.Entry<String, long[]> nextEntry : counts.entrySet()) {
+            best.add(nextEntry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        final List<Map.Entry<String, long[]>> sorted = new ArrayList<>(best);
+        sorted.sort(topOrder);
+        return sorted.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    boolean isValuesTruncated(final int column) {
+        if (cardinalityMode == CardinalityMode.EXACT) {
+            return false;
+        } else if (sampleMode == SampleMode.TOP) {
+            return topValues.get(column).isTruncated();
+        }
+        return samplesTruncated.get(column);
+    }
+
+    long getValueCount(final int column, final String value) {
+        if (cardinalityMode == CardinalityMode.APPROXIMATE && sampleMode == SampleMode.TOP) {
+            return topValues.get(column).getCount(value);
+        }
+        final long[] count = cardinalityMode == CardinalityMode.EXACT
+                ? valueCounts.get(column).get(value)
+                : samples.get(column).get(value);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Write this summary to the given file using a compact binary format.
+     *
+     * @param file
+     *            The file to write to.
+     * @throws IOException
+     *             If there is an error writing.
+     */
+    public void write(final Path file) throws IOException {
+        try (final OutputStream output = Files.newOutputStream(file);
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(output));) {
+            write(out);
+        }
+    }
+
+    /**
+     * Write this summary using a compact binary format.
+     *
+     * @param out
+     *            The {@link DataOutput} to write to.
+     * @throws IOException
+     *             If there is an error writing.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeByte(cardinalityMode.ordinal());
+        out.writeByte(sampleMode.ordinal());
+        out.writeBoolean(numericStatisticsEnabled);
+        writeVarLong(out, rowSampleSize);
+        writeVarLong(out, precision);
+        writeVarLong(out, maxSampleCount);
+        writeVarLong(out, rowCount);
+        writeVarLong(out, fieldNames.size());
+        for (int column = 0; column < fieldNames.size(); column++) {
+            writeString(out, fieldNames.get(column));
+            writeVarLong(out, emptyCounts[column]);
+            writeVarLong(out, nonEmptyCounts[column]);
+            out.writeByte(numericTypes[column]);
+            if (numericStatisticsEnabled) {
+                numericStatistics.get(column).write(out);
+            }
+            final Map<String, long[]> nextValueCounts;
+            if (cardinalityMode == CardinalityMode.EXACT) {
+                nextValueCounts = valueCounts.get(column);
+            } else {
+                sketches.get(column).write(out);
+                if (sampleMode == SampleMode.TOP) {
+                    topValues.get(column).write(out);
+                    continue;
+                }
+                out.writeBoolean(samplesTruncated.get(column));
+                nextValueCounts = samples.get(column);
+            }
+            writeVarLong(out, nextValueCounts.size());
+            for (final Map.Entry<String, long[]> nextValue : nextValueCounts.entrySet()) {
+                writeString(out, nextValue.getKey());
+                writeVarLong(out, nextValue.getValue()[0]);
+            }
+        }
+        if (rowSample != null) {
+            rowSample.write(out);
+        }
+    }
+
+    /**
+     * Read a summary that was written using {@link #write(Path)}.
+     *
+     * @param file
+     *            The file to read from.
+     * @return The summary that was read.
+     * @throws IOException
+     *             If there is an error reading, or the file is not a summary.
+     */
+    public static SummaryState read(final Path file) throws IOException {
+        try (final InputStream input = Files.newInputStream(file);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(input));) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Read a summary that was written using {@link #write(DataOutput)}.
+     *
+     * @param in
+     *            The {@link DataInput} to read from.
+     * @return The summary that was read.
+     * @throws IOException
+     *             If there is an error reading, or the input is not a summary.
+     */
+    public static SummaryState read(final DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Input was not a summary state");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported summary state version: " + version);
+        }
+        final int modeOrdinal = in.readByte();
+        if (modeOrdinal < 0 || modeOrdinal >= CardinalityMode.values().length) {
+            throw new IOException("Unknown cardinality mode in summary state: " + modeOrdinal);
+        }
+        final int sampleModeOrdinal = in.readByte();
+        if (sampleModeOrdinal < 0 || sampleModeOrdinal >= SampleMode.values().length) {
+            throw new IOException("Unknown sample mode in summary state: " + sampleModeOrdinal);
+        }
+        final boolean numericStatisticsEnabled = in.readBoolean();
+        final int rowSampleSize = (int) readVarLong(in);
+        final SummaryState result;
+        try {
+            result = new SummaryState(CardinalityMode.values()[modeOrdinal],
+                    (int) readVarLong(in), SampleMode.values()[sampleModeOrdinal],
+                    (int) readVarLong(in), numericStatisticsEnabled, rowSampleSize);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Invalid settings in summary state", e);
+        }
+        result.rowCount = readVarLong(in);
+        final long fieldCount = readVarLong(in);
+        for (long i = 0; i < fieldCount; i++) {
+            final int column = result.getColumnIndex(readString(in));
+            result.emptyCounts[column] = readVarLong(in);
+            result.nonEmptyCounts[column] = readVarLong(in);
+            result.numericTypes[column] = in.readByte() & NumericScanner.ALL;
+            if (result.numericStatisticsEnabled) {
+                result.numericStatistics.get(column).read(in);
+            }
+            final Map<String, long[]> nextValueCounts;
+            if (result.cardinalityMode == CardinalityMode.EXACT) {
+                nextValueCounts = result.valueCounts.get(column);
+            } else {
+                result.sketches.get(column).readRegisters(in);
+                if (result.sampleMode == SampleMode.TOP) {
+                    result.topValues.get(column).readCounters(in);
+                    continue;
+                }
+                result.samplesTruncated.set(column, in.readBoolean());
+                nextValueCounts = result.samples.get(column);
+            }
+            final long valueCount = readVarLong(in);
+            for (long j = 0; j < valueCount; j++) {
+                final String nextValue = readString(in);
+                nextValueCounts.put(nextValue, new long[] { readVarLong(in) });
+            }
+        }
+        if (result.rowSample != null) {
+            result.rowSample.readRows(in);
+        }
+        return result;
+    }
+
+    static void writeVarLong(final DataOutput out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    static long readVarLong(final DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte nextByte = in.readByte();
+            result |= (long) (nextByte & 0x7F) << shift;
+            if ((nextByte & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length number in summary state");
+    }
+
+    static void writeString(final DataOutput out, final String value)
+            throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,582 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+/**
+ * Splits CSV files into byte ranges that start and end on record boundaries,
+ * so that each range can be parsed independently.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class CSVChunker {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Private constructor for static only class
+     */
+    private CSVChunker() {
+    }
+
+    /**
+     * Find the offsets of record boundaries that split the data records in the
+     * given file into at most the given number of chunks of roughly equal size.
+     * <br>
+     * The file is not scanned from the start to find the boundaries. Instead,
+     * the bytes after each target offset are scanned in parallel, starting in
+     * every state that a {@link RecordScanner} could be in at that offset,
+     * until all of the states are the same, as they then agree on everything
+     * after that point, and the next record end is used as the boundary. This
+     * is usually within the first few records after the target offset. If the
+     * states do not agree before the next target offset, which happens if
+     * there are no quoted values, the state at the target offset is found
+     * from the scans before it, so newlines that appear inside of quoted
+     * values are never chosen as boundaries. A file without any quoted values
+     * is hence scanned completely, but in parallel.
+     * <br>
+     * A quote after a space starts an unquoted value, as it does for a
+     * {@link CsvMapper} that does not trim spaces.
+     *
+     * @param file
+     *            The CSV file to split.
+     * @param chunkCount
+     *            The maximum number of chunks to split the data records into.
+     * @param headerLineCount
+     *            The number of header records at the start of the file, which
+     *            are excluded from the chunks.
+     * @param schema
+     *            The {@link CsvSchema} defining the separator, quote and escape
+     *            characters for the file.
+     * @return An array of offsets, where the first element is the offset of the
+     *         first data record (and hence the length of the header records),
+     *         the last element is the length of the file, and each consecutive
+     *         pair of offsets defines one non-empty chunk.
+     * @throws IOException
+     *             If there is an error reading the file.
+     */
+    public static long[] findRecordBoundaries(final Path file, final int chunkCount,
+            final int headerLineCount, final CsvSchema schema) throws IOException {
+        return findRecordBoundaries(file, chunkCount, headerLineCount, false, schema);
+    }
+
+    /**
+     * Find the offsets of record boundaries that split the data records in the
+     * given file into at most the given number of chunks of roughly equal
+     * size, for parsing using the given {@link CsvMapper}.
+     * <br>
+     * If {@link CsvParser.Feature#TRIM_SPACES} is enabled for the mapper,
+     * spaces before a quote are skipped, so the quote starts a quoted value,
+     * as it does when the mapper parses the file.
+     *
+     * @param file
+     *            The CSV file to split.
+     * @param chunkCount
+     *            The maximum number of chunks to split the data records into.
+     * @param headerLineCount
+     *            The number of header records at the start of the file, which
+     *            are excluded from the chunks.
+     * @param mapper
+     *            The {@link CsvMapper} that will be used to parse the chunks.
+     * @param schema
+     *            The {@link CsvSchema} defining the separator, quote and escape
+     *            characters for the file.
+     * @return An array of offsets, where the first element is the offset of the
+     *         first data record (and hence the length of the header records),
+     *         the last element is the length of the file, and each consecutive
+     *         pair of offsets defines one non-empty chunk.
+     * @throws IOException
+     *             If there is an error reading the file.
+     */
+    public static long[] findRecordBoundaries(final Path file, final int chunkCount,
+            final int headerLineCount, final CsvMapper mapper, final CsvSchema schema)
+            throws IOException {
+        return findRecordBoundaries(file, chunkCount, headerLineCount,
+                mapper.getFactory().isEnabled(CsvParser.Feature.TRIM_SPACES), schema);
+    }
+
+    private static long[] findRecordBoundaries(final Path file, final int chunkCount,
+            final int headerLineCount, final boolean trimSpaces, final CsvSchema schema)
+            throws IOException {
+        if (chunkCount < 1) {
+            throw new IllegalArgumentException("Chunk count must be at least 1: " + chunkCount);
+        }
+        final RecordScanner scanner = new RecordScanner(schema, trimSpaces);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+            final long fileSize = channel.size();
+            final long dataStart = scanner.skipRecords(channel, headerLineCount);
+            final long dataLength = fileSize - dataStart;
+            final List<Long> boundaries = new ArrayList<>(chunkCount + 1);
+            boundaries.add(dataStart);
+            if (chunkCount > 1 && dataLength > 0) {
+                final SegmentScan[] scans = scanSegments(channel, scanner, dataStart, dataLength,
+                        chunkCount);
+                // The first segment starts on the first data record, so only
+                // the later segments are used to find boundaries
+                for (int i = 1; i < scans.length; i++) {
+                    final SegmentScan nextScan = scans[i];
+                    final long nextBoundary = nextScan.isConverged() ? nextScan.convergedOffset
+                            : nextScan.recordEnd(stateAt(channel, scanner, scans, i));
+                    if (nextBoundary >= 0 && nextBoundary < fileSize
+                            && nextBoundary > boundaries.get(boundaries.size() - 1)) {
+                        boundaries.add(nextBoundary);
+                    }
+                }
+            }
+            if (boundaries.get(boundaries.size() - 1) < fileSize) {
+                boundaries.add(fileSize);
+            }
+            return boundaries.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    /**
+     * Scan the segments that start at each target offset in parallel.
+     */
+    private static SegmentScan[] scanSegments(final FileChannel channel,
+            final RecordScanner scanner, final long dataStart, final long dataLength,
+            final int chunkCount) throws IOException {
+        final long[] targets = new long[chunkCount + 1];
+        for (int i = 0; i <= chunkCount; i++) {
+            targets[i] = dataStart + (dataLength * i) / chunkCount;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(chunkCount, Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<SegmentScan>> futures = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                final long start = targets[i];
+                final long limit = targets[i + 1];
+                futures.add(executor.submit(() -> scanner.scanSegment(channel, start, limit)));
+            }
+            final SegmentScan[] result = new SegmentScan[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                result[i] = futures.get(i).get();
+            }
+            return result;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finding record boundaries", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to find record boundaries", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Find the state of the scanner at the start of the given segment, from
+     * the last segment before it where the states agreed, or from the start of
+     * the data records if there is none.
+     */
+    private static int stateAt(final FileChannel channel, final RecordScanner scanner,
+            final SegmentScan[] scans, final int segment) throws IOException {
+        int agreed = segment - 1;
+        while (agreed >= 0 && !scans[agreed].isConverged()) {
+            agreed--;
+        }
+        int state = agreed < 0 ? RecordScanner.FIELD_START
+                : scans[agreed].convergedEndState(channel, scanner);
+        for (int i = agreed + 1; i < segment; i++) {
+            state = scans[i].endState(state);
+        }
+        return state;
+    }
+
+    /**
+     * Open a UTF-8 {@link Reader} over the given byte range of the file.
+     *
+     * @param file
+     *            The file to read.
+     * @param start
+     *            The offset of the first byte to read, inclusive.
+     * @param end
+     *            The offset of the last byte to read, exclusive.
+     * @return A {@link Reader} that must be closed by the caller.
+     * @throws IOException
+     *             If there is an error opening the file.
+     */
+    public static Reader newChunkReader(final Path file, final long start, final long end)
+            throws IOException {
+        return newChunkReader(file, start, end, ProgressReporter.none());
+    }
+
+    /**
+     * Open a UTF-8 {@link Reader} over the given byte range of the file,
+     * counting the bytes that are read using the given
+     * {@link ProgressReporter}.
+     *
+     * @param file
+     *            The file to read.
+     * @param start
+     *            The offset of the first byte to read, inclusive.
+     * @param end
+     *            The offset of the last byte to read, exclusive.
+     * @param progress
+     *            The {@link ProgressReporter} to count bytes with.
+     * @return A {@link Reader} that must be closed by the caller.
+     * @throws IOException
+     *             If there is an error opening the file.
+     */
+    public static Reader newChunkReader(final Path file, final long start, final long end,
+            final ProgressReporter progress) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            channel.position(start);
+            return new BufferedReader(new InputStreamReader(
+                    progress.track(new BoundedInputStream(Channels.newInputStream(channel),
+                            end - start)),
+                    StandardCharsets.UTF_8), BUFFER_SIZE);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The result of scanning the bytes after a target offset, starting in each
+     * of the {@link RecordScanner#START_STATES} that are possible for the
+     * file.
+     */
+    private static final class SegmentScan {
+
+        private final long limit;
+        // The offset of the first record end for each start state, or -1 if
+        // there is no record end before the limit, if the states did not
+        // converge
+        private final long[] recordEnds;
+        // The state at the limit for each start state, if the states did not
+        // converge
+        private final int[] endStates;
+        // The offset of the first record end after the states converged, and
+        // the state there, or -1 if they did not converge before the limit
+        private final long convergedOffset;
+        private final int convergedState;
+        private int convergedEndState = -1;
+
+        SegmentScan(final long limit, final long[] recordEnds, final int[] endStates,
+                final long convergedOffset, final int convergedState) {
+            this.limit = limit;
+            this.recordEnds = recordEnds;
+            this.endStates = endStates;
+            this.convergedOffset = convergedOffset;
+            this.convergedState = convergedState;
+        }
+
+        boolean isConverged() {
+            return convergedOffset >= 0;
+        }
+
+        long recordEnd(final int startState) {
+            return recordEnds[RecordScanner.startStateIndex(startState)];
+        }
+
+        int endState(final int startState) {
+            return endStates[RecordScanner.startStateIndex(startState)];
+        }
+
+        /**
+         * @return The state at the limit, which is the same for every start
+         *         state, scanning the rest of the segment the first time it is
+         *         needed.
+         */
+        int convergedEndState(final FileChannel channel, final RecordScanner scanner)
+                throws IOException {
+            if (convergedEndState < 0) {
+                convergedEndState = scanner.scan(channel, convergedOffset, limit, convergedState);
+            }
+            return convergedEndState;
+        }
+    }
+
+    /**
+     * A byte level scanner that recognises the ends of records, based on the
+     * RFC4180 quoting rules with optional escape characters, and the line
+     * endings accepted by the Jackson CSV parser. As all of the structural
+     * characters are ASCII, this is safe to apply directly to UTF-8 encoded
+     * files.
+     * <br>
+     * A value is only quoted if the quote character is the first character in
+     * the value, as it is for the Jackson CSV parser, unless spaces are
+     * trimmed, in which case spaces before the quote are skipped. A carriage
+     * return ends a record, unless it is followed by a newline, in which case
+     * the record ends after the newline.
+     */
+    private static final class RecordScanner {
+
+        static final int FIELD_START = 0;
+        static final int UNQUOTED = 1;
+        static final int QUOTED = 2;
+        static final int AFTER_QUOTE = 3;
+        static final int AFTER_CR = 4;
+        // Added to a state when the next character is escaped
+        static final int ESCAPED = 8;
+
+        /**
+         * The states that the scanner may be in at an arbitrary offset. A
+         * carriage return is never escaped, so {@link #AFTER_CR} is never
+         * combined with {@link #ESCAPED}.
+         */
+        static final int[] START_STATES = { FIELD_START, UNQUOTED, QUOTED, AFTER_QUOTE,
+                AFTER_CR, FIELD_START + ESCAPED, UNQUOTED + ESCAPED, QUOTED + ESCAPED,
+                AFTER_QUOTE + ESCAPED };
+
+        // Returned by step to signal that a record ended before or after the
+        // byte that was scanned
+        private static final int END_BEFORE = 1 << 8;
+        private static final int END_AFTER = 1 << 9;
+        private static final int STATE_MASK = 0xFF;
+
+        private final int separator;
+        private final int quote;
+        private final int escape;
+        private final boolean trimSpaces;
+        private final int startStateCount;
+
+        RecordScanner(final CsvSchema schema, final boolean trimSpaces) {
+            this.separator = schema.getColumnSeparator();
+            this.quote = schema.usesQuoteChar() ? schema.getQuoteChar() : -1;
+            // An escape character that matches the quote character is handled
+            // by the doubled quote rule
+            this.escape = schema.usesEscapeChar() && schema.getEscapeChar() != this.quote
+                    ? schema.getEscapeChar()
+                    : -1;
+            this.trimSpaces = trimSpaces;
+            // The escaped states are not possible without an escape character
+            this.startStateCount = this.escape < 0 ? AFTER_CR + 1 : START_STATES.length;
+        }
+
+        static int startStateIndex(final int state) {
+            for (int i = 0; i < START_STATES.length; i++) {
+                if (START_STATES[i] == state) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Not a start state: " + state);
+        }
+
+        /**
+         * @return The state after the given byte, combined with
+         *         {@link #END_BEFORE} or {@link #END_AFTER} if a record ended
+         *         before or after the byte.
+         */
+        int step(final int state, final int next) {
+            if (state == AFTER_CR) {
+                if (next == '\n') {
+                    return FIELD_START | END_AFTER;
+                }
+                return step(FIELD_START, next) | END_BEFORE;
+            }
+            if ((state & ESCAPED) != 0) {
+                final int unescaped = state - ESCAPED;
+                return unescaped == FIELD_START ? UNQUOTED : unescaped;
+            }
+            if (next == escape) {
+                return state + ESCAPED;
+            }
+            switch (state) {
+            case QUOTED:
+                return next == quote ? AFTER_QUOTE : QUOTED;
+            case AFTER_QUOTE:
+                if (next == quote) {
+                    // Doubled quote inside of a quoted value
+                    return QUOTED;
+                }
+                // Fall through to treat the character as structural
+            default:
+                if (next == '\n') {
+                    return FIELD_START | END_AFTER;
+                } else if (next == '\r') {
+                    return AFTER_CR;
+                } else if (next == separator) {
+                    return FIELD_START;
+                } else if (state == FIELD_START) {
+                    if (next == quote) {
+                        return QUOTED;
+                    } else if (trimSpaces && next <= ' ') {
+                        // Skipped by the Jackson CSV parser when trimming
+                        return FIELD_START;
+                    }
+                }
+                return UNQUOTED;
+            }
+        }
+
+        /**
+         * Skip the given number of records from the start of the file.
+         *
+         * @return The offset immediately after the last record that was
+         *         skipped, or the length of the file if there were fewer
+         *         records.
+         */
+        long skipRecords(final FileChannel channel, final int recordCount) throws IOException {
+            final long fileSize = channel.size();
+            if (recordCount < 1) {
+                return 0;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int state = FIELD_START;
+            int skipped = 0;
+            long offset = 0;
+            while (offset < fileSize) {
+                buffer.clear();
+                final int length = channel.read(buffer, offset);
+                if (length < 0) {
+                    break;
+                }
+                for (int i = 0; i < length; i++) {
+                    final int result = step(state, buffer.get(i) & 0xFF);
+                    state = result & STATE_MASK;
+                    if ((result & END_BEFORE) != 0 && ++skipped == recordCount) {
+                        return offset + i;
+                    }
+                    if ((result & END_AFTER) != 0 && ++skipped == recordCount) {
+                        return offset + i + 1;
+                    }
+                }
+                offset += length;
+            }
+            return fileSize;
+        }
+
+        /**
+         * Scan the bytes from the start offset to the limit, starting in each
+         * of the possible start states, until all of the start states have
+         * reached the same state and then found a record end.
+         */
+        SegmentScan scanSegment(final FileChannel channel, final long start, final long limit)
+                throws IOException {
+            final int[] states = Arrays.copyOf(START_STATES, startStateCount);
+            final long[] recordEnds = new long[startStateCount];
+            Arrays.fill(recordEnds, -1);
+            boolean converged = false;
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long offset = start;
+            while (offset < limit) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, limit - offset));
+                final int length = channel.read(buffer, offset);
+                if (length < 0) {
+                    break;
+                }
+                for (int i = 0; i < length; i++) {
+                    final int next = buffer.get(i) & 0xFF;
+                    if (converged) {
+                        // Only one of the identical states needs to be scanned
+                        final int result = step(states[0], next);
+                        states[0] = result & STATE_MASK;
+                        if ((result & END_BEFORE) != 0) {
+                            return new SegmentScan(limit, null, null, offset + i, states[0]);
+                        } else if ((result & END_AFTER) != 0) {
+                            return new SegmentScan(limit, null, null, offset + i + 1, states[0]);
+                        }
+                        continue;
+                    }
+                    for (int j = 0; j < startStateCount; j++) {
+                        final int result = step(states[j], next);
+                        states[j] = result & STATE_MASK;
+                        if (recordEnds[j] < 0) {
+                            if ((result & END_BEFORE) != 0) {
+                                recordEnds[j] = offset + i;
+                            } else if ((result & END_AFTER) != 0) {
+                                recordEnds[j] = offset + i + 1;
+                            }
+                        }
+                    }
+                    converged = allEqual(states);
+                }
+                offset += length;
+            }
+            if (converged) {
+                Arrays.fill(states, states[0]);
+            }
+            return new SegmentScan(limit, recordEnds, states, -1, -1);
+        }
+
+        /**
+         * Scan the bytes from the start offset to the limit, starting in the
+         * given state.
+         *
+         * @return The state at the limit.
+         */
+        int scan(final FileChannel channel, final long start, final long limit, final int state)
+                throws IOException {
+            int result = state;
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long offset = start;
+            while (offset < limit) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, limit - offset));
+                final int length = channel.read(buffer, offset);
+                if (length < 0) {
+                    break;
+                }
+                for (int i = 0; i < length; i++) {
+                    result = step(result, buffer.get(i) & 0xFF) & STATE_MASK;
+                }
+                offset += length;
+            }
+            return result;
+        }
+
+        private static boolean allEqual(final int[] states) {
+            for (int i = 1; i < states.length; i++) {
+                if (states[i] != states[0]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -28,6 +28,7 @@ package com.github.ansell.csv.util;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
@@ -37,7 +38,9 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -47,9 +50,9 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collector;
@@ -57,14 +60,19 @@ import java.util.stream.Collectors;
 
 import javax.script.ScriptException;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.jooq.lambda.Seq;
 import org.jooq.lambda.Unchecked;
 import org.jooq.lambda.tuple.Tuple2;
 
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.github.ansell.csv.sort.CSVSorter;
+import com.github.ansell.csv.sort.StringList;
 import com.github.ansell.csv.stream.CSVStream;
+import com.github.ansell.csv.stream.CSVStreamException;
 import com.github.ansell.csv.util.ValueMapping.ValueMappingLanguage;
 import com.github.ansell.jdefaultdict.JDefaultDict;
 
@@ -80,6 +88,37 @@ public final class CSVUtil {
     public static final String COMMA_REGEX = "\\,";
     public static final Pattern COMMA_PATTERN = Pattern.compile(COMMA_REGEX);
 
+    /**
+     * The maximum number of partitions to split a file into at once for
+     * {@link JoinStrategy#GRACE_HASH}, which each have a file open while the
+     * file is being split.
+     */
+    private static final int MAX_PARTITIONS = 256;
+
+    /**
+     * The maximum number of times to split a partition that is too large
+     * again.
+     */
+    private static final int MAX_PARTITION_LEVELS = 4;
+
+    /**
+     * The first field of an input line that was joined to an other line in a
+     * joined partition.
+     */
+    private static final String JOINED_LINE = "J";
+
+    /**
+     * The first field of an input line that was not joined to an other line
+     * in a joined partition.
+     */
+    private static final String INPUT_LINE = "I";
+
+    /**
+     * The first field of an other line that was not joined to an input line
+     * in a joined partition.
+     */
+    private static final String OTHER_LINE = "O";
+
     private static final Collector<Tuple2<String, String>, ?, Map<String, Object>> TUPLE2_TO_MAP = Collectors
             .toMap(e -> e.v1(), e -> (String) e.v2());
 
@@ -205,6 +244,96 @@ public final class CSVUtil {
         return Seq.seq(inputHeader).zip(inputLine);
     }
 
+    /**
+     * Index the given lines by the values of the join fields.
+     *
+     * @param headers
+     *            The headers for the lines.
+     * @param lines
+     *            The lines to index.
+     * @param joinFields
+     *            The fields whose values are used to join lines.
+     * @return A map from the join key for each line, as created by
+     *         {@link #joinKey(Map, String[])}, to the first line with that key,
+     *         or an empty map if the headers do not contain all of the join
+     *         fields, as no line can be joined in that case.
+     */
+    private static Map<Object, List<String>> buildJoinIndex(List<String> headers,
+            List<List<String>> lines, String[] joinFields) {
+        final int[] joinIndexes = joinIndexes(headers, joinFields);
+        if (joinIndexes == null) {
+            return Collections.emptyMap();
+        }
+        final Map<Object, List<String>> result = new HashMap<>(lines.size() * 4 / 3 + 1);
+        for (final List<String> nextLine : lines) {
+            result.putIfAbsent(joinKey(nextLine, joinIndexes), nextLine);
+        }
+        return result;
+    }
+
+    /**
+     * @param headers
+     *            The headers for the lines to be joined.
+     * @param joinFields
+     *            The fields whose values are used to join lines.
+     * @return The index of each join field in the headers, or null if the
+     *         headers do not contain all of the join fields.
+     */
+    private static int[] joinIndexes(List<String> headers, String[] joinFields) {
+        final int[] result = new int[joinFields.length];
+        for (int i = 0; i < joinFields.length; i++) {
+            result[i] = headers.indexOf(joinFields[i]);
+            if (result[i] < 0) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create the join key for a line, matching the key created by
+     * {@link #joinKey(Map, String[])} for the same values.
+     *
+     * @param line
+     *            The line to create a key for.
+     * @param joinIndexes
+     *            The index of each join field in the line.
+     * @return The value of the join field if there is only one join field,
+     *         otherwise a list of the values of the join fields.
+     */
+    private static Object joinKey(List<String> line, int[] joinIndexes) {
+        if (joinIndexes.length == 1) {
+            return line.get(joinIndexes[0]);
+        }
+        final List<String> result = new ArrayList<>(joinIndexes.length);
+        for (final int nextIndex : joinIndexes) {
+            result.add(line.get(nextIndex));
+        }
+        return result;
+    }
+
+    /**
+     * Create the key to look up in an index from
+     * {@link #buildJoinIndex(List, List, String[])}.
+     *
+     * @param matchMap
+     *            The values to match for each join field.
+     * @param joinFields
+     *            The fields whose values are used to join lines.
+     * @return The value of the join field if there is only one join field,
+     *         otherwise a list of the values of the join fields.
+     */
+    private static Object joinKey(Map<String, Object> matchMap, String[] joinFields) {
+        if (joinFields.length == 1) {
+            return matchMap.get(joinFields[0]);
+        }
+        final List<Object> result = new ArrayList<>(joinFields.length);
+        for (final String nextField : joinFields) {
+            result.add(matchMap.get(nextField));
+        }
+        return result;
+    }
+
     /**
      * Joins the two input CSV files according to the {@link ValueMapping}s,
      * optionally applying the given prefixes to fields in the input and other
@@ -239,50 +368,239 @@ public final class CSVUtil {
     public static List<String> runJoiner(Reader input, Reader otherInput, List<ValueMapping> map,
             Writer output, String inputPrefix, String otherPrefix, boolean leftOuterJoin)
             throws ScriptException, IOException {
-        // TODO: Use the following measurements to determine what processing
-        // method to use
-        int inputFileBytes = -1;
-        int otherFileBytes = -1;
+        return runJoiner(input, otherInput, map, output, inputPrefix, otherPrefix, leftOuterJoin,
+                ProgressReporter.none());
+    }
+
+    /**
+     * Joins the two input CSV files according to the {@link ValueMapping}s,
+     * optionally applying the given prefixes to fields in the input and other
+     * inputs respectively.
+     *
+     * Can also perform a full outer join by setting leftOuterJoin to false.
+     *
+     * Progress is counted using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The reference input (left)
+     * @param otherInput
+     *            The input to join against (right)
+     * @param map
+     *            The mappings to apply and use to define the join fields
+     * @param output
+     *            The Writer which will receive the output CSV file containing
+     *            the results of the join
+     * @param inputPrefix
+     *            An optional prefix to apply to all of the fields in the input
+     *            file, set to the empty string to disable it.
+     * @param otherPrefix
+     *            An optional prefix to apply to all of the fields in the other
+     *            file, set to the empty string to disable it.
+     * @param leftOuterJoin
+     *            True to use a left outer join and false to use a full outer
+     *            join.
+     * @param progress
+     *            The {@link ProgressReporter} to count the rows and bytes from
+     *            the reference input with.
+     * @return The output headers for the joined file.
+     * @throws ScriptException
+     *             If there are issues mapping fields.
+     * @throws IOException
+     *             If there are issues reading or writing files.
+     */
+    public static List<String> runJoiner(Reader input, Reader otherInput, List<ValueMapping> map,
+            Writer output, String inputPrefix, String otherPrefix, boolean leftOuterJoin,
+            ProgressReporter progress) throws ScriptException, IOException {
+        return runJoiner(input, otherInput, map, output, inputPrefix, otherPrefix,
+                leftOuterJoin ? JoinType.LEFT_OUTER : JoinType.FULL_OUTER, JoinStrategy.HASH,
+                progress);
+    }
 
-        final Path tempInputFile = Files.createTempFile("tempInputFile-", ".csv");
+    /**
+     * Joins the two input CSV files according to the {@link ValueMapping}s,
+     * optionally applying the given prefixes to fields in the input and other
+     * inputs respectively.
+     *
+     * Progress is counted using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The reference input (left)
+     * @param otherInput
+     *            The input to join against (right)
+     * @param map
+     *            The mappings to apply and use to define the join fields
+     * @param output
+     *            The Writer which will receive the output CSV file containing
+     *            the results of the join
+     * @param inputPrefix
+     *            An optional prefix to apply to all of the fields in the input
+     *            file, set to the empty string to disable it.
+     * @param otherPrefix
+     *            An optional prefix to apply to all of the fields in the other
+     *            file, set to the empty string to disable it.
+     * @param joinType
+     *            The {@link JoinType} that decides which lines are output.
+     * @param joinStrategy
+     *            The {@link JoinStrategy} to use to find the lines to join.
+     * @param progress
+     *            The {@link ProgressReporter} to count the rows and bytes from
+     *            the reference input with.
+     * @return The output headers for the joined file.
+     * @throws ScriptException
+     *             If there are issues mapping fields.
+     * @throws IOException
+     *             If there are issues reading or writing files.
+     */
+    public static List<String> runJoiner(Reader input, Reader otherInput, List<ValueMapping> map,
+            Writer output, String inputPrefix, String otherPrefix, JoinType joinType,
+            JoinStrategy joinStrategy, ProgressReporter progress)
+            throws ScriptException, IOException {
+        return runJoiner(input, otherInput, map, output, inputPrefix, otherPrefix, joinType,
+                joinStrategy, null, Runtime.getRuntime().maxMemory(), progress);
+    }
+
+    /**
+     * Joins the two input CSV files according to the {@link ValueMapping}s,
+     * optionally applying the given prefixes to fields in the input and other
+     * inputs respectively.
+     *
+     * The {@link JoinStrategy#SORT_MERGE} strategy sorts both files on disk
+     * before joining them, so the output lines are in the order of the join
+     * fields rather than the order of the input file. If the other file
+     * contains several lines with the same join fields, one of them is joined
+     * to the input lines with those join fields.
+     *
+     * The {@link JoinStrategy#GRACE_HASH} strategy splits both files on disk
+     * into partitions by the hash of their join fields, and joins the
+     * partitions in parallel. The output lines are in the order of the input
+     * file within each partition.
+     *
+     * The inputs are copied to temporary files before they are joined. Use
+     * {@link #runJoiner(Path, Path, List, Writer, String, String, JoinType, JoinStrategy, Path, long, ProgressReporter)}
+     * to join files directly.
+     *
+     * Progress is counted using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The reference input (left)
+     * @param otherInput
+     *            The input to join against (right)
+     * @param map
+     *            The mappings to apply and use to define the join fields
+     * @param output
+     *            The Writer which will receive the output CSV file containing
+     *            the results of the join
+     * @param inputPrefix
+     *            An optional prefix to apply to all of the fields in the input
+     *            file, set to the empty string to disable it.
+     * @param otherPrefix
+     *            An optional prefix to apply to all of the fields in the other
+     *            file, set to the empty string to disable it.
+     * @param joinType
+     *            The {@link JoinType} that decides which lines are output.
+     * @param joinStrategy
+     *            The {@link JoinStrategy} to use to find the lines to join.
+     * @param spillDirectory
+     *            The directory to write temporary files to, or null to use
+     *            the default temporary directory.
+     * @param maxMemory
+     *            The maximum number of bytes of memory to use for lines held
+     *            in memory while joining.
+     * @param progress
+     *            The {@link ProgressReporter} to count the rows and bytes from
+     *            the reference input with.
+     * @return The output headers for the joined file.
+     * @throws ScriptException
+     *             If there are issues mapping fields.
+     * @throws IOException
+     *             If there are issues reading or writing files.
+     */
+    public static List<String> runJoiner(Reader input, Reader otherInput, List<ValueMapping> map,
+            Writer output, String inputPrefix, String otherPrefix, JoinType joinType,
+            JoinStrategy joinStrategy, Path spillDirectory, long maxMemory,
+            ProgressReporter progress) throws ScriptException, IOException {
+        final Path tempInputFile = createTempFile(spillDirectory, "tempInputFile-", ".csv");
         try (final BufferedWriter tempOutput = Files.newBufferedWriter(tempInputFile,
                 StandardCharsets.UTF_8);) {
-            inputFileBytes = IOUtils.copy(input, tempOutput);
+            IOUtils.copy(input, tempOutput);
         }
 
-        final Path tempOtherFile = Files.createTempFile("tempOtherFile-", ".csv");
+        final Path tempOtherFile = createTempFile(spillDirectory, "tempOtherFile-", ".csv");
         try (final BufferedWriter tempOtherOutput = Files.newBufferedWriter(tempOtherFile,
                 StandardCharsets.UTF_8);) {
-            otherFileBytes = IOUtils.copy(otherInput, tempOtherOutput);
+            IOUtils.copy(otherInput, tempOtherOutput);
         }
 
-        if (inputFileBytes < otherFileBytes) {
-            // TODO: Swap source and destination so that in-memory set is the
-            // smaller of the
-            // two
+        try {
+            return runJoiner(tempInputFile, tempOtherFile, map, output, inputPrefix, otherPrefix,
+                    joinType, joinStrategy, spillDirectory, maxMemory, progress);
+        } finally {
+            Files.deleteIfExists(tempInputFile);
+            Files.deleteIfExists(tempOtherFile);
         }
+    }
 
+    /**
+     * Joins the two input CSV files according to the {@link ValueMapping}s,
+     * optionally applying the given prefixes to fields in the input and other
+     * inputs respectively.
+     *
+     * The {@link JoinStrategy#SORT_MERGE} strategy sorts both files on disk
+     * before joining them, so the output lines are in the order of the join
+     * fields rather than the order of the input file. If the other file
+     * contains several lines with the same join fields, one of them is joined
+     * to the input lines with those join fields.
+     *
+     * The {@link JoinStrategy#GRACE_HASH} strategy splits both files on disk
+     * into partitions by the hash of their join fields, and joins the
+     * partitions in parallel. The output lines are in the order of the input
+     * file within each partition.
+     *
+     * The files are read directly, and may be read more than once, so they
+     * must not be changed while they are being joined.
+     *
+     * Progress is counted using the given {@link ProgressReporter}.
+     *
+     * @param input
+     *            The reference input file (left)
+     * @param otherInput
+     *            The file to join against (right)
+     * @param map
+     *            The mappings to apply and use to define the join fields
+     * @param output
+     *            The Writer which will receive the output CSV file containing
+     *            the results of the join
+     * @param inputPrefix
+     *            An optional prefix to apply to all of the fields in the input
+     *            file, set to the empty string to disable it.
+     * @param otherPrefix
+     *            An optional prefix to apply to all of the fields in the other
+     *            file, set to the empty string to disable it.
+     * @param joinType
+     *            The {@link JoinType} that decides which lines are output.
+     * @param joinStrategy
+     *            The {@link JoinStrategy} to use to find the lines to join.
+     * @param spillDirectory
+     *            The directory to write temporary files to, or null to use
+     *            the default temporary directory.
+     * @param maxMemory
+     *            The maximum number of bytes of memory to use for lines held
+     *            in memory while joining.
+     * @param progress
+     *            The {@link ProgressReporter} to count the rows and bytes from
+     *            the reference input with.
+     * @return The output headers for the joined file.
+     * @throws ScriptException
+     *             If there are issues mapping fields.
+     * @throws IOException
+     *             If there are issues reading or writing files.
+     */
+    public static List<String> runJoiner(Path input, Path otherInput, List<ValueMapping> map,
+            Writer output, String inputPrefix, String otherPrefix, JoinType joinType,
+            JoinStrategy joinStrategy, Path spillDirectory, long maxMemory,
+            ProgressReporter progress) throws ScriptException, IOException {
+        Path tempSpillDirectory = null;
         try {
-            final List<String> otherH = new ArrayList<>();
-            final List<List<String>> otherLines = new ArrayList<>();
-
-            System.out.println("Starting adding other lines to in-memory list...");
-            try (final BufferedReader otherTemp = Files.newBufferedReader(tempOtherFile,
-                    StandardCharsets.UTF_8)) {
-                CSVStream.parse(otherTemp,
-                        otherHeader -> otherHeader.forEach(h -> otherH.add(otherPrefix + h)),
-                        (otherHeader, otherL) -> {
-                            return otherL;
-                        }, otherL -> {
-                            otherLines.add(new ArrayList<>(otherL));
-                        });
-            }
-            System.out.println("Completed adding other lines to in-memory list.");
-            // Create a set for efficient lookup
-            final Set<String> otherHSet = new HashSet<>(otherH);
-
-            final Function<ValueMapping, String> outputFields = e -> e.getOutputField();
-
             final List<String> outputHeaders = ValueMapping.getOutputFieldsFromList(map);
             final Map<String, String> defaultValues = ValueMapping.getDefaultValuesFromList(map);
 
@@ -302,6 +620,166 @@ public final class CSVUtil {
             final String[] destFields = m.getDestFields();
             final String[] sourceFields = m.getSourceFields();
 
+            // If several threads ever join lines at once, each thread must be
+            // given a separate temporaryMatchMap
+            final Map<String, Object> temporaryMatchMap = new HashMap<>(destFields.length,
+                    0.75f);
+
+            final List<String> inputHeaders = new ArrayList<>();
+            final List<String> otherH = new ArrayList<>();
+            // Only the smaller file is held in memory for a hash join. If the
+            // input is smaller, the other file is streamed to find the other
+            // line for each join key used by the input, and streamed again for
+            // a full outer join. The lines are still joined and mapped in the
+            // same order, so the result does not depend on which file is held.
+            final boolean holdInput = joinStrategy == JoinStrategy.HASH
+                    && Files.size(input) < Files.size(otherInput);
+            final List<List<String>> inputLines = new ArrayList<>();
+            final List<List<String>> otherLines = new ArrayList<>();
+            final Map<Object, List<String>> otherIndex;
+            final AtomicReference<List<String>> firstOtherLine = new AtomicReference<>();
+            Path sortedInputFile = null;
+            Path sortedOtherFile = null;
+            int[] inputJoinIndexes = null;
+            int[] otherJoinIndexes = null;
+            int partitions = 0;
+            int partitionWorkers = 0;
+
+            progress.setTotalBytes(Files.size(input));
+            if (joinStrategy == JoinStrategy.SORT_MERGE || joinStrategy == JoinStrategy.GRACE_HASH) {
+                readHeaders(input).forEach(h -> inputHeaders.add(inputPrefix + h));
+                readHeaders(otherInput).forEach(h -> otherH.add(otherPrefix + h));
+                inputJoinIndexes = joinIndexes(inputHeaders, sourceFields);
+                if (inputJoinIndexes == null) {
+                    throw new RuntimeException(
+                            "Input headers did not contain the fields required for mapping: fields="
+                                    + Arrays.toString(sourceFields) + " mapping=" + m
+                                    + " headers=" + inputHeaders);
+                }
+                otherJoinIndexes = joinIndexes(otherH, destFields);
+                tempSpillDirectory = spillDirectory == null
+                        ? Files.createTempDirectory("tempSpillDirectory-")
+                        : Files.createTempDirectory(spillDirectory, "tempSpillDirectory-");
+            }
+
+            if (joinStrategy == JoinStrategy.SORT_MERGE) {
+                // Neither file is held in memory. Both are sorted on disk by
+                // their join fields, so lines with the same join fields can be
+                // found by reading the sorted files together
+                System.err.println("Starting sorting lines by join fields...");
+                sortedInputFile = tempSpillDirectory.resolve("sorted-input.csv");
+                try (final BufferedReader inputTemp = new BufferedReader(new InputStreamReader(
+                        progress.track(Files.newInputStream(input)),
+                        StandardCharsets.UTF_8))) {
+                    CSVSorter.runSorter(inputTemp, sortedInputFile, 1, CSVStream.defaultSchema(),
+                            joinKeyComparator(inputJoinIndexes), false);
+                }
+                // The other lines are joined in file order if the join
+                // fields are not available to sort them on
+                sortedOtherFile = otherInput;
+                if (otherJoinIndexes != null) {
+                    sortedOtherFile = tempSpillDirectory.resolve("sorted-other.csv");
+                    try (final BufferedReader otherTemp = Files.newBufferedReader(otherInput,
+                            StandardCharsets.UTF_8)) {
+                        CSVSorter.runSorter(otherTemp, sortedOtherFile, 1,
+                                CSVStream.defaultSchema(), joinKeyComparator(otherJoinIndexes),
+                                false);
+                    }
+                }
+                System.err.println("Completed sorting lines by join fields.");
+                otherIndex = Collections.emptyMap();
+            } else if (joinStrategy == JoinStrategy.GRACE_HASH) {
+                // Neither file is held in memory. Both are split into
+                // partitions by the hash of their join fields, so lines with
+                // the same join fields are in the same pair of partitions, and
+                // each pair is small enough to join in memory
+                partitionWorkers = Runtime.getRuntime().availableProcessors();
+                partitions = otherJoinIndexes == null ? 1
+                        : partitionCount(Files.size(otherInput),
+                                maxMemory / partitionWorkers);
+                partitionWorkers = Math.min(partitionWorkers, partitions);
+                System.err.println("Starting partitioning lines into " + partitions
+                        + " partitions by join fields...");
+                try (final BufferedReader inputTemp = new BufferedReader(new InputStreamReader(
+                        progress.track(Files.newInputStream(input)),
+                        StandardCharsets.UTF_8))) {
+                    partitionLines(inputTemp, true, inputHeaders.size(), inputJoinIndexes, 0,
+                            partitions, tempSpillDirectory, "input-");
+                }
+                try (final BufferedReader otherTemp = Files.newBufferedReader(otherInput,
+                        StandardCharsets.UTF_8)) {
+                    partitionLines(otherTemp, true, otherH.size(), otherJoinIndexes, 0,
+                            partitions, tempSpillDirectory, "other-");
+                }
+                System.err.println("Completed partitioning lines by join fields.");
+                otherIndex = Collections.emptyMap();
+            } else if (holdInput) {
+                System.err.println("Starting adding input lines to in-memory list...");
+                try (final BufferedReader inputTemp = new BufferedReader(new InputStreamReader(
+                        progress.track(Files.newInputStream(input)),
+                        StandardCharsets.UTF_8))) {
+                    CSVStream.parse(inputTemp,
+                            h -> h.forEach(nextH -> inputHeaders.add(inputPrefix + nextH)),
+                            (h, l) -> {
+                                return l;
+                            }, l -> {
+                                inputLines.add(new ArrayList<>(l));
+                            });
+                }
+                System.err.println("Completed adding input lines to in-memory list.");
+
+                final Set<Object> inputKeys = new HashSet<>();
+                for (final List<String> nextLine : inputLines) {
+                    final Map<String, Object> matchMap = buildMatchMap(m, inputHeaders, nextLine,
+                            false, temporaryMatchMap, sourceFields, destFields);
+                    if (!matchMap.isEmpty()) {
+                        inputKeys.add(joinKey(matchMap, destFields));
+                    }
+                }
+
+                final Map<Object, List<String>> usedOtherLines = new HashMap<>();
+                final AtomicReference<int[]> otherHeaderJoinIndexes = new AtomicReference<>();
+                try (final BufferedReader otherTemp = Files.newBufferedReader(otherInput,
+                        StandardCharsets.UTF_8)) {
+                    CSVStream.parse(otherTemp, otherHeader -> {
+                        otherHeader.forEach(h -> otherH.add(otherPrefix + h));
+                        otherHeaderJoinIndexes.set(joinIndexes(otherH, destFields));
+                    }, (otherHeader, otherL) -> {
+                        return otherL;
+                    }, otherL -> {
+                        firstOtherLine.compareAndSet(null, new ArrayList<>(otherL));
+                        if (otherHeaderJoinIndexes.get() != null) {
+                            final Object nextKey = joinKey(otherL, otherHeaderJoinIndexes.get());
+                            if (inputKeys.contains(nextKey)
+                                    && !usedOtherLines.containsKey(nextKey)) {
+                                usedOtherLines.put(nextKey, new ArrayList<>(otherL));
+                            }
+                        }
+                    });
+                }
+                otherIndex = usedOtherLines;
+            } else {
+                System.err.println("Starting adding other lines to in-memory list...");
+                try (final BufferedReader otherTemp = Files.newBufferedReader(otherInput,
+                        StandardCharsets.UTF_8)) {
+                    CSVStream.parse(otherTemp,
+                            otherHeader -> otherHeader.forEach(h -> otherH.add(otherPrefix + h)),
+                            (otherHeader, otherL) -> {
+                                return otherL;
+                            }, otherL -> {
+                                otherLines.add(new ArrayList<>(otherL));
+                            });
+                }
+                System.err.println("Completed adding other lines to in-memory list.");
+                if (!otherLines.isEmpty()) {
+                    firstOtherLine.set(otherLines.get(0));
+                }
+
+                // Index the other lines by their join field values once, so
+                // each input line is joined using a lookup instead of a scan
+                otherIndex = buildJoinIndex(otherH, otherLines, destFields);
+            }
+
             final CsvSchema schema = CSVStream.buildSchema(outputHeaders);
             final Writer writer = output;
 
@@ -316,7 +794,6 @@ public final class CSVUtil {
                 final List<String> previousMappedLine = new ArrayList<>();
                 final AtomicInteger lineNumber = new AtomicInteger(0);
                 final AtomicInteger filteredLineNumber = new AtomicInteger(0);
-                final long startTime = System.currentTimeMillis();
                 final BiConsumer<List<String>, List<String>> mapLineConsumer = Unchecked
                         .biConsumer((line, mapped) -> {
                             previousLine.clear();
@@ -325,151 +802,614 @@ public final class CSVUtil {
                             previousMappedLine.addAll(mapped);
                             csvWriter.write(mapped);
                         });
-                // If the streamCSV below is parallelised, each thread must be
-                // given
-                // a separate temporaryMatchMap
-                // Map<String, Object> temporaryMatchMap = new
-                // HashMap<>(destFields.length, 0.75f);
-                // Map<String, Object> temporaryMatchMap = new
-                // LinkedHashMap<>(destFields.length, 0.75f);
-                // final Map<String, Object> temporaryMatchMap = new
-                // ConcurrentHashMap<>(destFields.length, 0.75f, 4);
-                final Map<String, Object> temporaryMatchMap = new HashMap<>(destFields.length,
-                        0.75f);
-
-                final List<String> inputHeaders = new ArrayList<>();
-                try (final BufferedReader inputTemp = Files.newBufferedReader(tempInputFile,
-                        StandardCharsets.UTF_8)) {
-                    CSVStream.parse(inputTemp,
-                            h -> h.forEach(nextH -> inputHeaders.add(inputPrefix + nextH)),
-                            (h, l) -> {
-                                final int nextLineNumber = lineNumber.incrementAndGet();
-                                if (nextLineNumber % 1000 == 0) {
-                                    final double secondsSinceStart = (System.currentTimeMillis()
-                                            - startTime) / 1000.0d;
-                                    System.out.printf(
-                                            "%d\tSeconds since start: %f\tRecords per second: %f%n",
-                                            nextLineNumber, secondsSinceStart,
-                                            nextLineNumber / secondsSinceStart);
-                                }
-                                final int nextFilteredLineNumber = filteredLineNumber
-                                        .incrementAndGet();
-                                try {
-                                    final List<String> mergedInputHeaders = new ArrayList<>(
-                                            inputHeaders);
-                                    final List<String> nextMergedLine = new ArrayList<>(l);
-
-                                    final Map<String, Object> matchMap = buildMatchMap(m,
-                                            mergedInputHeaders, nextMergedLine, false,
-                                            temporaryMatchMap, sourceFields, destFields);
-                                    final Predicate<List<String>> otherLinePredicate = otherL -> {
-                                        return !matchMap.entrySet().stream()
-                                                .filter(nextOtherFieldMatcher -> {
-                                                    final String key = nextOtherFieldMatcher
-                                                            .getKey();
-                                                    return !otherHSet.contains(key)
-                                                            || !otherL.get(otherH.indexOf(key))
-                                                                    .equals(nextOtherFieldMatcher
-                                                                            .getValue());
-                                                }).findAny().isPresent();
-                                    };
-                                    final Consumer<List<String>> otherLineConsumer = otherL -> {
-                                        matchedOtherLines.add(otherL);
-                                        final Map<String, Object> leftOuterJoinMap = leftOuterJoin(
-                                                m, mergedInputHeaders, nextMergedLine, otherH,
-                                                otherL, false);
-                                        nonMergeFieldsOrdered.stream()
-                                                .map(nextMapping -> nextMapping.getInputField())
-                                                .forEachOrdered(inputField -> {
-                                                    if (leftOuterJoinMap.containsKey(inputField)
-                                                            && !mergedInputHeaders
-                                                                    .contains(inputField)) {
-                                                        mergedInputHeaders.add(inputField);
-                                                        nextMergedLine.add((String) leftOuterJoinMap
-                                                                .get(inputField));
-                                                    }
-                                                });
-                                    };
-                                    otherLines.parallelStream().filter(otherLinePredicate).findAny()
-                                            .ifPresent(otherLineConsumer);
-
-                                    final List<String> mapLine = ValueMapping
-                                            .mapLine(new ValueMappingContext(mergedInputHeaders,
-                                                    nextMergedLine, previousLine,
-                                                    previousMappedLine, map, primaryKeys,
-                                                    valueCounts, nextLineNumber,
-                                                    nextFilteredLineNumber, mapLineConsumer,
-                                                    outputHeaders, defaultValues,
-                                                    Optional.empty()));
-                                    mapLineConsumer.accept(nextMergedLine, mapLine);
-
-                                } catch (final LineFilteredException e) {
-                                    // Swallow line filtered exception and
-                                    // return
-                                    // null
-                                    // below to eliminate it
-                                    // We expect streamCSV to operate in
-                                    // sequential
-                                    // order, print a warning if it doesn't
-                                    final boolean success = filteredLineNumber.compareAndSet(
-                                            nextFilteredLineNumber, nextFilteredLineNumber - 1);
-                                    if (!success) {
-                                        System.out.println("Line numbers may not be consistent");
-                                    }
-                                }
-                                return null;
-                            }, l -> {
-                            });
-                }
-                if (!leftOuterJoin) {
-                    final Consumer<List<String>> fullOuterJoinConsumer = Unchecked.consumer(l -> {
-                        final int nextLineNumber = lineNumber.incrementAndGet();
-                        final int nextFilteredLineNumber = filteredLineNumber.incrementAndGet();
-                        try {
-                            final List<String> mergedInputHeaders = new ArrayList<>(inputHeaders);
-                            final List<String> nextMergedLine = new ArrayList<>(l);
+
+                // A single context is reset for each line, as the lines are
+                // mapped in order on this thread. The merged headers can be
+                // different for each line, so they are reset too
+                final ValueMappingContext context = new ValueMappingContext(inputHeaders, null,
+                        previousLine, previousMappedLine, map, primaryKeys, valueCounts, 0, 0,
+                        mapLineConsumer, outputHeaders, defaultValues, Optional.empty());
+                // Joins an input line to the other line found for it, which is
+                // null if no other line was found
+                final BiConsumer<List<String>, List<String>> joinLineConsumer = (l,
+                        otherLine) -> {
+                    final int nextLineNumber = lineNumber.incrementAndGet();
+                    progress.increment();
+                    if (otherLine == null && joinType == JoinType.INNER) {
+                        return;
+                    }
+                    final int nextFilteredLineNumber = filteredLineNumber.incrementAndGet();
+                    try {
+                        final List<String> mergedInputHeaders = new ArrayList<>(inputHeaders);
+                        final List<String> nextMergedLine = new ArrayList<>(l);
+
+                        final Consumer<List<String>> otherLineConsumer = otherL -> {
+                            // The other strategies find the unmatched other
+                            // lines themselves, without holding the lines
+                            if (joinStrategy == JoinStrategy.HASH) {
+                                matchedOtherLines.add(otherL);
+                            }
+                            final Map<String, Object> leftOuterJoinMap = leftOuterJoin(m,
+                                    mergedInputHeaders, nextMergedLine, otherH, otherL, false);
                             nonMergeFieldsOrdered.stream()
                                     .map(nextMapping -> nextMapping.getInputField())
                                     .forEachOrdered(inputField -> {
-                                        if (otherH.contains(inputField)
+                                        if (leftOuterJoinMap.containsKey(inputField)
                                                 && !mergedInputHeaders.contains(inputField)) {
                                             mergedInputHeaders.add(inputField);
-                                            nextMergedLine.add(l.get(otherH.indexOf(inputField)));
+                                            nextMergedLine
+                                                    .add((String) leftOuterJoinMap.get(inputField));
                                         }
                                     });
+                        };
+                        if (otherLine != null) {
+                            otherLineConsumer.accept(otherLine);
+                        }
+
+                        final List<String> mapLine = ValueMapping.mapLine(
+                                context.reset(mergedInputHeaders, nextMergedLine, nextLineNumber,
+                                        nextFilteredLineNumber, Optional.empty()));
+                        mapLineConsumer.accept(nextMergedLine, mapLine);
 
-                            final List<String> mapLine = ValueMapping.mapLine(
-                                    new ValueMappingContext(otherH, nextMergedLine, previousLine,
-                                            previousMappedLine, map, primaryKeys, valueCounts,
-                                            nextLineNumber, nextFilteredLineNumber, mapLineConsumer,
-                                            outputHeaders, defaultValues, Optional.empty()));
-                            mapLineConsumer.accept(nextMergedLine, mapLine);
-                        } catch (final LineFilteredException e) {
-                            // Swallow line filtered exception and return
-                            // null below to eliminate it
-                            // We expect streamCSV to operate in sequential
-                            // order, print a warning if it doesn't
-                            final boolean success = filteredLineNumber.compareAndSet(
-                                    nextFilteredLineNumber, nextFilteredLineNumber - 1);
-                            if (!success) {
-                                System.out.println("Line numbers may not be consistent");
+                    } catch (final LineFilteredException e) {
+                        // Swallow line filtered exception and return null
+                        // below to eliminate it
+                        // We expect streamCSV to operate in sequential order,
+                        // print a warning if it doesn't
+                        final boolean success = filteredLineNumber.compareAndSet(
+                                nextFilteredLineNumber, nextFilteredLineNumber - 1);
+                        if (!success) {
+                            System.out.println("Line numbers may not be consistent");
+                        }
+                    }
+                };
+                final Consumer<List<String>> inputLineConsumer = l -> {
+                    final Map<String, Object> matchMap = buildMatchMap(m, inputHeaders, l, false,
+                            temporaryMatchMap, sourceFields, destFields);
+                    // An empty match map has no fields to compare, so it
+                    // matches any other line
+                    if (matchMap.isEmpty()) {
+                        joinLineConsumer.accept(l, firstOtherLine.get());
+                    } else {
+                        joinLineConsumer.accept(l, otherIndex.get(joinKey(matchMap, destFields)));
+                    }
+                };
+                final Consumer<List<String>> fullOuterJoinConsumer = Unchecked.consumer(l -> {
+                    final int nextLineNumber = lineNumber.incrementAndGet();
+                    final int nextFilteredLineNumber = filteredLineNumber.incrementAndGet();
+                    try {
+                        final List<String> mergedInputHeaders = new ArrayList<>(inputHeaders);
+                        final List<String> nextMergedLine = new ArrayList<>(l);
+                        nonMergeFieldsOrdered.stream()
+                                .map(nextMapping -> nextMapping.getInputField())
+                                .forEachOrdered(inputField -> {
+                                    if (otherH.contains(inputField)
+                                            && !mergedInputHeaders.contains(inputField)) {
+                                        mergedInputHeaders.add(inputField);
+                                        nextMergedLine.add(l.get(otherH.indexOf(inputField)));
+                                    }
+                                });
+
+                        final List<String> mapLine = ValueMapping
+                                .mapLine(context.reset(otherH, nextMergedLine, nextLineNumber,
+                                        nextFilteredLineNumber, Optional.empty()));
+                        mapLineConsumer.accept(nextMergedLine, mapLine);
+                    } catch (final LineFilteredException e) {
+                        // Swallow line filtered exception and return
+                        // null below to eliminate it
+                        // We expect streamCSV to operate in sequential
+                        // order, print a warning if it doesn't
+                        final boolean success = filteredLineNumber.compareAndSet(
+                                nextFilteredLineNumber, nextFilteredLineNumber - 1);
+                        if (!success) {
+                            System.out.println("Line numbers may not be consistent");
+                        }
+                    }
+                });
+                // Any line that nevermatched any join lines must, for left
+                // outer join, be
+                // emitted separately
+                final Predicate<List<String>> fullOuterJoinPredicate = l -> !matchedOtherLines
+                        .contains(l);
+
+                final Consumer<List<String>> unmatchedOtherLineConsumer = joinType == JoinType.FULL_OUTER
+                        ? fullOuterJoinConsumer
+                        : l -> {
+                        };
+
+                if (joinStrategy == JoinStrategy.SORT_MERGE) {
+                    mergeSortedLines(sortedInputFile, inputJoinIndexes, sortedOtherFile,
+                            otherJoinIndexes, joinLineConsumer, unmatchedOtherLineConsumer);
+                } else if (joinStrategy == JoinStrategy.GRACE_HASH) {
+                    joinPartitions(tempSpillDirectory, partitions, partitionWorkers,
+                            inputHeaders.size(), inputJoinIndexes, otherJoinIndexes,
+                            joinType == JoinType.FULL_OUTER, maxMemory, joinLineConsumer,
+                            unmatchedOtherLineConsumer);
+                } else {
+                    if (holdInput) {
+                        inputLines.forEach(inputLineConsumer);
+                    } else {
+                        try (final BufferedReader inputTemp = new BufferedReader(
+                                new InputStreamReader(
+                                        progress.track(Files.newInputStream(input)),
+                                        StandardCharsets.UTF_8))) {
+                            CSVStream.parse(inputTemp,
+                                    h -> h.forEach(nextH -> inputHeaders.add(inputPrefix + nextH)),
+                                    (h, l) -> {
+                                        inputLineConsumer.accept(l);
+                                        return null;
+                                    }, l -> {
+                                    });
+                        }
+                    }
+                    if (joinType == JoinType.FULL_OUTER) {
+                        if (holdInput) {
+                            try (final BufferedReader otherTemp = Files
+                                    .newBufferedReader(otherInput, StandardCharsets.UTF_8)) {
+                                CSVStream.parse(otherTemp, otherHeader -> {
+                                }, (otherHeader, otherL) -> {
+                                    return otherL;
+                                }, otherL -> {
+                                    if (fullOuterJoinPredicate.test(otherL)) {
+                                        fullOuterJoinConsumer.accept(new ArrayList<>(otherL));
+                                    }
+                                });
                             }
+                        } else {
+                            otherLines.stream().filter(fullOuterJoinPredicate)
+                                    .forEach(fullOuterJoinConsumer);
                         }
-                    });
-                    // Any line that nevermatched any join lines must, for left
-                    // outer join, be
-                    // emitted separately
-                    final Predicate<List<String>> fullOuterJoinPredicate = l -> !matchedOtherLines
-                            .contains(l);
-                    otherLines.stream().filter(fullOuterJoinPredicate)
-                            .forEach(fullOuterJoinConsumer);
+                    }
                 }
             }
 
             return outputHeaders;
         } finally {
-            Files.deleteIfExists(tempInputFile);
-            Files.deleteIfExists(tempOtherFile);
+            if (tempSpillDirectory != null) {
+                FileUtils.deleteQuietly(tempSpillDirectory.toFile());
+            }
+        }
+    }
+
+    private static Path createTempFile(Path directory, String prefix, String suffix)
+            throws IOException {
+        if (directory == null) {
+            return Files.createTempFile(prefix, suffix);
+        }
+        return Files.createTempFile(directory, prefix, suffix);
+    }
+
+    /**
+     * Split the lines from a file into partitions by the hash of their join
+     * fields, writing each partition to a separate file without headers.
+     *
+     * @param reader
+     *            The lines to split.
+     * @param skipHeader
+     *            True if the first line is a header line that must not be
+     *            written to the partitions.
+     * @param fieldCount
+     *            The number of fields that each line must have, or -1 if the
+     *            lines were already checked.
+     * @param joinIndexes
+     *            The index of each join field in the lines, or null to write
+     *            all of the lines to the first partition.
+     * @param level
+     *            The number of times these lines have been split before, so
+     *            lines that were in the same partition can be split again.
+     * @param partitions
+     *            The number of partitions.
+     * @param directory
+     *            The directory to write the partitions to.
+     * @param prefix
+     *            The prefix for the names of the partition files, followed by
+     *            the number of the partition.
+     * @return The partition files, in order.
+     * @throws IOException
+     *             If there are issues reading or writing files.
+     */
+    private static List<Path> partitionLines(Reader reader, boolean skipHeader, int fieldCount,
+            int[] joinIndexes, int level, int partitions, Path directory, String prefix)
+            throws IOException {
+        final List<Path> partitionFiles = new ArrayList<>(partitions);
+        final List<Writer> writers = new ArrayList<>(partitions);
+        final List<SequenceWriter> csvWriters = new ArrayList<>(partitions);
+        try (final MappingIterator<StringList> iterator = lineIterator(reader);) {
+            for (int i = 0; i < partitions; i++) {
+                final Path nextFile = directory.resolve(prefix + i + ".csv");
+                partitionFiles.add(nextFile);
+                writers.add(Files.newBufferedWriter(nextFile, StandardCharsets.UTF_8));
+                csvWriters.add(lineWriter(writers.get(i)));
+            }
+            if (skipHeader) {
+                nextValue(iterator);
+            }
+            StringList nextLine;
+            while ((nextLine = nextValue(iterator)) != null) {
+                if (fieldCount >= 0 && nextLine.size() != fieldCount) {
+                    throw new CSVStreamException("Line and header sizes were different: expected "
+                            + fieldCount + ", found " + nextLine.size() + " line=" + nextLine);
+                }
+                final int nextPartition = joinIndexes == null ? 0
+                        : partitionFor(joinKey(nextLine, joinIndexes), level, partitions);
+                csvWriters.get(nextPartition).write(nextLine);
+            }
+        } finally {
+            for (final SequenceWriter nextWriter : csvWriters) {
+                nextWriter.close();
+            }
+            for (final Writer nextWriter : writers) {
+                nextWriter.close();
+            }
+        }
+        return partitionFiles;
+    }
+
+    /**
+     * Join each pair of input and other partitions in parallel, and pass the
+     * joined lines to the consumers on a single thread, in partition order.
+     *
+     * @param directory
+     *            The directory containing the partitions, written by
+     *            {@link #partitionLines(Reader, boolean, int, int[], int, int, Path, String)}.
+     * @param partitions
+     *            The number of partitions.
+     * @param workers
+     *            The number of partitions to join at once.
+     * @param inputFieldCount
+     *            The number of fields in each input line.
+     * @param inputJoinIndexes
+     *            The index of each join field in the input lines.
+     * @param otherJoinIndexes
+     *            The index of each join field in the other lines, or null if
+     *            the other lines do not contain the join fields, in which case
+     *            no lines are joined.
+     * @param emitUnmatchedOther
+     *            True to find the other lines that were not joined to an input
+     *            line.
+     * @param maxMemory
+     *            The maximum number of bytes of memory to use for all of the
+     *            partitions that are being joined at once.
+     * @param joinLineConsumer
+     *            Receives each input line, along with the other line it was
+     *            joined to, or null if it was not joined to an other line.
+     * @param unmatchedOtherLineConsumer
+     *            Receives each other line that was not joined to an input line.
+     */
+    private static void joinPartitions(Path directory, int partitions, int workers,
+            int inputFieldCount, int[] inputJoinIndexes, int[] otherJoinIndexes,
+            boolean emitUnmatchedOther, long maxMemory,
+            BiConsumer<List<String>, List<String>> joinLineConsumer,
+            Consumer<List<String>> unmatchedOtherLineConsumer) {
+        final long partitionMemory = maxMemory / workers;
+        try (final OrderedPipeline<Integer, Path> pipeline = new OrderedPipeline<>(workers,
+                workers, Unchecked.function(partition -> {
+                    final Path joinedFile = directory.resolve("joined-" + partition + ".csv");
+                    try (final Writer writer = Files.newBufferedWriter(joinedFile,
+                            StandardCharsets.UTF_8);
+                            final SequenceWriter csvWriter = lineWriter(writer);) {
+                        joinPartition(directory.resolve("input-" + partition + ".csv"),
+                                inputJoinIndexes, directory.resolve("other-" + partition + ".csv"),
+                                otherJoinIndexes, emitUnmatchedOther, partitionMemory, 0,
+                                csvWriter);
+                    }
+                    return joinedFile;
+                }), Unchecked.consumer(joinedFile -> {
+                    try (final Reader reader = Files.newBufferedReader(joinedFile,
+                            StandardCharsets.UTF_8);
+                            final MappingIterator<StringList> iterator = lineIterator(reader);) {
+                        StringList nextLine;
+                        while ((nextLine = nextValue(iterator)) != null) {
+                            final String lineType = nextLine.get(0);
+                            if (JOINED_LINE.equals(lineType)) {
+                                joinLineConsumer.accept(nextLine.subList(1, inputFieldCount + 1),
+                                        nextLine.subList(inputFieldCount + 1, nextLine.size()));
+                            } else if (INPUT_LINE.equals(lineType)) {
+                                joinLineConsumer.accept(nextLine.subList(1, nextLine.size()),
+                                        null);
+                            } else {
+                                unmatchedOtherLineConsumer
+                                        .accept(nextLine.subList(1, nextLine.size()));
+                            }
+                        }
+                    }
+                    Files.delete(joinedFile);
+                }));) {
+            for (int i = 0; i < partitions; i++) {
+                pipeline.submit(i);
+            }
+        }
+    }
+
+    /**
+     * Join a pair of input and other partitions in memory, splitting them
+     * again first if the other partition is too large for the memory
+     * available. The partition files are deleted once they are joined.
+     *
+     * The other partition is indexed by its join fields, keeping the first
+     * other line for each join key, and the input partition is streamed past
+     * the index. As only one other line is held for each join key, many lines
+     * with the same join key do not need more memory, and are never split
+     * again.
+     *
+     * @param inputPartition
+     *            The input partition.
+     * @param inputJoinIndexes
+     *            The index of each join field in the input lines.
+     * @param otherPartition
+     *            The other partition.
+     * @param otherJoinIndexes
+     *            The index of each join field in the other lines, or null if
+     *            the other lines do not contain the join fields.
+     * @param emitUnmatchedOther
+     *            True to write the other lines that were not joined to an
+     *            input line.
+     * @param maxMemory
+     *            The maximum number of bytes of memory to use.
+     * @param level
+     *            The number of times these partitions have been split.
+     * @param joinedWriter
+     *            Receives the input lines, each preceded by
+     *            {@link #JOINED_LINE} and followed by the other line it was
+     *            joined to, or preceded by {@link #INPUT_LINE} if it was not
+     *            joined, and then the unmatched other lines, preceded by
+     *            {@link #OTHER_LINE}.
+     * @throws IOException
+     *             If there are issues reading or writing files.
+     */
+    private static void joinPartition(Path inputPartition, int[] inputJoinIndexes,
+            Path otherPartition, int[] otherJoinIndexes, boolean emitUnmatchedOther,
+            long maxMemory, int level, SequenceWriter joinedWriter) throws IOException {
+        final long otherBytes = Files.size(otherPartition);
+        if (otherJoinIndexes != null && level < MAX_PARTITION_LEVELS
+                && otherBytes * JoinStrategy.IN_MEMORY_EXPANSION > maxMemory) {
+            final int partitions = Math.max(2, partitionCount(otherBytes, maxMemory));
+            final String inputPrefix = inputPartition.getFileName().toString().replace(".csv",
+                    "-");
+            final String otherPrefix = otherPartition.getFileName().toString().replace(".csv",
+                    "-");
+            final List<Path> inputPartitions;
+            try (final Reader reader = Files.newBufferedReader(inputPartition,
+                    StandardCharsets.UTF_8);) {
+                inputPartitions = partitionLines(reader, false, -1, inputJoinIndexes, level + 1,
+                        partitions, inputPartition.getParent(), inputPrefix);
+            }
+            final List<Path> otherPartitions;
+            try (final Reader reader = Files.newBufferedReader(otherPartition,
+                    StandardCharsets.UTF_8);) {
+                otherPartitions = partitionLines(reader, false, -1, otherJoinIndexes, level + 1,
+                        partitions, otherPartition.getParent(), otherPrefix);
+            }
+            Files.delete(inputPartition);
+            Files.delete(otherPartition);
+            // If the lines all went to one partition they have the same join
+            // key, so splitting them again would not make them smaller
+            long largestPartition = 0;
+            for (final Path nextPartition : otherPartitions) {
+                largestPartition = Math.max(largestPartition, Files.size(nextPartition));
+            }
+            final int nextLevel = largestPartition < otherBytes ? level + 1
+                    : MAX_PARTITION_LEVELS;
+            for (int i = 0; i < partitions; i++) {
+                joinPartition(inputPartitions.get(i), inputJoinIndexes, otherPartitions.get(i),
+                        otherJoinIndexes, emitUnmatchedOther, maxMemory, nextLevel,
+                        joinedWriter);
+            }
+            return;
+        }
+
+        final Map<Object, StringList> otherIndex = new HashMap<>();
+        if (otherJoinIndexes != null) {
+            try (final Reader reader = Files.newBufferedReader(otherPartition,
+                    StandardCharsets.UTF_8);
+                    final MappingIterator<StringList> iterator = lineIterator(reader);) {
+                StringList nextLine;
+                while ((nextLine = nextValue(iterator)) != null) {
+                    otherIndex.putIfAbsent(joinKey(nextLine, otherJoinIndexes), nextLine);
+                }
+            }
+        }
+        final Set<Object> joinedKeys = new HashSet<>();
+        try (final Reader reader = Files.newBufferedReader(inputPartition,
+                StandardCharsets.UTF_8);
+                final MappingIterator<StringList> iterator = lineIterator(reader);) {
+            StringList nextLine;
+            while ((nextLine = nextValue(iterator)) != null) {
+                final Object nextKey = joinKey(nextLine, inputJoinIndexes);
+                final StringList otherLine = otherIndex.get(nextKey);
+                final StringList joinedLine = new StringList(
+                        nextLine.size() + (otherLine == null ? 0 : otherLine.size()) + 1);
+                if (otherLine == null) {
+                    joinedLine.add(INPUT_LINE);
+                    joinedLine.addAll(nextLine);
+                } else {
+                    joinedKeys.add(nextKey);
+                    joinedLine.add(JOINED_LINE);
+                    joinedLine.addAll(nextLine);
+                    joinedLine.addAll(otherLine);
+                }
+                joinedWriter.write(joinedLine);
+            }
+        }
+        if (emitUnmatchedOther) {
+            try (final Reader reader = Files.newBufferedReader(otherPartition,
+                    StandardCharsets.UTF_8);
+                    final MappingIterator<StringList> iterator = lineIterator(reader);) {
+                StringList nextLine;
+                while ((nextLine = nextValue(iterator)) != null) {
+                    // Lines that are equal to a joined line are not emitted
+                    // again, matching the other strategies
+                    if (otherJoinIndexes != null) {
+                        final Object nextKey = joinKey(nextLine, otherJoinIndexes);
+                        if (joinedKeys.contains(nextKey)
+                                && nextLine.equals(otherIndex.get(nextKey))) {
+                            continue;
+                        }
+                    }
+                    final StringList unmatchedLine = new StringList(nextLine.size() + 1);
+                    unmatchedLine.add(OTHER_LINE);
+                    unmatchedLine.addAll(nextLine);
+                    joinedWriter.write(unmatchedLine);
+                }
+            }
+        }
+        Files.delete(inputPartition);
+        Files.delete(otherPartition);
+    }
+
+    /**
+     * @param bytes
+     *            The size of the lines to be held in memory.
+     * @param maxMemory
+     *            The maximum number of bytes of memory to use for each
+     *            partition.
+     * @return The number of partitions to split the lines into so that each
+     *         partition fits in memory.
+     */
+    private static int partitionCount(long bytes, long maxMemory) {
+        final long result = bytes * JoinStrategy.IN_MEMORY_EXPANSION / Math.max(1, maxMemory) + 1;
+        return (int) Math.min(MAX_PARTITIONS, result);
+    }
+
+    /**
+     * Choose the partition for a join key, using a different hash function for
+     * each level so that lines from one partition are split between the
+     * partitions at the next level.
+     */
+    private static int partitionFor(Object joinKey, int level, int partitions) {
+        int hash = joinKey.hashCode() ^ (level * 0x9E3779B9);
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions);
+    }
+
+    /**
+     * Read the lines of two files that were sorted by their join fields
+     * together, joining each input line to the first other line with the
+     * same join fields.
+     *
+     * @param sortedInputFile
+     *            The input file, sorted by its join fields.
+     * @param inputJoinIndexes
+     *            The index of each join field in the input file.
+     * @param sortedOtherFile
+     *            The other file, sorted by its join fields.
+     * @param otherJoinIndexes
+     *            The index of each join field in the other file, or null if
+     *            the other file does not contain the join fields, in which case
+     *            no lines are joined.
+     * @param joinLineConsumer
+     *            Receives each input line, along with the other line it was
+     *            joined to, or null if it was not joined to an other line.
+     * @param unmatchedOtherLineConsumer
+     *            Receives each other line that was not joined to an input line.
+     * @throws IOException
+     *             If there are issues reading the files.
+     */
+    private static void mergeSortedLines(Path sortedInputFile, int[] inputJoinIndexes,
+            Path sortedOtherFile, int[] otherJoinIndexes,
+            BiConsumer<List<String>, List<String>> joinLineConsumer,
+            Consumer<List<String>> unmatchedOtherLineConsumer) throws IOException {
+        try (final Reader inputReader = Files.newBufferedReader(sortedInputFile,
+                StandardCharsets.UTF_8);
+                final Reader otherReader = Files.newBufferedReader(sortedOtherFile,
+                        StandardCharsets.UTF_8);
+                final MappingIterator<StringList> inputIterator = lineIterator(inputReader);
+                final MappingIterator<StringList> otherIterator = lineIterator(otherReader);) {
+            // Skip the headers, which were read before sorting
+            nextValue(inputIterator);
+            nextValue(otherIterator);
+            StringList nextInput = nextValue(inputIterator);
+            StringList nextOther = nextValue(otherIterator);
+            StringList lastJoinedOther = null;
+            while (nextInput != null || nextOther != null) {
+                final int comparison;
+                if (nextInput == null) {
+                    comparison = 1;
+                } else if (nextOther == null || otherJoinIndexes == null) {
+                    comparison = -1;
+                } else {
+                    comparison = compareJoinKeys(nextInput, inputJoinIndexes, nextOther,
+                            otherJoinIndexes);
+                }
+                if (comparison < 0) {
+                    joinLineConsumer.accept(nextInput, null);
+                    nextInput = nextValue(inputIterator);
+                } else if (comparison > 0) {
+                    // Lines that are equal to a joined line are not emitted
+                    // again, matching the other strategies
+                    if (!nextOther.equals(lastJoinedOther)) {
+                        unmatchedOtherLineConsumer.accept(nextOther);
+                    }
+                    nextOther = nextValue(otherIterator);
+                } else {
+                    // Every input line with these join fields is joined to
+                    // the first other line with them, and the rest of the
+                    // other lines with them are unmatched
+                    lastJoinedOther = nextOther;
+                    do {
+                        joinLineConsumer.accept(nextInput, lastJoinedOther);
+                        nextInput = nextValue(inputIterator);
+                    } while (nextInput != null && compareJoinKeys(nextInput, inputJoinIndexes,
+                            lastJoinedOther, otherJoinIndexes) == 0);
+                    nextOther = nextValue(otherIterator);
+                }
+            }
+        }
+    }
+
+    private static MappingIterator<StringList> lineIterator(Reader reader) throws IOException {
+        return CSVSorter.getSafeSortingMapper().readerFor(StringList.class)
+                .with(headerlessSchema()).readValues(reader);
+    }
+
+    private static SequenceWriter lineWriter(Writer writer) throws IOException {
+        return CSVSorter.getSafeSortingMapper().writerFor(StringList.class)
+                .with(headerlessSchema()).writeValues(writer);
+    }
+
+    private static CsvSchema headerlessSchema() {
+        return new CsvSchema.Builder(CSVStream.defaultSchema()).setUseHeader(false).build();
+    }
+
+    private static StringList nextValue(MappingIterator<StringList> iterator)
+            throws IOException {
+        if (iterator.hasNextValue()) {
+            return iterator.nextValue();
+        }
+        return null;
+    }
+
+    private static List<String> readHeaders(Path file) throws IOException {
+        try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                final MappingIterator<StringList> iterator = lineIterator(reader);) {
+            final StringList headers = nextValue(iterator);
+            if (headers == null) {
+                throw new CSVStreamException("CSV file did not contain a valid header line");
+            }
+            return headers;
+        }
+    }
+
+    private static Comparator<StringList> joinKeyComparator(int[] joinIndexes) {
+        return (o1, o2) -> compareJoinKeys(o1, joinIndexes, o2, joinIndexes);
+    }
+
+    /**
+     * Compare the join fields of two lines, in the order used to sort lines
+     * for {@link JoinStrategy#SORT_MERGE}.
+     */
+    private static int compareJoinKeys(List<String> line, int[] joinIndexes,
+            List<String> otherLine, int[] otherJoinIndexes) {
+        for (int i = 0; i < joinIndexes.length; i++) {
+            final int result = line.get(joinIndexes[i])
+                    .compareTo(otherLine.get(otherJoinIndexes[i]));
+            if (result != 0) {
+                return result;
+            }
         }
+        return 0;
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+/**
+ * Applies a list of {@link ValueMapping}s to lines using an
+ * {@link OrderedPipeline}, so that lines are mapped by a pool of worker
+ * threads and the mapped lines are passed to a consumer in their original
+ * order. Lines that are filtered out are skipped.
+ * <br>
+ * This must only be used for mappings where
+ * {@link ValueMapping#canMapConcurrently(List)} is true, as the state that is
+ * shared between lines, such as the previous line and the primary keys, is
+ * not available to the mappings.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConcurrentLineMapper implements AutoCloseable {
+
+    /**
+     * The maximum number of lines waiting between each stage.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // The mappings do not use any of the state that is shared between lines,
+    // so empty placeholders are shared by all of the lines
+    private static final List<String> NO_PREVIOUS_LINE = Collections.emptyList();
+    private static final BiConsumer<List<String>, List<String>> NO_MAP_LINE_CONSUMER = (l,
+            m) -> {
+        throw new UnsupportedOperationException(
+                "Cannot use mapLineConsumer when mapping concurrently");
+    };
+
+    private final JDefaultDict<String, Set<String>> noPrimaryKeys = new JDefaultDict<>(
+            k -> Collections.emptySet());
+    private final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> noValueCounts = new JDefaultDict<>(
+            k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
+
+    private final List<ValueMapping> map;
+    private final List<String> outputHeaders;
+    private final Map<String, String> defaultValues;
+    private final OrderedPipeline<ValueMappingContext, List<String>> pipeline;
+    private final AtomicInteger lineNumber = new AtomicInteger(0);
+    private List<String> inputHeaders = Collections.emptyList();
+    private MappingPlan plan;
+
+    /**
+     * Create a new mapper and start its worker and writer threads.
+     *
+     * @param map
+     *            The mappings to apply to each line.
+     * @param outputHeaders
+     *            The headers for the mapped lines.
+     * @param defaultValues
+     *            The default values for output fields that are not mapped.
+     * @param threads
+     *            The number of worker threads to apply the mappings with.
+     * @param mappedLineConsumer
+     *            The consumer for the mapped lines, which is called on a single
+     *            writer thread.
+     */
+    public ConcurrentLineMapper(List<ValueMapping> map, List<String> outputHeaders,
+            Map<String, String> defaultValues, int threads,
+            Consumer<List<String>> mappedLineConsumer) {
+        this.map = map;
+        this.outputHeaders = outputHeaders;
+        this.defaultValues = defaultValues;
+        this.pipeline = new OrderedPipeline<>(threads, QUEUE_CAPACITY, context -> {
+            try {
+                return ValueMapping.mapLine(context);
+            } catch (final LineFilteredException e) {
+                return null;
+            }
+        }, mappedLineConsumer);
+    }
+
+    /**
+     * Set the headers for the lines that are submitted after this call, and
+     * compile a {@link MappingPlan} for them.
+     *
+     * @param inputHeaders
+     *            The headers for the input lines.
+     */
+    public void setInputHeaders(List<String> inputHeaders) {
+        this.inputHeaders = inputHeaders;
+        this.plan = MappingPlan.compile(map, inputHeaders, outputHeaders, defaultValues);
+    }
+
+    /**
+     * Submit the next line to be mapped, blocking if too many lines are
+     * waiting to be mapped or written.
+     *
+     * @param line
+     *            The values for the line, in the order of the input headers.
+     * @param jsonNode
+     *            The JSON node that the line was taken from, if any.
+     */
+    public void submit(List<String> line, Optional<JsonNode> jsonNode) {
+        final int nextLineNumber = lineNumber.incrementAndGet();
+        // The filtered line number is not known until the line is written, so
+        // it is not available to the mappings
+        pipeline.submit(new ValueMappingContext(inputHeaders, line, NO_PREVIOUS_LINE,
+                NO_PREVIOUS_LINE, map, noPrimaryKeys, noValueCounts, nextLineNumber,
+                nextLineNumber, NO_MAP_LINE_CONSUMER, outputHeaders, defaultValues, jsonNode,
+                plan));
+    }
+
+    /**
+     * Wait for all of the submitted lines to be mapped and written, and stop
+     * the worker and writer threads.
+     */
+    @Override
+    public void close() {
+        pipeline.close();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.Locale;
+
+/**
+ * The algorithms that can be used to join an input file to another file.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public enum JoinStrategy {
+
+    /**
+     * Hold the smaller of the two files in memory, indexed by the join fields,
+     * and stream the other file past it. The output lines are in the order of
+     * the input file. This is the default strategy, as it is the only one that
+     * keeps the order of the input file.
+     */
+    HASH,
+
+    /**
+     * Sort both files on disk by the join fields and then stream them
+     * together, so memory use does not depend on the size of the files. The
+     * output lines are in the order of the join fields.
+     */
+    SORT_MERGE,
+
+    /**
+     * Split both files on disk into partitions by the hash of the join
+     * fields, so each pair of partitions fits in memory, and join the pairs of
+     * partitions in parallel. The output lines are in the order of the input
+     * file within each partition.
+     */
+    GRACE_HASH,
+
+    ;
+
+    /**
+     * The number of times larger the lines are in memory than they are in the
+     * file, used to estimate whether a file will fit in memory.
+     */
+    static final long IN_MEMORY_EXPANSION = 8;
+
+    /**
+     * Parse a join strategy from the command line, ignoring case and allowing
+     * hyphens in place of underscores.
+     *
+     * @param joinStrategy
+     *            The name of the join strategy.
+     * @return The join strategy with the given name.
+     * @throws IllegalArgumentException
+     *             If the name does not match a join strategy.
+     */
+    public static JoinStrategy fromString(String joinStrategy) {
+        try {
+            return valueOf(joinStrategy.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown join strategy: " + joinStrategy, e);
+        }
+    }
+}
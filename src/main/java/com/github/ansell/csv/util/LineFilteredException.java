@@ -5,6 +5,9 @@ package com.github.ansell.csv.util;
 
 /**
  * An exception which signals that a line needs to be filtered out.
+ * <br>
+ * Lines are filtered often enough for this to be on a hot path, so by default
+ * the exception does not record a stack trace or suppressed exceptions.
  *
  * @author Peter Ansell p_ansell@yahoo.com
  */
@@ -12,19 +15,19 @@ public class LineFilteredException extends RuntimeException {
     private static final long serialVersionUID = -2321787151217662059L;
 
     public LineFilteredException() {
-        super();
+        super(null, null, false, false);
     }
 
     public LineFilteredException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 
     public LineFilteredException(Throwable cause) {
-        super(cause);
+        super(cause == null ? null : cause.toString(), cause, false, false);
     }
 
     public LineFilteredException(String message, Throwable cause) {
-        super(message, cause);
+        super(message, cause, false, false);
     }
 
     public LineFilteredException(String message, Throwable cause, boolean enableSuppression,
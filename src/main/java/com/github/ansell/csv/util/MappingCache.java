@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded least-recently-used cache of the results of a
+ * {@link ValueMapping}, keyed by the input value.
+ * <br>
+ * Each thread that applies the mapping has its own cache, so threads do not
+ * contend for a lock on each lookup, and the maximum size applies to each
+ * thread separately. The cache is only used for mappings that are marked as
+ * depending on nothing other than their input value, so the result is the
+ * same on every thread. Lines that the mapping filtered out are cached as
+ * {@link ValueMapping#FILTER}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class MappingCache {
+
+    private final int maximumSize;
+    private final ThreadLocal<Map<String, Object>> values = ThreadLocal
+            .withInitial(this::newThreadCache);
+    // The cache for each thread, so the statistics can include all of them.
+    // The caches are kept until this cache is discarded with its mapping.
+    private final List<Map<String, Object>> threadCaches = new CopyOnWriteArrayList<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    MappingCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    private Map<String, Object> newThreadCache() {
+        // Access order moves each entry to the end when it is used, so the
+        // eldest entry is always the least recently used one
+        final Map<String, Object> result = new LinkedHashMap<String, Object>(
+                Math.min(maximumSize, 1024), 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > MappingCache.this.maximumSize;
+            }
+        };
+        threadCaches.add(result);
+        return result;
+    }
+
+    /**
+     * @param inputValue
+     *            The input value for the mapping.
+     * @return The cached result for the input value on the current thread,
+     *         which is {@link ValueMapping#FILTER} if the mapping filtered out
+     *         the line, or null if it has not been cached.
+     */
+    Object get(String inputValue) {
+        final Object result = values.get().get(inputValue);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    void put(String inputValue, Object result) {
+        if (result == null) {
+            return;
+        }
+        values.get().put(inputValue, result);
+    }
+
+    int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return The number of entries in the largest of the caches for each
+     *         thread. This is only accurate once the threads that apply the
+     *         mapping have finished.
+     */
+    int size() {
+        return threadCaches.stream().mapToInt(Map::size).max().orElse(0);
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The fraction of lookups that were found in the cache, or 0 if
+     *         there have not been any lookups.
+     */
+    double getHitRate() {
+        final long nextHits = getHits();
+        final long total = nextHits + getMisses();
+        return total == 0 ? 0.0d : (double) nextHits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d hits, %d misses (%.2f%% hit rate), %d of %d entries used",
+                getHits(), getMisses(), getHitRate() * 100.0d, size(), maximumSize);
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A compiled mapping in the Expression language, a small language for the
+ * common mappings that only combine and tidy up values from the current line.
+ * <br>
+ * Expressions are compiled once into a tree of Java lambdas, so applying them
+ * does not need a script engine. The language supports:
+ * <ul>
+ * <li>The values inputValue, inputField, outputField, defaultValue and
+ * lineNumber.</li>
+ * <li>String literals in single or double quotes.</li>
+ * <li>col('name') for a value from the current input line, and
+ * outCol('name') for a value that has already been mapped.</li>
+ * <li>filter() to remove the current line from the results.</li>
+ * <li>Concatenation using +, and grouping using parentheses.</li>
+ * <li>The methods trim(), toUpperCase(), toLowerCase(), substring(begin) and
+ * substring(begin, end), replace(target, replacement), and orElse(other),
+ * which returns other if the value is empty. As in Javascript, replace only
+ * replaces the first occurrence of target, and substring swaps begin and end
+ * if begin is after end.</li>
+ * </ul>
+ * An optional leading return and trailing semicolon are ignored, so simple
+ * Javascript mappings such as <code>return inputValue.trim();</code> are also
+ * valid expressions.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class MappingExpression {
+
+    /**
+     * A compiled part of an expression.
+     */
+    @FunctionalInterface
+    private interface Evaluator {
+        String evaluate(ValueMappingContext context, Map<String, String> mappedLine,
+                String inputValue);
+    }
+
+    private final String expression;
+    private final Evaluator evaluator;
+
+    private MappingExpression(String expression, Evaluator evaluator) {
+        this.expression = expression;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Replace the first occurrence of the search string in the value, as
+     * Javascript does for a string pattern, including the $$, $&amp;, $` and
+     * $' patterns in the replacement.
+     */
+    private static String replaceFirst(String value, String search, String replacement) {
+        final int index = value.indexOf(search);
+        if (index < 0) {
+            return value;
+        }
+        final int afterIndex = index + search.length();
+        final StringBuilder result = new StringBuilder(
+                value.length() + replacement.length() - search.length());
+        result.append(value, 0, index);
+        for (int i = 0; i < replacement.length(); i++) {
+            final char next = replacement.charAt(i);
+            final char pattern = i + 1 < replacement.length() ? replacement.charAt(i + 1) : 0;
+            if (next != '$') {
+                result.append(next);
+            } else if (pattern == '$') {
+                result.append('$');
+                i++;
+            } else if (pattern == '&') {
+                result.append(search);
+                i++;
+            } else if (pattern == '`') {
+                result.append(value, 0, index);
+                i++;
+            } else if (pattern == '\'') {
+                result.append(value, afterIndex, value.length());
+                i++;
+            } else {
+                result.append(next);
+            }
+        }
+        result.append(value, afterIndex, value.length());
+        return result.toString();
+    }
+
+    /**
+     * Compile the given expression.
+     *
+     * @param expression
+     *            The expression to compile.
+     * @param inputField
+     *            The input field for the mapping.
+     * @param outputField
+     *            The output field for the mapping.
+     * @param defaultValue
+     *            The default value for the mapping.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException
+     *             If the expression is not valid.
+     */
+    public static MappingExpression compile(String expression, String inputField,
+            String outputField, String defaultValue) {
+        return new MappingExpression(expression,
+                new Parser(expression, inputField, outputField, defaultValue).parse());
+    }
+
+    /**
+     * Apply the expression to the current line.
+     *
+     * @param context
+     *            The context for the current line.
+     * @param mappedLine
+     *            The values mapped so far for the current line.
+     * @param inputValue
+     *            The value of the input field for the mapping.
+     * @return The mapped value.
+     * @throws LineFilteredException
+     *             If the expression called filter().
+     */
+    public String evaluate(ValueMappingContext context, Map<String, String> mappedLine,
+            String inputValue) throws LineFilteredException {
+        return evaluator.evaluate(context, mappedLine, inputValue);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Looks up a column from the input line, caching the index of the column
+     * for the input headers that were last seen.
+     */
+    private static final class ColumnReference implements Evaluator {
+        private final String header;
+        private volatile HeaderIndex cached;
+
+        private static final class HeaderIndex {
+            private final List<String> headers;
+            private final int index;
+
+            HeaderIndex(List<String> headers, int index) {
+                this.headers = headers;
+                this.index = index;
+            }
+        }
+
+        ColumnReference(String header) {
+            this.header = header;
+        }
+
+        @Override
+        public String evaluate(ValueMappingContext context, Map<String, String> mappedLine,
+                String inputValue) {
+            final List<String> inputHeaders = context.getInputHeaders();
+            HeaderIndex nextIndex = cached;
+            if (nextIndex == null || nextIndex.headers != inputHeaders) {
+                nextIndex = new HeaderIndex(inputHeaders, inputHeaders.indexOf(header));
+                cached = nextIndex;
+            }
+            return nextIndex.index >= 0 ? context.getLine().get(nextIndex.index)
+                    : "Could not find: " + header;
+        }
+    }
+
+    /**
+     * A recursive descent parser that builds the {@link Evaluator} tree.
+     */
+    private static final class Parser {
+        private final String expression;
+        private final String inputField;
+        private final String outputField;
+        private final String defaultValue;
+        private int position = 0;
+
+        Parser(String expression, String inputField, String outputField, String defaultValue) {
+            this.expression = expression;
+            this.inputField = inputField;
+            this.outputField = outputField;
+            this.defaultValue = defaultValue;
+        }
+
+        Evaluator parse() {
+            skipWhitespace();
+            if (peekIdentifier("return")) {
+                identifier();
+            }
+            final Evaluator result = concatenation();
+            skipWhitespace();
+            if (peek(';')) {
+                position++;
+                skipWhitespace();
+            }
+            if (position < expression.length()) {
+                throw error("Unexpected character '" + expression.charAt(position) + "'");
+            }
+            return result;
+        }
+
+        private Evaluator concatenation() {
+            final List<Evaluator> parts = new ArrayList<>();
+            parts.add(methodCalls());
+            skipWhitespace();
+            while (peek('+')) {
+                position++;
+                parts.add(methodCalls());
+                skipWhitespace();
+            }
+            if (parts.size() == 1) {
+                return parts.get(0);
+            }
+            if (parts.size() == 2) {
+                final Evaluator left = parts.get(0);
+                final Evaluator right = parts.get(1);
+                return (c, m, v) -> left.evaluate(c, m, v).concat(right.evaluate(c, m, v));
+            }
+            final Evaluator[] partsArray = parts.toArray(new Evaluator[0]);
+            return (c, m, v) -> {
+                final StringBuilder result = new StringBuilder();
+                for (final Evaluator nextPart : partsArray) {
+                    result.append(nextPart.evaluate(c, m, v));
+                }
+                return result.toString();
+            };
+        }
+
+        private Evaluator methodCalls() {
+            Evaluator result = primary();
+            skipWhitespace();
+            while (peek('.')) {
+                position++;
+                result = method(result, identifier());
+                skipWhitespace();
+            }
+            return result;
+        }
+
+        private Evaluator method(Evaluator target, String name) {
+            expect('(');
+            switch (name) {
+            case "trim":
+                expect(')');
+                return (c, m, v) -> target.evaluate(c, m, v).trim();
+            case "toUpperCase":
+                expect(')');
+                return (c, m, v) -> target.evaluate(c, m, v).toUpperCase(Locale.ROOT);
+            case "toLowerCase":
+                expect(')');
+                return (c, m, v) -> target.evaluate(c, m, v).toLowerCase(Locale.ROOT);
+            case "substring": {
+                final int begin = integer();
+                skipWhitespace();
+                if (peek(',')) {
+                    position++;
+                    final int end = integer();
+                    expect(')');
+                    // Indexes past the end of the value are clamped to its
+                    // length, and the indexes are swapped if begin is after
+                    // end, as Javascript does, instead of failing
+                    return (c, m, v) -> {
+                        final String value = target.evaluate(c, m, v);
+                        final int length = value.length();
+                        final int nextBegin = Math.min(begin, length);
+                        final int nextEnd = Math.min(end, length);
+                        return value.substring(Math.min(nextBegin, nextEnd),
+                                Math.max(nextBegin, nextEnd));
+                    };
+                }
+                expect(')');
+                return (c, m, v) -> {
+                    final String value = target.evaluate(c, m, v);
+                    return value.substring(Math.min(begin, value.length()));
+                };
+            }
+            case "replace": {
+                final Evaluator search = concatenation();
+                expect(',');
+                final Evaluator replacement = concatenation();
+                expect(')');
+                return (c, m, v) -> replaceFirst(target.evaluate(c, m, v),
+                        search.evaluate(c, m, v), replacement.evaluate(c, m, v));
+            }
+            case "orElse": {
+                final Evaluator other = concatenation();
+                expect(')');
+                return (c, m, v) -> {
+                    final String value = target.evaluate(c, m, v);
+                    return value.isEmpty() ? other.evaluate(c, m, v) : value;
+                };
+            }
+            default:
+                throw error("Unknown method: " + name);
+            }
+        }
+
+        private Evaluator primary() {
+            skipWhitespace();
+            if (position >= expression.length()) {
+                throw error("Unexpected end of expression");
+            }
+            final char next = expression.charAt(position);
+            if (next == '\'' || next == '"') {
+                final String literal = string();
+                return (c, m, v) -> literal;
+            }
+            if (next == '(') {
+                position++;
+                final Evaluator result = concatenation();
+                expect(')');
+                return result;
+            }
+            final String name = identifier();
+            switch (name) {
+            case "inputValue":
+                return (c, m, v) -> v;
+            case "inputField":
+                return (c, m, v) -> inputField;
+            case "outputField":
+                return (c, m, v) -> outputField;
+            case "defaultValue":
+                return (c, m, v) -> defaultValue;
+            case "lineNumber":
+                return (c, m, v) -> Integer.toString(c.getLineNumber());
+            case "col": {
+                expect('(');
+                skipWhitespace();
+                final String header = string();
+                expect(')');
+                return new ColumnReference(header);
+            }
+            case "outCol": {
+                expect('(');
+                skipWhitespace();
+                final String header = string();
+                expect(')');
+                return (c, m, v) -> m.getOrDefault(header, "");
+            }
+            case "filter":
+                expect('(');
+                expect(')');
+                return (c, m, v) -> {
+                    throw new LineFilteredException();
+                };
+            default:
+                throw error("Unknown name: " + name);
+            }
+        }
+
+        private String string() {
+            if (position >= expression.length()) {
+                throw error("Expected a string");
+            }
+            final char quote = expression.charAt(position);
+            if (quote != '\'' && quote != '"') {
+                throw error("Expected a string");
+            }
+            position++;
+            final StringBuilder result = new StringBuilder();
+            while (position < expression.length()) {
+                final char next = expression.charAt(position++);
+                if (next == quote) {
+                    return result.toString();
+                }
+                if (next == '\\') {
+                    if (position >= expression.length()) {
+                        break;
+                    }
+                    final char escaped = expression.charAt(position++);
+                    switch (escaped) {
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    case 't':
+                        result.append('\t');
+                        break;
+                    default:
+                        result.append(escaped);
+                        break;
+                    }
+                } else {
+                    result.append(next);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private int integer() {
+            skipWhitespace();
+            final int start = position;
+            while (position < expression.length()
+                    && Character.isDigit(expression.charAt(position))) {
+                position++;
+            }
+            if (start == position) {
+                throw error("Expected a non-negative integer");
+            }
+            try {
+                return Integer.parseInt(expression.substring(start, position));
+            } catch (final NumberFormatException e) {
+                throw error("Integer is too large");
+            }
+        }
+
+        private String identifier() {
+            skipWhitespace();
+            final int start = position;
+            while (position < expression.length()
+                    && Character.isJavaIdentifierPart(expression.charAt(position))) {
+                position++;
+            }
+            if (start == position
+                    || !Character.isJavaIdentifierStart(expression.charAt(start))) {
+                position = start;
+                throw error("Expected a name");
+            }
+            return expression.substring(start, position);
+        }
+
+        private boolean peekIdentifier(String name) {
+            return expression.startsWith(name, position)
+                    && (position + name.length() >= expression.length() || !Character
+                            .isJavaIdentifierPart(expression.charAt(position + name.length())));
+        }
+
+        private void expect(char expected) {
+            skipWhitespace();
+            if (!peek(expected)) {
+                throw error("Expected '" + expected + "'");
+            }
+            position++;
+        }
+
+        private boolean peek(char expected) {
+            return position < expression.length() && expression.charAt(position) == expected;
+        }
+
+        private void skipWhitespace() {
+            while (position < expression.length()
+                    && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(
+                    message + " at position " + position + " in expression: " + expression);
+        }
+    }
+}
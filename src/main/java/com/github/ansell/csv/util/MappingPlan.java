@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A list of {@link ValueMapping}s compiled for a fixed set of input and output
+ * headers.
+ * <br>
+ * The index of the input field for each mapping, and the position of each
+ * output field in the mapped line, are resolved once when the plan is
+ * compiled, so mapping a line does not need to search the headers. The
+ * values mapped so far for a line are kept in a String array that is reused
+ * for each line mapped on the same thread.
+ * <br>
+ * Mappings that can filter the line are moved ahead of the mappings before
+ * them where that cannot change the result, so that a filtered line does not
+ * run the other mappings. A filter is only moved ahead of mappings that have
+ * no side effects, that do not read the mapped line and that do not map the
+ * same output field, and only if it does not read the mapped line itself.
+ * A filter is also not moved ahead of Javascript or Groovy mappings, which
+ * may set global variables that it reads, unless its FilterFirst field
+ * declares that it does not read them.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class MappingPlan {
+
+    private final List<ValueMapping> map;
+    private final List<String> inputHeaders;
+    private final List<String> outputHeaders;
+    private final Map<String, String> defaultValues;
+
+    private final ValueMapping[] mappings;
+    private final int[] skippedIfFiltered;
+    private final int[] inputIndexes;
+    private final int[] mappingSlots;
+    private final int[] outputSlots;
+    private final String[] outputDefaults;
+    private final Map<String, Integer> slotsByField;
+    private final String[] slotFields;
+
+    private final ThreadLocal<Row> rows = ThreadLocal.withInitial(Row::new);
+
+    private MappingPlan(List<ValueMapping> map, List<String> inputHeaders,
+            List<String> outputHeaders, Map<String, String> defaultValues) {
+        this.map = map;
+        this.inputHeaders = inputHeaders;
+        this.outputHeaders = outputHeaders;
+        this.defaultValues = defaultValues;
+
+        this.skippedIfFiltered = new int[map.size()];
+        this.mappings = filtersFirst(map, skippedIfFiltered);
+        // Hidden mappings still need a slot, as later mappings can use their
+        // values
+        final Set<String> fields = new LinkedHashSet<>();
+        for (final ValueMapping nextMapping : map) {
+            fields.add(nextMapping.getOutputField());
+        }
+        fields.addAll(outputHeaders);
+        this.slotFields = fields.toArray(new String[0]);
+        this.slotsByField = new HashMap<>(slotFields.length * 2);
+        for (int i = 0; i < slotFields.length; i++) {
+            slotsByField.put(slotFields[i], i);
+        }
+
+        this.inputIndexes = new int[mappings.length];
+        this.mappingSlots = new int[mappings.length];
+        for (int i = 0; i < mappings.length; i++) {
+            inputIndexes[i] = inputHeaders.indexOf(mappings[i].getInputField());
+            mappingSlots[i] = slotsByField.get(mappings[i].getOutputField());
+        }
+
+        this.outputSlots = new int[outputHeaders.size()];
+        this.outputDefaults = new String[outputHeaders.size()];
+        for (int i = 0; i < outputSlots.length; i++) {
+            final String nextOutput = outputHeaders.get(i);
+            outputSlots[i] = slotsByField.get(nextOutput);
+            outputDefaults[i] = defaultValues.getOrDefault(nextOutput, "");
+        }
+    }
+
+    /**
+     * Order the mappings so that filters run as early as possible without
+     * changing the result of mapping a line, assuming that filters declared
+     * using FilterFirst do not read global variables set by other mappings.
+     *
+     * @param map
+     *            The mappings in the order they were declared.
+     * @param skippedIfFiltered
+     *            Filled with the number of mappings that no longer run before
+     *            each mapping in the result, and hence are skipped if it
+     *            filters the line.
+     * @return The mappings in the order they are to be run.
+     */
+    private static ValueMapping[] filtersFirst(List<ValueMapping> map, int[] skippedIfFiltered) {
+        final List<ValueMapping> filters = new ArrayList<>();
+        final List<Integer> filterSkips = new ArrayList<>();
+        final List<ValueMapping> others = new ArrayList<>();
+        final Set<String> otherOutputs = new HashSet<>();
+        boolean othersReorderable = true;
+        // Filters only move ahead of mappings that may set global variables
+        // if they were declared to not read them
+        boolean othersShareGlobals = false;
+        int skippableOthers = 0;
+        for (final ValueMapping nextMapping : map) {
+            if (nextMapping.canFilter() && !nextMapping.readsMappedLine()
+                    && othersReorderable
+                    && (!othersShareGlobals || nextMapping.isFilterFirst())
+                    && !otherOutputs.contains(nextMapping.getOutputField())) {
+                filters.add(nextMapping);
+                filterSkips.add(skippableOthers);
+            } else {
+                others.add(nextMapping);
+                otherOutputs.add(nextMapping.getOutputField());
+                othersReorderable &= !nextMapping.hasSideEffects()
+                        && !nextMapping.readsMappedLine();
+                othersShareGlobals |= nextMapping.mayShareGlobals();
+                if (!nextMapping.isCopy()) {
+                    skippableOthers++;
+                }
+            }
+        }
+        final ValueMapping[] result = new ValueMapping[map.size()];
+        int nextIndex = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            skippedIfFiltered[nextIndex] = filterSkips.get(i);
+            result[nextIndex++] = filters.get(i);
+        }
+        for (final ValueMapping nextMapping : others) {
+            result[nextIndex++] = nextMapping;
+        }
+        return result;
+    }
+
+    /**
+     * Compile the given mappings for the given headers.
+     *
+     * @param map
+     *            The mappings to apply.
+     * @param inputHeaders
+     *            The headers for the input lines.
+     * @param outputHeaders
+     *            The headers for the mapped lines.
+     * @param defaultValues
+     *            The default values for output fields that are not mapped.
+     * @return A plan that can be used for each line with the same headers.
+     */
+    public static MappingPlan compile(List<ValueMapping> map, List<String> inputHeaders,
+            List<String> outputHeaders, Map<String, String> defaultValues) {
+        return new MappingPlan(map, inputHeaders, outputHeaders, defaultValues);
+    }
+
+    /**
+     * Check whether this plan was compiled for the mappings and headers in the
+     * given context.
+     * <br>
+     * The headers are compared by identity, as callers compile a plan once for
+     * a header list and then use that list for each line.
+     *
+     * @param context
+     *            The context for a line.
+     * @return True if this plan can be used to map the line, and false
+     *         otherwise.
+     */
+    public boolean matches(ValueMappingContext context) {
+        return context.getMappings() == map && context.getInputHeaders() == inputHeaders
+                && context.getOutputHeaders() == outputHeaders
+                && context.getDefaultValues() == defaultValues;
+    }
+
+    /**
+     * Map the line from the given context.
+     *
+     * @param context
+     *            The context for the line, which must match this plan.
+     * @return The mapped line, in the order of the output headers.
+     * @throws LineFilteredException
+     *             If a mapping filtered the line.
+     */
+    List<String> mapLine(ValueMappingContext context) throws LineFilteredException {
+        final Row row = rows.get();
+        row.clear();
+        int next = 0;
+        try {
+            for (; next < mappings.length; next++) {
+                row.set(mappingSlots[next],
+                        mappings[next].apply(context, row, inputIndexes[next]));
+            }
+        } catch (final LineFilteredException e) {
+            if (skippedIfFiltered[next] > 0) {
+                mappings[next].addSkippedMappings(skippedIfFiltered[next]);
+            }
+            throw e;
+        }
+
+        final String[] result = new String[outputSlots.length];
+        for (int i = 0; i < outputSlots.length; i++) {
+            final int nextSlot = outputSlots[i];
+            result[i] = row.mapped[nextSlot] ? row.values[nextSlot] : outputDefaults[i];
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * The values mapped so far for a line, which is also visible to the
+     * mappings as a {@link Map} from output field to value. Scripts may also
+     * put and remove other keys, which are kept separately and are not
+     * written out.
+     */
+    final class Row extends AbstractMap<String, String> {
+        private final String[] values = new String[slotFields.length];
+        private final boolean[] mapped = new boolean[slotFields.length];
+        private Map<String, String> otherValues = null;
+
+        private Row() {
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(values, null);
+            Arrays.fill(mapped, false);
+            otherValues = null;
+        }
+
+        void set(int slot, String value) {
+            values[slot] = value;
+            mapped[slot] = true;
+        }
+
+        @Override
+        public String get(Object key) {
+            final Integer slot = slotsByField.get(key);
+            if (slot == null) {
+                return otherValues == null ? null : otherValues.get(key);
+            }
+            return mapped[slot] ? values[slot] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            final Integer slot = slotsByField.get(key);
+            if (slot == null) {
+                return otherValues != null && otherValues.containsKey(key);
+            }
+            return mapped[slot];
+        }
+
+        @Override
+        public String put(String key, String value) {
+            final Integer slot = slotsByField.get(key);
+            if (slot == null) {
+                if (otherValues == null) {
+                    otherValues = new HashMap<>();
+                }
+                return otherValues.put(key, value);
+            }
+            final String previous = get(key);
+            set(slot, value);
+            return previous;
+        }
+
+        @Override
+        public String remove(Object key) {
+            final Integer slot = slotsByField.get(key);
+            if (slot == null) {
+                return otherValues == null ? null : otherValues.remove(key);
+            }
+            final String previous = get(key);
+            values[slot] = null;
+            mapped[slot] = false;
+            return previous;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            final Set<Map.Entry<String, String>> result = new LinkedHashSet<>();
+            for (int i = 0; i < slotFields.length; i++) {
+                if (mapped[i]) {
+                    result.add(new AbstractMap.SimpleImmutableEntry<>(slotFields[i], values[i]));
+                }
+            }
+            if (otherValues != null) {
+                otherValues.forEach(
+                        (k, v) -> result.add(new AbstractMap.SimpleImmutableEntry<>(k, v)));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies a function to a stream of inputs using a pool of worker threads,
+ * and passes the results to a consumer on a single writer thread in the same
+ * order as the inputs were submitted.
+ * <br>
+ * The stages are connected by bounded queues, and the number of inputs that
+ * have been submitted but not yet written is bounded, so a slow stage or a
+ * slow input blocks the stages before it instead of buffering the whole
+ * input. Results that are null are skipped, so the function can filter
+ * inputs. If the function or the consumer throws an exception, the pipeline
+ * stops, and the exception is rethrown once, from the next call to
+ * {@link #submit(Object)} or {@link #close()}.
+ *
+ * @param <I>
+ *            The type of the inputs.
+ * @param <O>
+ *            The type of the results.
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class OrderedPipeline<I, O> implements AutoCloseable {
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * A sequence numbered input or result. A null value for an input signals
+     * the end of the inputs, and a null value for a result signals that the
+     * input was filtered.
+     */
+    private static final class Item<T> {
+        private final long sequence;
+        private final T value;
+
+        Item(final long sequence, final T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+
+    private final int workers;
+    private final BlockingQueue<Item<I>> inputs;
+    private final BlockingQueue<Item<O>> results;
+    private final ExecutorService executor;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger runningWorkers;
+    private final Semaphore inFlight;
+    private long nextSequence = 0;
+    private boolean closed = false;
+    private boolean failureReported = false;
+
+    /**
+     * Start the worker and writer threads.
+     *
+     * @param workers
+     *            The number of threads to apply the function with.
+     * @param queueCapacity
+     *            The maximum number of items waiting in each queue, and the
+     *            maximum number of inputs that can be submitted before their
+     *            results are written.
+     * @param function
+     *            The function to apply to each input, which returns null to
+     *            skip the input.
+     * @param consumer
+     *            The consumer for the results, which is called on a single
+     *            thread in the order the inputs were submitted.
+     */
+    public OrderedPipeline(final int workers, final int queueCapacity,
+            final Function<I, O> function, final Consumer<O> consumer) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Must have at least one worker: " + workers);
+        }
+        this.workers = workers;
+        this.inputs = new ArrayBlockingQueue<>(queueCapacity);
+        this.results = new ArrayBlockingQueue<>(queueCapacity);
+        this.runningWorkers = new AtomicInteger(workers);
+        this.inFlight = new Semaphore(queueCapacity);
+        this.executor = Executors.newFixedThreadPool(workers + 1);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> runWorker(function));
+        }
+        executor.execute(() -> runWriter(consumer));
+    }
+
+    /**
+     * Submit the next input, blocking if the workers are busy or too many
+     * results are waiting to be written.
+     *
+     * @param input
+     *            The input, which must not be null.
+     */
+    public void submit(final I input) {
+        if (input == null) {
+            throw new NullPointerException("Inputs must not be null");
+        }
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        checkFailure();
+        try {
+            while (!inFlight.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+            put(inputs, new Item<>(nextSequence++, input));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pipeline", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait for all of the submitted inputs to be written, and stop the
+     * threads.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int i = 0; i < workers; i++) {
+                if (!put(inputs, new Item<I>(-1, null))) {
+                    break;
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+            checkFailure();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pipeline", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runWorker(final Function<I, O> function) {
+        try {
+            while (failure.get() == null) {
+                final Item<I> next = inputs.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    continue;
+                }
+                if (next.value == null) {
+                    break;
+                }
+                if (!put(results, new Item<>(next.sequence, function.apply(next.value)))) {
+                    break;
+                }
+            }
+        } catch (final Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            runningWorkers.decrementAndGet();
+        }
+    }
+
+    private void runWriter(final Consumer<O> consumer) {
+        try {
+            // Results that arrive early are held until the results before
+            // them have been written. An in flight permit is only released
+            // once a result is written, so this holds fewer than
+            // queueCapacity results, even if one input is slow
+            final Map<Long, Item<O>> pending = new HashMap<>();
+            long nextToWrite = 0;
+            while (failure.get() == null) {
+                final Item<O> next = results.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    if (runningWorkers.get() == 0 && results.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                pending.put(next.sequence, next);
+                Item<O> nextInOrder;
+                while ((nextInOrder = pending.remove(nextToWrite)) != null) {
+                    if (nextInOrder.value != null) {
+                        consumer.accept(nextInOrder.value);
+                    }
+                    nextToWrite++;
+                    inFlight.release();
+                }
+            }
+        } catch (final Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Add an item to a queue, waiting while it is full.
+     *
+     * @return True if the item was added, and false if the pipeline failed
+     *         while waiting.
+     */
+    private <T> boolean put(final BlockingQueue<T> queue, final T item)
+            throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rethrow the first failure on the thread using the pipeline. It is only
+     * thrown once, as rethrowing the same instance from both
+     * {@link #submit(Object)} and {@link #close()} in a try-with-resources
+     * statement would make it suppress itself.
+     */
+    private void checkFailure() {
+        final Throwable e = failure.get();
+        if (e == null || failureReported) {
+            return;
+        }
+        failureReported = true;
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reports the progress of a long running task, using counters that are
+ * sampled from a background thread at a fixed interval, so the only cost to
+ * the task is an increment for each row.
+ * <br>
+ * Each report includes the number of rows and bytes processed, the rows and
+ * bytes per second, and an estimate of the time remaining if the total number
+ * of bytes in the input is known. Reports are written as lines of text to a
+ * {@link PrintStream}, or as a JSON object that replaces the contents of a
+ * metrics file. A final report is written when the reporter is closed.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ProgressReporter implements AutoCloseable {
+
+    /**
+     * The default number of seconds between reports.
+     */
+    public static final int DEFAULT_INTERVAL_SECONDS = 10;
+
+    private static final ProgressReporter NONE = new ProgressReporter(-1, null, null);
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final PrintStream output;
+    private final Path metricsFile;
+    private final long startTime = System.nanoTime();
+    private final ScheduledExecutorService scheduler;
+    private volatile long totalBytes;
+
+    private ProgressReporter(final long totalBytes, final PrintStream output,
+            final Path metricsFile) {
+        this.totalBytes = totalBytes;
+        this.output = output;
+        this.metricsFile = metricsFile;
+        if (output != null || metricsFile != null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "csvsum-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * @return A shared reporter that never reports, for callers that do not
+     *         need progress reports. It does not count rows or bytes, so its
+     *         counts are always zero.
+     */
+    public static ProgressReporter none() {
+        return NONE;
+    }
+
+    /**
+     * Start reporting to {@link System#err}, or to the metrics file if it is
+     * not null.
+     *
+     * @param totalBytes
+     *            The number of bytes in the input, or -1 if it is not known.
+     * @param intervalSeconds
+     *            The number of seconds between reports, or 0 to not report.
+     * @param metricsFile
+     *            The file to write JSON reports to, or null to write text
+     *            reports to {@link System#err}.
+     * @return A new reporter, which must be closed when the task is complete.
+     */
+    public static ProgressReporter start(final long totalBytes, final int intervalSeconds,
+            final Path metricsFile) {
+        if (intervalSeconds <= 0) {
+            return none();
+        }
+        return start(totalBytes, TimeUnit.SECONDS.toMillis(intervalSeconds),
+                metricsFile == null ? System.err : null, metricsFile);
+    }
+
+    static ProgressReporter start(final long totalBytes, final long intervalMillis,
+            final PrintStream output, final Path metricsFile) {
+        final ProgressReporter result = new ProgressReporter(totalBytes, output, metricsFile);
+        result.scheduler.scheduleAtFixedRate(() -> result.report(false), intervalMillis,
+                intervalMillis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Count a row. This is safe to call from multiple threads.
+     */
+    public void increment() {
+        if (scheduler == null) {
+            return;
+        }
+        rows.increment();
+    }
+
+    /**
+     * Count bytes that have been read. This is safe to call from multiple
+     * threads.
+     *
+     * @param count
+     *            The number of bytes.
+     */
+    public void addBytes(final long count) {
+        if (scheduler == null) {
+            return;
+        }
+        bytes.add(count);
+    }
+
+    /**
+     * Set the number of bytes in the input, for tasks that only know the size
+     * after they have started.
+     *
+     * @param totalBytes
+     *            The number of bytes in the input, or -1 if it is not known.
+     */
+    public void setTotalBytes(final long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * @return The number of rows counted so far.
+     */
+    public long getRowCount() {
+        return rows.sum();
+    }
+
+    /**
+     * @return The number of bytes counted so far.
+     */
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    /**
+     * Wrap the given stream to count the bytes that are read from it.
+     *
+     * @param input
+     *            The stream to wrap.
+     * @return A stream that counts bytes, or the given stream if this reporter
+     *         does not report.
+     */
+    public InputStream track(final InputStream input) {
+        if (scheduler == null) {
+            return input;
+        }
+        return new FilterInputStream(input) {
+            @Override
+            public int read() throws IOException {
+                final int result = super.read();
+                if (result >= 0) {
+                    bytes.increment();
+                }
+                return result;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int result = super.read(b, off, len);
+                if (result > 0) {
+                    bytes.add(result);
+                }
+                return result;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                final long result = super.skip(n);
+                bytes.add(result);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Stop reporting, and write a final report.
+     */
+    @Override
+    public void close() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report(true);
+    }
+
+    /**
+     * @param complete
+     *            True if this is the final report.
+     * @return The current metrics, in the order they are reported.
+     */
+    Map<String, Object> getMetrics(final boolean complete) {
+        final long nextRows = rows.sum();
+        final long nextBytes = bytes.sum();
+        final long nextTotalBytes = totalBytes;
+        final double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0d;
+        final double bytesPerSecond = seconds > 0 ? nextBytes / seconds : 0;
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rows", nextRows);
+        result.put("bytes", nextBytes);
+        result.put("totalBytes", nextTotalBytes);
+        result.put("elapsedSeconds", seconds);
+        result.put("rowsPerSecond", seconds > 0 ? nextRows / seconds : 0);
+        result.put("bytesPerSecond", bytesPerSecond);
+        if (nextTotalBytes > 0) {
+            result.put("percentComplete",
+                    complete ? 100.0d : Math.min(100.0d, 100.0d * nextBytes / nextTotalBytes));
+            result.put("etaSeconds", complete || bytesPerSecond <= 0 ? 0
+                    : Math.max(0, nextTotalBytes - nextBytes) / bytesPerSecond);
+        }
+        result.put("complete", complete);
+        return result;
+    }
+
+    private void report(final boolean complete) {
+        final Map<String, Object> metrics = getMetrics(complete);
+        if (metricsFile != null) {
+            try {
+                final Path tempFile = Files.createTempFile(
+                        metricsFile.toAbsolutePath().getParent(), "metrics-", ".json");
+                new ObjectMapper().writeValue(tempFile.toFile(), metrics);
+                Files.move(tempFile, metricsFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (final IOException | RuntimeException e) {
+                System.err.println("Failed to write metrics file: " + metricsFile + " " + e);
+            }
+        } else {
+            final StringBuilder line = new StringBuilder();
+            line.append(String.format(Locale.ROOT,
+                    "%d\tSeconds since start: %.1f\tRecords per second: %.1f",
+                    metrics.get("rows"), metrics.get("elapsedSeconds"),
+                    metrics.get("rowsPerSecond")));
+            if ((Long) metrics.get("bytes") > 0) {
+                line.append(String.format(Locale.ROOT, "\tMB per second: %.2f",
+                        (Double) metrics.get("bytesPerSecond") / (1024 * 1024)));
+            }
+            if (metrics.containsKey("etaSeconds")) {
+                line.append(String.format(Locale.ROOT, "\tComplete: %.1f%%\tETA seconds: %.0f",
+                        metrics.get("percentComplete"), metrics.get("etaSeconds")));
+            }
+            output.println(line);
+        }
+    }
+}
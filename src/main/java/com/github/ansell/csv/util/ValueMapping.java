@@ -28,14 +28,21 @@ package com.github.ansell.csv.util;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import javax.script.Bindings;
@@ -73,6 +80,8 @@ public class ValueMapping {
 
         LUA("return inputValue"),
 
+        EXPRESSION(ValueMapping.DEFAULT_MAPPING),
+
         ACCESS(""),
 
         CSVJOIN(""),
@@ -102,9 +111,74 @@ public class ValueMapping {
     public static final String DEFAULT = "Default";
     public static final String LANGUAGE = "Language";
     public static final String MAPPING = "Mapping";
+    public static final String CACHE = "Cache";
+    public static final String FILTER_FIRST = "FilterFirst";
+
+    /**
+     * The number of results kept for a mapping when its Cache field is "yes"
+     * rather than a number.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    /**
+     * The value that Javascript, Groovy and Lua mappings can return, as
+     * FILTER, to filter out the current line without throwing an exception.
+     */
+    public static final Object FILTER = new Object() {
+        @Override
+        public String toString() {
+            return "FILTER";
+        }
+    };
     private static final ScriptEngineManager SCRIPT_MANAGER = new ScriptEngineManager();
+
+    /**
+     * A script engine for each language on each thread, which is shared by
+     * all of the mappings for that language, so that the engine is only
+     * created, and the Javascript prelude is only evaluated, once for each
+     * thread.
+     * <br>
+     * The engines are kept until the thread ends, or until
+     * {@link #releaseSharedEngines()} is called on the thread, so a long lived
+     * thread, such as the main thread or a pooled thread, that has finished
+     * mapping should call {@link #releaseSharedEngines()} to allow the engines
+     * to be collected.
+     */
+    private static final ThreadLocal<Map<ValueMappingLanguage, ScriptEngine>> SHARED_ENGINES = ThreadLocal
+            .withInitial(() -> new EnumMap<>(ValueMappingLanguage.class));
+
     private static final boolean DEBUG = false;
 
+    /**
+     * Identifiers in mapping scripts that depend on the lines before the
+     * current line, or that modify state shared between lines, so the
+     * mapping must be applied to each line in order on a single thread.
+     */
+    private static final Pattern SEQUENTIAL_IDENTIFIERS = Pattern.compile(
+            "\\b(previousLine|previousMappedLine|primaryKeys|primaryKeyBoolean|primaryKeyFilter|"
+                    + "filteredLineNumber|mapLineConsumer|valueCounts|incrementCount|getCount)\\b");
+
+    /**
+     * Identifiers in mapping scripts that give access to values other than
+     * the input value, so the results cannot be cached using the input value
+     * as the key. These are matched as whole words anywhere in the script.
+     */
+    private static final Pattern LINE_IDENTIFIERS = Pattern.compile(
+            "\\b(line|mapLine|lineNumber|jsonNode|col|outCol)\\b");
+
+    /**
+     * Identifiers in mapping scripts that can filter out the line.
+     */
+    private static final Pattern FILTER_IDENTIFIERS = Pattern
+            .compile("\\b(filter|FILTER|primaryKeyFilter)\\b");
+
+    /**
+     * Identifiers in mapping scripts that read the values mapped so far for
+     * the current line, so the result depends on the order of the mappings.
+     */
+    private static final Pattern MAPPED_LINE_IDENTIFIERS = Pattern
+            .compile("\\b(mapLine|outCol)\\b");
+
     static {
         if (DEBUG) {
             System.out.println("Installed script engines:");
@@ -124,9 +198,20 @@ public class ValueMapping {
             if (h.indexOf(DEFAULT) >= 0) {
                 nextDefault = l.get(h.indexOf(DEFAULT));
             }
+            // The cache field is also optional, and caching is off by default
+            String nextCache = "";
+            if (h.indexOf(CACHE) >= 0) {
+                nextCache = l.get(h.indexOf(CACHE));
+            }
+            // The filter first field is also optional, and filters are only
+            // run first when that cannot change the results by default
+            String nextFilterFirst = "";
+            if (h.indexOf(FILTER_FIRST) >= 0) {
+                nextFilterFirst = l.get(h.indexOf(FILTER_FIRST));
+            }
             return newMapping(l.get(h.indexOf(LANGUAGE)), l.get(h.indexOf(OLD_FIELD)),
                     l.get(h.indexOf(NEW_FIELD)), l.get(h.indexOf(MAPPING)), l.get(h.indexOf(SHOWN)),
-                    nextDefault);
+                    nextDefault, nextCache, nextFilterFirst);
         }, l -> result.add(l));
 
         return Collections.unmodifiableList(result);
@@ -144,6 +229,43 @@ public class ValueMapping {
                 getOutputFieldsFromList(map), getDefaultValuesFromList(map), Optional.empty()));
     }
 
+    /**
+     * Check whether the given mappings can be applied to different lines
+     * concurrently.
+     * <br>
+     * This is not possible if any script uses the previous lines, the primary
+     * keys, the value counts, the filtered line number or the map line
+     * consumer, as those depend on the lines being mapped in order. Script
+     * engines are not shared between threads, so a global variable that a
+     * Javascript or Groovy script sets is only visible to the lines that are
+     * mapped on the same thread, and scripts that use global variables to
+     * carry values between lines must be mapped on a single thread. Lua
+     * global variables are removed after each line.
+     *
+     * @param map
+     *            The mappings to check.
+     * @return True if {@link #mapLine(ValueMappingContext)} can be called for
+     *         different lines from multiple threads, and false otherwise.
+     */
+    public static boolean canMapConcurrently(List<ValueMapping> map) {
+        return map.stream().allMatch(ValueMapping::canMapConcurrently);
+    }
+
+    private boolean canMapConcurrently() {
+        if (this.language == ValueMappingLanguage.DEFAULT
+                || this.language.matchesDefaultMapping(this.mapping)) {
+            return true;
+        }
+        if (this.language != ValueMappingLanguage.JAVASCRIPT
+                && this.language != ValueMappingLanguage.GROOVY
+                && this.language != ValueMappingLanguage.LUA) {
+            return true;
+        }
+        // Each thread uses its own script engine, so only the state that is
+        // shared between lines prevents concurrent mapping
+        return !SEQUENTIAL_IDENTIFIERS.matcher(this.mapping).find();
+    }
+
     public static Map<String, String> getDefaultValuesFromList(List<ValueMapping> map) {
         return map.stream().filter(k -> k.getShown()).collect(
                 Collectors.toMap(ValueMapping::getOutputField, ValueMapping::getDefaultValue));
@@ -160,11 +282,19 @@ public class ValueMapping {
     }
 
     public static List<String> mapLine(ValueMappingContext context) throws LineFilteredException {
+        final MappingPlan plan = context.getMappingPlan();
+        if (plan != null && plan.matches(context)) {
+            return plan.mapLine(context);
+        }
+
+        // Without a plan for these headers, look up each field by name, as
+        // compiling a plan for a single line costs more than it saves
         final HashMap<String, String> outputValues = new HashMap<>(context.getMappings().size(),
                 0.75f);
 
         context.getMappings().forEach(nextMapping -> {
-            final String mappedValue = nextMapping.apply(context, outputValues);
+            final String mappedValue = nextMapping.apply(context, outputValues,
+                    context.getInputHeaders().indexOf(nextMapping.getInputField()));
             outputValues.put(nextMapping.getOutputField(), mappedValue);
         });
 
@@ -180,6 +310,75 @@ public class ValueMapping {
 
     public static final ValueMapping newMapping(String language, String input, String output,
             String mapping, String shownString, String nextDefault) {
+        return newMapping(language, input, output, mapping, shownString, nextDefault, "");
+    }
+
+    /**
+     * Create a new mapping, optionally caching its results.
+     *
+     * @param language
+     *            The name of the {@link ValueMappingLanguage} for the mapping.
+     * @param input
+     *            The input field.
+     * @param output
+     *            The output field.
+     * @param mapping
+     *            The mapping script, or an empty string to copy the input
+     *            value.
+     * @param shownString
+     *            "no" to hide the output field, and anything else to show it.
+     * @param nextDefault
+     *            The default value for the output field.
+     * @param cacheString
+     *            An empty string or "no" to run the mapping for every line,
+     *            "yes" to cache up to {@link #DEFAULT_CACHE_SIZE} results keyed
+     *            by the input value, or the maximum number of results to
+     *            cache. Only Javascript, Groovy, Lua and Expression mappings
+     *            that depend on nothing but the input value can be cached.
+     * @return A new {@link ValueMapping}.
+     */
+    public static final ValueMapping newMapping(String language, String input, String output,
+            String mapping, String shownString, String nextDefault, String cacheString) {
+        return newMapping(language, input, output, mapping, shownString, nextDefault, cacheString,
+                "");
+    }
+
+    /**
+     * Create a new mapping, optionally caching its results, and optionally
+     * allowing it to be run before the Javascript and Groovy mappings that
+     * are declared ahead of it if it filters the line.
+     *
+     * @param language
+     *            The name of the {@link ValueMappingLanguage} for the mapping.
+     * @param input
+     *            The input field.
+     * @param output
+     *            The output field.
+     * @param mapping
+     *            The mapping script, or an empty string to copy the input
+     *            value.
+     * @param shownString
+     *            "no" to hide the output field, and anything else to show it.
+     * @param nextDefault
+     *            The default value for the output field.
+     * @param cacheString
+     *            An empty string or "no" to run the mapping for every line,
+     *            "yes" to cache up to {@link #DEFAULT_CACHE_SIZE} results keyed
+     *            by the input value, or the maximum number of results to
+     *            cache. Only Javascript, Groovy, Lua and Expression mappings
+     *            that depend on nothing but the input value can be cached.
+     * @param filterFirstString
+     *            "yes" to declare that this mapping, which must be able to
+     *            filter the line, does not read any global variables set by
+     *            the Javascript and Groovy mappings ahead of it, and that
+     *            those mappings do not need to run for lines that it filters
+     *            out. An empty string or "no" to only run it ahead of other
+     *            mappings when that cannot change the results.
+     * @return A new {@link ValueMapping}.
+     */
+    public static final ValueMapping newMapping(String language, String input, String output,
+            String mapping, String shownString, String nextDefault, String cacheString,
+            String filterFirstString) {
         if (output == null || output.isEmpty()) {
             throw new IllegalArgumentException("Output field must not be empty");
         }
@@ -191,7 +390,7 @@ public class ValueMapping {
 
         ValueMappingLanguage nextLanguage;
         try {
-            nextLanguage = ValueMappingLanguage.valueOf(language.toUpperCase());
+            nextLanguage = ValueMappingLanguage.valueOf(language.toUpperCase(Locale.ROOT));
         } catch (final IllegalArgumentException e) {
             nextLanguage = ValueMappingLanguage.DEFAULT;
         }
@@ -207,13 +406,120 @@ public class ValueMapping {
 
         final boolean shown = !NO.equalsIgnoreCase(shownString);
 
+        final int cacheSize = parseCacheSize(cacheString, output);
+        if (cacheSize > 0) {
+            checkCacheable(nextLanguage, output, nextMapping);
+        }
+
+        final boolean filterFirst = parseFilterFirst(filterFirstString, output);
+
         final ValueMapping result = new ValueMapping(nextLanguage, input, output, nextMapping,
-                shown, nextDefault);
+                shown, nextDefault, cacheSize, filterFirst);
+        if (filterFirst && !result.canFilter()) {
+            throw new IllegalArgumentException("Cannot run the mapping for " + output
+                    + " first as it does not contain filter() or FILTER: " + language + " "
+                    + nextMapping);
+        }
         result.init();
 
         return result;
     }
 
+    /**
+     * Check that a mapping can be cached. Only Javascript, Groovy, Lua and
+     * Expression mappings that do not simply copy the input value run
+     * anything that can be cached. The mapping must also not contain any of
+     * the words that give it values other than the input value. This is a
+     * check for the whole words anywhere in the mapping, including in strings
+     * and comments, not an analysis of the script.
+     */
+    private static void checkCacheable(ValueMappingLanguage language, String output,
+            String mapping) {
+        if ((language != ValueMappingLanguage.JAVASCRIPT
+                && language != ValueMappingLanguage.GROOVY
+                && language != ValueMappingLanguage.LUA
+                && language != ValueMappingLanguage.EXPRESSION)
+                || language.matchesDefaultMapping(mapping)) {
+            throw new IllegalArgumentException("Cannot cache the mapping for " + output
+                    + " as only Javascript, Groovy, Lua and Expression mappings that change the input value can be cached: "
+                    + language + " " + mapping);
+        }
+        for (final Pattern nextPattern : Arrays.asList(LINE_IDENTIFIERS,
+                SEQUENTIAL_IDENTIFIERS)) {
+            final Matcher matcher = nextPattern.matcher(mapping);
+            if (matcher.find()) {
+                throw new IllegalArgumentException("Cannot cache the mapping for " + output
+                        + " as it contains the word '" + matcher.group(1)
+                        + "', which may give it values other than inputValue. The word is not allowed anywhere in a cached mapping, including in strings and comments: "
+                        + mapping);
+            }
+        }
+    }
+
+    private static int parseCacheSize(String cacheString, String output) {
+        if (cacheString == null || cacheString.trim().isEmpty()
+                || NO.equalsIgnoreCase(cacheString.trim())) {
+            return 0;
+        }
+        if ("yes".equalsIgnoreCase(cacheString.trim())) {
+            return DEFAULT_CACHE_SIZE;
+        }
+        try {
+            final int result = Integer.parseInt(cacheString.trim());
+            if (result < 0) {
+                throw new IllegalArgumentException(
+                        "Cache size for " + output + " must not be negative: " + cacheString);
+            }
+            return result;
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Cache for " + output + " must be yes, no, or a size: " + cacheString, e);
+        }
+    }
+
+    private static boolean parseFilterFirst(String filterFirstString, String output) {
+        if (filterFirstString == null || filterFirstString.trim().isEmpty()
+                || NO.equalsIgnoreCase(filterFirstString.trim())) {
+            return false;
+        }
+        if ("yes".equalsIgnoreCase(filterFirstString.trim())) {
+            return true;
+        }
+        throw new IllegalArgumentException(
+                "FilterFirst for " + output + " must be yes or no: " + filterFirstString);
+    }
+
+    /**
+     * Describe how well the cache for each mapping that has one performed.
+     *
+     * @param map
+     *            The mappings to report on.
+     * @return One line for each mapping with a cache, naming its output field
+     *         and giving the number of hits and misses and its hit rate.
+     */
+    public static List<String> getCacheStatistics(List<ValueMapping> map) {
+        return map.stream().filter(k -> k.cache != null)
+                .map(k -> "Cache for " + k.getOutputField() + ": " + k.cache)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Describe the mappings that were not run because a filter that was
+     * evaluated before them filtered out the line.
+     *
+     * @param map
+     *            The mappings to report on.
+     * @return One line for each filter mapping that skipped other mappings,
+     *         naming its output field and giving the number of mappings it
+     *         skipped.
+     */
+    public static List<String> getFilterStatistics(List<ValueMapping> map) {
+        return map.stream().filter(k -> k.skippedMappings.sum() > 0)
+                .map(k -> "Filter for " + k.getOutputField() + ": skipped "
+                        + k.skippedMappings.sum() + " mapping invocations")
+                .collect(Collectors.toList());
+    }
+
     private final ValueMappingLanguage language;
 
     private final String input;
@@ -228,16 +534,110 @@ public class ValueMapping {
 
     private final String[] destFields;
     private final String[] sourceFields;
+    private final int cacheSize;
+    private final boolean filterFirst;
 
-    private transient ScriptEngine scriptEngine;
-    private transient CompiledScript compiledScript;
+    /**
+     * Script engines are not generally safe to call from multiple threads, so
+     * each thread that applies this mapping compiles its own copy of the
+     * script with the shared engine for that thread the first time it is used
+     * on that thread. The compiled function is only referenced from here, not
+     * from the engine, so it can be collected with this mapping.
+     */
+    private transient ThreadLocal<ScriptInstance> scriptInstances;
+
+    private transient MappingExpression expression;
+
+    private transient MappingCache cache;
+
+    private final LongAdder skippedMappings = new LongAdder();
+
+    /**
+     * The shared script engine for this mapping on a single thread, with the
+     * anonymous function for this mapping if the engine is {@link Invocable},
+     * or the compiled script for this mapping otherwise.
+     */
+    private static final class ScriptInstance {
+
+        /**
+         * The names that are bound for every line. Any other names in the
+         * bindings are global variables that the script set on a previous
+         * line, and they are removed before it is run again.
+         */
+        private static final Set<String> BOUND_NAMES = Collections
+                .unmodifiableSet(new HashSet<>(Arrays.asList("inputField", "outputField",
+                        "defaultValue", "FILTER", "inputHeaders", "outputHeaders", "primaryKeys",
+                        "valueCounts", "mapLineConsumer", "inputValue", "line", "mapLine",
+                        "previousLine", "previousMappedLine", "lineNumber", "filteredLineNumber",
+                        "jsonNode")));
+
+        private final ScriptEngine scriptEngine;
+        private final Object function;
+        private final CompiledScript compiledScript;
+
+        /**
+         * The bindings for the compiled script, which are reused for each
+         * line. The values that are the same for every line in a run are only
+         * replaced when they change.
+         */
+        private final Bindings bindings;
+        private List<String> boundInputHeaders;
+        private List<String> boundOutputHeaders;
+        private JDefaultDict<String, Set<String>> boundPrimaryKeys;
+        private JDefaultDict<String, JDefaultDict<String, AtomicInteger>> boundValueCounts;
+        private BiConsumer<List<String>, List<String>> boundMapLineConsumer;
+
+        ScriptInstance(ScriptEngine scriptEngine, Object function,
+                CompiledScript compiledScript, Bindings bindings) {
+            this.scriptEngine = scriptEngine;
+            this.function = function;
+            this.compiledScript = compiledScript;
+            this.bindings = bindings;
+        }
+
+        Bindings getBindings(ValueMappingContext context) {
+            if (boundInputHeaders != context.getInputHeaders()) {
+                boundInputHeaders = context.getInputHeaders();
+                bindings.put("inputHeaders", boundInputHeaders);
+            }
+            if (boundOutputHeaders != context.getOutputHeaders()) {
+                boundOutputHeaders = context.getOutputHeaders();
+                bindings.put("outputHeaders", boundOutputHeaders);
+            }
+            if (boundPrimaryKeys != context.getPrimaryKeys()) {
+                boundPrimaryKeys = context.getPrimaryKeys();
+                bindings.put("primaryKeys", boundPrimaryKeys);
+            }
+            if (boundValueCounts != context.getValueCounts()) {
+                boundValueCounts = context.getValueCounts();
+                bindings.put("valueCounts", boundValueCounts);
+            }
+            if (boundMapLineConsumer != context.getMapLineConsumer()) {
+                boundMapLineConsumer = context.getMapLineConsumer();
+                bindings.put("mapLineConsumer", boundMapLineConsumer);
+            }
+            return bindings;
+        }
+
+        /**
+         * Remove the global variables that the script set on a previous line,
+         * so that its result does not depend on the lines that were mapped
+         * before it on the same thread. This must be called after all of the
+         * names for the line have been bound.
+         */
+        void removeGlobals() {
+            if (bindings.size() != BOUND_NAMES.size()) {
+                bindings.keySet().retainAll(BOUND_NAMES);
+            }
+        }
+    }
 
     /**
      * All creation of ValueMapping objects must be done through the
      * {@link #newMapping(String, String, String, String)} method.
      */
     private ValueMapping(ValueMappingLanguage language, String input, String output, String mapping,
-            boolean shown, String nextDefault) {
+            boolean shown, String nextDefault, int cacheSize, boolean filterFirst) {
         this.language = language;
         this.input = input.intern();
         this.output = output.intern();
@@ -246,10 +646,11 @@ public class ValueMapping {
         this.theDefault = nextDefault.intern();
         this.destFields = CSVUtil.COMMA_PATTERN.split(this.mapping);
         this.sourceFields = CSVUtil.COMMA_PATTERN.split(this.input);
+        this.cacheSize = cacheSize;
+        this.filterFirst = filterFirst;
     }
 
-    private String apply(ValueMappingContext context, Map<String, String> mappedLine) {
-        final int indexOf = context.getInputHeaders().indexOf(getInputField());
+    String apply(ValueMappingContext context, Map<String, String> mappedLine, int indexOf) {
         String nextInputValue;
         if (indexOf >= 0) {
             nextInputValue = context.getLine().get(indexOf);
@@ -266,57 +667,86 @@ public class ValueMapping {
             return nextInputValue;
         }
 
+        if (cache != null) {
+            final Object cachedValue = cache.get(nextInputValue);
+            if (cachedValue == FILTER) {
+                throw new LineFilteredException();
+            } else if (cachedValue != null) {
+                return (String) cachedValue;
+            }
+            final String result;
+            try {
+                result = applyMapping(context, mappedLine, nextInputValue);
+            } catch (final LineFilteredException e) {
+                // The mapping only depends on the input value, so it filters
+                // out every line with this input value
+                cache.put(nextInputValue, FILTER);
+                throw e;
+            }
+            cache.put(nextInputValue, result);
+            return result;
+        }
+
+        return applyMapping(context, mappedLine, nextInputValue);
+    }
+
+    private String applyMapping(ValueMappingContext context, Map<String, String> mappedLine,
+            String nextInputValue) {
         if (this.language == ValueMappingLanguage.JAVASCRIPT
                 || this.language == ValueMappingLanguage.GROOVY
                 || this.language == ValueMappingLanguage.LUA) {
             final Object nodeToUse = context.getJsonNode().isPresent() ? context.getJsonNode().get()
                     : "No JSON Node for this mapping context";
+            final ScriptInstance scriptInstance = scriptInstances.get();
+            final ScriptEngine scriptEngine = scriptInstance.scriptEngine;
+            final CompiledScript compiledScript = scriptInstance.compiledScript;
+            final Object result;
             try {
-                if (scriptEngine instanceof Invocable) {
+                if (scriptInstance.function != null) {
                     // evaluate script code and access the variable that results
                     // from the mapping
-                    return (String) ((Invocable) scriptEngine).invokeFunction("mapFunction",
-                            context.getInputHeaders(), this.getInputField(), nextInputValue,
+                    result = ((Invocable) scriptEngine).invokeMethod(scriptInstance.function,
+                            "call", context.getInputHeaders(), this.getInputField(), nextInputValue,
                             context.getOutputHeaders(), this.getOutputField(), context.getLine(),
                             mappedLine, context.getPreviousLine(), context.getPreviousMappedLine(),
                             context.getPrimaryKeys(), context.getLineNumber(),
                             context.getFilteredLineNumber(), context.getMapLineConsumer(),
                             theDefault, nodeToUse, context.getValueCounts());
                 } else if (compiledScript != null) {
-                    final Bindings bindings = scriptEngine.createBindings();
-                    // inputHeaders, inputField, inputValue, outputField, line
-                    bindings.put("inputHeaders", context.getInputHeaders());
-                    bindings.put("inputField", this.getInputField());
+                    // inputField, outputField and defaultValue were bound when
+                    // the script was compiled, so only the values for this
+                    // line are replaced here
+                    final Bindings bindings = scriptInstance.getBindings(context);
                     bindings.put("inputValue", nextInputValue);
-                    bindings.put("outputHeaders", context.getOutputHeaders());
-                    bindings.put("outputField", this.getOutputField());
                     bindings.put("line", context.getLine());
                     bindings.put("mapLine", mappedLine);
                     bindings.put("previousLine", context.getPreviousLine());
                     bindings.put("previousMappedLine", context.getPreviousMappedLine());
-                    bindings.put("primaryKeys", context.getPrimaryKeys());
                     bindings.put("lineNumber", context.getLineNumber());
                     bindings.put("filteredLineNumber", context.getFilteredLineNumber());
-                    bindings.put("mapLineConsumer", context.getMapLineConsumer());
-                    bindings.put("defaultValue", theDefault);
                     bindings.put("jsonNode", nodeToUse);
-                    bindings.put("valueCounts", context.getValueCounts());
-                    return (String) compiledScript.eval(bindings);
+                    scriptInstance.removeGlobals();
+                    result = compiledScript.eval(bindings);
                 } else {
                     throw new UnsupportedOperationException(
                             "Cannot handle results from ScriptEngine.eval that are not Invocable or CompiledScript");
                 }
             } catch (final ScriptException e) {
-                if (e.getCause() != null) {
-                    if (e.getCause().getMessage()
-                            .contains(LineFilteredException.class.getCanonicalName())) {
-                        throw new LineFilteredException(e);
-                    }
+                if (isLineFiltered(e)) {
+                    throw new LineFilteredException(e);
                 }
                 throw new RuntimeException(e);
             } catch (final NoSuchMethodException e) {
                 throw new RuntimeException(e);
             }
+            // Returning FILTER avoids the cost of throwing an exception
+            // through the script engine to filter the line
+            if (result == FILTER) {
+                throw new LineFilteredException();
+            }
+            return (String) result;
+        } else if (this.language == ValueMappingLanguage.EXPRESSION) {
+            return expression.evaluate(context, mappedLine, nextInputValue);
         } else if (this.language == ValueMappingLanguage.ACCESS) {
             // Access is currently handled separately, before these mappings are
             // applied, so make this a noop
@@ -355,6 +785,78 @@ public class ValueMapping {
         return this.theDefault;
     }
 
+    /**
+     * @return True if this mapping copies the input value without running a
+     *         script or expression.
+     */
+    boolean isCopy() {
+        return this.language == ValueMappingLanguage.DEFAULT
+                || this.language.matchesDefaultMapping(this.mapping)
+                || this.language == ValueMappingLanguage.ACCESS
+                || this.language == ValueMappingLanguage.CSVJOIN
+                || this.language == ValueMappingLanguage.DBSCHEMA;
+    }
+
+    /**
+     * @return True if this mapping may filter out the line.
+     */
+    boolean canFilter() {
+        return !isCopy() && FILTER_IDENTIFIERS.matcher(this.mapping).find();
+    }
+
+    /**
+     * @return True if this mapping may read the values mapped before it on
+     *         the same line.
+     */
+    boolean readsMappedLine() {
+        return !isCopy() && MAPPED_LINE_IDENTIFIERS.matcher(this.mapping).find();
+    }
+
+    /**
+     * @return True if this mapping may change state that is visible outside
+     *         of the line, other than global variables in a script engine, so
+     *         it cannot be run after a filter that was originally after it.
+     */
+    boolean hasSideEffects() {
+        return !isCopy() && SEQUENTIAL_IDENTIFIERS.matcher(this.mapping).find();
+    }
+
+    /**
+     * Javascript and Groovy mappings share the global variables in the script
+     * engine for their language with the other mappings on the same thread,
+     * whether or not they are cached, so a later filter may read a global
+     * variable that this mapping sets. Global variables set by Lua mappings
+     * are removed after each line, and are not visible to other mappings.
+     *
+     * @return True if this mapping may set global variables that later
+     *         mappings read.
+     */
+    boolean mayShareGlobals() {
+        return !isCopy() && (this.language == ValueMappingLanguage.JAVASCRIPT
+                || this.language == ValueMappingLanguage.GROOVY);
+    }
+
+    /**
+     * @return True if this mapping was declared, using the FilterFirst field,
+     *         to filter lines without depending on the Javascript and Groovy
+     *         mappings ahead of it.
+     */
+    boolean isFilterFirst() {
+        return this.filterFirst;
+    }
+
+    void addSkippedMappings(int count) {
+        skippedMappings.add(count);
+    }
+
+    /**
+     * @return The maximum number of results to cache for this mapping, or 0
+     *         if the mapping is run for every line.
+     */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
     private void init() {
         // Short circuit if the mapping is the default mapping and avoid
         // creating an instance of nashorn/groovy/etc. for this mapping
@@ -363,72 +865,183 @@ public class ValueMapping {
             return;
         }
 
+        if (this.language == ValueMappingLanguage.JAVASCRIPT
+                || this.language == ValueMappingLanguage.GROOVY
+                || this.language == ValueMappingLanguage.LUA) {
+            // Other threads compile their own copy of the script when the
+            // mapping is first applied on them
+            scriptInstances = ThreadLocal.withInitial(this::newScriptInstance);
+            // Compile the script on this thread so that errors are reported
+            // when the mapping is created
+            scriptInstances.get();
+            if (this.cacheSize > 0) {
+                cache = new MappingCache(this.cacheSize);
+            }
+        } else if (this.language == ValueMappingLanguage.EXPRESSION) {
+            expression = MappingExpression.compile(this.mapping, this.input, this.output,
+                    this.theDefault);
+            if (this.cacheSize > 0) {
+                cache = new MappingCache(this.cacheSize);
+            }
+        } else if (this.language == ValueMappingLanguage.ACCESS) {
+
+        } else if (this.language == ValueMappingLanguage.CSVJOIN) {
+
+        } else if (this.language == ValueMappingLanguage.DBSCHEMA) {
+
+        } else {
+            throw new UnsupportedOperationException(
+                    "Mapping language not supported: " + this.language);
+        }
+    }
+
+    private static boolean isLineFiltered(ScriptException e) {
+        // Some engines wrap the exception thrown by filter() in their own
+        // exception types, so fall back to the message if it is not a cause
+        Throwable nextCause = e.getCause();
+        while (nextCause != null) {
+            if (nextCause instanceof LineFilteredException) {
+                return true;
+            }
+            if (nextCause.getMessage() != null && nextCause.getMessage()
+                    .contains(LineFilteredException.class.getCanonicalName())) {
+                return true;
+            }
+            nextCause = nextCause.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * @param language
+     *            The language of the engine
+     * @return The script engine for the given language on the current thread,
+     *         or null if the engine is not available.
+     * @throws ScriptException
+     *             If the engine could not be initialised
+     */
+    static ScriptEngine getSharedEngine(ValueMappingLanguage language)
+            throws ScriptException {
+        final Map<ValueMappingLanguage, ScriptEngine> engines = SHARED_ENGINES.get();
+        if (engines.containsKey(language)) {
+            return engines.get(language);
+        }
+        final ScriptEngine result;
+        if (language == ValueMappingLanguage.JAVASCRIPT) {
+            result = SCRIPT_MANAGER.getEngineByName("nashorn");
+            if (result != null) {
+                result.eval(javascriptPrelude());
+            }
+        } else if (language == ValueMappingLanguage.GROOVY) {
+            result = SCRIPT_MANAGER.getEngineByName("groovy");
+            if (result != null) {
+                // Bound once here, as resolving the fully qualified name in
+                // each mapping makes compiling the mappings slower
+                result.put("FILTER", FILTER);
+            }
+        } else if (language == ValueMappingLanguage.LUA) {
+            result = SCRIPT_MANAGER.getEngineByName("lua");
+        } else {
+            throw new UnsupportedOperationException(
+                    "Mapping language does not use a script engine: " + language);
+        }
+        engines.put(language, result);
+        return result;
+    }
+
+    /**
+     * Release the script engines that are shared by the mappings on the
+     * current thread, along with any global variables that the mappings set
+     * in them.
+     * <br>
+     * Mappings that are applied on the current thread after this call keep
+     * using the engine that they were compiled with, while mappings that
+     * are compiled after this call use a new engine.
+     */
+    public static void releaseSharedEngines() {
+        SHARED_ENGINES.remove();
+    }
+
+    /**
+     * The functions and types that are available to every Javascript mapping,
+     * which are evaluated once for each shared engine.
+     */
+    private static String javascriptPrelude() {
+        final StringBuilder javascriptFunction = new StringBuilder();
+        javascriptFunction.append(
+                "var LFE = Java.type(\"com.github.ansell.csv.util.LineFilteredException\"); \n");
+        javascriptFunction.append("var Integer = Java.type('java.lang.Integer'); \n");
+        javascriptFunction.append("var Double = Java.type('java.lang.Double'); \n");
+        javascriptFunction.append("var Long = Java.type('java.lang.Long'); \n");
+        javascriptFunction.append("var LocalDate = Java.type('java.time.LocalDate'); \n");
+        javascriptFunction
+                .append("var LocalDateTime = Java.type('java.time.LocalDateTime'); \n");
+        javascriptFunction.append("var LocalTime = Java.type('java.time.LocalTime'); \n");
+        javascriptFunction
+                .append("var TimeUnit = Java.type('java.util.concurrent.TimeUnit'); \n");
+        javascriptFunction.append("var Locale = Java.type('java.util.Locale'); \n");
+        javascriptFunction
+                .append("var Format = Java.type('java.time.format.DateTimeFormatter'); \n");
+        javascriptFunction.append(
+                "var DateTimeFormatterBuilder = Java.type('java.time.format.DateTimeFormatterBuilder'); \n");
+        javascriptFunction
+                .append("var ChronoUnit = Java.type('java.time.temporal.ChronoUnit'); \n");
+        javascriptFunction.append("var Math = Java.type('java.lang.Math'); \n");
+        javascriptFunction.append("var String = Java.type('java.lang.String'); \n");
+        javascriptFunction
+                .append("var MessageDigest = Java.type('java.security.MessageDigest'); \n");
+        javascriptFunction.append("var BigInteger = Java.type('java.math.BigInteger'); \n");
+        javascriptFunction.append("var Arrays = Java.type('java.util.Arrays'); \n");
+        javascriptFunction.append("var UTM = Java.type('com.github.ansell.shp.UTM'); \n");
+        javascriptFunction
+                .append("var WGS84 = Java.type('com.github.ansell.shp.WGS84'); \n");
+        javascriptFunction.append(
+                "var JSONUtil = Java.type('com.github.ansell.csv.util.JSONUtil'); \n");
+        javascriptFunction.append(
+                "var JSONStreamUtil = Java.type('com.github.ansell.csv.stream.util.JSONStreamUtil'); \n");
+        javascriptFunction.append("var Paths = Java.type('java.nio.file.Paths'); \n");
+        javascriptFunction.append(
+                "var JsonPointer = Java.type('com.fasterxml.jackson.core.JsonPointer'); \n");
+        javascriptFunction.append("var Thread = Java.type('java.lang.Thread'); \n");
+        javascriptFunction.append("var System = Java.type('java.lang.System'); \n");
+        javascriptFunction.append("var StringReader = Java.type('java.io.StringReader');");
+        javascriptFunction
+                .append("var sleep = function(sleepTime) { Thread.sleep(sleepTime); }; \n");
+        javascriptFunction.append(
+                "var digest = function(value, algorithm, formatPattern) { if(!algorithm) { algorithm = \"SHA-256\"; } if(!formatPattern) { formatPattern = \"%064x\";} var md = MessageDigest.getInstance(algorithm); md.update(value.getBytes(\"UTF-8\")); var digestValue = md.digest(); return String.format(formatPattern, new BigInteger(1, digestValue));}; \n");
+        javascriptFunction.append(
+                "var replaceLineEndingsWith = function(value, replacement) { if(!replacement) { replacement = \"\"; } return value.replaceAll(\"\\r\\n|\\r|\\n\", replacement); }; \n");
+        javascriptFunction.append(
+                "var printErr = function(message) { System.err.println(message); }; \n");
+        javascriptFunction.append(
+                "var printTimings = function(startTime, rowCount) { var secondsSinceStart = (System.currentTimeMillis() - startTime) / 1000.0; System.out.printf(\"%d\\tSeconds since start: %f\\tRecords per second: %f%n\", nextLineNumber, secondsSinceStart, (nextLineNumber / secondsSinceStart)); }; \n");
+        javascriptFunction.append(
+                "var newDateFormat = function(formatPattern) { return new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(formatPattern).toFormatter(Locale.US); }; \n");
+        javascriptFunction.append(
+                "var dateMatches = function(dateValue, format) { try {\n format.parse(dateValue); \n return true; \n } catch(e) { } \n return false; }; \n");
+        javascriptFunction.append(
+                "var dateConvert = function(dateValue, inputFormat, outputFormat, parseClass) { if(!parseClass) { parseClass = LocalDate; } return parseClass.parse(dateValue, inputFormat).format(outputFormat); }; \n");
+        javascriptFunction.append("var filter = function() { throw new LFE(); }; \n");
+        javascriptFunction.append(
+                "var FILTER = Java.type('com.github.ansell.csv.util.ValueMapping').FILTER; \n");
+        javascriptFunction.append(
+                "var columnFunction = function(searchHeader, inputHeaders, line) { return inputHeaders.indexOf(searchHeader) >= 0 ? line.get(inputHeaders.indexOf(searchHeader)) : \"Could not find: \" + searchHeader; };\n");
+        javascriptFunction.append(
+                "var columnFunctionMap = function(searchHeader, mapLine) { return mapLine.get(searchHeader); };\n");
+        return javascriptFunction.toString();
+    }
+
+    private ScriptInstance newScriptInstance() {
         // precompile the function for this mapping for efficiency
         if (this.language == ValueMappingLanguage.JAVASCRIPT) {
             try {
-                scriptEngine = SCRIPT_MANAGER.getEngineByName("nashorn");
+                final ScriptEngine scriptEngine = getSharedEngine(this.language);
 
+                // The function is a method of an anonymous object, rather
+                // than a global variable, so the engine does not keep it
                 final StringBuilder javascriptFunction = new StringBuilder();
                 javascriptFunction.append(
-                        "var LFE = Java.type(\"com.github.ansell.csv.util.LineFilteredException\"); \n");
-                javascriptFunction.append("var Integer = Java.type('java.lang.Integer'); \n");
-                javascriptFunction.append("var Double = Java.type('java.lang.Double'); \n");
-                javascriptFunction.append("var Long = Java.type('java.lang.Long'); \n");
-                javascriptFunction.append("var LocalDate = Java.type('java.time.LocalDate'); \n");
-                javascriptFunction
-                        .append("var LocalDateTime = Java.type('java.time.LocalDateTime'); \n");
-                javascriptFunction.append("var LocalTime = Java.type('java.time.LocalTime'); \n");
-                javascriptFunction
-                        .append("var TimeUnit = Java.type('java.util.concurrent.TimeUnit'); \n");
-                javascriptFunction.append("var Locale = Java.type('java.util.Locale'); \n");
-                javascriptFunction
-                        .append("var Format = Java.type('java.time.format.DateTimeFormatter'); \n");
-                javascriptFunction.append(
-                        "var DateTimeFormatterBuilder = Java.type('java.time.format.DateTimeFormatterBuilder'); \n");
-                javascriptFunction
-                        .append("var ChronoUnit = Java.type('java.time.temporal.ChronoUnit'); \n");
-                javascriptFunction.append("var Math = Java.type('java.lang.Math'); \n");
-                javascriptFunction.append("var String = Java.type('java.lang.String'); \n");
-                javascriptFunction
-                        .append("var MessageDigest = Java.type('java.security.MessageDigest'); \n");
-                javascriptFunction.append("var BigInteger = Java.type('java.math.BigInteger'); \n");
-                javascriptFunction.append("var Arrays = Java.type('java.util.Arrays'); \n");
-                javascriptFunction.append("var UTM = Java.type('com.github.ansell.shp.UTM'); \n");
-                javascriptFunction
-                        .append("var WGS84 = Java.type('com.github.ansell.shp.WGS84'); \n");
-                javascriptFunction.append(
-                        "var JSONUtil = Java.type('com.github.ansell.csv.util.JSONUtil'); \n");
-                javascriptFunction.append(
-                        "var JSONStreamUtil = Java.type('com.github.ansell.csv.stream.util.JSONStreamUtil'); \n");
-                javascriptFunction.append("var Paths = Java.type('java.nio.file.Paths'); \n");
-                javascriptFunction.append(
-                        "var JsonPointer = Java.type('com.fasterxml.jackson.core.JsonPointer'); \n");
-                javascriptFunction.append("var Thread = Java.type('java.lang.Thread'); \n");
-                javascriptFunction.append("var System = Java.type('java.lang.System'); \n");
-                javascriptFunction.append("var StringReader = Java.type('java.io.StringReader');");
-                javascriptFunction
-                        .append("var sleep = function(sleepTime) { Thread.sleep(sleepTime); }; \n");
-                javascriptFunction.append(
-                        "var digest = function(value, algorithm, formatPattern) { if(!algorithm) { algorithm = \"SHA-256\"; } if(!formatPattern) { formatPattern = \"%064x\";} var md = MessageDigest.getInstance(algorithm); md.update(value.getBytes(\"UTF-8\")); var digestValue = md.digest(); return String.format(formatPattern, new BigInteger(1, digestValue));}; \n");
-                javascriptFunction.append(
-                        "var replaceLineEndingsWith = function(value, replacement) { if(!replacement) { replacement = \"\"; } return value.replaceAll(\"\\r\\n|\\r|\\n\", replacement); }; \n");
-                javascriptFunction.append(
-                        "var printErr = function(message) { System.err.println(message); }; \n");
-                javascriptFunction.append(
-                        "var printTimings = function(startTime, rowCount) { var secondsSinceStart = (System.currentTimeMillis() - startTime) / 1000.0; System.out.printf(\"%d\\tSeconds since start: %f\\tRecords per second: %f%n\", nextLineNumber, secondsSinceStart, (nextLineNumber / secondsSinceStart)); }; \n");
-                javascriptFunction.append(
-                        "var newDateFormat = function(formatPattern) { return new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(formatPattern).toFormatter(Locale.US); }; \n");
-                javascriptFunction.append(
-                        "var dateMatches = function(dateValue, format) { try {\n format.parse(dateValue); \n return true; \n } catch(e) { } \n return false; }; \n");
-                javascriptFunction.append(
-                        "var dateConvert = function(dateValue, inputFormat, outputFormat, parseClass) { if(!parseClass) { parseClass = LocalDate; } return parseClass.parse(dateValue, inputFormat).format(outputFormat); }; \n");
-                javascriptFunction.append("var filter = function() { throw new LFE(); }; \n");
-                javascriptFunction.append(
-                        "var columnFunction = function(searchHeader, inputHeaders, line) { return inputHeaders.indexOf(searchHeader) >= 0 ? line.get(inputHeaders.indexOf(searchHeader)) : \"Could not find: \" + searchHeader; };\n");
-                javascriptFunction.append(
-                        "var columnFunctionMap = function(searchHeader, mapLine) { return mapLine.get(searchHeader); };\n");
-                javascriptFunction.append(
-                        "var mapFunction = function(inputHeaders, inputField, inputValue, outputHeaders, outputField, line, mapLine, previousLine, previousMappedLine, primaryKeys, lineNumber, filteredLineNumber, mapLineConsumer, defaultValue, jsonNode, valueCounts) { ");
+                        "({ call: function(inputHeaders, inputField, inputValue, outputHeaders, outputField, line, mapLine, previousLine, previousMappedLine, primaryKeys, lineNumber, filteredLineNumber, mapLineConsumer, defaultValue, jsonNode, valueCounts) { ");
                 javascriptFunction.append(
                         "    var primaryKeyBoolean = function(nextPrimaryKey, primaryKeyField) { \n if(!primaryKeyField) { primaryKeyField = \"Primary\"; } \n return primaryKeys.get(primaryKeyField).add(nextPrimaryKey); }; \n ");
                 javascriptFunction.append(
@@ -442,45 +1055,52 @@ public class ValueMapping {
                 javascriptFunction.append(
                         "    var outCol = function(searchHeader) { \n return columnFunctionMap(searchHeader, mapLine); }; \n ");
                 javascriptFunction.append(this.mapping);
-                javascriptFunction.append(" \n }; \n");
+                javascriptFunction.append(" \n } }) \n");
 
+                Object function = null;
                 if (scriptEngine == null) {
                     if (DEBUG) {
                         System.err.println("Could not find nashorn script engine");
                     }
                 } else {
-                    scriptEngine.eval(javascriptFunction.toString());
+                    function = scriptEngine.eval(javascriptFunction.toString());
                 }
+                return new ScriptInstance(scriptEngine, function, null, null);
             } catch (final ScriptException e) {
                 throw new RuntimeException(e);
             }
         } else if (this.language == ValueMappingLanguage.GROOVY) {
             try {
-                scriptEngine = SCRIPT_MANAGER.getEngineByName("groovy");
-
-                scriptEngine.eval(
-                        "def mapFunction(inputHeaders, inputField, inputValue, outputHeaders, outputField, line, mapLine, previousLine, previousMappedLine, primaryKeys, lineNumber, filteredLineNumber, mapLineConsumer, defaultValue, jsonNode, valueCounts) {  "
-                                + this.mapping + " }");
+                final ScriptEngine scriptEngine = getSharedEngine(this.language);
+
+                // A closure, rather than a method of the script, so the engine
+                // does not keep it
+                final Object function = scriptEngine.eval("return { "
+                        + "inputHeaders, inputField, inputValue, outputHeaders, outputField, line, mapLine, previousLine, previousMappedLine, primaryKeys, lineNumber, filteredLineNumber, mapLineConsumer, defaultValue, jsonNode, valueCounts -> "
+                        + this.mapping + " }");
+                return new ScriptInstance(scriptEngine, function, null, null);
             } catch (final ScriptException e) {
                 throw new RuntimeException(e);
             }
         } else if (this.language == ValueMappingLanguage.LUA) {
             try {
-                scriptEngine = SCRIPT_MANAGER.getEngineByName("lua");
-
-                compiledScript = ((Compilable) scriptEngine).compile(this.mapping);
+                final ScriptEngine scriptEngine = getSharedEngine(this.language);
+
+                // The bindings are reused for each line, and global variables
+                // set by the script are removed from them before the next line
+                final Bindings bindings = scriptEngine.createBindings();
+                bindings.put("inputField", this.getInputField());
+                bindings.put("outputField", this.getOutputField());
+                bindings.put("defaultValue", theDefault);
+                bindings.put("FILTER", FILTER);
+                return new ScriptInstance(scriptEngine, null,
+                        ((Compilable) scriptEngine).compile(this.mapping), bindings);
             } catch (final ScriptException e) {
                 throw new RuntimeException(e);
             }
-        } else if (this.language == ValueMappingLanguage.ACCESS) {
-
-        } else if (this.language == ValueMappingLanguage.CSVJOIN) {
-
-        } else if (this.language == ValueMappingLanguage.DBSCHEMA) {
-
         } else {
             throw new UnsupportedOperationException(
-                    "Mapping language not supported: " + this.language);
+                    "Mapping language does not use a script engine: " + this.language);
         }
     }
 
@@ -504,6 +1124,8 @@ public class ValueMapping {
         result = prime * result + ((mapping == null) ? 0 : mapping.hashCode());
         result = prime * result + ((output == null) ? 0 : output.hashCode());
         result = prime * result + (shown ? 1231 : 1237);
+        result = prime * result + cacheSize;
+        result = prime * result + (filterFirst ? 1231 : 1237);
         result = prime * result + ((theDefault == null) ? 0 : theDefault.hashCode());
         return result;
     }
@@ -531,6 +1153,12 @@ public class ValueMapping {
         if (shown != other.shown) {
             return false;
         }
+        if (cacheSize != other.cacheSize) {
+            return false;
+        }
+        if (filterFirst != other.filterFirst) {
+            return false;
+        }
         if (output == null) {
             if (other.output != null) {
                 return false;
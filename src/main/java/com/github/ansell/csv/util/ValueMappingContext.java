@@ -43,19 +43,20 @@ import com.github.ansell.jdefaultdict.JDefaultDict;
  */
 public class ValueMappingContext {
 
-    private final List<String> inputHeaders;
-    private final List<String> line;
+    private List<String> inputHeaders;
+    private List<String> line;
     private final List<String> previousLine;
     private final List<String> previousMappedLine;
     private final List<ValueMapping> mappings;
     private final JDefaultDict<String, Set<String>> primaryKeys;
-    private final int lineNumber;
-    private final int filteredLineNumber;
+    private int lineNumber;
+    private int filteredLineNumber;
     private final BiConsumer<List<String>, List<String>> mapLineConsumer;
     private final List<String> outputHeaders;
     private final Map<String, String> defaultValues;
-    private final Optional<JsonNode> jsonNode;
+    private Optional<JsonNode> jsonNode;
     private final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts;
+    private final MappingPlan mappingPlan;
 
     public ValueMappingContext(List<String> inputHeaders, List<String> line,
             List<String> previousLine, List<String> previousMappedLine, List<ValueMapping> map,
@@ -64,6 +65,23 @@ public class ValueMappingContext {
             int filteredLineNumber, BiConsumer<List<String>, List<String>> mapLineConsumer,
             List<String> outputHeaders, Map<String, String> defaultValues,
             Optional<JsonNode> jsonNode) {
+        this(inputHeaders, line, previousLine, previousMappedLine, map, primaryKeys, valueCounts,
+                lineNumber, filteredLineNumber, mapLineConsumer, outputHeaders, defaultValues,
+                jsonNode, null);
+    }
+
+    /**
+     * Create a context that uses a {@link MappingPlan} compiled for the
+     * mappings and headers, so that the plan does not need to be compiled for
+     * each line.
+     */
+    public ValueMappingContext(List<String> inputHeaders, List<String> line,
+            List<String> previousLine, List<String> previousMappedLine, List<ValueMapping> map,
+            JDefaultDict<String, Set<String>> primaryKeys,
+            JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts, int lineNumber,
+            int filteredLineNumber, BiConsumer<List<String>, List<String>> mapLineConsumer,
+            List<String> outputHeaders, Map<String, String> defaultValues,
+            Optional<JsonNode> jsonNode, MappingPlan mappingPlan) {
         this.inputHeaders = inputHeaders;
         this.line = line;
         this.previousLine = previousLine;
@@ -77,6 +95,59 @@ public class ValueMappingContext {
         this.defaultValues = defaultValues;
         this.jsonNode = jsonNode;
         this.valueCounts = valueCounts;
+        this.mappingPlan = mappingPlan;
+    }
+
+    /**
+     * Replace the values that are specific to a line, so that a single context
+     * can be reused for each line instead of allocating a new context for
+     * each line.
+     * <br>
+     * A context that is reset must only be used on one thread, and must not
+     * be used after the next call to reset.
+     *
+     * @param line
+     *            The next line to map.
+     * @param lineNumber
+     *            The line number for the next line.
+     * @param filteredLineNumber
+     *            The line number for the next line, not including lines that
+     *            were filtered.
+     * @param jsonNode
+     *            The JSON node for the next line, if the input is JSON.
+     * @return This context, after the line specific values are replaced.
+     */
+    public ValueMappingContext reset(List<String> line, int lineNumber, int filteredLineNumber,
+            Optional<JsonNode> jsonNode) {
+        this.line = line;
+        this.lineNumber = lineNumber;
+        this.filteredLineNumber = filteredLineNumber;
+        this.jsonNode = jsonNode;
+        return this;
+    }
+
+    /**
+     * Replace the values that are specific to a line, including the input
+     * headers, for inputs where the headers can be different for each line.
+     *
+     * @param inputHeaders
+     *            The input headers for the next line.
+     * @param line
+     *            The next line to map.
+     * @param lineNumber
+     *            The line number for the next line.
+     * @param filteredLineNumber
+     *            The line number for the next line, not including lines that
+     *            were filtered.
+     * @param jsonNode
+     *            The JSON node for the next line, if the input is JSON.
+     * @return This context, after the line specific values are replaced.
+     * @see #reset(List, int, int, Optional)
+     */
+    public ValueMappingContext reset(List<String> inputHeaders, List<String> line, int lineNumber,
+            int filteredLineNumber, Optional<JsonNode> jsonNode) {
+        this.inputHeaders = inputHeaders;
+        return reset(line, lineNumber, filteredLineNumber, jsonNode);
     }
 
     public List<String> getInputHeaders() {
@@ -131,4 +202,12 @@ public class ValueMappingContext {
         return jsonNode;
     }
 
+    /**
+     * @return The {@link MappingPlan} for this context, or null to compile a
+     *         plan when the line is mapped.
+     */
+    public MappingPlan getMappingPlan() {
+        return mappingPlan;
+    }
+
 }
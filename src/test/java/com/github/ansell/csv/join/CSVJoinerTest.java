@@ -26,14 +26,23 @@
 package com.github.ansell.csv.join;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -44,6 +53,11 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
 import com.github.ansell.csv.stream.CSVStream;
+import com.github.ansell.csv.util.CSVUtil;
+import com.github.ansell.csv.util.JoinStrategy;
+import com.github.ansell.csv.util.JoinType;
+import com.github.ansell.csv.util.ProgressReporter;
+import com.github.ansell.csv.util.ValueMapping;
 
 import joptsimple.OptionException;
 
@@ -373,6 +387,234 @@ public class CSVJoinerTest {
                 "Enlightening"), lines.get(2));
     }
 
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVUtil#runJoiner(java.io.Reader, java.io.Reader, List, java.io.Writer, String, String, boolean)}.
+     */
+    @Test
+    public final void testRunJoinerFullOuterJoinMultiKey() throws Exception {
+        final StringWriter output = new StringWriter();
+        try (BufferedReader input = Files.newBufferedReader(testFileMulti);
+                BufferedReader otherInput = Files.newBufferedReader(testOtherFileMulti);
+                BufferedReader mapping = Files.newBufferedReader(testMappingMulti);) {
+            CSVUtil.runJoiner(input, otherInput, ValueMapping.extractMappings(mapping), output,
+                    "", "", false);
+        }
+
+        final List<String> headers = new ArrayList<>();
+        final List<List<String>> lines = new ArrayList<>();
+        CSVStream.parse(new StringReader(output.toString()), h -> headers.addAll(h),
+                (h, l) -> l, l -> lines.add(l));
+        assertEquals(10, headers.size());
+        // Each input line is joined to one other line, and the other lines
+        // that were not joined are added after them
+        assertEquals(7, lines.size());
+        assertEquals(
+                Arrays.asList("A1", "A2", "A3", "A4", "A5", "ZZ1", "A1", "A2", "A3", "Interesting"),
+                lines.get(0));
+        assertEquals(
+                Arrays.asList("B1", "B2", "B3", "B4", "B5", "ZZ2", "B1", "B2", "B3", "Not at all"),
+                lines.get(1));
+        assertEquals(Arrays.asList("C1", "C2", "C3", "C4", "C5", "ZZ3", "C1", "C2", "C3",
+                "Enlightening"), lines.get(2));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ4", "D1", "D2", "D3", "Sporadic"),
+                lines.get(3));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ7", "G1", "G2", "G3",
+                "But not received"), lines.get(6));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVUtil#runJoiner(java.io.Reader, java.io.Reader, List, java.io.Writer, String, String, boolean)}
+     * where the input is larger than the other input, so the other lines are
+     * held in memory instead of the input lines.
+     */
+    @Test
+    public final void testRunJoinerFullOuterJoinMultiKeyLargerInput() throws Exception {
+        final StringBuilder input = new StringBuilder(
+                new String(Files.readAllBytes(testFileMulti), StandardCharsets.UTF_8));
+        for (int i = 0; i < 20; i++) {
+            input.append("X1,X2,X3,X4,X").append(i).append("\n");
+        }
+        final StringWriter output = new StringWriter();
+        try (BufferedReader otherInput = Files.newBufferedReader(testOtherFileMulti);
+                BufferedReader mapping = Files.newBufferedReader(testMappingMulti);) {
+            CSVUtil.runJoiner(new StringReader(input.toString()), otherInput,
+                    ValueMapping.extractMappings(mapping), output, "", "", false);
+        }
+
+        final List<String> headers = new ArrayList<>();
+        final List<List<String>> lines = new ArrayList<>();
+        CSVStream.parse(new StringReader(output.toString()), h -> headers.addAll(h),
+                (h, l) -> l, l -> lines.add(l));
+        assertEquals(10, headers.size());
+        assertEquals(27, lines.size());
+        assertEquals(
+                Arrays.asList("A1", "A2", "A3", "A4", "A5", "ZZ1", "A1", "A2", "A3", "Interesting"),
+                lines.get(0));
+        assertEquals(Arrays.asList("C1", "C2", "C3", "C4", "C5", "ZZ3", "C1", "C2", "C3",
+                "Enlightening"), lines.get(2));
+        assertEquals(Arrays.asList("X1", "X2", "X3", "X4", "X0", "", "", "", "", ""),
+                lines.get(3));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ4", "D1", "D2", "D3", "Sporadic"),
+                lines.get(23));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ7", "G1", "G2", "G3",
+                "But not received"), lines.get(26));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVUtil#runJoiner(java.io.Reader, java.io.Reader, List, java.io.Writer, String, String, JoinType, JoinStrategy, ProgressReporter)}.
+     */
+    @Test
+    public final void testRunJoinerSortMergeFullOuterJoinMultiKey() throws Exception {
+        final StringWriter output = new StringWriter();
+        try (BufferedReader input = Files.newBufferedReader(testFileMulti);
+                BufferedReader otherInput = Files.newBufferedReader(testOtherFileMulti);
+                BufferedReader mapping = Files.newBufferedReader(testMappingMulti);) {
+            CSVUtil.runJoiner(input, otherInput, ValueMapping.extractMappings(mapping), output,
+                    "", "", JoinType.FULL_OUTER, JoinStrategy.SORT_MERGE,
+                    ProgressReporter.none());
+        }
+
+        final List<String> headers = new ArrayList<>();
+        final List<List<String>> lines = new ArrayList<>();
+        CSVStream.parse(new StringReader(output.toString()), h -> headers.addAll(h),
+                (h, l) -> l, l -> lines.add(l));
+        assertEquals(10, headers.size());
+        // The lines are output in the order of the join fields
+        assertEquals(7, lines.size());
+        assertEquals(
+                Arrays.asList("A1", "A2", "A3", "A4", "A5", "ZZ1", "A1", "A2", "A3", "Interesting"),
+                lines.get(0));
+        assertEquals(Arrays.asList("C1", "C2", "C3", "C4", "C5", "ZZ3", "C1", "C2", "C3",
+                "Enlightening"), lines.get(2));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ4", "D1", "D2", "D3", "Sporadic"),
+                lines.get(3));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ7", "G1", "G2", "G3",
+                "But not received"), lines.get(6));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVUtil#runJoiner(java.io.Reader, java.io.Reader, List, java.io.Writer, String, String, JoinType, JoinStrategy, Path, long, ProgressReporter)}.
+     */
+    @Test
+    public final void testRunJoinerGraceHashFullOuterJoinMultiKey() throws Exception {
+        final Path spillDirectory = tempDir.newFolder("test-spill").toPath();
+        final StringWriter output = new StringWriter();
+        try (BufferedReader input = Files.newBufferedReader(testFileMulti);
+                BufferedReader otherInput = Files.newBufferedReader(testOtherFileMulti);
+                BufferedReader mapping = Files.newBufferedReader(testMappingMulti);) {
+            // A tiny memory limit splits the inputs into many partitions, and
+            // splits the partitions again
+            CSVUtil.runJoiner(input, otherInput, ValueMapping.extractMappings(mapping), output,
+                    "", "", JoinType.FULL_OUTER, JoinStrategy.GRACE_HASH, spillDirectory, 16,
+                    ProgressReporter.none());
+        }
+        assertEquals(0, spillDirectory.toFile().list().length);
+
+        final List<String> headers = new ArrayList<>();
+        final List<List<String>> lines = new ArrayList<>();
+        CSVStream.parse(new StringReader(output.toString()), h -> headers.addAll(h),
+                (h, l) -> l, l -> lines.add(l));
+        assertEquals(10, headers.size());
+        assertEquals(7, lines.size());
+        // The lines are output in partition order
+        lines.sort(Comparator.comparing(l -> l.get(5)));
+        assertEquals(
+                Arrays.asList("A1", "A2", "A3", "A4", "A5", "ZZ1", "A1", "A2", "A3", "Interesting"),
+                lines.get(0));
+        assertEquals(Arrays.asList("C1", "C2", "C3", "C4", "C5", "ZZ3", "C1", "C2", "C3",
+                "Enlightening"), lines.get(2));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ4", "D1", "D2", "D3", "Sporadic"),
+                lines.get(3));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ7", "G1", "G2", "G3",
+                "But not received"), lines.get(6));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVUtil#runJoiner(Path, Path, List, java.io.Writer, String, String, JoinType, JoinStrategy, Path, long, ProgressReporter)}.
+     */
+    @Test
+    public final void testRunJoinerPaths() throws Exception {
+        final Path spillDirectory = tempDir.newFolder("test-spill").toPath();
+        final StringWriter output = new StringWriter();
+        // The number of files in the spill directory each time the join
+        // writes output, which is while the join is running
+        final List<Integer> spillFileCounts = new ArrayList<>();
+        final Writer watchingOutput = new FilterWriter(output) {
+            @Override
+            public void write(int c) throws IOException {
+                spillFileCounts.add(spillDirectory.toFile().list().length);
+                super.write(c);
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                spillFileCounts.add(spillDirectory.toFile().list().length);
+                super.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                spillFileCounts.add(spillDirectory.toFile().list().length);
+                super.write(str, off, len);
+            }
+        };
+        try (BufferedReader mapping = Files.newBufferedReader(testMappingMulti);) {
+            CSVUtil.runJoiner(testFileMulti, testOtherFileMulti,
+                    ValueMapping.extractMappings(mapping), watchingOutput, "", "",
+                    JoinType.FULL_OUTER, JoinStrategy.HASH, spillDirectory,
+                    Runtime.getRuntime().maxMemory(), ProgressReporter.none());
+        }
+        // The files are read directly, so no temporary copies are made while
+        // joining, and the files are not deleted afterwards
+        assertFalse(spillFileCounts.isEmpty());
+        assertEquals(Collections.nCopies(spillFileCounts.size(), 0), spillFileCounts);
+        assertTrue(Files.exists(testFileMulti));
+        assertTrue(Files.exists(testOtherFileMulti));
+
+        final List<List<String>> lines = new ArrayList<>();
+        CSVStream.parse(new StringReader(output.toString()), h -> {
+        }, (h, l) -> l, l -> lines.add(l));
+        assertEquals(7, lines.size());
+        assertEquals(
+                Arrays.asList("A1", "A2", "A3", "A4", "A5", "ZZ1", "A1", "A2", "A3", "Interesting"),
+                lines.get(0));
+        assertEquals(Arrays.asList("", "", "", "", "", "ZZ7", "G1", "G2", "G3",
+                "But not received"), lines.get(6));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVUtil#runJoiner(java.io.Reader, java.io.Reader, List, java.io.Writer, String, String, JoinType, JoinStrategy, ProgressReporter)}.
+     */
+    @Test
+    public final void testRunJoinerInnerJoin() throws Exception {
+        for (final JoinStrategy nextStrategy : Arrays.asList(JoinStrategy.HASH,
+                JoinStrategy.SORT_MERGE, JoinStrategy.GRACE_HASH)) {
+            final StringBuilder input = new StringBuilder(
+                    new String(Files.readAllBytes(testFileMulti), StandardCharsets.UTF_8));
+            input.append("X1,X2,X3,X4,X5\n");
+            final StringWriter output = new StringWriter();
+            try (BufferedReader otherInput = Files.newBufferedReader(testOtherFileMulti);
+                    BufferedReader mapping = Files.newBufferedReader(testMappingMulti);) {
+                CSVUtil.runJoiner(new StringReader(input.toString()), otherInput,
+                        ValueMapping.extractMappings(mapping), output, "", "", JoinType.INNER,
+                        nextStrategy, ProgressReporter.none());
+            }
+
+            final List<List<String>> lines = new ArrayList<>();
+            CSVStream.parse(new StringReader(output.toString()), h -> {
+            }, (h, l) -> l, l -> lines.add(l));
+            assertEquals(nextStrategy.toString(), 3, lines.size());
+            assertEquals(Arrays.asList("B1", "B2", "B3", "B4", "B5", "ZZ2", "B1", "B2", "B3",
+                    "Not at all"), lines.get(1));
+        }
+    }
+
     /**
      * Test method for
      * {@link com.github.ansell.csv.map.CSVJoiner#main(java.lang.String[])}.
@@ -30,13 +30,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.IntStream;
 
 import org.apache.commons.io.output.NullWriter;
@@ -45,6 +48,9 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.github.ansell.csv.stream.CSVStream;
+
 import joptsimple.OptionException;
 
 /**
@@ -413,4 +419,133 @@ public class CSVSummariserTest {
         System.out.println(output.toString());
     }
 
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.CSVSummariser#main(java.lang.String[])}.
+     */
+    @Test
+    public final void testMainThreadsSameOutput() throws Exception {
+        final Path testFile = tempDir.newFile("test-threads.csv").toPath();
+        final StringBuilder input = new StringBuilder("Id,Name,Value\n");
+        // Include quoted separators and newlines, which must not be used as
+        // chunk boundaries
+        IntStream.range(0, 5000).forEach(i -> input.append(i).append(",\"Name ").append(i % 37)
+                .append(",\n line\",").append(i % 11 == 0 ? "" : Double.toString(i / 4.0))
+                .append("\n"));
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        final Path singleThreadOutput = tempDir.getRoot().toPath().resolve("output-1.csv");
+        CSVSummariser.main("--input", testFile.toAbsolutePath().toString(), "--output",
+                singleThreadOutput.toAbsolutePath().toString(), "--show-sample-counts", "true");
+        final Path multiThreadOutput = tempDir.getRoot().toPath().resolve("output-4.csv");
+        CSVSummariser.main("--input", testFile.toAbsolutePath().toString(), "--output",
+                multiThreadOutput.toAbsolutePath().toString(), "--show-sample-counts", "true",
+                "--threads", "4");
+
+        assertEquals(new String(Files.readAllBytes(singleThreadOutput), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(multiThreadOutput), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.CSVSummariser#main(java.lang.String[])}.
+     */
+    @Test
+    public final void testMainStateInputOutput() throws Exception {
+        final Path testDirectory = tempDir.newFolder("test-state").toPath();
+        final Path firstFile = testDirectory.resolve("first.csv");
+        Files.write(firstFile, "Id,Name\n1,A\n2,B\n".getBytes(StandardCharsets.UTF_8));
+        final Path secondFile = testDirectory.resolve("second.csv");
+        Files.write(secondFile, "Id,Name\n3,B\n4,\n".getBytes(StandardCharsets.UTF_8));
+        final Path bothFile = testDirectory.resolve("both.csv");
+        Files.write(bothFile,
+                "Id,Name\n1,A\n2,B\n3,B\n4,\n".getBytes(StandardCharsets.UTF_8));
+
+        final Path firstState = testDirectory.resolve("first.state");
+        CSVSummariser.main("--input", firstFile.toString(), "--output",
+                testDirectory.resolve("first-summary.csv").toString(), "--state-output",
+                firstState.toString());
+        final Path mergedOutput = testDirectory.resolve("merged-summary.csv");
+        CSVSummariser.main("--input", secondFile.toString(), "--state-input",
+                firstState.toString(), "--output", mergedOutput.toString(),
+                "--show-sample-counts", "true");
+        final Path bothOutput = testDirectory.resolve("both-summary.csv");
+        CSVSummariser.main("--input", bothFile.toString(), "--output", bothOutput.toString(),
+                "--show-sample-counts", "true");
+
+        assertEquals(new String(Files.readAllBytes(bothOutput), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(mergedOutput), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.CSVSummariser#main(java.lang.String[])}.
+     */
+    @Test
+    public final void testMainNumericStatistics() throws Exception {
+        final Path testFile = tempDir.newFile("test-statistics.csv").toPath();
+        Files.write(testFile, "Id,Value,Name\n1,2.5,A\n2,,B\n3,-0.5,C\n4,4,D\n"
+                .getBytes(StandardCharsets.UTF_8));
+        final Path output = tempDir.getRoot().toPath().resolve("output-statistics.csv");
+
+        CSVSummariser.main("--input", testFile.toAbsolutePath().toString(), "--output",
+                output.toAbsolutePath().toString(), "--numeric-statistics", "true");
+
+        final List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0), lines.get(0).endsWith(",min,max,mean,variance,sum,p50,p95,p99"));
+        assertTrue(lines.get(1), lines.get(1).endsWith(",1,4,2.5,1.6666666666666667,10,2,4,4"));
+        assertTrue(lines.get(2), lines.get(2).endsWith(",-0.5,4,2,5.25,6,2.5,4,4"));
+        // Non-numeric fields have empty statistics
+        assertTrue(lines.get(3), lines.get(3).endsWith(",false,false,,,,,,,,"));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.CSVSummariser#main(java.lang.String[])}.
+     */
+    @Test
+    public final void testMainSampleOutput() throws Exception {
+        final Path testFile = tempDir.newFile("test-sample.csv").toPath();
+        final StringBuilder input = new StringBuilder("Id,Name\n");
+        IntStream.range(0, 1000).forEach(i -> input.append(i).append(",Name ").append(i)
+                .append("\n"));
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+        final Path output = tempDir.getRoot().toPath().resolve("output-sample-summary.csv");
+        final Path sampleOutput = tempDir.getRoot().toPath().resolve("output-sample.csv");
+
+        CSVSummariser.main("--input", testFile.toAbsolutePath().toString(), "--output",
+                output.toAbsolutePath().toString(), "--sample-output",
+                sampleOutput.toAbsolutePath().toString(), "--sample-rows", "10", "--threads",
+                "2");
+
+        final List<List<String>> lines = new ArrayList<>();
+        try (final Reader sampleReader = Files.newBufferedReader(sampleOutput,
+                StandardCharsets.UTF_8);) {
+            CSVStream.parse(sampleReader, h -> assertEquals(Arrays.asList("Id", "Name"), h),
+                    (h, l) -> l, l -> lines.add(l));
+        }
+        assertEquals(10, lines.size());
+        // Rows are whole records from the input
+        for (final List<String> nextLine : lines) {
+            assertEquals(nextLine.toString(), "Name " + nextLine.get(0), nextLine.get(1));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.CSVSummariser#getSummaryCsvSchema(boolean)}.
+     */
+    @Test
+    public final void testGetSummaryCsvSchemaColumnOrder() throws Exception {
+        for (final boolean numericStatistics : new boolean[] { false, true }) {
+            final CsvSchema schema = CSVSummariser.getSummaryCsvSchema(numericStatistics);
+            assertEquals("fieldName", schema.column(0).getName());
+            assertEquals("possiblyFloatingPoint", schema.column(6).getName());
+            assertEquals("sampleValues", schema.column(7).getName());
+            assertEquals("possiblyLong", schema.column(8).getName());
+            assertEquals("possiblyBigDecimal", schema.column(9).getName());
+            assertEquals(numericStatistics ? 18 : 10, schema.size());
+        }
+    }
 }
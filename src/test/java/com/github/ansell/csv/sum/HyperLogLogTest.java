@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link HyperLogLog}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class HyperLogLogTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.HyperLogLog#estimate()}.
+     */
+    @Test
+    public final void testEstimateSmall() throws Exception {
+        final HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 10; i++) {
+            sketch.add("a");
+            sketch.add("b");
+            sketch.add("c");
+        }
+        assertEquals(3, sketch.estimate());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.HyperLogLog#estimate()}.
+     */
+    @Test
+    public final void testEstimateLarge() throws Exception {
+        final HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("value-" + i);
+            sketch.add("value-" + i);
+        }
+        // Six standard errors, so the test is not sensitive to the hash
+        assertEquals(100000, sketch.estimate(), 100000 * 6 * sketch.getStandardError());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.HyperLogLog#merge(com.github.ansell.csv.sum.HyperLogLog)}.
+     */
+    @Test
+    public final void testMergeMatchesUnion() throws Exception {
+        final HyperLogLog left = new HyperLogLog(10);
+        final HyperLogLog right = new HyperLogLog(10);
+        final HyperLogLog union = new HyperLogLog(10);
+        for (int i = 0; i < 20000; i++) {
+            final String nextValue = Integer.toString(i);
+            (i % 3 == 0 ? left : right).add(nextValue);
+            union.add(nextValue);
+        }
+        assertEquals(union.estimate(), left.merge(right).estimate());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.HyperLogLog#merge(com.github.ansell.csv.sum.HyperLogLog)}.
+     */
+    @Test
+    public final void testMergeDifferentPrecision() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.HyperLogLog#HyperLogLog(int)}.
+     */
+    @Test
+    public final void testPrecisionTooLow() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new HyperLogLog(HyperLogLog.MIN_PRECISION - 1);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.HyperLogLog#HyperLogLog(int)}.
+     */
+    @Test
+    public final void testPrecisionTooHigh() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+    }
+}
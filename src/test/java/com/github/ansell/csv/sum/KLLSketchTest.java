@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link KLLSketch}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class KLLSketchTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final double[] FRACTIONS = { 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99 };
+
+    /**
+     * Check that the estimates for each fraction are within the given rank
+     * error of the true ranks in the sorted values.
+     */
+    private static void assertRankError(final KLLSketch sketch, final double[] sorted,
+            final double maxRankError) {
+        final double[] estimates = sketch.getQuantiles(FRACTIONS);
+        for (int i = 0; i < FRACTIONS.length; i++) {
+            final int rank = Arrays.binarySearch(sorted, estimates[i]);
+            assertTrue("Estimate was not one of the values: " + estimates[i], rank >= 0);
+            final double rankError = Math.abs((double) rank / sorted.length - FRACTIONS[i]);
+            assertTrue("Rank error for " + FRACTIONS[i] + " was " + rankError,
+                    rankError <= maxRankError);
+        }
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.KLLSketch#getQuantiles(double[])}.
+     */
+    @Test
+    public final void testEmpty() throws Exception {
+        assertTrue(Double.isNaN(new KLLSketch(KLLSketch.DEFAULT_K).getQuantile(0.5)));
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.KLLSketch#add(double)}.
+     */
+    @Test
+    public final void testAddSmallIsExact() throws Exception {
+        final KLLSketch sketch = new KLLSketch(KLLSketch.DEFAULT_K);
+        for (int i = 100; i > 0; i--) {
+            sketch.add(i);
+        }
+        assertEquals(100, sketch.getCount());
+        assertEquals(1.0, sketch.getQuantile(0), 0.0);
+        assertEquals(50.0, sketch.getQuantile(0.5), 0.0);
+        assertEquals(99.0, sketch.getQuantile(0.99), 0.0);
+        assertEquals(100.0, sketch.getQuantile(1), 0.0);
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.KLLSketch#add(double)}.
+     */
+    @Test
+    public final void testAddLarge() throws Exception {
+        final Random random = new Random(42L);
+        final double[] values = new double[200000];
+        final KLLSketch sketch = new KLLSketch(KLLSketch.DEFAULT_K);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        assertRankError(sketch, values, 0.02);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.KLLSketch#merge(com.github.ansell.csv.sum.KLLSketch)}.
+     */
+    @Test
+    public final void testMerge() throws Exception {
+        final Random random = new Random(43L);
+        final double[] values = new double[200000];
+        final KLLSketch merged = new KLLSketch(KLLSketch.DEFAULT_K);
+        for (int part = 0; part < 8; part++) {
+            final KLLSketch nextPart = new KLLSketch(KLLSketch.DEFAULT_K);
+            for (int i = part * 25000; i < (part + 1) * 25000; i++) {
+                // Each part has a different range, to test the merge
+                values[i] = random.nextDouble() + part / 2.0;
+                nextPart.add(values[i]);
+            }
+            merged.merge(nextPart);
+        }
+        assertEquals(values.length, merged.getCount());
+        Arrays.sort(values);
+        assertRankError(merged, values, 0.02);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.KLLSketch#merge(com.github.ansell.csv.sum.KLLSketch)}.
+     */
+    @Test
+    public final void testMergeDifferentK() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new KLLSketch(100).merge(new KLLSketch(200));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link NumericScanner}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class NumericScannerTest {
+
+    private static final String[] EDGE_CASES = { "", " ", "-", "+", "0", "-0", "+0", "007", "1",
+            "2147483647", "2147483648", "-2147483648", "-2147483649", "9223372036854775807",
+            "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+            "99999999999999999999999", "1.", "1.5", ".5", ".", "+.5", "-.5e2", "1e5", "1E+5",
+            "1e-5", "1e", "1e+", "1.e5", ".e5", "5e5e5", "1..2", "1e05", "1e0000000000000000005",
+            "1e1234567890", "1e12345678901", "1e99999", "5f", "5d", "1e5F", "5ff", "NaN", "-NaN",
+            "Infinity", "-Infinity", "infinity", "NaNx", " 5", "5 ", " 5.5 ", "\t1e3\n",
+            "0x1p3", "0x1.8p1", "-0X1P-3", "0x", "abc", "1a", "1_000", "1,000",
+            "\u0661\u0662", "1\u0665", "1.\u0665", "1e\u0665" };
+
+    private static int parse(final String value) {
+        int result = 0;
+        try {
+            Integer.parseInt(value);
+            result |= NumericScanner.INTEGER;
+        } catch (final NumberFormatException e) {
+        }
+        try {
+            Long.parseLong(value);
+            result |= NumericScanner.LONG;
+        } catch (final NumberFormatException e) {
+        }
+        try {
+            new BigDecimal(value);
+            result |= NumericScanner.BIG_DECIMAL;
+        } catch (final NumberFormatException e) {
+        }
+        try {
+            Double.parseDouble(value);
+            result |= NumericScanner.DOUBLE;
+        } catch (final NumberFormatException e) {
+        }
+        return result;
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.NumericScanner#scan(java.lang.String)}.
+     */
+    @Test
+    public final void testScanEdgeCases() {
+        for (final String nextValue : EDGE_CASES) {
+            assertEquals("Unexpected result for: [" + nextValue + "]", parse(nextValue),
+                    NumericScanner.scan(nextValue));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.NumericScanner#scan(java.lang.String)}.
+     */
+    @Test
+    public final void testScanRandom() {
+        final Random random = new Random(42);
+        final String characters = "0123456789999+-.eEfdxpNI \t\u0661";
+        final StringBuilder nextValue = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            nextValue.setLength(0);
+            final int length = random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                nextValue.append(characters.charAt(random.nextInt(characters.length())));
+            }
+            final String value = nextValue.toString();
+            assertEquals("Unexpected result for: [" + value + "]", parse(value),
+                    NumericScanner.scan(value));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link NumericStatistics}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class NumericStatisticsTest {
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.NumericStatistics#getVariance()}.
+     */
+    @Test
+    public final void testEmpty() throws Exception {
+        final NumericStatistics statistics = new NumericStatistics();
+        assertEquals(0, statistics.getCount());
+        assertTrue(Double.isNaN(statistics.getMinimum()));
+        assertTrue(Double.isNaN(statistics.getMean()));
+        assertTrue(Double.isNaN(statistics.getVariance()));
+        assertEquals(0.0, statistics.getSum(), 0.0);
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.NumericStatistics#getVariance()}.
+     */
+    @Test
+    public final void testVarianceLargeOffset() throws Exception {
+        // A sum of squares calculation loses all precision with this offset
+        final NumericStatistics statistics = new NumericStatistics();
+        for (final double nextValue : new double[] { 4, 7, 13, 16 }) {
+            statistics.add(1e9 + nextValue);
+        }
+        assertEquals(1e9 + 10, statistics.getMean(), 1e-6);
+        assertEquals(30.0, statistics.getVariance(), 1e-6);
+        assertEquals(1e9 + 4, statistics.getMinimum(), 0.0);
+        assertEquals(1e9 + 16, statistics.getMaximum(), 0.0);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.NumericStatistics#merge(com.github.ansell.csv.sum.NumericStatistics)}.
+     */
+    @Test
+    public final void testMergeMatchesSingle() throws Exception {
+        final NumericStatistics single = new NumericStatistics();
+        final NumericStatistics merged = new NumericStatistics();
+        NumericStatistics nextPart = new NumericStatistics();
+        for (int i = 0; i < 1000; i++) {
+            final double nextValue = Math.sin(i) * 100;
+            single.add(nextValue);
+            nextPart.add(nextValue);
+            if (i % 300 == 299) {
+                merged.merge(nextPart);
+                nextPart = new NumericStatistics();
+            }
+        }
+        merged.merge(nextPart).merge(new NumericStatistics());
+
+        assertEquals(single.getCount(), merged.getCount());
+        assertEquals(single.getMinimum(), merged.getMinimum(), 0.0);
+        assertEquals(single.getMaximum(), merged.getMaximum(), 0.0);
+        assertEquals(single.getMean(), merged.getMean(), 1e-9);
+        assertEquals(single.getVariance(), merged.getVariance(), 1e-9);
+        assertEquals(single.getSum(), merged.getSum(), 1e-9);
+        // Quantiles are estimates, with a rank error of approximately 1%,
+        // which is approximately 3 near the median of these values
+        assertEquals(0.0, merged.getQuantile(0.5), 6.0);
+    }
+}
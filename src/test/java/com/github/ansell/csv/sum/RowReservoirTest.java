@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link RowReservoir}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class RowReservoirTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static int offer(final RowReservoir sample, final int start, final int end) {
+        int added = 0;
+        for (int i = start; i < end; i++) {
+            if (sample.isNextSampled()) {
+                sample.add(new String[] { Integer.toString(i) });
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.RowReservoir#add(java.lang.String[])}.
+     */
+    @Test
+    public final void testAddFewerThanCapacity() throws Exception {
+        final RowReservoir sample = new RowReservoir(10);
+        assertEquals(5, offer(sample, 0, 5));
+        assertEquals(5, sample.getRows().size());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.RowReservoir#isNextSampled()}.
+     */
+    @Test
+    public final void testSkipsMostRows() throws Exception {
+        final RowReservoir sample = new RowReservoir(100);
+        final int added = offer(sample, 0, 1000000);
+        assertEquals(100, sample.getRows().size());
+        // The expected number of rows added is approximately
+        // k(1 + ln(N/k)), which is approximately 1000 here
+        assertTrue("Too many rows were added: " + added, added < 3000);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.RowReservoir#merge(com.github.ansell.csv.sum.RowReservoir)}.
+     */
+    @Test
+    public final void testUniform() throws Exception {
+        final int trials = 20000;
+        final int[] counts = new int[100];
+        for (int trial = 0; trial < trials; trial++) {
+            // Alternate between a single sample and merged samples of
+            // different sizes
+            final RowReservoir sample = new RowReservoir(10);
+            if (trial % 2 == 0) {
+                offer(sample, 0, 100);
+            } else {
+                final RowReservoir other = new RowReservoir(10);
+                offer(sample, 0, 30);
+                offer(other, 30, 100);
+                sample.merge(other);
+            }
+            final Set<String> seen = new HashSet<>();
+            for (final String[] nextRow : sample.getRows()) {
+                assertTrue("Duplicate row in sample", seen.add(nextRow[0]));
+                counts[Integer.parseInt(nextRow[0])]++;
+            }
+            assertEquals(10, seen.size());
+        }
+        // Each row is expected in 10% of the samples, with a standard
+        // deviation of approximately 0.2%
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("Row " + i, 0.1, (double) counts[i] / trials, 0.015);
+        }
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.RowReservoir#RowReservoir(int)}.
+     */
+    @Test
+    public final void testInvalidCapacity() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new RowReservoir(0);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link SpaceSaving}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class SpaceSavingTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    /**
+     * Add a skewed stream of values, where value i is added roughly
+     * proportionally to 1/(i+1) times, to the sketch and to the exact counts.
+     */
+    private static int addSkewed(final SpaceSaving sketch, final Map<String, Long> exact,
+            final long seed, final int count) {
+        final Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            final String nextValue = "v" + (int) Math.floor(Math.pow(1000, random.nextDouble()));
+            sketch.add(nextValue);
+            exact.merge(nextValue, 1L, Long::sum);
+        }
+        return count;
+    }
+
+    private static void assertBounds(final SpaceSaving sketch, final Map<String, Long> exact,
+            final long total) {
+        for (final String nextValue : sketch.getValues()) {
+            final long trueCount = exact.getOrDefault(nextValue, 0L);
+            assertTrue(nextValue, sketch.getCount(nextValue) >= trueCount);
+            assertTrue(nextValue,
+                    sketch.getCount(nextValue) - sketch.getError(nextValue) <= trueCount);
+        }
+        // Every value that is more frequent than total/capacity has a counter
+        for (final Map.Entry<String, Long> nextEntry : exact.entrySet()) {
+            if (nextEntry.getValue() > total / sketch.getCapacity()) {
+                assertTrue(nextEntry.getKey(), sketch.getValues().contains(nextEntry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SpaceSaving#getTopValues(int)}.
+     */
+    @Test
+    public final void testTopValuesExactWhenNotFull() throws Exception {
+        final SpaceSaving sketch = new SpaceSaving(10);
+        for (final String nextValue : Arrays.asList("b", "a", "c", "b", "c", "c")) {
+            sketch.add(nextValue);
+        }
+        assertEquals(Arrays.asList("c", "b", "a"), sketch.getTopValues(-1));
+        assertEquals(Arrays.asList("c", "b"), sketch.getTopValues(2));
+        assertEquals(2, sketch.getCount("b"));
+        assertEquals(0, sketch.getError("b"));
+        assertFalse(sketch.isTruncated());
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.SpaceSaving#add(String)}.
+     */
+    @Test
+    public final void testAddSkewed() throws Exception {
+        final SpaceSaving sketch = new SpaceSaving(50);
+        final Map<String, Long> exact = new HashMap<>();
+        final int total = addSkewed(sketch, exact, 1234L, 100000);
+
+        assertTrue(sketch.isTruncated());
+        assertEquals(50, sketch.getValues().size());
+        assertBounds(sketch, exact, total);
+        assertEquals(Arrays.asList("v1", "v2", "v3"), sketch.getTopValues(3));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SpaceSaving#merge(com.github.ansell.csv.sum.SpaceSaving)}.
+     */
+    @Test
+    public final void testMerge() throws Exception {
+        final SpaceSaving left = new SpaceSaving(50);
+        final SpaceSaving right = new SpaceSaving(50);
+        final Map<String, Long> exact = new HashMap<>();
+        final int total = addSkewed(left, exact, 1L, 60000)
+                + addSkewed(right, exact, 2L, 40000);
+
+        left.merge(right);
+
+        assertTrue(left.isTruncated());
+        assertEquals(50, left.getValues().size());
+        assertBounds(left, exact, total);
+        assertEquals(Arrays.asList("v1", "v2", "v3"), left.getTopValues(3));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SpaceSaving#SpaceSaving(int)}.
+     */
+    @Test
+    public final void testNegativeCapacity() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new SpaceSaving(-1);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+/**
+ * Compares the rows per second summarised for a 200 column file using the
+ * column indexed {@link SummaryState} against the previous approach of looking
+ * up each cell in {@link JDefaultDict}s by field name.
+ * <br>
+ * Run using the main method, or through the JMH runner. The scores are rows
+ * per second.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SummaryStateBenchmark {
+
+    private static final int COLUMNS = 200;
+
+    private static final int ROWS = 10000;
+
+    private List<String> header;
+
+    private List<List<String>> rows;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        header = new ArrayList<>(COLUMNS);
+        for (int i = 0; i < COLUMNS; i++) {
+            header.add("field" + i);
+        }
+        rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            final List<String> nextRow = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++) {
+                // A mix of empty, integer, decimal and text columns, with
+                // a limited number of unique values in each
+                switch (j % 4) {
+                case 0:
+                    nextRow.add(random.nextInt(10) == 0 ? "" : Integer.toString(random.nextInt(1000)));
+                    break;
+                case 1:
+                    nextRow.add(Integer.toString(random.nextInt(100)));
+                    break;
+                case 2:
+                    nextRow.add(Double.toString(random.nextInt(1000) / 8.0));
+                    break;
+                default:
+                    nextRow.add("value" + random.nextInt(50));
+                    break;
+                }
+            }
+            rows.add(nextRow);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void columnIndexed(final Blackhole blackhole) {
+        final SummaryState state = new SummaryState();
+        state.addFields(header);
+        for (final List<String> nextRow : rows) {
+            state.addRow(header, nextRow);
+        }
+        blackhole.consume(state);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void fieldNameLookup(final Blackhole blackhole) {
+        final JDefaultDict<String, AtomicInteger> emptyCounts = new JDefaultDict<>(
+                k -> new AtomicInteger());
+        final JDefaultDict<String, AtomicInteger> nonEmptyCounts = new JDefaultDict<>(
+                k -> new AtomicInteger());
+        final JDefaultDict<String, AtomicBoolean> possibleIntegerFields = new JDefaultDict<>(
+                k -> new AtomicBoolean(true));
+        final JDefaultDict<String, AtomicBoolean> possibleDoubleFields = new JDefaultDict<>(
+                k -> new AtomicBoolean(true));
+        final JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts = new JDefaultDict<String, JDefaultDict<String, AtomicInteger>>(
+                k -> new JDefaultDict<>(l -> new AtomicInteger()));
+        final AtomicInteger rowCount = new AtomicInteger();
+        for (final List<String> l : rows) {
+            final List<String> h = header;
+            rowCount.incrementAndGet();
+            for (int i = 0; i < h.size(); i++) {
+                if (l.get(i).trim().isEmpty()) {
+                    emptyCounts.get(h.get(i)).incrementAndGet();
+                } else {
+                    nonEmptyCounts.get(h.get(i)).incrementAndGet();
+                    valueCounts.get(h.get(i)).get(l.get(i)).incrementAndGet();
+                    try {
+                        Integer.parseInt(l.get(i));
+                    } catch (final NumberFormatException nfe) {
+                        possibleIntegerFields.get(h.get(i)).set(false);
+                    }
+                    try {
+                        Double.parseDouble(l.get(i));
+                    } catch (final NumberFormatException nfe) {
+                        possibleDoubleFields.get(h.get(i)).set(false);
+                    }
+                }
+            }
+        }
+        blackhole.consume(valueCounts);
+    }
+
+    public static void main(String... args) throws Exception {
+        new Runner(new OptionsBuilder().include(SummaryStateBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.sum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.output.NullWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link SummaryState}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class SummaryStateTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final List<String> HEADERS = Arrays.asList("Id", "Name", "Value");
+
+    private static SummaryState summarise(final int startRow, final int endRow) {
+        return summarise(new SummaryState(), startRow, endRow);
+    }
+
+    private static SummaryState summarise(final SummaryState result, final int startRow,
+            final int endRow) {
+        result.addFields(HEADERS);
+        for (int i = startRow; i < endRow; i++) {
+            result.addRow(HEADERS, Arrays.asList(Integer.toString(i), "Name " + (i % 7),
+                    i % 5 == 0 ? "" : Double.toString(i / 2.0)));
+        }
+        return result;
+    }
+
+    private static String write(final SummaryState state) throws IOException {
+        final StringWriter output = new StringWriter();
+        CSVSummariser.writeForSummarise(-1, state, true, output, NullWriter.NULL_WRITER);
+        return output.toString();
+    }
+
+    private static SummaryState roundTrip(final SummaryState state) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes);) {
+            state.write(out);
+        }
+        try (final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));) {
+            return SummaryState.read(in);
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#merge(com.github.ansell.csv.sum.SummaryState)}.
+     */
+    @Test
+    public final void testMergeMatchesSingleSummary() throws Exception {
+        final SummaryState expected = summarise(0, 300);
+
+        final SummaryState leftFirst = summarise(0, 100).merge(summarise(100, 200))
+                .merge(summarise(200, 300));
+        final SummaryState rightFirst = summarise(0, 100)
+                .merge(summarise(100, 200).merge(summarise(200, 300)));
+
+        assertEquals(300, leftFirst.getRowCount());
+        assertEquals(write(expected), write(leftFirst));
+        assertEquals(write(expected), write(rightFirst));
+        assertTrue(leftFirst.getField("Id").isPossiblyInteger());
+        assertFalse(leftFirst.getField("Value").isPossiblyInteger());
+        assertTrue(leftFirst.getField("Value").isPossiblyDouble());
+        assertEquals(60, leftFirst.getField("Value").getEmptyCount());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#write(java.io.DataOutput)}.
+     */
+    @Test
+    public final void testWriteRead() throws Exception {
+        final SummaryState state = summarise(0, 1000);
+        state.addRow(Arrays.asList("Id", "Name", "Value", "Extra"),
+                Arrays.asList("-1", "\u00e9\u4e2d\ud83d\ude00", "NaN", " "));
+
+        final SummaryState result = roundTrip(state);
+
+        assertEquals(state.getRowCount(), result.getRowCount());
+        assertEquals(state.getFieldNames(), result.getFieldNames());
+        assertEquals(write(state), write(result));
+        assertEquals(1, result.getField("Name").getValueCount("\u00e9\u4e2d\ud83d\ude00"));
+        assertEquals(1, result.getField("Extra").getEmptyCount());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#read(java.io.DataInput)}.
+     */
+    @Test
+    public final void testReadInvalid() throws Exception {
+        thrown.expect(IOException.class);
+        SummaryState.read(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 })));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#addRow(java.util.List, java.util.List)}.
+     */
+    @Test
+    public final void testAddRowDifferentHeaders() throws Exception {
+        final SummaryState state = new SummaryState();
+        state.addRow(Arrays.asList("A", "B"), Arrays.asList("1", "x"));
+        state.addRow(Arrays.asList("B", "C"), Arrays.asList("y", "2.5"));
+
+        assertEquals(Arrays.asList("A", "B", "C"), state.getFieldNames());
+        assertEquals(2, state.getField("B").getUniqueValueCount());
+        assertTrue(state.getField("A").isPossiblyInteger());
+        assertFalse(state.getField("C").isPossiblyInteger());
+        assertTrue(state.getField("C").isPossiblyDouble());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#addRow(java.util.List, java.util.List)}.
+     */
+    @Test
+    public final void testAddRowNumericTypes() throws Exception {
+        final List<String> header = Arrays.asList("Int", "Long", "BigDecimal", "Double", "Text");
+        final SummaryState state = new SummaryState();
+        state.addRow(header, Arrays.asList("1", "1", "1", "1", "1"));
+        state.addRow(header,
+                Arrays.asList("-2", "9223372036854775807", "1e999", "1.5e-3f", "Text"));
+        state.addRow(header, Arrays.asList("", "", "99999999999999999999", "NaN", "2"));
+
+        assertTrue(state.getField("Int").isPossiblyInteger());
+        assertTrue(state.getField("Int").isPossiblyLong());
+        assertFalse(state.getField("Long").isPossiblyInteger());
+        assertTrue(state.getField("Long").isPossiblyLong());
+        assertFalse(state.getField("BigDecimal").isPossiblyLong());
+        assertTrue(state.getField("BigDecimal").isPossiblyBigDecimal());
+        assertTrue(state.getField("BigDecimal").isPossiblyDouble());
+        assertFalse(state.getField("Double").isPossiblyBigDecimal());
+        assertTrue(state.getField("Double").isPossiblyDouble());
+        assertFalse(state.getField("Text").isPossiblyBigDecimal());
+        assertFalse(state.getField("Text").isPossiblyDouble());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#getField(java.lang.String)}.
+     */
+    @Test
+    public final void testGetFieldMissing() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new SummaryState().getField("Missing");
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#merge(com.github.ansell.csv.sum.SummaryState)}
+     * in approximate mode.
+     */
+    @Test
+    public final void testApproximateMergeMatchesSingleSummary() throws Exception {
+        final SummaryState empty = new SummaryState(SummaryState.CardinalityMode.APPROXIMATE, 14,
+                5);
+        final SummaryState expected = summarise(empty.newEmptyState(), 0, 30000);
+        final SummaryState merged = summarise(empty.newEmptyState(), 0, 10000)
+                .merge(summarise(empty.newEmptyState(), 10000, 20000))
+                .merge(summarise(empty.newEmptyState(), 20000, 30000));
+
+        assertEquals(write(expected), write(merged));
+        assertEquals(write(expected), write(roundTrip(merged)));
+
+        final FieldSummary id = merged.getField("Id");
+        assertEquals(30000, id.getUniqueValueCount(), 30000 * 0.05);
+        assertTrue(id.isPossiblePrimaryKey());
+        // Only the smallest values are kept, with exact counts
+        assertEquals(Arrays.asList("0", "1", "10", "100", "1000"),
+                new ArrayList<>(id.getValues()));
+        assertTrue(id.isValuesTruncated());
+
+        final FieldSummary name = merged.getField("Name");
+        assertEquals(7, name.getUniqueValueCount());
+        assertFalse(name.isPossiblePrimaryKey());
+        assertEquals(4286, name.getValueCount("Name 0"));
+        assertTrue(name.isValuesTruncated());
+
+        // Empty values disqualify a primary key
+        assertFalse(merged.getField("Value").isPossiblePrimaryKey());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#SummaryState(com.github.ansell.csv.sum.SummaryState.CardinalityMode, int, int)}.
+     */
+    @Test
+    public final void testApproximateSmallField() throws Exception {
+        final SummaryState state = new SummaryState(SummaryState.CardinalityMode.APPROXIMATE,
+                HyperLogLog.DEFAULT_PRECISION, 5);
+        final List<String> header = Arrays.asList("A");
+        state.addRow(header, Arrays.asList("b"));
+        state.addRow(header, Arrays.asList("a"));
+        state.addRow(header, Arrays.asList("b"));
+
+        final FieldSummary field = state.getField("A");
+        assertEquals(2, field.getUniqueValueCount());
+        assertFalse(field.isValuesTruncated());
+        assertEquals(2, field.getValueCount("b"));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#merge(com.github.ansell.csv.sum.SummaryState)}.
+     */
+    @Test
+    public final void testMergeDifferentCardinalityModes() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new SummaryState().merge(new SummaryState(SummaryState.CardinalityMode.APPROXIMATE,
+                HyperLogLog.DEFAULT_PRECISION, 5));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#SummaryState(com.github.ansell.csv.sum.SummaryState.CardinalityMode, int, int)}.
+     */
+    @Test
+    public final void testApproximateUnboundedSamples() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new SummaryState(SummaryState.CardinalityMode.APPROXIMATE, HyperLogLog.DEFAULT_PRECISION,
+                -1);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.FieldSummary#getTopValues(int)}.
+     */
+    @Test
+    public final void testTopValuesExact() throws Exception {
+        final SummaryState state = summarise(0, 300);
+        final FieldSummary name = state.getField("Name");
+        // 300 rows split over 7 names gives 43 for the first 6 names and 42
+        // for the last
+        assertEquals(Arrays.asList("Name 0", "Name 1", "Name 2"), name.getTopValues(3));
+        assertEquals(7, name.getTopValues(-1).size());
+        assertEquals("Name 6", name.getTopValues(-1).get(6));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.FieldSummary#getTopValues(int)} in
+     * approximate mode.
+     */
+    @Test
+    public final void testTopValuesApproximate() throws Exception {
+        final SummaryState empty = new SummaryState(SummaryState.CardinalityMode.APPROXIMATE,
+                HyperLogLog.DEFAULT_PRECISION, SummaryState.SampleMode.TOP, 2);
+        final List<String> header = Arrays.asList("A");
+        final SummaryState left = empty.newEmptyState();
+        final SummaryState right = empty.newEmptyState();
+        for (int i = 0; i < 10000; i++) {
+            // "common" appears in every third row, "rare" in every seventh,
+            // and the remaining values are unique
+            final String nextValue = i % 3 == 0 ? "common" : i % 7 == 0 ? "rare" : "u" + i;
+            (i < 5000 ? left : right).addRow(header, Arrays.asList(nextValue));
+        }
+        final SummaryState merged = roundTrip(left.merge(right));
+
+        final FieldSummary field = merged.getField("A");
+        assertEquals(Arrays.asList("common", "rare"), field.getTopValues(2));
+        assertTrue(field.isValuesTruncated());
+        assertTrue(field.getValueCount("common") >= 3334);
+        assertTrue(field.getValueCount("common") <= 3334 + 10000 / 20);
+        assertEquals(20, field.getValues().size());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.FieldSummary#getNumericStatistics()}.
+     */
+    @Test
+    public final void testNumericStatistics() throws Exception {
+        final SummaryState empty = new SummaryState(SummaryState.CardinalityMode.EXACT,
+                HyperLogLog.DEFAULT_PRECISION, SummaryState.SampleMode.FIRST, 0, true);
+        final SummaryState state = roundTrip(summarise(empty.newEmptyState(), 0, 100)
+                .merge(summarise(empty.newEmptyState(), 100, 300)));
+
+        final NumericStatistics id = state.getField("Id").getNumericStatistics();
+        assertEquals(300, id.getCount());
+        assertEquals(0.0, id.getMinimum(), 0.0);
+        assertEquals(299.0, id.getMaximum(), 0.0);
+        assertEquals(149.5, id.getMean(), 1e-9);
+        assertEquals(7525.0, id.getVariance(), 1e-6);
+        assertEquals(44850.0, id.getSum(), 0.0);
+        // Quantiles are estimates
+        assertEquals(149.0, id.getQuantile(0.5), 6.0);
+        // Empty values are not included
+        assertEquals(240, state.getField("Value").getNumericStatistics().getCount());
+        assertEquals(null, new SummaryState().merge(summarise(0, 10)).getField("Id")
+                .getNumericStatistics());
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.sum.SummaryState#merge(com.github.ansell.csv.sum.SummaryState)}.
+     */
+    @Test
+    public final void testMergeDifferentNumericStatistics() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new SummaryState().merge(new SummaryState(SummaryState.CardinalityMode.EXACT,
+                HyperLogLog.DEFAULT_PRECISION, SummaryState.SampleMode.FIRST, 0, true));
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.sum.SummaryState#getRowSample()}.
+     */
+    @Test
+    public final void testRowSample() throws Exception {
+        final SummaryState empty = new SummaryState(SummaryState.CardinalityMode.EXACT,
+                HyperLogLog.DEFAULT_PRECISION, SummaryState.SampleMode.FIRST, 0, false, 5);
+        final SummaryState first = empty.newEmptyState();
+        first.addRow(Arrays.asList("A", "B"), Arrays.asList("a1", "b1"));
+        final SummaryState second = empty.newEmptyState();
+        second.addRow(Arrays.asList("C", "A"), Arrays.asList("c2", "a2"));
+
+        final SummaryState merged = roundTrip(first.merge(second));
+
+        assertEquals(Arrays.asList("A", "B", "C"), merged.getFieldNames());
+        final List<List<String>> rows = merged.getRowSample();
+        assertEquals(2, rows.size());
+        assertTrue(rows.toString(), rows.contains(Arrays.asList("a1", "b1", "")));
+        assertTrue(rows.toString(), rows.contains(Arrays.asList("a2", "", "c2")));
+        assertTrue(new SummaryState().getRowSample().isEmpty());
+    }
+}
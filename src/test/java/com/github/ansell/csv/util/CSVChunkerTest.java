@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.github.ansell.csv.stream.CSVStream;
+
+/**
+ * Tests for {@link CSVChunker}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class CSVChunkerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesQuotedNewlines() throws Exception {
+        final Path testFile = tempDir.newFile("test-chunks.csv").toPath();
+        final StringBuilder input = new StringBuilder("Header1,Header2\n");
+        for (int i = 0; i < 100; i++) {
+            input.append(i).append(",\"Multi\nline, \"\"quoted\"\"\nvalue\"\n");
+        }
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        final long[] boundaries = CSVChunker.findRecordBoundaries(testFile, 7, 1,
+                CSVStream.defaultSchema());
+        assertEquals("Header1,Header2\n".length(), boundaries[0]);
+        assertEquals(Files.size(testFile), boundaries[boundaries.length - 1]);
+        assertTrue(boundaries.length > 2);
+
+        final List<List<String>> lines = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+            try (final Reader chunkReader = CSVChunker.newChunkReader(testFile, boundaries[i],
+                    boundaries[i + 1]);) {
+                CSVStream.parse(chunkReader, h -> {
+                }, (h, l) -> l, lines::add, List.of("Header1", "Header2"), List.of(), 0,
+                        CSVStream.defaultMapper(), CSVStream.defaultSchema());
+            }
+        }
+        assertEquals(100, lines.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), lines.get(i).get(0));
+            assertEquals("Multi\nline, \"quoted\"\nvalue", lines.get(i).get(1));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesSpaceBeforeQuote() throws Exception {
+        final Path testFile = tempDir.newFile("test-space-before-quote.csv").toPath();
+        final StringBuilder input = new StringBuilder("Header1,Header2\n");
+        for (int i = 0; i < 100; i++) {
+            // A quote after a space does not start a quoted value without
+            // trimming, so the first line ends at the newline, and the second
+            // line starts with a quoted value containing a newline
+            input.append(i).append(", \"unquoted\n\"quoted\n").append(i)
+                    .append("\",value\n");
+        }
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        final CsvMapper mapper = CSVStream.defaultMapper()
+                .disable(CsvParser.Feature.TRIM_SPACES);
+        for (int chunkCount = 2; chunkCount < 40; chunkCount++) {
+            assertChunksMatchFile(testFile, chunkCount, mapper);
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvMapper, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesSpaceBeforeQuoteTrimmed() throws Exception {
+        final Path testFile = tempDir.newFile("test-space-before-quote-trimmed.csv").toPath();
+        final StringBuilder input = new StringBuilder("Header1,Header2\n");
+        for (int i = 0; i < 100; i++) {
+            // Spaces before a quote are skipped when trimming, so the quoted
+            // value contains a newline
+            input.append(i).append(", \"quoted\n").append(i).append(",value\"\n");
+        }
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        final CsvMapper mapper = CSVStream.defaultMapper().enable(CsvParser.Feature.TRIM_SPACES);
+        for (int chunkCount = 2; chunkCount < 40; chunkCount++) {
+            assertChunksMatchFile(testFile, chunkCount, mapper);
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesCarriageReturns() throws Exception {
+        final Path testFile = tempDir.newFile("test-carriage-returns.csv").toPath();
+        final StringBuilder input = new StringBuilder("Header1,Header2\r");
+        for (int i = 0; i < 100; i++) {
+            input.append(i).append(",\"Multi\rline\r\nvalue\"\r");
+        }
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(CSVChunker.findRecordBoundaries(testFile, 7, 1,
+                CSVStream.defaultSchema()).length > 2);
+        for (int chunkCount = 2; chunkCount < 40; chunkCount++) {
+            assertChunksMatchFile(testFile, chunkCount, CSVStream.defaultMapper());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesLongQuotedValues() throws Exception {
+        final Path testFile = tempDir.newFile("test-long-quoted.csv").toPath();
+        final StringBuilder input = new StringBuilder("Header1,Header2\n");
+        for (int i = 0; i < 20; i++) {
+            // Values that look like records, so the state at each target
+            // offset can only be found from the segments before it
+            input.append(i).append(",\"");
+            for (int j = 0; j < 50; j++) {
+                input.append("a,b\n");
+            }
+            input.append("\"\n");
+        }
+        Files.write(testFile, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (int chunkCount = 2; chunkCount < 40; chunkCount++) {
+            assertChunksMatchFile(testFile, chunkCount, CSVStream.defaultMapper());
+        }
+    }
+
+    private void assertChunksMatchFile(final Path testFile, final int chunkCount,
+            final CsvMapper mapper) throws Exception {
+        final List<String> headers = new ArrayList<>();
+        final List<List<String>> expected = new ArrayList<>();
+        try (final Reader reader = Files.newBufferedReader(testFile, StandardCharsets.UTF_8);) {
+            CSVStream.parse(reader, headers::addAll, (h, l) -> l, expected::add, null, List.of(),
+                    1, mapper, CSVStream.defaultSchema());
+        }
+
+        final long[] boundaries = CSVChunker.findRecordBoundaries(testFile, chunkCount, 1,
+                mapper, CSVStream.defaultSchema());
+        final List<List<String>> lines = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+            try (final Reader chunkReader = CSVChunker.newChunkReader(testFile, boundaries[i],
+                    boundaries[i + 1]);) {
+                CSVStream.parse(chunkReader, h -> {
+                }, (h, l) -> l, lines::add, headers, List.of(), 0, mapper,
+                        CSVStream.defaultSchema());
+            }
+        }
+        assertEquals("Chunks did not match the file for chunk count " + chunkCount
+                + " and boundaries " + Arrays.toString(boundaries), expected, lines);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesHeaderOnly() throws Exception {
+        final Path testFile = tempDir.newFile("test-header-only.csv").toPath();
+        Files.write(testFile, "Header1,Header2\n".getBytes(StandardCharsets.UTF_8));
+
+        final long[] boundaries = CSVChunker.findRecordBoundaries(testFile, 4, 1,
+                CSVStream.defaultSchema());
+        assertArrayEquals(new long[] { Files.size(testFile) }, boundaries);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.CSVChunker#findRecordBoundaries(java.nio.file.Path, int, int, com.fasterxml.jackson.dataformat.csv.CsvSchema)}.
+     */
+    @Test
+    public final void testFindRecordBoundariesInvalidChunkCount() throws Exception {
+        final Path testFile = tempDir.newFile("test-invalid.csv").toPath();
+
+        thrown.expect(IllegalArgumentException.class);
+        CSVChunker.findRecordBoundaries(testFile, 0, 1, CSVStream.defaultSchema());
+    }
+}
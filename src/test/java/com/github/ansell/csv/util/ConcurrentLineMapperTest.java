@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConcurrentLineMapper}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConcurrentLineMapperTest {
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ConcurrentLineMapper#submit(List, Optional)}.
+     */
+    @Test
+    public final void testSubmitOrderPreserved() throws Exception {
+        final List<ValueMapping> map = Arrays.asList(
+                ValueMapping.newMapping("Default", "first", "first", "", "", ""),
+                ValueMapping.newMapping("Expression", "second", "upper",
+                        "inputValue.orElse(filter()).toUpperCase()", "", ""));
+        final List<List<String>> results = Collections.synchronizedList(new ArrayList<>());
+        final List<List<String>> expected = new ArrayList<>();
+        try (final ConcurrentLineMapper mapper = new ConcurrentLineMapper(map,
+                ValueMapping.getOutputFieldsFromList(map),
+                ValueMapping.getDefaultValuesFromList(map), 4, results::add);) {
+            mapper.setInputHeaders(Arrays.asList("first", "second"));
+            for (int i = 0; i < 1000; i++) {
+                // Every third line is filtered out
+                final String nextValue = i % 3 == 0 ? "" : "value" + i;
+                mapper.submit(Arrays.asList(Integer.toString(i), nextValue), Optional.empty());
+                if (i % 3 != 0) {
+                    expected.add(Arrays.asList(Integer.toString(i), "VALUE" + i));
+                }
+            }
+        }
+        assertEquals(expected, results);
+    }
+}
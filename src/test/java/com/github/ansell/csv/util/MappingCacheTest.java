@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link MappingCache}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class MappingCacheTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public final void testLeastRecentlyUsedEvicted() throws Exception {
+        final MappingCache cache = new MappingCache(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        // Using "a" makes "b" the least recently used entry
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public final void testHitRate() throws Exception {
+        final MappingCache cache = new MappingCache(10);
+        assertEquals(0.0d, cache.getHitRate(), 0.0d);
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", cache.get("a"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75d, cache.getHitRate(), 0.0001d);
+        assertEquals("3 hits, 1 misses (75.00% hit rate), 1 of 10 entries used",
+                cache.toString());
+    }
+
+    @Test
+    public final void testCachePerThread() throws Exception {
+        final MappingCache cache = new MappingCache(10);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        final AtomicReference<Object> otherThreadResult = new AtomicReference<>("not run");
+        final Thread otherThread = new Thread(() -> {
+            otherThreadResult.set(cache.get("a"));
+            cache.put("c", "C");
+        });
+        otherThread.start();
+        otherThread.join();
+        // Each thread has its own entries, but the statistics include every
+        // thread
+        assertNull(otherThreadResult.get());
+        assertNull(cache.get("c"));
+        assertEquals("A", cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public final void testNullResultNotCached() throws Exception {
+        final MappingCache cache = new MappingCache(10);
+        cache.put("a", null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public final void testInvalidSize() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new MappingCache(0);
+    }
+}
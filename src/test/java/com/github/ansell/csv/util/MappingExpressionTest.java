@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.github.ansell.csv.util.ValueMapping.ValueMappingLanguage;
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+/**
+ * Tests for {@link MappingExpression}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class MappingExpressionTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final List<String> INPUT_HEADERS = Arrays.asList("first", "second", "third");
+
+    private JDefaultDict<String, Set<String>> testPrimaryKeys;
+    private JDefaultDict<String, JDefaultDict<String, AtomicInteger>> testValueCounts;
+
+    @Before
+    public void setUp() throws Exception {
+        testPrimaryKeys = new JDefaultDict<>(k -> new HashSet<>());
+        testValueCounts = new JDefaultDict<>(k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
+    }
+
+    private List<String> map(String expression, String... line) {
+        return ValueMapping.mapLine(INPUT_HEADERS, Arrays.asList(line), Collections.emptyList(),
+                Collections.emptyList(),
+                Arrays.asList(ValueMapping.newMapping("Default", "first", "copied", "", "", ""),
+                        ValueMapping.newMapping("Expression", "second", "mapped", expression, "",
+                                "theDefault")),
+                testPrimaryKeys, testValueCounts, 7, 7, (l, m) -> {
+                });
+    }
+
+    private String mapValue(String expression, String... line) {
+        return map(expression, line).get(1);
+    }
+
+    @Test
+    public final void testLanguage() throws Exception {
+        final ValueMapping mapping = ValueMapping.newMapping("Expression", "second", "mapped",
+                "inputValue.trim()", "", "");
+        assertEquals(ValueMappingLanguage.EXPRESSION, mapping.getLanguage());
+        assertTrue(ValueMapping.canMapConcurrently(Arrays.asList(mapping)));
+    }
+
+    @Test
+    public final void testInputValue() throws Exception {
+        assertEquals("b", mapValue("inputValue", "a", "b", "c"));
+        assertEquals("b", mapValue("", "a", "b", "c"));
+        assertEquals(" B ", mapValue("inputValue.toUpperCase()", "a", " b ", "c"));
+        assertEquals("b", mapValue("return inputValue.trim();", "a", " b ", "c"));
+    }
+
+    @Test
+    public final void testCaseIgnoresDefaultLocale() throws Exception {
+        final Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            // The language names are also matched without the default locale
+            final List<ValueMapping> mappings = Arrays.asList(
+                    ValueMapping.newMapping("Expression", "first", "upper",
+                            "inputValue.toUpperCase()", "", ""),
+                    ValueMapping.newMapping("Expression", "second", "lower",
+                            "inputValue.toLowerCase()", "", ""));
+            assertEquals(Arrays.asList("TITLE", "title"), ValueMapping.mapLine(INPUT_HEADERS,
+                    Arrays.asList("title", "TITLE", "c"), Collections.emptyList(),
+                    Collections.emptyList(), mappings, testPrimaryKeys, testValueCounts, 1, 1,
+                    (l, m) -> {
+                    }));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public final void testColumnsAndConcatenation() throws Exception {
+        assertEquals("a c", mapValue("return col('first') + ' ' + col(\"third\");", "a", "b", "c"));
+        assertEquals("A-b-c!",
+                mapValue("col('first').toUpperCase() + '-' + inputValue + '-' + col('third') + '!'",
+                        "A", "b", "c"));
+        assertEquals("Could not find: missing", mapValue("col('missing')", "a", "b", "c"));
+        assertEquals("a", mapValue("outCol('copied')", "a", "b", "c"));
+        assertEquals("", mapValue("outCol('notMappedYet')", "a", "b", "c"));
+    }
+
+    @Test
+    public final void testNamedValues() throws Exception {
+        assertEquals("second:mapped:theDefault:7",
+                mapValue("inputField + ':' + outputField + ':' + defaultValue + ':' + lineNumber",
+                        "a", "b", "c"));
+    }
+
+    @Test
+    public final void testMethods() throws Exception {
+        assertEquals("ab", mapValue("inputValue.substring(0, 2)", "", "abcdef", ""));
+        assertEquals("cdef", mapValue("inputValue.substring(2)", "", "abcdef", ""));
+        assertEquals("", mapValue("inputValue.substring(0, 1)", "", "", ""));
+        assertEquals("abc", mapValue("inputValue.substring(0, 10)", "", "abc", ""));
+        assertEquals("", mapValue("inputValue.substring(5)", "", "abc", ""));
+        assertEquals("a b_c", mapValue("inputValue.replace('_', ' ')", "", "a_b_c", ""));
+        assertEquals("ab", mapValue("inputValue.substring(2, 0)", "", "abcdef", ""));
+        assertEquals("x\ty", mapValue("inputValue.replace('\\\\t', '\\t')", "", "x\\ty", ""));
+        assertEquals("abc", mapValue("(inputValue + 'C').toLowerCase()", "", "AB", ""));
+        assertEquals("unknown", mapValue("inputValue.trim().orElse('unknown')", "", "  ", ""));
+        assertEquals("x", mapValue("inputValue.orElse(defaultValue)", "", "x", ""));
+        assertEquals("theDefault", mapValue("inputValue.orElse(defaultValue)", "", "", ""));
+    }
+
+    @Test
+    public final void testMethodsMatchJavascript() throws Exception {
+        final List<String> expressions = Arrays.asList("inputValue.substring(0, 2)",
+                "inputValue.substring(2, 0)", "inputValue.substring(4, 1)",
+                "inputValue.substring(10, 1)", "inputValue.substring(1, 10)",
+                "inputValue.substring(3, 3)", "inputValue.substring(4)",
+                "inputValue.replace('_', ' ')", "inputValue.replace('', '-')",
+                "inputValue.replace('a', '[$&]')", "inputValue.replace('b', '$$')",
+                "inputValue.replace('c', '<$`|$\\'>')", "inputValue.replace('c', '$1$')",
+                "inputValue.replace('missing', 'x')");
+        for (final String nextValue : Arrays.asList("", "a_b_c_a", "abc", "ab_cd_ab_cd")) {
+            for (final String nextExpression : expressions) {
+                final List<String> line = Arrays.asList("", nextValue, "");
+                final String javascript = ValueMapping.mapLine(INPUT_HEADERS, line,
+                        Collections.emptyList(), Collections.emptyList(),
+                        Arrays.asList(ValueMapping.newMapping("Javascript", "second", "mapped",
+                                "return " + nextExpression + ";", "", "")),
+                        testPrimaryKeys, testValueCounts, 1, 1, (l, m) -> {
+                        }).get(0);
+                assertEquals(nextExpression + " on " + nextValue, javascript,
+                        mapValue(nextExpression, line.toArray(new String[0])));
+            }
+        }
+    }
+
+    @Test
+    public final void testFilter() throws Exception {
+        thrown.expect(LineFilteredException.class);
+        mapValue("filter()", "a", "b", "c");
+    }
+
+    @Test
+    public final void testUnknownName() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Unknown name: previousLine");
+        MappingExpression.compile("previousLine", "in", "out", "");
+    }
+
+    @Test
+    public final void testUnknownMethod() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Unknown method: split");
+        MappingExpression.compile("inputValue.split(',')", "in", "out", "");
+    }
+
+    @Test
+    public final void testUnterminatedString() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Unterminated string");
+        MappingExpression.compile("inputValue + 'abc", "in", "out", "");
+    }
+
+    @Test
+    public final void testTrailingCharacters() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Unexpected character ')'");
+        MappingExpression.compile("inputValue)", "in", "out", "");
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.github.ansell.csv.util.ValueMapping.ValueMappingLanguage;
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+/**
+ * Tests for {@link MappingPlan}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class MappingPlanTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private List<String> inputHeaders;
+    private List<ValueMapping> map;
+    private List<String> outputHeaders;
+    private Map<String, String> defaultValues;
+    private JDefaultDict<String, Set<String>> testPrimaryKeys;
+    private JDefaultDict<String, JDefaultDict<String, AtomicInteger>> testValueCounts;
+
+    @Before
+    public void setUp() throws Exception {
+        inputHeaders = Arrays.asList("first", "second", "third");
+        map = Arrays.asList(ValueMapping.newMapping("Default", "third", "copied", "", "", ""),
+                ValueMapping.newMapping("Expression", "first", "hidden",
+                        "inputValue.toUpperCase()", "no", ""),
+                ValueMapping.newMapping("Expression", "second", "combined",
+                        "outCol('hidden') + '-' + outCol('copied')", "", ""),
+                ValueMapping.newMapping("Default", "missing", "defaulted", "", "",
+                        "theDefault"));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        testPrimaryKeys = new JDefaultDict<>(k -> new HashSet<>());
+        testValueCounts = new JDefaultDict<>(k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // Some tests add global variables to the Javascript engine
+        ValueMapping.releaseSharedEngines();
+    }
+
+    private ValueMappingContext context(List<String> line, MappingPlan plan) {
+        return new ValueMappingContext(inputHeaders, line, Collections.emptyList(),
+                Collections.emptyList(), map, testPrimaryKeys, testValueCounts, 1, 1, (l, m) -> {
+                }, outputHeaders, defaultValues, Optional.empty(), plan);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineWithPlan() throws Exception {
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        final List<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(ValueMapping.mapLine(context(Arrays.asList("a" + i, "b" + i, "c" + i), plan)));
+        }
+        assertEquals(Arrays.asList("copied", "combined", "defaulted"), outputHeaders);
+        // Each line must be a separate list, even though the working values
+        // are reused
+        assertEquals(Arrays.asList("c0", "A0-c0", ""), results.get(0));
+        assertEquals(Arrays.asList("c1", "A1-c1", ""), results.get(1));
+        assertEquals(Arrays.asList("c2", "A2-c2", ""), results.get(2));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineScriptScratchValues() throws Exception {
+        map = Arrays.asList(
+                ValueMapping.newMapping("Javascript", "first", "stored",
+                        "return mapLine.put('scratch', inputValue) + '-' + inputValue;", "", ""),
+                ValueMapping.newMapping("Javascript", "second", "removed",
+                        "return mapLine.remove('scratch') + '-' + mapLine.containsKey('scratch');",
+                        "", ""));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        // Keys that are not output fields can be put and removed by scripts,
+        // and do not carry over to the next line
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Arrays.asList("null-a" + i, "a" + i + "-false"), ValueMapping
+                    .mapLine(context(Arrays.asList("a" + i, "b" + i, "c" + i), plan)));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineWithoutPlan() throws Exception {
+        assertEquals(Arrays.asList("c", "A-c", ""),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), null)));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineDefaultValue() throws Exception {
+        final List<ValueMapping> filteredMap = Arrays.asList(
+                ValueMapping.newMapping("Default", "first", "first", "", "", ""),
+                ValueMapping.newMapping("Default", "first", "other", "", "", "otherDefault"));
+        // A mapping that is not applied to a line leaves the default value
+        final MappingPlan plan = MappingPlan.compile(filteredMap.subList(0, 1), inputHeaders,
+                ValueMapping.getOutputFieldsFromList(filteredMap),
+                ValueMapping.getDefaultValuesFromList(filteredMap));
+        assertEquals(Arrays.asList("a", "otherDefault"),
+                plan.mapLine(new ValueMappingContext(inputHeaders, Arrays.asList("a", "b", "c"),
+                        Collections.emptyList(), Collections.emptyList(),
+                        filteredMap.subList(0, 1), testPrimaryKeys, testValueCounts, 1, 1,
+                        (l, m) -> {
+                        }, ValueMapping.getOutputFieldsFromList(filteredMap),
+                        ValueMapping.getDefaultValuesFromList(filteredMap), Optional.empty())));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineFiltersFirst() throws Exception {
+        map = Arrays.asList(
+                ValueMapping.newMapping("Expression", "first", "upper",
+                        "inputValue.toUpperCase()", "", ""),
+                ValueMapping.newMapping("Default", "third", "copied", "", "", ""),
+                ValueMapping.newMapping("Expression", "second", "kept",
+                        "inputValue.orElse(filter())", "", ""));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        // The output is in the declared order, even though the filter runs
+        // first
+        assertEquals(Arrays.asList("A", "c", "b"),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), plan)));
+        for (int i = 0; i < 3; i++) {
+            try {
+                ValueMapping.mapLine(context(Arrays.asList("a", "", "c"), plan));
+                fail("Did not receive LineFilteredException");
+            } catch (final LineFilteredException e) {
+                // Expected exception
+            }
+        }
+        // Only the expression is counted, as copying a value does not run a
+        // script
+        assertEquals(Arrays.asList("Filter for kept: skipped 3 mapping invocations"),
+                ValueMapping.getFilterStatistics(map));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineFilterAfterMappedLineNotMoved() throws Exception {
+        map = Arrays.asList(
+                ValueMapping.newMapping("Expression", "first", "upper",
+                        "inputValue.toUpperCase()", "", ""),
+                ValueMapping.newMapping("Expression", "first", "copy", "outCol('kept')", "",
+                        ""),
+                ValueMapping.newMapping("Expression", "second", "kept",
+                        "inputValue.orElse(filter())", "", ""),
+                ValueMapping.newMapping("Expression", "second", "other",
+                        "outCol('upper').orElse(filter())", "", ""));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        // The copy mapping would see the value for kept if the filter ran
+        // first
+        assertEquals(Arrays.asList("A", "", "b", "A"),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), plan)));
+        thrown.expect(LineFilteredException.class);
+        try {
+            ValueMapping.mapLine(context(Arrays.asList("a", "", "c"), plan));
+        } finally {
+            assertEquals(Collections.emptyList(), ValueMapping.getFilterStatistics(map));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineFilterAfterScriptNotMoved() throws Exception {
+        map = Arrays.asList(
+                ValueMapping.newMapping("Javascript", "first", "stored",
+                        "lastStored = inputValue; return inputValue;", "", ""),
+                ValueMapping.newMapping("Javascript", "second", "kept",
+                        "return inputValue === lastStored ? FILTER : inputValue;", "", ""));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        // The filter reads a global variable set by the script before it, so
+        // it must not run first
+        assertEquals(Arrays.asList("a", "b"),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), plan)));
+        thrown.expect(LineFilteredException.class);
+        try {
+            ValueMapping.mapLine(context(Arrays.asList("d", "d", "c"), plan));
+        } finally {
+            assertEquals(Collections.emptyList(), ValueMapping.getFilterStatistics(map));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineFilterAfterCachedScriptNotMoved() throws Exception {
+        map = Arrays.asList(
+                ValueMapping.newMapping("Javascript", "first", "stored",
+                        "lastStored = inputValue; return inputValue.toUpperCase();", "", "",
+                        "yes"),
+                ValueMapping.newMapping("Javascript", "second", "kept",
+                        "return inputValue === lastStored ? FILTER : inputValue;", "", ""));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        // Caching a script does not stop it setting global variables, so the
+        // filter still runs after it
+        assertEquals(Arrays.asList("A", "b"),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), plan)));
+        thrown.expect(LineFilteredException.class);
+        try {
+            ValueMapping.mapLine(context(Arrays.asList("d", "d", "c"), plan));
+        } finally {
+            assertEquals(Collections.emptyList(), ValueMapping.getFilterStatistics(map));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMapping#mapLine(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMapLineFilterFirstAfterScriptMoved() throws Exception {
+        final AtomicInteger scriptRuns = new AtomicInteger();
+        map = Arrays.asList(
+                ValueMapping.newMapping("Javascript", "first", "upper",
+                        "scriptRuns.incrementAndGet(); return inputValue.toUpperCase();", "",
+                        ""),
+                ValueMapping.newMapping("Javascript", "second", "kept",
+                        "return inputValue === '' ? FILTER : inputValue;", "", "", "", "yes"));
+        ValueMapping.getSharedEngine(ValueMappingLanguage.JAVASCRIPT).put("scriptRuns",
+                scriptRuns);
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        assertEquals(Arrays.asList("A", "b"),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), plan)));
+        assertEquals(1, scriptRuns.get());
+        thrown.expect(LineFilteredException.class);
+        try {
+            ValueMapping.mapLine(context(Arrays.asList("a", "", "c"), plan));
+        } finally {
+            // The uncached script before the filter is not run for the
+            // filtered line
+            assertEquals(1, scriptRuns.get());
+            assertEquals(Arrays.asList("Filter for kept: skipped 1 mapping invocations"),
+                    ValueMapping.getFilterStatistics(map));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.MappingPlan#matches(ValueMappingContext)}.
+     */
+    @Test
+    public final void testMatches() throws Exception {
+        final MappingPlan plan = MappingPlan.compile(map, inputHeaders, outputHeaders,
+                defaultValues);
+        assertTrue(plan.matches(context(Arrays.asList("a", "b", "c"), plan)));
+        // Equal headers in a different list do not match, as the plan is
+        // only checked by identity
+        inputHeaders = new ArrayList<>(inputHeaders);
+        assertFalse(plan.matches(context(Arrays.asList("a", "b", "c"), plan)));
+        assertEquals(Arrays.asList("c", "A-c", ""),
+                ValueMapping.mapLine(context(Arrays.asList("a", "b", "c"), plan)));
+    }
+}
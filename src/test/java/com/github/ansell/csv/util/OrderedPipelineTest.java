@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests for {@link OrderedPipeline}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class OrderedPipelineTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.OrderedPipeline#submit(java.lang.Object)}.
+     */
+    @Test
+    public final void testOrderPreserved() throws Exception {
+        final List<Integer> results = new ArrayList<>();
+        try (final OrderedPipeline<Integer, Integer> pipeline = new OrderedPipeline<>(4, 8, i -> {
+            if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return i * 2;
+        }, results::add);) {
+            for (int i = 0; i < 2000; i++) {
+                pipeline.submit(i);
+            }
+        }
+        assertEquals(2000, results.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(Integer.valueOf(i * 2), results.get(i));
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.OrderedPipeline#submit(java.lang.Object)}.
+     */
+    @Test
+    public final void testNullResultsSkipped() throws Exception {
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+        try (final OrderedPipeline<Integer, Integer> pipeline = new OrderedPipeline<>(3, 4,
+                i -> i % 3 == 0 ? null : i, results::add);) {
+            for (int i = 0; i < 10; i++) {
+                pipeline.submit(i);
+            }
+        }
+        assertEquals(List.of(1, 2, 4, 5, 7, 8), results);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.OrderedPipeline#submit(java.lang.Object)}.
+     */
+    @Test
+    public final void testSlowInputBoundsInFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger submitted = new AtomicInteger(0);
+        final List<Integer> results = new ArrayList<>();
+        final int submittedWhileBlocked;
+        try (final OrderedPipeline<Integer, Integer> pipeline = new OrderedPipeline<>(2, 4, i -> {
+            if (i == 0) {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return i;
+        }, results::add);) {
+            final Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    pipeline.submit(i);
+                    submitted.incrementAndGet();
+                }
+            });
+            submitter.start();
+            // The other worker is free, but the results after the slow first
+            // input cannot be written, so submitting must block
+            Thread.sleep(500);
+            submittedWhileBlocked = submitted.get();
+            release.countDown();
+            submitter.join();
+        }
+        assertTrue("Submitted too many inputs: " + submittedWhileBlocked,
+                submittedWhileBlocked <= 4);
+        assertEquals(100, results.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+    }
+
+    /**
+     * Test method for {@link com.github.ansell.csv.util.OrderedPipeline#close()}.
+     */
+    @Test
+    public final void testFunctionExceptionRethrown() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Bad input: 5");
+        try (final OrderedPipeline<Integer, Integer> pipeline = new OrderedPipeline<>(2, 4, i -> {
+            if (i == 5) {
+                throw new IllegalArgumentException("Bad input: " + i);
+            }
+            return i;
+        }, i -> {
+        });) {
+            for (int i = 0; i < 10000; i++) {
+                pipeline.submit(i);
+            }
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.OrderedPipeline#OrderedPipeline(int, int, java.util.function.Function, java.util.function.Consumer)}.
+     */
+    @Test
+    public final void testNoWorkers() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        new OrderedPipeline<Integer, Integer>(0, 4, i -> i, i -> {
+        });
+    }
+}
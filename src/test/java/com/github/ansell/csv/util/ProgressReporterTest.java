@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for {@link ProgressReporter}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ProgressReporterTest {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ProgressReporter#start(long, long, java.io.PrintStream, java.nio.file.Path)}.
+     */
+    @Test
+    public final void testReportToStream() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PrintStream output = new PrintStream(bytes, true, StandardCharsets.UTF_8.name());
+        try (final ProgressReporter progress = ProgressReporter.start(200, 10, output, null);) {
+            for (int i = 0; i < 1000; i++) {
+                progress.increment();
+            }
+            progress.addBytes(100);
+            final Map<String, Object> metrics = progress.getMetrics(false);
+            assertEquals(1000L, metrics.get("rows"));
+            assertEquals(100L, metrics.get("bytes"));
+            assertEquals(50.0d, (Double) metrics.get("percentComplete"), 0.0001d);
+            assertFalse((Boolean) metrics.get("complete"));
+        }
+        final String[] lines = bytes.toString(StandardCharsets.UTF_8.name()).split("\n");
+        final String lastLine = lines[lines.length - 1];
+        assertTrue(lastLine, lastLine.startsWith("1000\tSeconds since start: "));
+        assertTrue(lastLine, lastLine.contains("\tComplete: 100.0%\tETA seconds: 0"));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ProgressReporter#start(long, int, java.nio.file.Path)}.
+     */
+    @Test
+    public final void testReportToMetricsFile() throws Exception {
+        final Path metricsFile = tempDir.getRoot().toPath().resolve("metrics.json");
+        try (final ProgressReporter progress = ProgressReporter.start(-1, 1, metricsFile);) {
+            progress.increment();
+            progress.increment();
+        }
+        final Map<?, ?> metrics = new ObjectMapper().readValue(metricsFile.toFile(), Map.class);
+        assertEquals(2, ((Number) metrics.get("rows")).intValue());
+        assertEquals(-1, ((Number) metrics.get("totalBytes")).intValue());
+        assertEquals(Boolean.TRUE, metrics.get("complete"));
+        // The estimate is only included if the total is known
+        assertFalse(metrics.containsKey("etaSeconds"));
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ProgressReporter#track(java.io.InputStream)}.
+     */
+    @Test
+    public final void testTrack() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ProgressReporter progress = ProgressReporter.start(-1, 60000,
+                new PrintStream(bytes, true, StandardCharsets.UTF_8.name()), null);
+                final InputStream input = progress
+                        .track(new ByteArrayInputStream(new byte[12345]));) {
+            IOUtils.toByteArray(input);
+            assertEquals(12345, progress.getByteCount());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ProgressReporter#start(long, int, java.nio.file.Path)}.
+     */
+    @Test
+    public final void testDisabled() throws Exception {
+        final Path metricsFile = tempDir.getRoot().toPath().resolve("disabled.json");
+        final InputStream input = new ByteArrayInputStream(new byte[10]);
+        try (final ProgressReporter progress = ProgressReporter.start(10, 0, metricsFile);) {
+            assertTrue(progress == ProgressReporter.none());
+            assertTrue(progress.track(input) == input);
+            // The shared reporter does not count for its callers
+            progress.increment();
+            progress.addBytes(10);
+            assertEquals(0, progress.getRowCount());
+            assertEquals(0, progress.getByteCount());
+        }
+        assertFalse(metricsFile.toFile().exists());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.ansell.csv.util.ValueMapping.ValueMappingLanguage;
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+/**
+ * Compares the time taken to map 10 million rows using the same mapping
+ * written in each {@link ValueMappingLanguage}, and the time taken to copy
+ * the same input values using {@link ValueMappingLanguage#DEFAULT} mappings.
+ * <br>
+ * Run using the main method, or through the JMH runner. The scores are
+ * seconds per 10 million rows.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class ValueMappingBenchmark {
+
+    private static final int ROWS = 10_000_000;
+
+    private static final int DISTINCT_LINES = 1000;
+
+    // Lua calls methods on the runtime class of the headers and lines, so
+    // they must be a public list type rather than Arrays.asList
+    private static final List<String> INPUT_HEADERS = new ArrayList<>(
+            Arrays.asList("id", "first", "last", "code"));
+
+    private static final BiConsumer<List<String>, List<String>> NO_LINE_CONSUMER = (l, m) -> {
+    };
+
+    @Param({ "DEFAULT", "EXPRESSION", "JAVASCRIPT", "GROOVY", "LUA" })
+    private ValueMappingLanguage language;
+
+    private List<ValueMapping> map;
+
+    private List<String> outputHeaders;
+
+    private Map<String, String> defaultValues;
+
+    private MappingPlan plan;
+
+    private List<List<String>> lines;
+
+    private JDefaultDict<String, Set<String>> primaryKeys;
+
+    private JDefaultDict<String, JDefaultDict<String, AtomicInteger>> valueCounts;
+
+    @Setup
+    public void setup() {
+        final String nameMapping;
+        final String codeMapping;
+        switch (language) {
+        case DEFAULT:
+            // Copies the input values, as a baseline for the other languages
+            nameMapping = "";
+            codeMapping = "";
+            break;
+        case EXPRESSION:
+            nameMapping = "col('first').trim() + ' ' + col('last').trim().toUpperCase()";
+            codeMapping = "inputValue.substring(0, 3).orElse('none')";
+            break;
+        case JAVASCRIPT:
+            nameMapping = "return col('first').trim() + ' ' + col('last').trim().toUpperCase();";
+            codeMapping = "return inputValue.isEmpty() ? 'none' : inputValue.substring(0, 3);";
+            break;
+        case GROOVY:
+            nameMapping = "line.get(inputHeaders.indexOf('first')).trim() + ' ' + line.get(inputHeaders.indexOf('last')).trim().toUpperCase()";
+            codeMapping = "inputValue.isEmpty() ? 'none' : inputValue.substring(0, 3)";
+            break;
+        case LUA:
+            nameMapping = "local first = line:get(inputHeaders:indexOf('first')) "
+                    + "local last = line:get(inputHeaders:indexOf('last')) "
+                    + "return first:match('^%s*(.-)%s*$') .. ' ' .. last:match('^%s*(.-)%s*$'):upper()";
+            codeMapping = "if inputValue == '' then return 'none' end return inputValue:sub(1, 3)";
+            break;
+        default:
+            throw new IllegalArgumentException("Language not benchmarked: " + language);
+        }
+        final String languageName = language.name();
+        map = Arrays.asList(ValueMapping.newMapping("Default", "id", "id", "", "", ""),
+                ValueMapping.newMapping(languageName, "first", "name", nameMapping, "", ""),
+                ValueMapping.newMapping(languageName, "code", "code", codeMapping, "", ""));
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        plan = MappingPlan.compile(map, INPUT_HEADERS, outputHeaders, defaultValues);
+        lines = new ArrayList<>(DISTINCT_LINES);
+        for (int i = 0; i < DISTINCT_LINES; i++) {
+            lines.add(new ArrayList<>(Arrays.asList(Integer.toString(i), " first" + i + " ",
+                    "last" + (i % 37), i % 10 == 0 ? "" : "code-" + i)));
+        }
+        primaryKeys = new JDefaultDict<>(k -> new HashSet<>());
+        valueCounts = new JDefaultDict<>(k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
+    }
+
+    @Benchmark
+    public void mapRows(final Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(ValueMapping.mapLine(new ValueMappingContext(INPUT_HEADERS,
+                    lines.get(i % DISTINCT_LINES), Collections.emptyList(),
+                    Collections.emptyList(), map, primaryKeys, valueCounts, i + 1, i + 1,
+                    NO_LINE_CONSUMER, outputHeaders, defaultValues, Optional.empty(), plan)));
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        new Runner(new OptionsBuilder().include(ValueMappingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
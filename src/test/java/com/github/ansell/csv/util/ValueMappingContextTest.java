@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016, Peter Ansell
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ansell.csv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ansell.jdefaultdict.JDefaultDict;
+
+/**
+ * Tests for {@link ValueMappingContext}.
+ *
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ValueMappingContextTest {
+
+    private static final int COLUMNS = 20;
+
+    private List<String> inputHeaders;
+    private List<ValueMapping> map;
+    private List<String> outputHeaders;
+    private Map<String, String> defaultValues;
+    private JDefaultDict<String, Set<String>> testPrimaryKeys;
+    private JDefaultDict<String, JDefaultDict<String, AtomicInteger>> testValueCounts;
+
+    /**
+     * Holds the last mapped line so that the mapping is not optimised away.
+     */
+    private List<String> lastMapLine;
+
+    @Before
+    public void setUp() throws Exception {
+        inputHeaders = new ArrayList<>();
+        map = new ArrayList<>();
+        for (int i = 0; i < COLUMNS; i++) {
+            inputHeaders.add("input" + i);
+            map.add(ValueMapping.newMapping("Default", "input" + i, "output" + i, "", "", ""));
+        }
+        outputHeaders = ValueMapping.getOutputFieldsFromList(map);
+        defaultValues = ValueMapping.getDefaultValuesFromList(map);
+        testPrimaryKeys = new JDefaultDict<>(k -> new HashSet<>());
+        testValueCounts = new JDefaultDict<>(k -> new JDefaultDict<>(v -> new AtomicInteger(0)));
+    }
+
+    private ValueMappingContext newContext() {
+        return new ValueMappingContext(inputHeaders, null, Collections.emptyList(),
+                Collections.emptyList(), map, testPrimaryKeys, testValueCounts, 0, 0, (l, m) -> {
+                }, outputHeaders, defaultValues, Optional.empty(),
+                MappingPlan.compile(map, inputHeaders, outputHeaders, defaultValues));
+    }
+
+    private static List<String> line(String prefix) {
+        final List<String> result = new ArrayList<>(COLUMNS);
+        for (int i = 0; i < COLUMNS; i++) {
+            result.add(prefix + i);
+        }
+        return result;
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMappingContext#reset(List, int, int, Optional)}.
+     */
+    @Test
+    public final void testReset() throws Exception {
+        final ValueMappingContext context = newContext();
+        final List<String> firstLine = line("a");
+        assertSame(context, context.reset(firstLine, 1, 1, Optional.empty()));
+        assertSame(firstLine, context.getLine());
+        assertEquals(1, context.getLineNumber());
+        final List<String> firstMapLine = ValueMapping.mapLine(context);
+
+        final List<String> secondLine = line("b");
+        context.reset(secondLine, 2, 1, Optional.empty());
+        assertSame(secondLine, context.getLine());
+        assertEquals(2, context.getLineNumber());
+        assertEquals(1, context.getFilteredLineNumber());
+        assertSame(inputHeaders, context.getInputHeaders());
+        final List<String> secondMapLine = ValueMapping.mapLine(context);
+
+        // The results for earlier lines must not change when the context is
+        // reused
+        assertEquals(firstLine, firstMapLine);
+        assertEquals(secondLine, secondMapLine);
+    }
+
+    /**
+     * Test method for
+     * {@link com.github.ansell.csv.util.ValueMappingContext#reset(List, List, int, int, Optional)}.
+     */
+    @Test
+    public final void testResetInputHeaders() throws Exception {
+        final ValueMappingContext context = newContext();
+        final List<String> reversedHeaders = new ArrayList<>(inputHeaders);
+        Collections.reverse(reversedHeaders);
+        final List<String> reversedLine = line("c");
+        Collections.reverse(reversedLine);
+        context.reset(reversedHeaders, reversedLine, 1, 1, Optional.empty());
+        assertSame(reversedHeaders, context.getInputHeaders());
+        // The plan was compiled for different headers, so it is not used
+        assertEquals(line("c"), ValueMapping.mapLine(context));
+    }
+
+    /**
+     * Checks that mapping a line with Default mappings using a reused context
+     * and a {@link MappingPlan} only allocates the mapped line.
+     */
+    @Test
+    public final void testResetAllocation() throws Exception {
+        final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported()
+                && allocationBean.isThreadAllocatedMemoryEnabled());
+
+        final List<List<String>> lines = Arrays.asList(line("a"), line("b"), line("c"));
+        final ValueMappingContext context = newContext();
+        final int warmupRows = 20000;
+        final int rows = 100000;
+        for (int i = 0; i < warmupRows; i++) {
+            lastMapLine = ValueMapping.mapLine(context.reset(lines.get(i % 3), i, i,
+                    Optional.empty()));
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rows; i++) {
+            lastMapLine = ValueMapping.mapLine(context.reset(lines.get(i % 3), i, i,
+                    Optional.empty()));
+        }
+        final long bytesPerRow = (allocationBean.getThreadAllocatedBytes(threadId) - before)
+                / rows;
+
+        assertEquals(lines.get((rows - 1) % 3), lastMapLine);
+        // The mapped line itself is an array of references and a list
+        // wrapper, which is less than 160 bytes for 20 columns. Allocating a
+        // context, a HashMap and its entries for each row would be well over
+        // 1000 bytes
+        assertTrue("Allocated " + bytesPerRow + " bytes per row", bytesPerRow < 256);
+    }
+}
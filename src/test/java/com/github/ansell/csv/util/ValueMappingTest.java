@@ -1,7 +1,10 @@
 package com.github.ansell.csv.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.StringReader;
@@ -18,9 +21,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -185,6 +194,307 @@ public class ValueMappingTest {
         assertEquals("no-previous", mapLine.get(3));
     }
 
+    @Test
+    public final void testMapLineConcurrently() throws Exception {
+        final List<ValueMapping> map = Arrays.asList(testDefaultMapping, testJavascriptMapping,
+                testDateMatching);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String nextValue = Integer.toString(i);
+                final String nextDate = i % 2 == 0 ? "2017-01-1" + (i % 10) : "not-a-date";
+                final int nextLineNumber = i + 1;
+                results.add(executor.submit(() -> ValueMapping.mapLine(
+                        Arrays.asList("anInput", "aDifferentInput", "dateInput"),
+                        Arrays.asList(nextValue, nextValue, nextDate), Collections.emptyList(),
+                        Collections.emptyList(), map, testPrimaryKeys, testValueCounts,
+                        nextLineNumber, nextLineNumber, UNEXPECTED_LINE_CONSUMER)));
+            }
+            for (int i = 0; i < 200; i++) {
+                final List<String> mapLine = results.get(i).get();
+                assertEquals(Integer.toString(i), mapLine.get(0));
+                assertEquals(Integer.toString(i).substring(0, 1), mapLine.get(1));
+                assertEquals(i % 2 == 0 ? "2017-01-1" + (i % 10) : "fix-your-date-format",
+                        mapLine.get(2));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public final void testMapLineManyJavascriptMappings() {
+        final List<ValueMapping> map = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            map.add(ValueMapping.newMapping("Javascript", "anInput", "field" + i,
+                    "return inputValue + '-" + i + "';", "", ""));
+            expected.add("testValue-" + i);
+        }
+        // Each mapping is compiled as a separate function in the same engine,
+        // so the functions must not replace each other
+        final List<String> mapLine = ValueMapping.mapLine(Arrays.asList("anInput"),
+                Arrays.asList("testValue"), Collections.emptyList(), Collections.emptyList(), map,
+                testPrimaryKeys, testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+        assertEquals(expected, mapLine);
+    }
+
+    @Test
+    public final void testMapLineScriptFunctionsNotKeptByEngine() throws Exception {
+        for (final String language : Arrays.asList("Javascript", "Groovy")) {
+            final ScriptEngine engine = ValueMapping
+                    .getSharedEngine(ValueMappingLanguage.valueOf(language.toUpperCase()));
+            ValueMapping.mapLine(Arrays.asList("anInput"), Arrays.asList("testValue"),
+                    Collections.emptyList(), Collections.emptyList(),
+                    Arrays.asList(ValueMapping.newMapping(language, "anInput", "warmUp",
+                            "return inputValue;", "", "")),
+                    testPrimaryKeys, testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+            final Set<String> globals = new HashSet<>(
+                    engine.getBindings(ScriptContext.ENGINE_SCOPE).keySet());
+            // Mappings that are loaded and discarded on a long lived thread
+            // must not add anything to the engine for that thread
+            for (int i = 0; i < 20; i++) {
+                final List<String> mapLine = ValueMapping.mapLine(Arrays.asList("anInput"),
+                        Arrays.asList("testValue"), Collections.emptyList(),
+                        Collections.emptyList(),
+                        Arrays.asList(ValueMapping.newMapping(language, "anInput", "field",
+                                "return inputValue + '-" + i + "';", "", "")),
+                        testPrimaryKeys, testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+                assertEquals(Arrays.asList("testValue-" + i), mapLine);
+            }
+            assertEquals(language, globals,
+                    new HashSet<>(engine.getBindings(ScriptContext.ENGINE_SCOPE).keySet()));
+        }
+    }
+
+    @Test
+    public final void testNewMappingScriptError() {
+        thrown.expect(RuntimeException.class);
+        ValueMapping.newMapping("Javascript", "anInput", "anOutput", "return inputValue +;", "",
+                "");
+    }
+
+    @Test
+    public final void testReleaseSharedEngines() throws Exception {
+        final ValueMapping mapping = ValueMapping.newMapping("Javascript", "anInput", "field",
+                "return inputValue + '-released';", "", "");
+        final ScriptEngine engine = ValueMapping.getSharedEngine(ValueMappingLanguage.JAVASCRIPT);
+        ValueMapping.releaseSharedEngines();
+        assertNotSame(engine, ValueMapping.getSharedEngine(ValueMappingLanguage.JAVASCRIPT));
+        // The mapping was compiled before the engines were released, so it
+        // keeps working with the engine that it was compiled with
+        assertEquals(Arrays.asList("testValue-released"),
+                ValueMapping.mapLine(Arrays.asList("anInput"), Arrays.asList("testValue"),
+                        Collections.emptyList(), Collections.emptyList(),
+                        Arrays.asList(mapping), testPrimaryKeys, testValueCounts, 1, 1,
+                        UNEXPECTED_LINE_CONSUMER));
+    }
+
+    @Test
+    public final void testMapLineCached() {
+        final List<ValueMapping> map = Arrays.asList(ValueMapping.newMapping("Expression",
+                "aDifferentInput", "cachedField", "inputValue.toUpperCase()", "", "", "yes"));
+        assertEquals(ValueMapping.DEFAULT_CACHE_SIZE, map.get(0).getCacheSize());
+        for (final String nextValue : Arrays.asList("a", "b", "a", "a", "b")) {
+            final List<String> mapLine = ValueMapping.mapLine(Arrays.asList("aDifferentInput"),
+                    Arrays.asList(nextValue), Collections.emptyList(), Collections.emptyList(),
+                    map, testPrimaryKeys, testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+            assertEquals(Arrays.asList(nextValue.toUpperCase()), mapLine);
+        }
+        assertEquals(
+                Arrays.asList(
+                        "Cache for cachedField: 3 hits, 2 misses (60.00% hit rate), 2 of 10000 entries used"),
+                ValueMapping.getCacheStatistics(map));
+    }
+
+    @Test
+    public final void testMapLineCachedFiltered() {
+        for (final ValueMapping nextMapping : Arrays.asList(
+                ValueMapping.newMapping("Javascript", "aDifferentInput", "cachedField",
+                        "return inputValue === '' ? FILTER : inputValue;", "", "", "yes"),
+                ValueMapping.newMapping("Javascript", "aDifferentInput", "cachedField",
+                        "return inputValue === '' ? filter() : inputValue;", "", "", "yes"),
+                ValueMapping.newMapping("Expression", "aDifferentInput", "cachedField",
+                        "inputValue.orElse(filter())", "", "", "yes"))) {
+            final List<ValueMapping> map = Arrays.asList(nextMapping);
+            for (final String nextValue : Arrays.asList("", "b", "", "")) {
+                try {
+                    final List<String> mapLine = ValueMapping.mapLine(
+                            Arrays.asList("aDifferentInput"), Arrays.asList(nextValue),
+                            Collections.emptyList(), Collections.emptyList(), map,
+                            testPrimaryKeys, testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+                    assertEquals(Arrays.asList(nextValue), mapLine);
+                    assertFalse(nextValue.isEmpty());
+                } catch (final LineFilteredException e) {
+                    assertTrue(nextValue.isEmpty());
+                }
+            }
+            // The filtered value is only mapped the first time
+            assertEquals(nextMapping.getMapping(),
+                    Arrays.asList(
+                            "Cache for cachedField: 2 hits, 2 misses (50.00% hit rate), 2 of 10000 entries used"),
+                    ValueMapping.getCacheStatistics(map));
+        }
+    }
+
+    @Test
+    public final void testNewMappingCacheSize() {
+        assertEquals(0, ValueMapping.newMapping("Expression", "anInput", "anOutput",
+                "inputValue.trim()", "", "", "").getCacheSize());
+        assertEquals(0, ValueMapping.newMapping("Expression", "anInput", "anOutput",
+                "inputValue.trim()", "", "", "no").getCacheSize());
+        assertEquals(500, ValueMapping.newMapping("Expression", "anInput", "anOutput",
+                "inputValue.trim()", "", "", "500").getCacheSize());
+        assertEquals(Collections.emptyList(), ValueMapping.getCacheStatistics(
+                Arrays.asList(testDefaultMapping, testJavascriptMapping)));
+    }
+
+    @Test
+    public final void testNewMappingCacheInvalidSize() {
+        thrown.expect(IllegalArgumentException.class);
+        ValueMapping.newMapping("Expression", "anInput", "anOutput", "inputValue.trim()", "", "",
+                "many");
+    }
+
+    @Test
+    public final void testNewMappingCacheUsesLine() {
+        thrown.expect(IllegalArgumentException.class);
+        ValueMapping.newMapping("Expression", "anInput", "anOutput", "col('other')", "", "",
+                "yes");
+    }
+
+    @Test
+    public final void testNewMappingCacheWordInString() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("'line'");
+        ValueMapping.newMapping("Javascript", "anInput", "anOutput",
+                "return inputValue + ' line';", "", "", "yes");
+    }
+
+    @Test
+    public final void testNewMappingCacheDefaultLanguage() {
+        thrown.expect(IllegalArgumentException.class);
+        ValueMapping.newMapping("Default", "anInput", "anOutput", "", "", "", "yes");
+    }
+
+    @Test
+    public final void testNewMappingCacheDefaultMapping() {
+        thrown.expect(IllegalArgumentException.class);
+        ValueMapping.newMapping("Javascript", "anInput", "anOutput", "", "", "", "yes");
+    }
+
+    @Test
+    public final void testNewMappingFilterFirst() {
+        assertTrue(ValueMapping.newMapping("Javascript", "anInput", "anOutput",
+                "return inputValue === '' ? FILTER : inputValue;", "", "", "", "yes")
+                .isFilterFirst());
+        assertFalse(ValueMapping.newMapping("Javascript", "anInput", "anOutput",
+                "return inputValue === '' ? FILTER : inputValue;", "", "", "", "no")
+                .isFilterFirst());
+        assertNotEquals(
+                ValueMapping.newMapping("Expression", "anInput", "anOutput", "filter()", "", "",
+                        "", "yes"),
+                ValueMapping.newMapping("Expression", "anInput", "anOutput", "filter()", "", "",
+                        "", ""));
+    }
+
+    @Test
+    public final void testNewMappingFilterFirstInvalid() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("FilterFirst for anOutput must be yes or no: first");
+        ValueMapping.newMapping("Expression", "anInput", "anOutput", "filter()", "", "", "",
+                "first");
+    }
+
+    @Test
+    public final void testNewMappingFilterFirstNotFilter() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Cannot run the mapping for anOutput first");
+        ValueMapping.newMapping("Javascript", "anInput", "anOutput", "return inputValue;", "",
+                "", "", "yes");
+    }
+
+    @Test
+    public final void testExtractMappingsFilterFirst() throws Exception {
+        final List<ValueMapping> extractMappings = ValueMapping.extractMappings(new StringReader(
+                "OldField,NewField,Shown,Language,Mapping,FilterFirst\ninputField,outputField,,Expression,filter(),yes\ninputField2,outputField2,,Javascript,\"return inputValue.trim();\",\n"));
+
+        assertEquals(2, extractMappings.size());
+        assertTrue(extractMappings.get(0).isFilterFirst());
+        assertFalse(extractMappings.get(1).isFilterFirst());
+    }
+
+    @Test
+    public final void testMapLineLuaBindingsReused() {
+        final List<ValueMapping> map = Arrays.asList(testDefaultMapping,
+                ValueMapping.newMapping("Lua", "aDifferentInput", "luaField",
+                        "return inputValue .. '-' .. outputField .. '-' .. lineNumber .. '-' .. inputHeaders:size()",
+                        "", ""));
+        // Lua calls methods on the runtime class of the headers, so they must
+        // be a public list type rather than Arrays.asList
+        for (int i = 1; i <= 3; i++) {
+            final List<String> mapLine = ValueMapping.mapLine(
+                    new ArrayList<>(Arrays.asList("anInput", "aDifferentInput")),
+                    Arrays.asList("a" + i, "b" + i),
+                    Collections.emptyList(), Collections.emptyList(), map, testPrimaryKeys,
+                    testValueCounts, i, i, UNEXPECTED_LINE_CONSUMER);
+            assertEquals(Arrays.asList("a" + i, "b" + i + "-luaField-" + i + "-2"), mapLine);
+        }
+        // A change in the input headers must be visible to the script
+        final List<String> mapLine = ValueMapping.mapLine(
+                new ArrayList<>(Arrays.asList("anInput", "aDifferentInput", "extra")),
+                Arrays.asList("a4", "b4", "c4"), Collections.emptyList(),
+                Collections.emptyList(), map, testPrimaryKeys, testValueCounts, 4, 4,
+                UNEXPECTED_LINE_CONSUMER);
+        assertEquals(Arrays.asList("a4", "b4-luaField-4-3"), mapLine);
+    }
+
+    @Test
+    public final void testMapLineScriptGlobalsShared() {
+        final List<ValueMapping> map = Arrays.asList(
+                ValueMapping.newMapping("Javascript", "anInput", "javascriptSet",
+                        "seenJavascript = inputValue; return inputValue;", "", ""),
+                ValueMapping.newMapping("Javascript", "anInput", "javascriptGet",
+                        "return typeof seenJavascript === 'undefined' ? 'none' : seenJavascript;",
+                        "", ""),
+                ValueMapping.newMapping("Groovy", "anInput", "groovySet",
+                        "seenGroovy = inputValue; inputValue", "", ""),
+                ValueMapping.newMapping("Groovy", "anInput", "groovyGet",
+                        "binding.hasVariable('seenGroovy') ? seenGroovy : 'none'", "", ""));
+        try {
+            // An undeclared variable is a global in the engine that is shared
+            // by the mappings for each language on this thread
+            for (int i = 1; i <= 2; i++) {
+                final List<String> mapLine = ValueMapping.mapLine(Arrays.asList("anInput"),
+                        Arrays.asList("a" + i), Collections.emptyList(),
+                        Collections.emptyList(), map, testPrimaryKeys, testValueCounts, i, i,
+                        UNEXPECTED_LINE_CONSUMER);
+                assertEquals(Arrays.asList("a" + i, "a" + i, "a" + i, "a" + i), mapLine);
+            }
+        } finally {
+            ValueMapping.releaseSharedEngines();
+        }
+    }
+
+    @Test
+    public final void testMapLineLuaGlobalsRemoved() {
+        final List<ValueMapping> map = Arrays.asList(
+                ValueMapping.newMapping("Lua", "anInput", "first",
+                        "if x == nil then x = inputValue end return x", "", ""),
+                ValueMapping.newMapping("Lua", "anInput", "second", "return tostring(x)", "",
+                        ""));
+        for (int i = 1; i <= 3; i++) {
+            final List<String> mapLine = ValueMapping.mapLine(
+                    new ArrayList<>(Arrays.asList("anInput")), Arrays.asList("a" + i),
+                    Collections.emptyList(), Collections.emptyList(), map, testPrimaryKeys,
+                    testValueCounts, i, i, UNEXPECTED_LINE_CONSUMER);
+            // The global from the previous line is not visible, and neither
+            // is the global from the other mapping
+            assertEquals(Arrays.asList("a" + i, "nil"), mapLine);
+        }
+    }
+
     @Test
     public final void testMapLineWithPrevious() {
         final List<String> mapLine = ValueMapping.mapLine(
@@ -392,6 +702,38 @@ public class ValueMappingTest {
         assertEquals("ABC-testKey1", results.get(0).get(1));
     }
 
+    @Test
+    public final void testMapLineFilterSentinel() {
+        final List<ValueMapping> map = Arrays.asList(testDefaultMapping,
+                ValueMapping.newMapping("Javascript", "aDifferentInput", "aDifferentField",
+                        "return inputValue === 'skip' ? FILTER : inputValue;", "", ""));
+        final List<String> mapLine = ValueMapping.mapLine(
+                Arrays.asList("anInput", "aDifferentInput"), Arrays.asList("testValue1", "keep"),
+                Collections.emptyList(), Collections.emptyList(), map, testPrimaryKeys,
+                testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+        assertEquals(Arrays.asList("testValue1", "keep"), mapLine);
+
+        thrown.expect(LineFilteredException.class);
+        ValueMapping.mapLine(Arrays.asList("anInput", "aDifferentInput"),
+                Arrays.asList("testValue2", "skip"), Collections.emptyList(),
+                Collections.emptyList(), map, testPrimaryKeys, testValueCounts, 2, 2,
+                UNEXPECTED_LINE_CONSUMER);
+    }
+
+    @Test
+    public final void testLineFilteredExceptionStackless() {
+        final List<ValueMapping> map = Arrays.asList(
+                ValueMapping.newMapping("Expression", "anInput", "anOutput", "filter()", "", ""));
+        try {
+            ValueMapping.mapLine(Arrays.asList("anInput"), Arrays.asList("testValue"),
+                    Collections.emptyList(), Collections.emptyList(), map, testPrimaryKeys,
+                    testValueCounts, 1, 1, UNEXPECTED_LINE_CONSUMER);
+            fail("Did not receive LineFilteredException");
+        } catch (final LineFilteredException e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
     @Test
     public final void testReplaceLineEndings() {
         final List<String> mapLine = ValueMapping.mapLine(Arrays.asList("anInput"),
@@ -485,6 +827,22 @@ public class ValueMappingTest {
         assertEquals("aDifferentField", testJavascriptMapping.getOutputField());
     }
 
+    @Test
+    public final void testCanMapConcurrently() {
+        assertTrue(ValueMapping.canMapConcurrently(
+                Arrays.asList(testDefaultMapping, testDefaultMapping3, testDefaultMapping4)));
+        assertTrue(ValueMapping
+                .canMapConcurrently(Arrays.asList(testDefaultMapping, testJavascriptMapping)));
+        assertFalse(ValueMapping
+                .canMapConcurrently(Arrays.asList(testDefaultMapping, testPreviousMapping)));
+        assertFalse(ValueMapping.canMapConcurrently(
+                Arrays.asList(testDefaultMapping, testJavascriptPrimaryKeyMapping)));
+        assertFalse(ValueMapping.canMapConcurrently(
+                Arrays.asList(testDefaultMapping, testJavascriptMapLineConsumerAndReturn)));
+        assertFalse(ValueMapping.canMapConcurrently(
+                Arrays.asList(testDefaultMapping, testJavascriptFilteredLineNumber)));
+    }
+
     @Test
     public final void testDateFormatter() {
         final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("H[H][:][m][m]");